@@ -1,15 +1,340 @@
 package AVLTree;
 
-public class AVLTree<T extends Comparable<T>> {
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import Instrumentation.TreeStatistics;
+import KeyOrder.KeyOrder;
+import Snapshot.KeyCodec;
+import Snapshot.SnapshotReader;
+import Snapshot.SnapshotWriter;
+import Snapshot.WriteAheadLog;
+
+public class AVLTree<T extends Comparable<T>> implements Iterable<T> {
+
+    // counters shared by every AVL tree, live only with -Dtrees.instrumentation=true
+    private static final TreeStatistics STATISTICS = TreeStatistics.register("AVLTree");
+
+    // nodes a lazy delete sweeps at most while tombstones are over the ratio
+    private static final int SWEEP_STEP = 32;
+
+    // fewest nodes in an AVL tree of each height, as far as an int reaches
+    private static final int[] MIN_NODES = new int[45];
+    static {
+        MIN_NODES[1] = 1;
+        for (int height = 2; height < MIN_NODES.length; height++)
+            MIN_NODES[height] = 1 + MIN_NODES[height - 1] + MIN_NODES[height - 2];
+    }
     
     // root node
     Node<T> root;
 
+    // equal elements share one node and its count
+    private final boolean multiset;
+
+    // how elements are compared, every comparison goes through it
+    private final KeyOrder<T> order;
+
+    // log that every insert and delete is written to, null for none
+    private WriteAheadLog<T> log;
+
+    // last log record contained in the snapshot this tree came from
+    private long logSequence;
+
+    // share of tombstones that triggers compaction steps, 0 while deleting eagerly
+    private double tombstoneRatio;
+
+    // nodes counted down to 0 by a lazy delete and still linked in
+    private int tombstones;
+
+    // node the next compaction step starts at, null for the first node
+    private Node<T> sweep;
+
+    // comparisons and nodes visited by the insert, delete or contains in
+    // progress, only counted while instrumentation is on
+    private int comparisons;
+    private int visited;
+
     /**
      * Simple constructor.
      */
     public AVLTree() {
+        this(false);
+    }
+
+    /**
+     * Creates a tree that is a multiset if asked to. A multiset keeps one node per
+     * distinct element and counts the occurrences in it, so adding or removing a
+     * repeat only changes that count and the sizes above it. Otherwise every
+     * duplicate gets a node of its own.
+     * @param multiset
+     */
+    public AVLTree(boolean multiset) {
+        this(multiset, KeyOrder.<T>natural());
+    }
+
+    /**
+     * Creates a tree ordered by comparator instead of the natural ordering.
+     * @param comparator null for natural ordering
+     */
+    public AVLTree(Comparator<? super T> comparator) {
+        this(false, comparator);
+    }
+
+    /**
+     * Creates a tree ordered by comparator, a multiset if asked to. Elements the
+     * comparator finds equal count as duplicates.
+     * @param multiset
+     * @param comparator null for natural ordering
+     */
+    public AVLTree(boolean multiset, Comparator<? super T> comparator) {
+        this(multiset, KeyOrder.<T>of(comparator));
+    }
+
+    private AVLTree(boolean multiset, KeyOrder<T> order) {
         this.root = null;
+        this.multiset = multiset;
+        this.order = order;
+    }
+
+    /**
+     * Creates a tree ordered by a long extracted from every element, compared
+     * without boxing and without going through a Comparator.
+     * @param multiset
+     * @param key extracts the long to order by
+     * @return an empty tree
+     * @throws IllegalArgumentException when key is null
+     */
+    public static <T extends Comparable<T>> AVLTree<T> byLongKey(boolean multiset, ToLongFunction<? super T> key) 
+        throws IllegalArgumentException
+    {
+        return new AVLTree<T>(multiset, KeyOrder.<T>byLongKey(key));
+    }
+
+    /**
+     * Returns the comparator the tree is ordered by.
+     * @return null for natural ordering
+     */
+    public Comparator<? super T> comparator() {
+        return this.order.comparator();
+    }
+
+    /**
+     * Builds a perfectly balanced tree out of n elements that are already in sorted
+     * order. Linear time: every element is read once, heights and sizes are set as
+     * each subtree is finished, and nothing is compared or rotated.
+     * @param iterator supplies the elements in ascending order
+     * @param n how many elements to take from the iterator
+     * @return a new tree holding the first n elements
+     * @throws IllegalArgumentException when n is negative, the iterator runs out
+     *         early, or it supplies null
+     */
+    public static <T extends Comparable<T>> AVLTree<T> fromSorted(Iterator<? extends T> iterator, int n) 
+        throws IllegalArgumentException
+    {
+        return fromSorted(iterator, n, null);
+    }
+
+    /**
+     * Same as fromSorted(Iterator, int) for elements sorted by comparator, which the
+     * new tree is then ordered by.
+     * @param iterator supplies the elements in ascending order of comparator
+     * @param n how many elements to take from the iterator
+     * @param comparator null for natural ordering
+     * @return a new tree holding the first n elements
+     * @throws IllegalArgumentException
+     */
+    public static <T extends Comparable<T>> AVLTree<T> fromSorted(Iterator<? extends T> iterator, int n, 
+        Comparator<? super T> comparator) throws IllegalArgumentException
+    {
+        if (n < 0)
+            throw new IllegalArgumentException("Can not build a tree of negative size.");
+
+        AVLTree<T> tree = new AVLTree<T>(false, comparator);
+        tree.root = buildSorted(iterator, null, n);
+        return tree;
+    }
+
+    /**
+     * Same as fromSorted(Iterator, int) but reads a presorted stream, so the
+     * elements never have to be collected first.
+     * @param stream supplies the elements in ascending order
+     * @param n how many elements to take from the stream
+     * @return a new tree holding the first n elements
+     * @throws IllegalArgumentException
+     */
+    public static <T extends Comparable<T>> AVLTree<T> fromSorted(Stream<? extends T> stream, int n) 
+        throws IllegalArgumentException
+    {
+        return fromSorted(stream.iterator(), n);
+    }
+
+    /**
+     * Writes the tree to file as a snapshot: whether it is a multiset, the last log
+     * record it holds, how many nodes follow, then every node in order with its key
+     * encoded by codec and, in a multiset, its count. Nodes are streamed straight
+     * out of the tree, and file is only replaced once the whole snapshot has been
+     * written. After that an attached log is emptied.
+     * @param file
+     * @param codec
+     * @throws IOException
+     * @throws IllegalArgumentException when file or codec is null
+     */
+    public void writeSnapshot(Path file, KeyCodec<T> codec) throws IOException, IllegalArgumentException {
+        if (file == null || codec == null)
+            throw new IllegalArgumentException("writeSnapshot() needs a file and a codec.");
+
+        compact();
+        int nodes = 0;
+        if (this.multiset) {
+            for (Node<T> node = first(this.root); node != null; node = successor(node))
+                nodes++;
+        } else {
+            nodes = size();
+        }
+
+        long sequence = (this.log != null) ? this.log.sequence() : this.logSequence;
+
+        try (SnapshotWriter out = new SnapshotWriter(file)) {
+            out.writeByte(this.multiset ? 1 : 0);
+            out.writeVarLong(sequence);
+            out.writeVarLong(nodes);
+
+            T previous = null;
+            for (Node<T> node = first(this.root); node != null; node = successor(node)) {
+                codec.encode(previous, node.getData(), out);
+                if (this.multiset)
+                    out.writeVarLong(node.getCount());
+                previous = node.getData();
+            }
+
+            out.commit();
+        }
+
+        this.logSequence = sequence;
+        if (this.log != null)
+            this.log.checkpoint(sequence);
+    }
+
+    /**
+     * Loads a tree written by writeSnapshot(). The keys are decoded one at a time
+     * and fed to the same linear builder as fromSorted(), so nothing is compared
+     * and the snapshot is never held in memory as a whole.
+     * @param file
+     * @param codec the codec the snapshot was written with
+     * @return
+     * @throws IOException when the file can not be read or is not a snapshot
+     * @throws IllegalArgumentException when file or codec is null
+     */
+    public static <T extends Comparable<T>> AVLTree<T> readSnapshot(Path file, KeyCodec<T> codec) 
+        throws IOException, IllegalArgumentException
+    {
+        return readSnapshot(file, codec, null);
+    }
+
+    /**
+     * Loads a snapshot written by a tree ordered by comparator.
+     * @param file
+     * @param codec the codec the snapshot was written with
+     * @param comparator the comparator of the tree that wrote it, null for natural
+     *        ordering
+     * @return
+     * @throws IOException when the file can not be read or is not a snapshot
+     * @throws IllegalArgumentException when file or codec is null
+     */
+    public static <T extends Comparable<T>> AVLTree<T> readSnapshot(Path file, KeyCodec<T> codec, 
+        Comparator<? super T> comparator) throws IOException, IllegalArgumentException
+    {
+        if (file == null || codec == null)
+            throw new IllegalArgumentException("readSnapshot() needs a file and a codec.");
+
+        try (SnapshotReader in = new SnapshotReader(file)) {
+            boolean multiset = (in.readByte() != 0);
+            long sequence = in.readVarLong();
+            int n = in.readLength();
+            SnapshotReader.KeyIterator<T> keys = in.keys(codec, n, multiset);
+
+            AVLTree<T> tree = new AVLTree<T>(multiset, comparator);
+            tree.root = buildSorted(keys, multiset ? keys::count : null, n);
+            tree.logSequence = sequence;
+            return tree;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Replays the records in log that came after the snapshot this tree was read
+     * from, then writes every later insert() and delete() to it. After a crash
+     * readSnapshot() and attachLog() bring the tree back, and writeSnapshot()
+     * empties the log again. Bulk changes such as clear() are not logged, write a
+     * snapshot after them.
+     * @param log
+     * @throws IOException when the log can not be replayed
+     * @throws IllegalArgumentException when log is null
+     */
+    public void attachLog(WriteAheadLog<T> log) throws IOException, IllegalArgumentException {
+        if (log == null)
+            throw new IllegalArgumentException("Can not attach a null log.");
+
+        this.log = null;
+        log.replay(this.logSequence, this::insert, this::delete);
+        this.log = log;
+    }
+
+    /**
+     * Internal helper for fromSorted(). Builds the left half, takes the middle
+     * element as the subtree root, then builds the right half. Recursion depth is
+     * the height of the result, so O(log n).
+     * @param iterator
+     * @param counts supplies the count of each element right after it is read,
+     *        null when every element occurs once
+     * @param n
+     * @return the root of the new subtree, or null if n is 0
+     */
+    private static <T extends Comparable<T>> Node<T> buildSorted(Iterator<? extends T> iterator, 
+        IntSupplier counts, int n)
+    {
+        if (n == 0)
+            return null;
+
+        int leftSize = (n - 1) / 2;
+        Node<T> left = buildSorted(iterator, counts, leftSize);
+
+        if (!iterator.hasNext())
+            throw new IllegalArgumentException("Iterator ran out before n elements were read.");
+
+        T data = iterator.next();
+        if (data == null)
+            throw new IllegalArgumentException("Can not insert null into a tree.");
+
+        Node<T> node = new Node<T>(data);
+        if (counts != null)
+            node.setCount(counts.getAsInt());
+        Node<T> right = buildSorted(iterator, counts, n - 1 - leftSize);
+
+        node.setLeft(left);
+        node.setRight(right);
+        if (left != null)
+            left.setParent(node);
+        if (right != null)
+            right.setParent(node);
+
+        node.updateHeight();
+        node.updateSize();
+        return node;
     }
 
     /**
@@ -20,7 +345,21 @@ public class AVLTree<T extends Comparable<T>> {
     public void insert(T data) throws IllegalArgumentException {
         if (data == null)
             throw new IllegalArgumentException("Can not insert null into a tree.");
-        
+
+        if (this.log != null)
+            this.log.logInsert(data);
+
+        if (!TreeStatistics.ENABLED) {
+            insertData(data);
+            return;
+        }
+
+        long start = begin();
+        insertData(data);
+        record(TreeStatistics.Operation.INSERT, start);
+    }
+
+    private void insertData(T data) {
         if (this.root == null) { // set insert node to root if null
             this.root = new Node<T>(data);
             return;
@@ -28,114 +367,521 @@ public class AVLTree<T extends Comparable<T>> {
 
         Node<T> insertNode = new Node<T>(data);
 
-        // otherwise look for the spot and insert
+        // otherwise look for the spot and insert, heights are fixed
+        // up by insertHelper() on the way back up
         insertHelper(insertNode, this.root);
-        ensureBalance(this.root);
     }
 
     /**
      * The insert algorithm assumes that this tree is non-balanced. It will find the
      * empty spot where it belongs (if it is not a duplicate) and insert. If it is a
-     * duplicate, it will insert just below the node its duplicating
+     * duplicate, it will insert just below the node its duplicating. Walks down in a
+     * loop, then back up the parent links rebalancing every node on the way, which
+     * only reads the cached heights of its children.
      * 
      * @param insertNode
      * @param search
      */
     public void insertHelper(Node<T> insertNode, Node<T> search) {
-        int comparison = insertNode.getData().compareTo(search.getData());
+        while (true) {
+            int comparison = this.order.compare(insertNode.getData(), search.getData());
+            if (TreeStatistics.ENABLED) {
+                this.comparisons++;
+                this.visited++;
+            }
 
-        // case 2: insert nodes data is less than current nodes data
-        //         and left child is empty, insert
-        if (comparison < 0 
-            && search.getLeft() == null) 
-        {
-            search.setLeft(insertNode);
-            insertNode.setParent(search);
-            return;
-        } 
+            // case 2: insert nodes data is less than current nodes data
+            //         and left child is empty, insert
+            if (comparison < 0 
+                && search.getLeft() == null) 
+            {
+                search.setLeft(insertNode);
+                break;
+            } 
 
-        // case 2.1: insert nodes data is less than current nodes data
-        //           and left child is not empty, search left
-        if (comparison < 0
-            && search.getLeft() != null) 
-        {
-            insertHelper(insertNode, search.getLeft());
-            ensureBalance(search.getLeft());
-            return;
-        }
+            // case 2.1: insert nodes data is less than current nodes data
+            //           and left child is not empty, search left
+            if (comparison < 0) 
+            {
+                search = search.getLeft();
+                continue;
+            }
 
-        // case 3: insert nodes data is greater than current nodes data
-        //         and new spot is empty, insert
-        if (comparison > 0
-            && search.getRight() == null)
-        {
-            search.setRight(insertNode);
-            insertNode.setParent(search);
-            return;
-        }
+            // case 3: insert nodes data is greater than current nodes data
+            //         and new spot is empty, insert
+            if (comparison > 0
+                && search.getRight() == null)
+            {
+                search.setRight(insertNode);
+                break;
+            }
 
-        // case 3.1: insert nodes data is greater than current ndoes data
-        //           and right child is not empty, search right
-        if (comparison > 0
-            && search.getRight() != null)
-        {
-            insertHelper(insertNode, search.getRight());
-            ensureBalance(search.getRight());
-            return;
-        }
+            // case 3.1: insert nodes data is greater than current ndoes data
+            //           and right child is not empty, search right
+            if (comparison > 0)
+            {
+                search = search.getRight();
+                continue;
+            }
 
-        // case 4: insert nodes data is equal to the current nodes data
-        //         determine we can insert in an empty spot or 
-        //         if we need to do the surgery
-        if (comparison == 0)
-        {
-            // if left is null, insert
+            // case 4: insert nodes data is equal to the current nodes data
+            //         in a multiset just count it, the shape does not change,
+            //         a tombstone is brought back the same way
+            if (this.multiset || search.getCount() == 0) {
+                if (search.getCount() == 0 && --this.tombstones == 0)
+                    this.sweep = null;
+                search.setCount(search.getCount() + 1);
+                for (; search != null; search = search.getParent()) {
+                    search.updateSize();
+                    if (TreeStatistics.ENABLED)
+                        this.visited++;
+                }
+                return;
+            }
+
+            // case 4.1: not a multiset, if left is null, insert
             if (search.getLeft() == null)
             {
                 search.setLeft(insertNode);
-                insertNode.setParent(search);
-                return;
+                break;
             } 
 
             // IMPLEMENTATION NOTE: just insert, do not look for recurrences
-            // left is not null, do the surgery
-            Node<T> liminalNode = search.getLeft();
-            search.setLeft(insertNode);
-            insertNode.setParent(search);
-            insertNode.setLeft(liminalNode);
-            liminalNode.setParent(liminalNode);
-            return;
+            // left is not null, so instead of splicing the insert node in
+            // above the left subtree (which can leave it unbalanced by more
+            // than one rotation can fix) hang it off the rightmost node of
+            // the left subtree, the same in-order spot just below search
+            search = search.getLeft();
+            while (search.getRight() != null) {
+                search = search.getRight();
+                if (TreeStatistics.ENABLED)
+                    this.visited++;
+            }
+
+            search.setRight(insertNode);
+            break;
+        }
+
+        insertNode.setParent(search);
+
+        // walk back up to the root, grabbing each parent before
+        // ensureBalance() can rotate the current node down
+        while (search != null) {
+            Node<T> parent = search.getParent();
+            ensureBalance(search);
+            search = parent;
+            if (TreeStatistics.ENABLED)
+                this.visited++;
         }
     }
 
-    public void delete() {
+    /**
+     * Removes one occurrence of the supplied data from the tree.
+     * @param data
+     * @return true if the data was found and removed
+     *         false if the tree did not contain the data
+     * @throws IllegalArgumentException
+     */
+    public boolean delete(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not delete null from a tree.");
+
+        if (this.log != null)
+            this.log.logDelete(data);
+
+        if (!TreeStatistics.ENABLED)
+            return deleteData(data);
+
+        long start = begin();
+        boolean deleted = deleteData(data);
+        record(TreeStatistics.Operation.DELETE, start);
+        return deleted;
+    }
+
+    private boolean deleteData(T data) {
+        if (this.tombstoneRatio > 0)
+            return markDeleted(data);
+
+        Node<T> search = this.root;
+        while (search != null) {
+            int comparison = this.order.compare(data, search.getData());
+            if (TreeStatistics.ENABLED) {
+                this.comparisons++;
+                this.visited++;
+            }
+
+            // one of several occurrences is just counted down
+            if (comparison == 0 && search.getCount() > 1) {
+                search.setCount(search.getCount() - 1);
+                for (; search != null; search = search.getParent()) {
+                    search.updateSize();
+                    if (TreeStatistics.ENABLED)
+                        this.visited++;
+                }
+                return true;
+            }
+
+            if (comparison == 0) {
+                deleteHelper(search);
+                return true;
+            }
 
+            search = (comparison < 0) ? search.getLeft() : search.getRight();
+        }
+
+        return false;
     }
 
+    /**
+     * Unlinks the supplied node from the tree and rebalances every ancestor of the
+     * removed position. A node with two children takes the data of its in-order
+     * successor, and the successor is unlinked instead.
+     * @param deletionNode
+     */
     public void deleteHelper(Node<T> deletionNode) {
+        if (deletionNode.getLeft() != null && deletionNode.getRight() != null) {
+            Node<T> successor = deletionNode.getRight();
+            while (successor.getLeft() != null) {
+                successor = successor.getLeft();
+                if (TreeStatistics.ENABLED)
+                    this.visited++;
+            }
+
+            deletionNode.setData(successor.getData());
+            deletionNode.setCount(successor.getCount());
+            deletionNode = successor;
+        }
+
+        // deletion node has at most one child now, splice it out
+        Node<T> child = (deletionNode.getLeft() != null) ? deletionNode.getLeft() : deletionNode.getRight();
+        Node<T> parent = deletionNode.getParent();
+
+        if (child != null)
+            child.setParent(parent);
+
+        if (parent == null)
+            this.root = child;
+        else if (parent.getLeft() == deletionNode)
+            parent.setLeft(child);
+        else
+            parent.setRight(child);
+
+        // walk back up, the old parent is grabbed before ensureBalance()
+        // can rotate the current node underneath its own child
+        while (parent != null) {
+            Node<T> grandparent = parent.getParent();
+            ensureBalance(parent);
+            parent = grandparent;
+            if (TreeStatistics.ENABLED)
+                this.visited++;
+        }
+    }
+
+    /**
+     * Switches delete() to lazy deletion while ratio is above 0. A lazy delete only
+     * counts its node down, to a tombstone once the count reaches 0, and refreshes
+     * the sizes above it, so it costs one descent and a walk up with no rotations.
+     * Lookups, iteration and the order statistics skip tombstones. Once they make up
+     * more than ratio of the nodes, a multiset's repeats sharing one node, every
+     * lazy delete also takes a compaction step over a bounded number of nodes.
+     * Switching back to 0 compacts right away.
+     * @param ratio within [0, 1)
+     * @throws IllegalArgumentException when ratio is outside [0, 1)
+     */
+    public void setLazyDelete(double ratio) throws IllegalArgumentException {
+        if (!(ratio >= 0 && ratio < 1))
+            throw new IllegalArgumentException("Tombstone ratio must be within [0, 1).");
+
+        this.tombstoneRatio = ratio;
+        if (ratio == 0)
+            compact();
+    }
+
+    /**
+     * Lazy delete, counts down the first node holding data on the way down. Should
+     * that be a tombstone, the first live occurrence is found by rank instead.
+     * @param data
+     * @return true if the data was found and marked
+     */
+    private boolean markDeleted(T data) {
+        Node<T> node = this.root;
+        while (node != null) {
+            int comparison = this.order.compare(data, node.getData());
+            if (TreeStatistics.ENABLED) {
+                this.comparisons++;
+                this.visited++;
+            }
 
+            if (comparison == 0)
+                break;
+
+            node = (comparison < 0) ? node.getLeft() : node.getRight();
+        }
+
+        if (node == null)
+            return false;
+
+        if (node.getCount() == 0) {
+            int rank = countBelow(data, false);
+            if (rank == size())
+                return false;
+
+            node = selectNode(rank);
+            if (TreeStatistics.ENABLED)
+                this.comparisons++;
+            if (this.order.compare(node.getData(), data) != 0)
+                return false;
+        }
+
+        node.setCount(node.getCount() - 1);
+        if (node.getCount() == 0)
+            this.tombstones++;
+        for (; node != null; node = node.getParent())
+            node.updateSize();
+
+        if (this.tombstones > this.tombstoneRatio * Node.nodesOf(this.root))
+            compact(SWEEP_STEP);
+        return true;
+    }
+
+    /**
+     * Compaction step, walks on in order from where the last step stopped, wrapping
+     * around at the end, over about maxNodes nodes. The biggest subtree of at most
+     * maxNodes nodes around the walk is rebuilt without its tombstones in linear
+     * time, in the same height so nothing above it rotates. Only a tombstone with
+     * more than maxNodes nodes below it is unlinked with deleteHelper(), and those
+     * are few.
+     * @param maxNodes
+     * @return the number of tombstones left
+     * @throws IllegalArgumentException when maxNodes is below 1
+     */
+    public int compact(int maxNodes) throws IllegalArgumentException {
+        if (maxNodes < 1)
+            throw new IllegalArgumentException("A compaction step needs at least one node.");
+
+        Node<T> node = this.sweep;
+        int budget = maxNodes;
+        while (budget > 0 && this.tombstones > 0) {
+            if (node == null)
+                node = first(this.root);
+
+            if (node.getNodes() <= maxNodes) {
+                Node<T> subtree = node;
+                while (subtree.getParent() != null && subtree.getParent().getNodes() <= maxNodes)
+                    subtree = subtree.getParent();
+
+                budget -= subtree.getNodes();
+                node = rebuild(subtree);
+                continue;
+            }
+
+            budget--;
+            if (node.getCount() > 0) {
+                node = successor(node);
+                continue;
+            }
+
+            // with two children the successor moves into node and is unlinked
+            // instead, so node is where the walk goes on
+            Node<T> next = (node.getLeft() != null && node.getRight() != null) ? node : successor(node);
+            deleteHelper(node);
+            this.tombstones--;
+            node = next;
+        }
+
+        this.sweep = (this.tombstones > 0) ? node : null;
+        return this.tombstones;
+    }
+
+    /**
+     * Rebuilds the tree perfectly balanced out of the nodes that are not tombstones,
+     * linking them up again in place. Linear time, and nothing is compared or
+     * rotated. Called when lazy deletion is switched off and before writing a
+     * snapshot.
+     */
+    public void compact() {
+        this.sweep = null;
+        if (this.tombstones > 0)
+            rebuild(this.root);
+    }
+
+    /**
+     * Links the nodes of subtree that are not tombstones up again in place. Below a
+     * parent they keep the height of subtree, or come out one level lower if there
+     * are too few of them, which the walk back up rebalances like a delete would.
+     * Should there be too few even for that, just enough tombstones stay in to fill
+     * the lower height. The root's subtree is simply rebuilt perfectly balanced.
+     * @param subtree
+     * @return the node following the rebuilt subtree, null if there is none
+     */
+    private Node<T> rebuild(Node<T> subtree) {
+        List<Node<T>> nodes = new ArrayList<Node<T>>(subtree.getNodes());
+        Node<T> next = successor(last(subtree));
+        int live = 0;
+        for (Node<T> node = first(subtree); node != next; node = successor(node)) {
+            nodes.add(node);
+            if (node.getCount() > 0)
+                live++;
+        }
+
+        Node<T> parent = subtree.getParent();
+        boolean right = subtree.isRightChild();
+        int height = subtree.getHeight();
+        if (live < minNodes(height))
+            height--;
+
+        int linked = nodes.size();
+        List<Node<T>> kept = keep(nodes, (parent == null) ? 0 : minNodes(height) - live);
+        this.tombstones -= linked - kept.size();
+
+        if (parent == null) {
+            this.root = linkSorted(kept, 0, kept.size());
+            if (this.root != null)
+                this.root.setParent(null);
+            return next;
+        }
+
+        Node<T> rebuilt = linkHeight(kept, 0, kept.size(), height);
+        if (rebuilt != null)
+            rebuilt.setParent(parent);
+        if (right)
+            parent.setRight(rebuilt);
+        else
+            parent.setLeft(rebuilt);
+
+        // grab each parent before ensureBalance() can rotate the current node down
+        while (parent != null) {
+            Node<T> grandparent = parent.getParent();
+            ensureBalance(parent);
+            parent = grandparent;
+        }
+        return next;
+    }
+
+    /**
+     * Internal helper for rebuild(), drops the tombstones from nodes but for the
+     * first few.
+     * @param nodes in order, filtered in place
+     * @param tombstones how many tombstones to keep, none if 0 or less
+     * @return nodes
+     */
+    private static <T extends Comparable<T>> List<Node<T>> keep(List<Node<T>> nodes, int tombstones) {
+        int kept = 0;
+        for (Node<T> node : nodes)
+            if (node.getCount() > 0 || tombstones-- > 0)
+                nodes.set(kept++, node);
+
+        nodes.subList(kept, nodes.size()).clear();
+        return nodes;
+    }
+
+    /**
+     * Fewest nodes an AVL tree of the given height can hold.
+     * @param height
+     * @return 0 for a height of 0 or less
+     */
+    private static int minNodes(int height) {
+        return (height <= 0) ? 0 : MIN_NODES[height];
+    }
+
+    /**
+     * Internal helper for compact(), links nodes[from, to) the way buildSorted()
+     * would have built them.
+     * @param nodes in order
+     * @param from
+     * @param to
+     * @return the root of the subtree, or null if the range is empty
+     */
+    private static <T extends Comparable<T>> Node<T> linkSorted(List<Node<T>> nodes, int from, int to) {
+        if (from == to)
+            return null;
+
+        int middle = from + (to - from - 1) / 2;
+        Node<T> node = nodes.get(middle);
+        return link(node, linkSorted(nodes, from, middle), linkSorted(nodes, middle + 1, to));
     }
 
     /**
-     * Ensures the tree is balanced. Called as recusion is undone in insertHelper() and insert().
+     * Internal helper for rebuild(), links nodes[from, to) into a subtree of exactly
+     * the given height. Both sides get height - 1 while there are enough nodes for
+     * that, otherwise the right one is a level lower.
+     * @param nodes in order, between minNodes(height) and 2^height - 1 of them
+     * @param from
+     * @param to
+     * @param height
+     * @return the root of the subtree, or null if the range is empty
+     */
+    private static <T extends Comparable<T>> Node<T> linkHeight(List<Node<T>> nodes, int from, int to,
+        int height)
+    {
+        if (from == to)
+            return null;
+
+        int rest = to - from - 1, left;
+        int rightHeight = height - 1;
+        if (rest >= 2 * minNodes(height - 1)) {
+            left = rest - rest / 2;
+        } else {
+            rightHeight = height - 2;
+            left = Math.min((1 << (height - 1)) - 1, rest - minNodes(height - 2));
+        }
+
+        Node<T> node = nodes.get(from + left);
+        return link(node, linkHeight(nodes, from, from + left, height - 1),
+            linkHeight(nodes, from + left + 1, to, rightHeight));
+    }
+
+    /**
+     * Hangs left and right below node and refreshes its cached height and size.
+     * @param node
+     * @param left may be null
+     * @param right may be null
+     * @return node
+     */
+    private static <T extends Comparable<T>> Node<T> link(Node<T> node, Node<T> left, Node<T> right) {
+        node.setLeft(left);
+        node.setRight(right);
+        if (left != null)
+            left.setParent(node);
+        if (right != null)
+            right.setParent(node);
+
+        node.updateHeight();
+        node.updateSize();
+        return node;
+    }
+
+    /**
+     * Ensures the subtree rooted at node is balanced, assuming both of its children
+     * already are. Refreshes the cached height and size of node first, so the whole
+     * check is O(1). Called while walking back up in insertHelper() and
+     * deleteHelper().
      * @param node
      */
     public void ensureBalance(Node<T> node) {
-        int leftHeight = height(node.getLeft());
-        int rightHeight = height(node.getRight());
-        int balanceFactor = leftHeight - rightHeight;
+        node.updateHeight();
+        node.updateSize();
+        int balanceFactor = node.getBalanceFactor();
 
         // if balance factor is greater than 2, subtree is weighted left
-        // rotate right
+        // rotate right, after straightening out a left-right zig-zag
         if (balanceFactor >= 2)
         {
+            Node<T> left = node.getLeft();
+            if (left.getBalanceFactor() < 0)
+                rotate(left.getRight(), left);
+
             rotate(node.getLeft(), node);
         }
 
         // if balance factor is less than -2, subtree is weighted right
-        // rotate left
+        // rotate left, after straightening out a right-left zig-zag
         else if (balanceFactor <= -2)
         {
+            Node<T> right = node.getRight();
+            if (right.getBalanceFactor() > 0)
+                rotate(right.getLeft(), right);
+
             rotate(node.getRight(), node);
         }
 
@@ -143,7 +889,7 @@ public class AVLTree<T extends Comparable<T>> {
     }
 
     /**
-     * Returns the height of the tree.
+     * Returns the height of the tree. O(1), read from the root.
      */
     public int height() {
         if (this.root == null)
@@ -153,40 +899,577 @@ public class AVLTree<T extends Comparable<T>> {
     }
 
     /**
-     * Internal helper method for self balancing.
+     * Returns the cached height of the subtree rooted at search.
      * @param search
      */
     public int height(Node<T> search) {
         if (search == null)
             return 0;
 
-        int leftHeight = 1 + height(search.getLeft());
-        int rightHeight = 1 + height(search.getRight());
+        return search.getHeight();
+    }
+
+    /**
+     * Searches the tree for the specified data and returns true if it is found.
+     * Follows the ordering down a single path, so it is O(log n) on a balanced tree.
+     * 
+     * @param data
+     * @return true if tree contains the data
+     *         false if the tree does not contain the data
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean contains(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not search a tree for null.");
+
+        long start = TreeStatistics.ENABLED ? begin() : 0L;
+        boolean found = false;
+
+        Node<T> search = this.root;
+        while (search != null) {
+            int comparison = this.order.compare(data, search.getData());
+            if (TreeStatistics.ENABLED) {
+                this.comparisons++;
+                this.visited++;
+            }
+
+            if (comparison == 0) {
+                // a tombstone may still have live duplicates around it
+                found = search.getCount() > 0 || countBelow(data, true) > countBelow(data, false);
+                break;
+            }
+
+            search = (comparison < 0) ? search.getLeft() : search.getRight();
+        }
+
+        if (TreeStatistics.ENABLED)
+            record(TreeStatistics.Operation.CONTAINS, start);
+        return found;
+    }
+
+    /**
+     * Clears the tallies left by calls that are not recorded, such as rank queries
+     * walking countBelow(), before an insert, delete or contains starts counting.
+     * @return System.nanoTime()
+     */
+    private long begin() {
+        this.comparisons = 0;
+        this.visited = 0;
+        return System.nanoTime();
+    }
+
+    /**
+     * Hands the tallies of the insert, delete or contains that started at start to
+     * STATISTICS.
+     * @param operation
+     * @param start System.nanoTime() when it started
+     */
+    private void record(TreeStatistics.Operation operation, long start) {
+        STATISTICS.record(operation, System.nanoTime() - start, this.comparisons, this.visited);
+        this.comparisons = 0;
+        this.visited = 0;
+    }
+
+    /**
+     * Returns the greatest element less than or equal to data.
+     * @param data
+     * @return the floor of data, or null if every element is greater
+     * @throws IllegalArgumentException when data is null
+     */
+    public T floor(T data) throws IllegalArgumentException {
+        return navigate(data, true, true);
+    }
+
+    /**
+     * Returns the least element greater than or equal to data.
+     * @param data
+     * @return the ceiling of data, or null if every element is less
+     * @throws IllegalArgumentException when data is null
+     */
+    public T ceiling(T data) throws IllegalArgumentException {
+        return navigate(data, false, true);
+    }
+
+    /**
+     * Returns the greatest element strictly less than data.
+     * @param data
+     * @return the element just below data, or null if there is none
+     * @throws IllegalArgumentException when data is null
+     */
+    public T lower(T data) throws IllegalArgumentException {
+        return navigate(data, true, false);
+    }
+
+    /**
+     * Returns the least element strictly greater than data.
+     * @param data
+     * @return the element just above data, or null if there is none
+     * @throws IllegalArgumentException when data is null
+     */
+    public T higher(T data) throws IllegalArgumentException {
+        return navigate(data, false, false);
+    }
+
+    /**
+     * Shared descent for floor(), ceiling(), lower() and higher(). Remembers the
+     * last node that was on the wanted side of data and keeps looking for a closer
+     * one below it. With tombstones around the answer is picked by rank instead,
+     * which only ever counts live elements.
+     * @param data
+     * @param below true to look for elements under data, false for above
+     * @param inclusive whether an element equal to data is an answer
+     * @return the closest element on the wanted side, or null
+     */
+    private T navigate(T data, boolean below, boolean inclusive) {
+        if (data == null)
+            throw new IllegalArgumentException("Can not navigate from null.");
+
+        if (this.tombstones > 0) {
+            int rank = countBelow(data, below == inclusive) - (below ? 1 : 0);
+            return (rank < 0 || rank >= size()) ? null : selectNode(rank).getData();
+        }
+
+        Node<T> search = this.root, candidate = null;
+        while (search != null) {
+            int comparison = this.order.compare(search.getData(), data);
+
+            if (comparison == 0 && inclusive)
+                return search.getData();
 
-        return Math.max(leftHeight, rightHeight);
+            if (below && comparison < 0) {
+                candidate = search;
+                search = search.getRight();
+            } else if (below) {
+                search = search.getLeft();
+            } else if (comparison > 0) {
+                candidate = search;
+                search = search.getLeft();
+            } else {
+                search = search.getRight();
+            }
+        }
+
+        return (candidate == null) ? null : candidate.getData();
     }
 
     /**
-     * Returns how many nodes are in the tree.
+     * Returns how many nodes are in the tree. O(1), read from the root.
      * @return
      */
     public int size() {
-        if (this.root == null)
-            return 0;
-            
-        return sizeHelper(this.root);
+        return Node.sizeOf(this.root);
     }
 
     /**
-     * Internal helper method for size().
+     * Returns the cached size of the subtree rooted at search.
      * @param search
      * @return
      */
     public int sizeHelper(Node<T> search) {
-        if (search == null)
+        return Node.sizeOf(search);
+    }
+
+    /**
+     * Returns the k-th smallest element, counting from 0.
+     * @param k
+     * @return the element that has exactly k elements before it in order
+     * @throws IllegalArgumentException when k is outside [0, size())
+     */
+    public T select(int k) throws IllegalArgumentException {
+        if (k < 0 || k >= size())
+            throw new IllegalArgumentException("select() index must be within [0, size()).");
+
+        return selectNode(k).getData();
+    }
+
+    /**
+     * Finds the node holding the kth smallest element using the cached subtree sizes.
+     * A node holding several occurrences covers that many ranks.
+     * @param k must be within [0, size())
+     * @return
+     */
+    private Node<T> selectNode(int k) {
+        Node<T> search = this.root;
+        while (true) {
+            int leftSize = Node.sizeOf(search.getLeft());
+
+            if (k < leftSize) {
+                search = search.getLeft();
+            } else if (k < leftSize + search.getCount()) {
+                return search;
+            } else {
+                k -= leftSize + search.getCount();
+                search = search.getRight();
+            }
+        }
+    }
+
+    /**
+     * Rank of the first occurrence held by node, found by walking up the parent links.
+     * @param node
+     * @return how many elements come before node
+     */
+    private static <T extends Comparable<T>> int rankOf(Node<T> node) {
+        int rank = Node.sizeOf(node.getLeft());
+        for (; node.getParent() != null; node = node.getParent())
+            if (node.getParent().getRight() == node)
+                rank += Node.sizeOf(node.getParent().getLeft()) + node.getParent().getCount();
+
+        return rank;
+    }
+
+    /**
+     * In-order successor using the parent links.
+     * @param node
+     * @return the next node, or null if node was the last
+     */
+    private static <T extends Comparable<T>> Node<T> successor(Node<T> node) {
+        if (node.getRight() != null) {
+            node = node.getRight();
+            while (node.getLeft() != null)
+                node = node.getLeft();
+            return node;
+        }
+
+        while (node.getParent() != null && node.getParent().getRight() == node)
+            node = node.getParent();
+
+        return node.getParent();
+    }
+
+    /**
+     * Closest node in the given direction, node itself included, that is not a
+     * tombstone.
+     * @param node
+     * @param descending
+     * @return null if there is none
+     */
+    private static <T extends Comparable<T>> Node<T> live(Node<T> node, boolean descending) {
+        while (node != null && node.getCount() == 0)
+            node = descending ? predecessor(node) : successor(node);
+
+        return node;
+    }
+
+    /**
+     * In-order predecessor using the parent links.
+     * @param node
+     * @return the previous node, or null if node was the first
+     */
+    private static <T extends Comparable<T>> Node<T> predecessor(Node<T> node) {
+        if (node.getLeft() != null) {
+            node = node.getLeft();
+            while (node.getRight() != null)
+                node = node.getRight();
+            return node;
+        }
+
+        while (node.getParent() != null && node.getParent().getLeft() == node)
+            node = node.getParent();
+
+        return node.getParent();
+    }
+
+    /**
+     * Returns an iterator over the elements in ascending order. It holds a single
+     * node and steps to the successor with the parent links, so it needs no stack
+     * and reads nothing ahead. The tree must not be changed while it is in use.
+     * @return
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new TreeIterator(first(this.root), null, false);
+    }
+
+    /**
+     * Same as iterator() but walks the elements in descending order.
+     * @return
+     */
+    public Iterator<T> descendingIterator() {
+        return new TreeIterator(last(this.root), null, true);
+    }
+
+    /**
+     * Returns an iterator over the elements in [lo, hi] in ascending order. Finding
+     * lo is one O(log n) descent, each further element is one successor step, so
+     * reading the first k elements costs O(log n + k) whatever the size of the range.
+     * @param lo
+     * @param hi
+     * @return
+     * @throws IllegalArgumentException when lo or hi is null
+     */
+    public Iterator<T> range(T lo, T hi) throws IllegalArgumentException {
+        if (lo == null || hi == null)
+            throw new IllegalArgumentException("range() bounds can not be null.");
+
+        return new TreeIterator(firstAtLeast(lo), hi, false);
+    }
+
+    /**
+     * Finds the leftmost node whose data is not less than data. Unlike ceiling()
+     * it does not stop at the first equal node, so no duplicate is skipped.
+     * @param data
+     * @return the node, or null if every element is less
+     */
+    private Node<T> firstAtLeast(T data) {
+        Node<T> search = this.root, candidate = null;
+        while (search != null) {
+            if (this.order.compare(search.getData(), data) >= 0) {
+                candidate = search;
+                search = search.getLeft();
+            } else {
+                search = search.getRight();
+            }
+        }
+
+        return candidate;
+    }
+
+    /**
+     * Rightmost node of a subtree.
+     * @param node
+     * @return null if node is null
+     */
+    private static <T extends Comparable<T>> Node<T> last(Node<T> node) {
+        if (node != null)
+            while (node.getRight() != null)
+                node = node.getRight();
+
+        return node;
+    }
+
+    /**
+     * Iterator that steps from node to node with the parent links, stopping at the
+     * end of the tree or after the last element not greater than hi.
+     */
+    private final class TreeIterator implements Iterator<T> {
+        private Node<T> next;
+        // occurrences of next still to be returned
+        private int remaining;
+        // inclusive upper bound, null for none
+        private final T hi;
+        private final boolean descending;
+
+        TreeIterator(Node<T> next, T hi, boolean descending) {
+            next = live(next, descending);
+            this.next = next;
+            this.remaining = (next == null) ? 0 : next.getCount();
+            this.hi = hi;
+            this.descending = descending;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null && (this.hi == null || order.compare(this.next.getData(), this.hi) <= 0);
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            T data = this.next.getData();
+            if (--this.remaining == 0) {
+                this.next = live(this.descending ? predecessor(this.next) : successor(this.next), this.descending);
+                this.remaining = (this.next == null) ? 0 : this.next.getCount();
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Returns a spliterator over the elements in ascending order. It reports its
+     * exact size, and splits by rank: the cached subtree sizes find the middle
+     * element in O(log n), so both halves are always even. Duplicates are kept, so
+     * it is not DISTINCT. The tree must not be changed while it is in use.
+     * @return
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new TreeSpliterator(first(this.root), 0, 0, size());
+    }
+
+    /**
+     * Returns a sequential stream over the elements in ascending order.
+     * @return
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream over the elements. Work is split by subtree ranks,
+     * so it fans out evenly across the common ForkJoinPool.
+     * @return
+     */
+    public Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Leftmost node of a subtree.
+     * @param node
+     * @return null if node is null
+     */
+    private static <T extends Comparable<T>> Node<T> first(Node<T> node) {
+        if (node != null)
+            while (node.getLeft() != null)
+                node = node.getLeft();
+
+        return node;
+    }
+
+    /**
+     * Spliterator over the elements whose ranks are in [index, fence). Steps from
+     * node to node with the parent links and splits at the middle rank.
+     */
+    private final class TreeSpliterator implements Spliterator<T> {
+        // node holding rank index, only meaningful while index < fence
+        private Node<T> next;
+        // occurrences of next that come before rank index
+        private int offset;
+        private int index;
+        private final int fence;
+
+        TreeSpliterator(Node<T> next, int offset, int index, int fence) {
+            this.next = live(next, false);
+            this.offset = offset;
+            this.index = index;
+            this.fence = fence;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (this.index >= this.fence)
+                return false;
+
+            T data = this.next.getData();
+            if (++this.offset == this.next.getCount()) {
+                this.next = live(successor(this.next), false);
+                this.offset = 0;
+            }
+            this.index++;
+            action.accept(data);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            Node<T> node = this.next;
+            int offset = this.offset;
+            for (int i = this.index; i < this.fence; i++) {
+                action.accept(node.getData());
+                if (++offset == node.getCount()) {
+                    node = live(successor(node), false);
+                    offset = 0;
+                }
+            }
+
+            this.next = node;
+            this.offset = offset;
+            this.index = this.fence;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (this.fence - this.index < 2)
+                return null;
+
+            int middle = (this.index + this.fence) >>> 1;
+            TreeSpliterator prefix = new TreeSpliterator(this.next, this.offset, this.index, middle);
+            this.next = selectNode(middle);
+            this.offset = middle - rankOf(this.next);
+            this.index = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return this.fence - this.index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | SIZED | SUBSIZED | NONNULL;
+        }
+
+        // null means natural ordering
+        @Override
+        public Comparator<? super T> getComparator() {
+            return comparator();
+        }
+    }
+
+    /**
+     * Returns how many elements in the tree are strictly less than data.
+     * @param data
+     * @return the index data has, or would have, in sorted order
+     * @throws IllegalArgumentException
+     */
+    public int rank(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("rank() method argument can not be null.");
+
+        return countBelow(data, false);
+    }
+
+    /**
+     * Returns how many elements fall within [lo, hi], both ends inclusive.
+     * @param lo
+     * @param hi
+     * @return 0 if lo is greater than hi
+     * @throws IllegalArgumentException
+     */
+    public int countInRange(T lo, T hi) throws IllegalArgumentException {
+        if (lo == null || hi == null)
+            throw new IllegalArgumentException("countInRange() bounds can not be null.");
+
+        if (this.order.compare(lo, hi) > 0)
             return 0;
 
-        return 1 + sizeHelper(search.getLeft()) + sizeHelper(search.getRight());
+        return countBelow(hi, true) - countBelow(lo, false);
+    }
+
+    /**
+     * Returns how many times data occurs in the tree. Two root to leaf walks, so
+     * O(log n) however many occurrences there are.
+     * @param data
+     * @return 0 if the tree does not contain data
+     * @throws IllegalArgumentException when data is null
+     */
+    public int count(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("count() method argument can not be null.");
+
+        return countBelow(data, true) - countBelow(data, false);
+    }
+
+    /**
+     * Walks one root to leaf path adding up the subtrees that fall below data.
+     * @param data
+     * @param inclusive whether elements equal to data are counted
+     * @return the number of elements less than (or equal to) data
+     */
+    private int countBelow(T data, boolean inclusive) {
+        int count = 0;
+        Node<T> search = this.root;
+
+        while (search != null) {
+            int comparison = this.order.compare(search.getData(), data);
+            if (TreeStatistics.ENABLED) {
+                this.comparisons++;
+                this.visited++;
+            }
+
+            if (comparison < 0 || (inclusive && comparison == 0)) {
+                count += Node.sizeOf(search.getLeft()) + search.getCount();
+                search = search.getRight();
+            } else {
+                search = search.getLeft();
+            }
+        }
+
+        return count;
     }
 
     /**
@@ -194,6 +1477,8 @@ public class AVLTree<T extends Comparable<T>> {
      */
     public void clear() {
         this.root = null;
+        this.tombstones = 0;
+        this.sweep = null;
     }
 
     /**
@@ -201,7 +1486,7 @@ public class AVLTree<T extends Comparable<T>> {
      * @return
      */
     public boolean isEmpty() {
-        return (this.root == null) ? true : false;
+        return (size() == 0) ? true : false;
     }
 
     /**
@@ -212,11 +1497,14 @@ public class AVLTree<T extends Comparable<T>> {
      */
     public void rotate(Node<T> child, Node<T> parent) throws IllegalArgumentException 
     {
+        if (child == null || parent == null)
+            throw new IllegalArgumentException("All arguments must be non-null.");
+
         if (child.getParent() != parent)
             throw new IllegalArgumentException("These two nodes are not related.");
 
-        if (child == null || parent == null)
-            throw new IllegalArgumentException("All arguments must be non-null.");
+        if (TreeStatistics.ENABLED)
+            STATISTICS.rotated();
 
         // some instantiables for readability
         Node<T> liminalNode = null, grandparentNode = null;
@@ -238,7 +1526,7 @@ public class AVLTree<T extends Comparable<T>> {
             if (grandparentNode != null && parent.isRightChild())
                 grandparentNode.setRight(child);
             
-            if (grandparentNode != null && !parent.isRightChild())
+            else if (grandparentNode != null)
                 grandparentNode.setLeft(child);
 
             child.setLeft(parent);
@@ -267,7 +1555,7 @@ public class AVLTree<T extends Comparable<T>> {
             if (grandparentNode != null && parent.isRightChild())
                 grandparentNode.setRight(child);
             
-            if (grandparentNode != null && !parent.isRightChild())
+            else if (grandparentNode != null)
                 grandparentNode.setLeft(child);
 
             child.setRight(parent);
@@ -285,6 +1573,12 @@ public class AVLTree<T extends Comparable<T>> {
             if (grandparentNode == null)
                 this.root = child;
         }
+
+        // parent is now below child, so refresh it first
+        parent.updateHeight();
+        parent.updateSize();
+        child.updateHeight();
+        child.updateSize();
     }
     
     // testing methods
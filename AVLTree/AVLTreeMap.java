@@ -0,0 +1,292 @@
+package AVLTree;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+
+import SortedMaps.AbstractTreeMap;
+
+/**
+ * NavigableMap kept in an AVL tree. Every node carries its key and value, so nothing
+ * has to be wrapped into a Comparable holder first, and put(), computeIfAbsent(),
+ * merge() and friends find and attach in a single descent. Heights are cached in the
+ * nodes like in AVLTree, rebalancing walks back up from the changed spot and stops
+ * as soon as a subtree keeps its height.
+ * @author Matthew Smith
+ */
+public class AVLTreeMap<K extends Comparable<K>, V> extends AbstractTreeMap<K, V, AVLTreeMap.MapNode<K, V>> {
+
+    // root node
+    MapNode<K, V> root;
+
+    /**
+     * Node holding one mapping.
+     */
+    static final class MapNode<K, V> implements Map.Entry<K, V> {
+
+        K key;
+        V value;
+        MapNode<K, V> parent;
+        MapNode<K, V> left;
+        MapNode<K, V> right;
+        int height;
+
+        MapNode(K key, V value, MapNode<K, V> parent) {
+            this.key = key;
+            this.value = value;
+            this.parent = parent;
+            this.height = 1;
+        }
+
+        @Override
+        public K getKey() {
+            return this.key;
+        }
+
+        @Override
+        public V getValue() {
+            return this.value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V old = this.value;
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return Objects.equals(this.key, entry.getKey()) && Objects.equals(this.value, entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(this.key) ^ Objects.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    /**
+     * Creates an empty map.
+     */
+    public AVLTreeMap() {
+        super(null);
+    }
+
+    /**
+     * Creates an empty map ordered by comparator.
+     * @param comparator null for natural ordering
+     */
+    public AVLTreeMap(Comparator<? super K> comparator) {
+        super(comparator);
+    }
+
+    /**
+     * Creates a map holding the mappings of map.
+     * @param map
+     * @throws NullPointerException when map is null or holds a null key
+     */
+    public AVLTreeMap(Map<? extends K, ? extends V> map) throws NullPointerException {
+        super(null);
+        if (map == null)
+            throw new NullPointerException("Map can not be null.");
+
+        putAll(map);
+    }
+
+    /**
+     * Returns the height of the tree, 0 when empty.
+     */
+    public int height() {
+        return height(this.root);
+    }
+
+    @Override
+    protected MapNode<K, V> root() {
+        return this.root;
+    }
+
+    @Override
+    protected MapNode<K, V> left(MapNode<K, V> node) {
+        return node.left;
+    }
+
+    @Override
+    protected MapNode<K, V> right(MapNode<K, V> node) {
+        return node.right;
+    }
+
+    @Override
+    protected MapNode<K, V> parent(MapNode<K, V> node) {
+        return node.parent;
+    }
+
+    @Override
+    protected void clearTree() {
+        this.root = null;
+    }
+
+    @Override
+    protected MapNode<K, V> attach(MapNode<K, V> parent, int comparison, K key, V value) {
+        MapNode<K, V> node = new MapNode<K, V>(key, value, parent);
+        if (parent == null) {
+            this.root = node;
+            return node;
+        }
+
+        if (comparison < 0)
+            parent.left = node;
+        else
+            parent.right = node;
+
+        rebalanceUpFrom(parent);
+        return node;
+    }
+
+    @Override
+    protected MapNode<K, V> unlink(MapNode<K, V> node) {
+        // a node with two children takes the entry of its successor,
+        // which has no left child and is unlinked instead
+        MapNode<K, V> holder;
+        if (node.left != null && node.right != null) {
+            MapNode<K, V> successor = node.right;
+            while (successor.left != null)
+                successor = successor.left;
+
+            node.key = successor.key;
+            node.value = successor.value;
+            holder = node;
+            node = successor;
+        } else {
+            holder = successor(node);
+        }
+
+        MapNode<K, V> child = (node.left != null) ? node.left : node.right;
+        MapNode<K, V> parent = node.parent;
+
+        if (child != null)
+            child.parent = parent;
+
+        if (parent == null)
+            this.root = child;
+        else if (parent.left == node)
+            parent.left = child;
+        else
+            parent.right = child;
+
+        node.left = node.right = node.parent = null;
+        rebalanceUpFrom(parent);
+        return holder;
+    }
+
+    /**
+     * Rebalances node and its ancestors, bottom up. Once a subtree comes out with the
+     * height it had before, nothing above it can have changed.
+     * @param node
+     */
+    private void rebalanceUpFrom(MapNode<K, V> node) {
+        while (node != null) {
+            int height = node.height;
+            MapNode<K, V> top = rebalance(node);
+            if (top.height == height)
+                return;
+
+            node = top.parent;
+        }
+    }
+
+    /**
+     * Refreshes the height of node and rotates if its children differ in height by
+     * two, straightening out a zig-zag first. Both children have to be balanced.
+     * @param node
+     * @return the root of the subtree after rotating
+     */
+    private MapNode<K, V> rebalance(MapNode<K, V> node) {
+        updateHeight(node);
+        int balanceFactor = height(node.left) - height(node.right);
+
+        if (balanceFactor >= 2) {
+            if (height(node.left.left) < height(node.left.right))
+                rotateLeft(node.left);
+            return rotateRight(node);
+        }
+
+        if (balanceFactor <= -2) {
+            if (height(node.right.right) < height(node.right.left))
+                rotateRight(node.right);
+            return rotateLeft(node);
+        }
+
+        return node;
+    }
+
+    /**
+     * Rotates the right child of node up into its place.
+     * @param node
+     * @return the right child, now on top
+     */
+    private MapNode<K, V> rotateLeft(MapNode<K, V> node) {
+        MapNode<K, V> child = node.right;
+        node.right = child.left;
+        if (child.left != null)
+            child.left.parent = node;
+
+        replaceChild(node, child);
+        child.left = node;
+        node.parent = child;
+
+        updateHeight(node);
+        updateHeight(child);
+        return child;
+    }
+
+    /**
+     * Rotates the left child of node up into its place.
+     * @param node
+     * @return the left child, now on top
+     */
+    private MapNode<K, V> rotateRight(MapNode<K, V> node) {
+        MapNode<K, V> child = node.left;
+        node.left = child.right;
+        if (child.right != null)
+            child.right.parent = node;
+
+        replaceChild(node, child);
+        child.right = node;
+        node.parent = child;
+
+        updateHeight(node);
+        updateHeight(child);
+        return child;
+    }
+
+    // puts replacement where node hangs from its parent
+    private void replaceChild(MapNode<K, V> node, MapNode<K, V> replacement) {
+        MapNode<K, V> parent = node.parent;
+        replacement.parent = parent;
+
+        if (parent == null)
+            this.root = replacement;
+        else if (parent.left == node)
+            parent.left = replacement;
+        else
+            parent.right = replacement;
+    }
+
+    private static void updateHeight(MapNode<?, ?> node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    private static int height(MapNode<?, ?> node) {
+        return (node == null) ? 0 : node.height;
+    }
+}
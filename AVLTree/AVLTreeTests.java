@@ -1,7 +1,22 @@
 package AVLTree;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.IntStream;
+
 import org.junit.jupiter.api.*;
 
+import Snapshot.KeyCodec;
+
 class AVLTreeTests {
 
     @Test
@@ -171,4 +186,687 @@ class AVLTreeTests {
         );
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests cached heights stay correct through insert() and delete()
+     * 1. Sorted inserts keep the tree within the AVL height bound.
+     * 2. Every cached height matches a full recount and every node is balanced.
+     * 3. Deleting half the keys keeps both properties.
+     */
+    @Test
+    void testCachedHeights() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        Assertions.assertEquals(0, tree.height());
+
+        // 1. 1023 sorted inserts would be a list without balancing
+        for (int i = 0; i < 1023; i++)
+            tree.insert(i);
+        Assertions.assertTrue(tree.height() <= 14, 
+            "[ 1 ]  ##  Tree is taller than the AVL bound.");
+
+        // 2. cached heights agree with the structure
+        Assertions.assertEquals(tree.height(), verifyHeights(tree.root));
+
+        // 3. delete every even key, then recheck
+        for (int i = 0; i < 1023; i += 2)
+            Assertions.assertTrue(tree.delete(i));
+        Assertions.assertFalse(tree.delete(0));
+        Assertions.assertEquals(511, tree.size());
+        Assertions.assertEquals(tree.height(), verifyHeights(tree.root));
+    }
+
+    /**
+     * Recounts the height of a subtree while checking the cached heights and
+     * balance factors along the way.
+     */
+    private int verifyHeights(Node<Integer> node) {
+        if (node == null)
+            return 0;
+
+        int leftHeight = verifyHeights(node.getLeft());
+        int rightHeight = verifyHeights(node.getRight());
+        Assertions.assertTrue(Math.abs(leftHeight - rightHeight) <= 1, 
+            "Node " + node.getData() + " is out of balance.");
+        Assertions.assertEquals(1 + Math.max(leftHeight, rightHeight), node.getHeight());
+        Assertions.assertEquals(1 + Node.nodesOf(node.getLeft()) + Node.nodesOf(node.getRight()), node.getNodes());
+        return node.getHeight();
+    }
+
+    /**
+     * Tests size(), select(), rank() and countInRange() through rotations.
+     */
+    @Test
+    void testOrderStatistics() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        Assertions.assertEquals(0, tree.size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.select(0);});
+
+        // even numbers 0 to 198, inserted in sorted order to force rotations
+        for (int i = 0; i < 200; i += 2)
+            tree.insert(i);
+
+        Assertions.assertAll(
+            "statistics",
+            () -> {Assertions.assertEquals(100, tree.size());},
+            () -> {Assertions.assertEquals(0, tree.select(0));},
+            () -> {Assertions.assertEquals(100, tree.select(50));},
+            () -> {Assertions.assertEquals(198, tree.select(99));},
+            () -> {Assertions.assertEquals(50, tree.rank(100));},
+            () -> {Assertions.assertEquals(51, tree.rank(101));},
+            () -> {Assertions.assertEquals(6, tree.countInRange(9, 21));}
+        );
+
+        tree.delete(100);
+        Assertions.assertEquals(99, tree.size());
+        Assertions.assertEquals(102, tree.select(50));
+        Assertions.assertEquals(10, tree.countInRange(90, 110));
+    }
+
+    /**
+     * Tests contains(), floor(), ceiling(), lower() and higher()
+     * 1. Empty tree finds nothing.
+     * 2. Hits and misses on both sides of every element.
+     */
+    @Test
+    void testNavigation() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+
+        // 1. empty tree
+        Assertions.assertFalse(tree.contains(10));
+        Assertions.assertNull(tree.floor(10));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.contains(null);});
+
+        // 2. tree holds 5 8 10 15 18
+        tree.insert(10);
+        tree.insert(5);
+        tree.insert(15);
+        tree.insert(8);
+        tree.insert(18);
+        Assertions.assertAll(
+            "navigation",
+            () -> {Assertions.assertTrue(tree.contains(8));},
+            () -> {Assertions.assertFalse(tree.contains(9));},
+            () -> {Assertions.assertFalse(tree.contains(100));},
+            () -> {Assertions.assertEquals(8, tree.floor(9));},
+            () -> {Assertions.assertEquals(10, tree.floor(10));},
+            () -> {Assertions.assertNull(tree.floor(4));},
+            () -> {Assertions.assertEquals(10, tree.ceiling(9));},
+            () -> {Assertions.assertNull(tree.ceiling(19));},
+            () -> {Assertions.assertEquals(8, tree.lower(10));},
+            () -> {Assertions.assertNull(tree.lower(5));},
+            () -> {Assertions.assertEquals(15, tree.higher(10));},
+            () -> {Assertions.assertNull(tree.higher(18));}
+        );
+    }
+
+    /**
+     * Tests fromSorted()
+     * 1. Empty input gives an empty tree.
+     * 2. Sorted input of every size up to 100 gives a valid, minimal height tree.
+     * 3. Short input is rejected.
+     */
+    @Test
+    void testFromSorted() {
+        // 1. empty
+        Assertions.assertTrue(AVLTree.fromSorted(Collections.<Integer>emptyIterator(), 0).isEmpty());
+
+        // 2. heights and balance are set without any rotations
+        for (int n = 1; n <= 100; n++) {
+            AVLTree<Integer> tree = AVLTree.fromSorted(IntStream.range(0, n).boxed(), n);
+            Assertions.assertEquals(n, tree.size());
+            Assertions.assertEquals(32 - Integer.numberOfLeadingZeros(n), tree.height());
+            Assertions.assertEquals(tree.height(), verifyHeights(tree.root));
+            Assertions.assertEquals(n / 2, tree.select(n / 2));
+        }
+
+        // 3. iterator holds fewer than n elements
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            AVLTree.fromSorted(List.of(1, 2).iterator(), 3);
+        });
+    }
+
+    /**
+     * Tests the primitive key trees
+     * 1. Sorted inserts stay within the height bound and iterate in order.
+     * 2. Duplicates, contains() and delete() behave like the generic tree.
+     * 3. Negative and extreme keys are ordered with plain comparisons.
+     */
+    @Test
+    void testPrimitiveTrees() {
+        LongAVLTree longTree = new LongAVLTree();
+        IntAVLTree intTree = new IntAVLTree();
+
+        // 1. sorted inserts, then walk both trees
+        for (int i = 0; i < 10000; i++) {
+            longTree.insert(i);
+            intTree.insert(i);
+        }
+        Assertions.assertEquals(10000, longTree.size());
+
+        PrimitiveIterator.OfLong longKeys = longTree.iterator();
+        PrimitiveIterator.OfInt intKeys = intTree.iterator();
+        for (int i = 0; i < 10000; i++) {
+            Assertions.assertEquals(i, longKeys.nextLong());
+            Assertions.assertEquals(i, intKeys.nextInt());
+        }
+        Assertions.assertFalse(longKeys.hasNext());
+
+        // 2. duplicates are kept and removed one at a time
+        longTree.insert(5);
+        Assertions.assertEquals(10001, longTree.size());
+        Assertions.assertTrue(longTree.delete(5));
+        Assertions.assertTrue(longTree.delete(5));
+        Assertions.assertFalse(longTree.contains(5));
+        Assertions.assertFalse(longTree.delete(5));
+        Assertions.assertTrue(intTree.contains(9999));
+        Assertions.assertFalse(intTree.contains(10000));
+
+        // 3. extremes
+        longTree.clear();
+        longTree.insert(Long.MAX_VALUE);
+        longTree.insert(Long.MIN_VALUE);
+        longTree.insert(-1);
+        longKeys = longTree.iterator();
+        Assertions.assertEquals(Long.MIN_VALUE, longKeys.nextLong());
+        Assertions.assertEquals(-1, longKeys.nextLong());
+        Assertions.assertEquals(Long.MAX_VALUE, longKeys.nextLong());
+    }
+
+    @Test
+    void testConcurrentTree() throws InterruptedException {
+        ConcurrentAVLTree<Integer> tree = new ConcurrentAVLTree<Integer>();
+
+        // 1. set semantics
+        Assertions.assertTrue(tree.insert(1));
+        Assertions.assertFalse(tree.insert(1));
+        Assertions.assertTrue(tree.delete(1));
+        Assertions.assertFalse(tree.delete(1));
+        Assertions.assertTrue(tree.isEmpty());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tree.insert(null));
+
+        // 2. each thread inserts its own keys and deletes every other one,
+        //    while all of them fight over a few shared keys
+        int threadCount = 4;
+        int perThread = 5000;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; t++) {
+            int base = t * perThread;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    tree.insert(base + i);
+                    tree.insert(-1 - (i % 8));
+                    tree.delete(-1 - ((i + 3) % 8));
+                }
+                for (int i = 0; i < perThread; i += 2)
+                    tree.delete(base + i);
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        for (int i = -8; i < 0; i++)
+            tree.delete(i);
+
+        // 3. exactly the odd keys are left and the tree is still balanced
+        Assertions.assertEquals(threadCount * perThread / 2, tree.size());
+        for (int i = 0; i < threadCount * perThread; i++)
+            Assertions.assertEquals(i % 2 == 1, tree.contains(i));
+        Assertions.assertTrue(tree.height() <= 1.45 * (Math.log(tree.size() + 2) / Math.log(2)));
+    }
+
+    @Test
+    void testStreams() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        Assertions.assertEquals(0, tree.parallelStream().count());
+
+        List<Integer> data = new ArrayList<Integer>(IntStream.range(0, 10000).boxed().toList());
+        Collections.shuffle(data, new Random(7));
+        for (int i : data)
+            tree.insert(i);
+
+        // 1. sequential and parallel streams see every element once, in order
+        Assertions.assertEquals(IntStream.range(0, 10000).boxed().toList(), tree.stream().toList());
+        Assertions.assertEquals(IntStream.range(0, 10000).boxed().toList(), tree.parallelStream().toList());
+        Assertions.assertEquals(5000, tree.parallelStream().filter(i -> i % 2 == 0).count());
+
+        // 2. splits are exact halves that together cover the tree
+        Spliterator<Integer> suffix = tree.spliterator();
+        Assertions.assertTrue(suffix.hasCharacteristics(Spliterator.SORTED | Spliterator.SIZED));
+        Spliterator<Integer> prefix = suffix.trySplit();
+        Assertions.assertEquals(5000, prefix.estimateSize());
+        Assertions.assertEquals(5000, suffix.estimateSize());
+        Assertions.assertTrue(suffix.tryAdvance(i -> Assertions.assertEquals(5000, i)));
+        Assertions.assertEquals(4999, suffix.estimateSize());
+    }
+
+    @Test
+    void testIterators() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        Assertions.assertFalse(tree.iterator().hasNext());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.range(null, 1);});
+
+        List<Integer> data = new ArrayList<Integer>(IntStream.range(0, 1000).boxed().toList());
+        Collections.shuffle(data, new Random(11));
+        for (int i : data)
+            tree.insert(i);
+        tree.insert(500);
+
+        // 1. both directions visit everything, duplicates included
+        List<Integer> ascending = new ArrayList<Integer>();
+        for (int i : tree)
+            ascending.add(i);
+        Assertions.assertEquals(1001, ascending.size());
+        Assertions.assertEquals(500, ascending.get(501));
+
+        List<Integer> descending = new ArrayList<Integer>();
+        tree.descendingIterator().forEachRemaining(descending::add);
+        Collections.reverse(descending);
+        Assertions.assertEquals(ascending, descending);
+
+        // 2. ranges are inclusive and start at the first duplicate
+        Iterator<Integer> range = tree.range(498, 501);
+        Assertions.assertEquals(List.of(498, 499, 500, 500, 501), List.of(range.next(), range.next(), 
+            range.next(), range.next(), range.next()));
+        Assertions.assertFalse(range.hasNext());
+        Assertions.assertThrows(NoSuchElementException.class, () -> {range.next();});
+
+        // 3. bounds outside the tree and empty ranges
+        Assertions.assertEquals(0, tree.range(-10, 0).next());
+        Assertions.assertFalse(tree.range(1000, 2000).hasNext());
+        Assertions.assertFalse(tree.range(7, 6).hasNext());
+    }
+
+    @Test
+    void testMultiset() {
+        AVLTree<Integer> tree = new AVLTree<Integer>(true);
+
+        // 1. a million repeats of three keys still make a three node tree
+        for (int i = 0; i < 1000000; i++)
+            tree.insert(i % 3);
+        Assertions.assertEquals(1000000, tree.size());
+        Assertions.assertEquals(333334, tree.count(0));
+        Assertions.assertEquals(333333, tree.count(2));
+        Assertions.assertEquals(0, tree.count(3));
+        Assertions.assertTrue(tree.height() <= 2);
+
+        // 2. order statistics count every occurrence
+        Assertions.assertEquals(0, tree.select(333333));
+        Assertions.assertEquals(1, tree.select(333334));
+        Assertions.assertEquals(666667, tree.rank(2));
+        Assertions.assertEquals(333333, tree.countInRange(1, 1));
+
+        // 3. occurrences are removed one at a time
+        tree.clear();
+        for (int i : List.of(5, 7, 7, 7, 9))
+            tree.insert(i);
+        Assertions.assertTrue(tree.delete(7));
+        Assertions.assertEquals(2, tree.count(7));
+        Assertions.assertEquals(4, tree.size());
+
+        // 4. iteration repeats each element as often as it occurs
+        Assertions.assertEquals(List.of(5, 7, 7, 9), tree.stream().toList());
+        List<Integer> descending = new ArrayList<Integer>();
+        tree.descendingIterator().forEachRemaining(descending::add);
+        Assertions.assertEquals(List.of(9, 7, 7, 5), descending);
+        Spliterator<Integer> prefix = tree.spliterator();
+        Spliterator<Integer> suffix = prefix.trySplit();
+        Assertions.assertEquals(2, suffix.estimateSize());
+
+        // 5. without the flag duplicates are still counted
+        AVLTree<Integer> plain = new AVLTree<Integer>();
+        plain.insert(4);
+        plain.insert(4);
+        Assertions.assertEquals(2, plain.count(4));
+    }
+
+    /**
+     * writeSnapshot() and readSnapshot() Tester
+     */
+    @Test
+    protected void testSnapshot() throws IOException {
+        Path file = Files.createTempFile("AVLTree", ".snapshot");
+
+        try {
+            // 1. Delta coded longs round trip into a balanced tree
+            AVLTree<Long> tree = new AVLTree<Long>();
+            for (long i = 0; i < 10000; i++)
+                tree.insert(i * i - 5000);
+            tree.insert(Long.MIN_VALUE);
+            tree.insert(Long.MAX_VALUE);
+
+            tree.writeSnapshot(file, KeyCodec.longs());
+            Assertions.assertTrue(Files.size(file) < 10002 * 3);
+            AVLTree<Long> loaded = AVLTree.readSnapshot(file, KeyCodec.longs());
+            Assertions.assertEquals(tree.stream().toList(), loaded.stream().toList());
+            Assertions.assertEquals(14, loaded.height());
+            loaded.insert(7L);
+            Assertions.assertTrue(loaded.contains(7L));
+
+            // 2. A multiset keeps its counts
+            AVLTree<Integer> repeats = new AVLTree<Integer>(true);
+            for (int i = 0; i < 100; i++)
+                repeats.insert(i % 7);
+
+            repeats.writeSnapshot(file, KeyCodec.integers());
+            AVLTree<Integer> loadedRepeats = AVLTree.readSnapshot(file, KeyCodec.integers());
+            Assertions.assertEquals(100, loadedRepeats.size());
+            Assertions.assertEquals(15, loadedRepeats.count(1));
+            Assertions.assertEquals(14, loadedRepeats.count(6));
+            Assertions.assertEquals(3, loadedRepeats.height());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Tests AVLTreeMap against java.util.TreeMap
+     * 1. Basic map operations and the single descent compute family.
+     * 2. Random operations on the map and its views agree with TreeMap.
+     * 3. Heights and balance hold after every round.
+     */
+    @Test
+    protected void testAVLTreeMap() {
+        AVLTreeMap<Integer, String> map = new AVLTreeMap<Integer, String>();
+        Assertions.assertTrue(map.isEmpty());
+        Assertions.assertNull(map.firstEntry());
+        Assertions.assertThrows(NoSuchElementException.class, () -> map.firstKey());
+        Assertions.assertThrows(NullPointerException.class, () -> map.put(null, "a"));
+        Assertions.assertThrows(NullPointerException.class, () -> map.get(null));
+        Assertions.assertThrows(NullPointerException.class, () -> map.containsKey(null));
+        Assertions.assertThrows(NullPointerException.class, () -> map.remove(null));
+        Assertions.assertThrows(NullPointerException.class, () -> map.floorKey(null));
+        Assertions.assertThrows(NullPointerException.class, () -> map.compute(1, null));
+
+        // 1. basic operations
+        Assertions.assertNull(map.put(5, "five"));
+        Assertions.assertEquals("five", map.put(5, "FIVE"));
+        Assertions.assertEquals("three", map.computeIfAbsent(3, k -> "three"));
+        Assertions.assertEquals("three", map.computeIfAbsent(3, k -> "other"));
+        Assertions.assertNull(map.computeIfAbsent(4, k -> null));
+        Assertions.assertFalse(map.containsKey(4));
+        Assertions.assertEquals("seven", map.merge(7, "seven", String::concat));
+        Assertions.assertEquals("sevenseven", map.merge(7, "seven", String::concat));
+        Assertions.assertNull(map.merge(7, "x", (a, b) -> null));
+        Assertions.assertNull(map.put(1, null));
+        Assertions.assertTrue(map.containsKey(1));
+        Assertions.assertNull(map.putIfAbsent(1, "one"));
+        Assertions.assertEquals("one", map.get(1));
+        Assertions.assertThrows(NullPointerException.class, () -> map.merge(2, null, String::concat));
+        Assertions.assertEquals("[1, 3, 5]", map.keySet().toString());
+        Assertions.assertEquals("{5=FIVE, 3=three, 1=one}", map.descendingMap().toString());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> map.headMap(3).put(4, "four"));
+        Assertions.assertThrows(java.util.ConcurrentModificationException.class,
+            () -> map.computeIfAbsent(9, k -> map.put(10, "ten")));
+
+        // 2. random operations against TreeMap, on the map and on views
+        Random random = new Random(20);
+        for (int round = 0; round < 20; round++) {
+            AVLTreeMap<Integer, Integer> tree = new AVLTreeMap<Integer, Integer>();
+            java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<Integer, Integer>();
+            int bound = 10 + random.nextInt(500);
+            for (int i = 0; i < 2000; i++) {
+                int key = random.nextInt(bound);
+                switch (random.nextInt(8)) {
+                    case 0:
+                        Assertions.assertEquals(expected.put(key, i), tree.put(key, i));
+                        break;
+                    case 1:
+                        Assertions.assertEquals(expected.remove(key), tree.remove(key));
+                        break;
+                    case 2:
+                        Assertions.assertEquals(expected.merge(key, 1, Integer::sum), tree.merge(key, 1, Integer::sum));
+                        break;
+                    case 3:
+                        Assertions.assertEquals(expected.computeIfAbsent(key, k -> k * 2), tree.computeIfAbsent(key, k -> k * 2));
+                        break;
+                    case 4:
+                        Assertions.assertEquals(expected.compute(key, (k, v) -> (v == null || v % 2 == 0) ? null : v + 1),
+                                                tree.compute(key, (k, v) -> (v == null || v % 2 == 0) ? null : v + 1));
+                        break;
+                    case 5:
+                        Assertions.assertEquals(expected.floorEntry(key), tree.floorEntry(key));
+                        Assertions.assertEquals(expected.higherKey(key), tree.higherKey(key));
+                        Assertions.assertEquals(expected.pollFirstEntry(), tree.pollFirstEntry());
+                        break;
+                    case 6: {
+                        int to = key + random.nextInt(50);
+                        boolean fromInclusive = random.nextBoolean(), toInclusive = random.nextBoolean();
+                        java.util.NavigableMap<Integer, Integer> view = tree.subMap(key, fromInclusive, to, toInclusive).descendingMap();
+                        java.util.NavigableMap<Integer, Integer> expectedView = expected.subMap(key, fromInclusive, to, toInclusive).descendingMap();
+                        Assertions.assertEquals(expectedView, view);
+                        Assertions.assertEquals(new ArrayList<Integer>(expectedView.keySet()), new ArrayList<Integer>(view.keySet()));
+                        Assertions.assertEquals(expectedView.size(), view.size());
+                        Assertions.assertEquals(expectedView.lastEntry(), view.lastEntry());
+                        Assertions.assertEquals(expectedView.ceilingKey(key + 10), view.ceilingKey(key + 10));
+                        Assertions.assertEquals(expectedView.headMap((key + to) / 2, false), view.headMap((key + to) / 2, false));
+                        Assertions.assertEquals(expectedView.pollLastEntry(), view.pollLastEntry());
+                        break;
+                    }
+                    default: {
+                        // remove through iterators, forwards and backwards
+                        Iterator<Integer> iterator = tree.tailMap(key, true).keySet().iterator();
+                        Iterator<Integer> expectedIterator = expected.tailMap(key, true).keySet().iterator();
+                        if (random.nextBoolean()) {
+                            iterator = tree.headMap(key, false).descendingKeySet().iterator();
+                            expectedIterator = expected.headMap(key, false).descendingKeySet().iterator();
+                        }
+                        while (expectedIterator.hasNext()) {
+                            Assertions.assertEquals(expectedIterator.next(), iterator.next());
+                            if (random.nextInt(3) == 0) {
+                                expectedIterator.remove();
+                                iterator.remove();
+                            }
+                        }
+                        Assertions.assertFalse(iterator.hasNext());
+                    }
+                }
+                Assertions.assertEquals(expected.size(), tree.size());
+            }
+
+            // 3. the whole map and the tree shape
+            Assertions.assertEquals(expected, tree);
+            Assertions.assertEquals(new ArrayList<Integer>(expected.descendingKeySet()), new ArrayList<Integer>(tree.descendingKeySet()));
+            Assertions.assertEquals(tree.height(), verifyHeights(tree.root));
+        }
+    }
+
+    /**
+     * Recounts the height of a map subtree while checking parent links, cached
+     * heights and balance factors along the way.
+     */
+    private int verifyHeights(AVLTreeMap.MapNode<Integer, ?> node) {
+        if (node == null)
+            return 0;
+
+        if (node.left != null)
+            Assertions.assertSame(node, node.left.parent);
+        if (node.right != null)
+            Assertions.assertSame(node, node.right.parent);
+
+        int leftHeight = verifyHeights(node.left);
+        int rightHeight = verifyHeights(node.right);
+        Assertions.assertTrue(Math.abs(leftHeight - rightHeight) <= 1, 
+            "Node " + node.key + " is out of balance.");
+        Assertions.assertEquals(1 + Math.max(leftHeight, rightHeight), node.height);
+        return node.height;
+    }
+
+    /**
+     * Tests trees ordered by a comparator or a long key
+     * 1. A reversed tree inserts, searches, navigates and deletes in reverse.
+     * 2. fromSorted() takes elements sorted by the comparator.
+     * 3. A tree ordered by a long key counts equal keys as duplicates.
+     */
+    @Test
+    protected void testComparator() {
+        Assertions.assertNull(new AVLTree<Integer>().comparator());
+
+        // 1. reversed order
+        AVLTree<Integer> tree = new AVLTree<Integer>(Collections.reverseOrder());
+        Assertions.assertNotNull(tree.comparator());
+        for (int i = 0; i < 100; i++)
+            tree.insert(i);
+        Assertions.assertEquals(Integer.valueOf(99), tree.iterator().next());
+        Assertions.assertEquals(Integer.valueOf(99), tree.select(0));
+        Assertions.assertEquals(Integer.valueOf(10), tree.floor(10));
+        Assertions.assertEquals(Integer.valueOf(9), tree.higher(10));
+        Assertions.assertEquals(11, tree.countInRange(20, 10));
+        Assertions.assertEquals(0, tree.countInRange(10, 20));
+        Assertions.assertTrue(tree.contains(42));
+        Assertions.assertTrue(tree.delete(42));
+        Assertions.assertFalse(tree.contains(42));
+        Assertions.assertEquals(tree.height(), verifyHeights(tree.root));
+
+        // 2. presorted by the comparator
+        AVLTree<Integer> sorted = AVLTree.fromSorted(IntStream.range(0, 50).map(i -> 49 - i).boxed().iterator(), 50, 
+            Collections.reverseOrder());
+        Assertions.assertTrue(sorted.contains(7));
+        sorted.insert(100);
+        Assertions.assertEquals(Integer.valueOf(100), sorted.select(0));
+
+        // 3. ordered by length, equal lengths are duplicates
+        AVLTree<String> byLength = AVLTree.byLongKey(true, String::length);
+        for (String s : new String[] { "ccc", "a", "bb", "dd", "e" })
+            byLength.insert(s);
+        Assertions.assertEquals(5, byLength.size());
+        Assertions.assertTrue(byLength.contains("zz"));
+        Assertions.assertEquals(2, byLength.countInRange("x", "x"));
+        Assertions.assertEquals("ccc", byLength.select(4));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AVLTree.<String>byLongKey(false, null));
+
+        // maps take a comparator too
+        AVLTreeMap<String, Integer> map = new AVLTreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+        map.put("b", 1);
+        map.merge("B", 1, Integer::sum);
+        map.put("A", 3);
+        Assertions.assertEquals(2, map.size());
+        Assertions.assertEquals(Integer.valueOf(2), map.get("b"));
+        Assertions.assertEquals("A", map.firstKey());
+        Assertions.assertEquals("b", map.descendingMap().firstKey());
+        Assertions.assertTrue(map.descendingMap().comparator().compare("a", "B") > 0);
+    }
+
+    /**
+     * Tests lazy deletes
+     * 1. Deletes only mark tombstones, which every read skips.
+     * 2. Inserting a deleted element brings its tombstone back.
+     * 3. Past the ratio of nodes deletes sweep tombstones out a step at a time,
+     *    switching lazy deletes off compacts the tree.
+     * 4. Random inserts and deletes agree with a sorted list.
+     */
+    @Test
+    protected void testLazyDelete() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.setLazyDelete(1);});
+        tree.setLazyDelete(0.5);
+
+        // 1. deleting every even key leaves the shape alone
+        for (int i = 0; i < 1000; i++)
+            tree.insert(i);
+        int height = tree.height();
+        for (int i = 0; i < 1000; i += 2)
+            Assertions.assertTrue(tree.delete(i));
+        Assertions.assertFalse(tree.delete(0));
+        Assertions.assertEquals(height, tree.height());
+        Assertions.assertEquals(500, tree.size());
+        Assertions.assertFalse(tree.contains(0));
+        Assertions.assertTrue(tree.contains(1));
+        Assertions.assertEquals(Integer.valueOf(1), tree.floor(2));
+        Assertions.assertEquals(Integer.valueOf(3), tree.ceiling(2));
+        Assertions.assertNull(tree.lower(1));
+        Assertions.assertNull(tree.higher(999));
+        Assertions.assertEquals(Integer.valueOf(1), tree.select(0));
+        Assertions.assertEquals(1, tree.rank(3));
+        Assertions.assertEquals(0, tree.count(2));
+        Assertions.assertEquals(IntStream.range(0, 500).map(i -> i * 2 + 1).boxed().toList(), tree.stream().toList());
+        Assertions.assertEquals(250000, tree.parallelStream().mapToInt(i -> i).sum());
+        Assertions.assertEquals(Integer.valueOf(999), tree.descendingIterator().next());
+        Iterator<Integer> range = tree.range(10, 14);
+        Assertions.assertEquals(List.of(11, 13), List.of(range.next(), range.next()));
+        Assertions.assertFalse(range.hasNext());
+
+        // 2. a tombstone comes back to life, in a multiset too
+        tree.insert(0);
+        Assertions.assertTrue(tree.contains(0));
+        Assertions.assertEquals(501, tree.size());
+
+        AVLTree<Integer> multiset = new AVLTree<Integer>(true);
+        multiset.setLazyDelete(0.9);
+        for (int i : List.of(5, 5, 7, 7))
+            multiset.insert(i);
+        Assertions.assertTrue(multiset.delete(5));
+        Assertions.assertTrue(multiset.delete(5));
+        Assertions.assertFalse(multiset.contains(5));
+        Assertions.assertEquals(2, multiset.size());
+        Assertions.assertTrue(multiset.delete(7) && multiset.delete(7));
+        Assertions.assertTrue(multiset.isEmpty());
+        multiset.insert(5);
+        Assertions.assertEquals(List.of(5), multiset.stream().toList());
+
+        // 3. the next deletes cross half the nodes being tombstones, each
+        //    delete then only sweeps a few nodes
+        Assertions.assertTrue(tree.delete(1));
+        Assertions.assertTrue(tree.delete(3));
+        Assertions.assertEquals(499, tree.size());
+        Assertions.assertTrue(tree.root.getNodes() < 1000 && tree.root.getNodes() > 900);
+        Assertions.assertEquals(tree.height(), verifyHeights(tree.root));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.compact(0);});
+        int tombstones = tree.compact(1);
+        Assertions.assertEquals(tree.root.getNodes() - tree.size(), tombstones);
+        while (tree.compact(10) > 0)
+            Assertions.assertEquals(tree.height(), verifyHeights(tree.root));
+        Assertions.assertEquals(499, tree.root.getNodes());
+        Assertions.assertEquals(IntStream.range(0, 1000).filter(i -> i == 0 || i % 2 == 1 && i > 3).boxed().toList(),
+            tree.stream().toList());
+
+        // in a multiset the ratio is one of nodes, not occurrences
+        AVLTree<Integer> repeats = new AVLTree<Integer>(true);
+        repeats.setLazyDelete(0.5);
+        for (int i = 0; i < 100; i++)
+            repeats.insert(i % 10);
+        for (int i = 0; i < 50; i++)
+            repeats.delete(i / 10);
+        Assertions.assertEquals(10, repeats.root.getNodes());
+        for (int i = 0; i < 10; i++)
+            repeats.delete(5);
+        Assertions.assertEquals(4, repeats.root.getNodes());
+        Assertions.assertEquals(40, repeats.size());
+
+        for (int i = 5; i < 100; i += 2)
+            tree.delete(i);
+        tree.setLazyDelete(0);
+        Assertions.assertTrue(tree.height() <= 9);
+        Assertions.assertEquals(tree.height(), verifyHeights(tree.root));
+        Assertions.assertTrue(tree.delete(101));
+        Assertions.assertFalse(tree.contains(101));
+
+        // 4. against a sorted list, duplicates included
+        AVLTree<Integer> random = new AVLTree<Integer>();
+        random.setLazyDelete(0.3);
+        List<Integer> expected = new ArrayList<Integer>();
+        Random rand = new Random(23);
+        for (int i = 0; i < 20000; i++) {
+            int data = rand.nextInt(2000);
+            int index = Collections.binarySearch(expected, data);
+
+            if (rand.nextInt(5) < 2) {
+                expected.add((index >= 0) ? index : -index - 1, data);
+                random.insert(data);
+            } else {
+                Assertions.assertEquals(index >= 0, random.delete(data));
+                if (index >= 0)
+                    expected.remove(index);
+            }
+
+            if (i % 1000 == 0) {
+                Assertions.assertEquals(expected, random.stream().toList());
+                Assertions.assertEquals(expected.contains(data), random.contains(data));
+                Assertions.assertEquals(expected.stream().filter(x -> x <= 1000).reduce((x, y) -> y).orElse(null), 
+                    random.floor(1000));
+            }
+        }
+        Assertions.assertEquals(expected, random.stream().toList());
+    }
+}
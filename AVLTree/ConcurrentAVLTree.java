@@ -0,0 +1,819 @@
+package AVLTree;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread safe AVL tree with optimistic concurrency control, after Bronson, Casper,
+ * Chafi and Olukotun, "A Practical Concurrent Binary Search Tree" (PPoPP 2010).
+ *
+ * Readers take no locks. Every node carries a version number, and a rotation marks
+ * the node it moves down as shrinking while it runs and bumps the version after.
+ * A search reads a child link, then checks that the version of the node it came
+ * from has not changed; if it has, the subtree it is in may no longer hold the key
+ * and the search backs up one level and tries again.
+ *
+ * Writers lock only the nodes they change: the parent of a new leaf, the node whose
+ * presence flag flips, or the parent/node/child involved in a rotation. Balance is
+ * relaxed, heights are repaired and rotations done after the update itself, so
+ * writers in disjoint subtrees do not wait on each other. A deleted node with two
+ * children stays in the tree as a routing node until it has at most one child.
+ *
+ * Unlike AVLTree this is a set, inserting an element that is already present does
+ * nothing. insert(), contains() and delete() are linearizable; size() is exact
+ * whenever no update is in flight.
+ * @author Matthew Smith
+ */
+public class ConcurrentAVLTree<T extends Comparable<T>> {
+
+    // version bits: the node has left the tree, or a rotation is moving it down
+    private static final long UNLINKED = 1L;
+    private static final long SHRINKING = 2L;
+    private static final long VERSION_STEP = 4L;
+
+    // spins before a waiting reader starts yielding its time slice
+    private static final int SPIN_COUNT = 100;
+
+    // results of nodeCondition(), anything else is the height the node should have
+    private static final int UNLINK_REQUIRED = -1;
+    private static final int REBALANCE_REQUIRED = -2;
+    private static final int NOTHING_REQUIRED = -3;
+
+    // returned by the attempt methods when a concurrent change got in the way
+    private static final Object RETRY = new Object();
+
+    /**
+     * Node with volatile links. The key never changes, presence and links are only
+     * written while holding the nodes monitor.
+     */
+    private static final class Node<T> {
+        final T key;
+        volatile boolean present;
+        volatile int height;
+        volatile long version;
+        volatile Node<T> parent;
+        volatile Node<T> left;
+        volatile Node<T> right;
+
+        Node(T key, boolean present, Node<T> parent) {
+            this.key = key;
+            this.present = present;
+            this.height = 1;
+            this.version = 0L;
+            this.parent = parent;
+        }
+
+        Node<T> child(int direction) {
+            return (direction < 0) ? this.left : this.right;
+        }
+
+        void setChild(int direction, Node<T> child) {
+            if (direction < 0)
+                this.left = child;
+            else
+                this.right = child;
+        }
+
+        /**
+         * Waits out a rotation that is moving this node down. Spins, then yields,
+         * but never parks on a lock.
+         * @param version the version that was seen as shrinking
+         */
+        void waitUntilShrinkCompleted(long version) {
+            if ((version & SHRINKING) == 0)
+                return;
+
+            for (int spins = 0; this.version == version; spins++) {
+                if (spins < SPIN_COUNT)
+                    Thread.onSpinWait();
+                else
+                    Thread.yield();
+            }
+        }
+    }
+
+    // sentinel above the root, the real root is always holder.right
+    private final Node<T> holder;
+
+    private final AtomicInteger size;
+
+    public ConcurrentAVLTree() {
+        this.holder = new Node<T>(null, false, null);
+        this.size = new AtomicInteger();
+    }
+
+    /**
+     * Adds data to the tree if it is not already there.
+     * @param data
+     * @return true if data was added
+     *         false if it was already present
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean insert(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not insert null into a tree.");
+
+        boolean inserted = update(data, true);
+        if (inserted)
+            this.size.incrementAndGet();
+
+        return inserted;
+    }
+
+    /**
+     * Removes data from the tree.
+     * @param data
+     * @return true if data was removed
+     *         false if it was not present
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean delete(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not delete null from a tree.");
+
+        boolean deleted = update(data, false);
+        if (deleted)
+            this.size.decrementAndGet();
+
+        return deleted;
+    }
+
+    /**
+     * Searches the tree for data without taking any locks.
+     * @param data
+     * @return true if tree contains the data
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean contains(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not search a tree for null.");
+
+        while (true) {
+            Node<T> right = this.holder.right;
+            if (right == null)
+                return false;
+
+            int comparison = data.compareTo(right.key);
+            if (comparison == 0)
+                return right.present;
+
+            long version = right.version;
+            if ((version & (SHRINKING | UNLINKED)) != 0) {
+                right.waitUntilShrinkCompleted(version);
+            } else if (right == this.holder.right) {
+                Object result = attemptGet(data, right, comparison, version);
+                if (result != RETRY)
+                    return (Boolean) result;
+            }
+        }
+    }
+
+    /**
+     * Returns how many elements the tree holds.
+     * @return
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the height of the tree, including routing nodes.
+     */
+    public int height() {
+        return height(this.holder.right);
+    }
+
+    private static int height(Node<?> node) {
+        return (node == null) ? 0 : node.height;
+    }
+
+    /**
+     * Search below node, which was validated at nodeVersion. Each step reads the
+     * child, then rechecks that node still has the version it had when the search
+     * arrived, so the child is known to have been the right place to look.
+     * @return Boolean result, or RETRY if node changed under us
+     */
+    private Object attemptGet(T data, Node<T> node, int direction, long nodeVersion) {
+        while (true) {
+            Node<T> child = node.child(direction);
+
+            if (child == null) {
+                if (node.version != nodeVersion)
+                    return RETRY;
+
+                return Boolean.FALSE;
+            }
+
+            int comparison = data.compareTo(child.key);
+            if (comparison == 0)
+                return child.present;
+
+            long childVersion = child.version;
+            if ((childVersion & (SHRINKING | UNLINKED)) != 0) {
+                child.waitUntilShrinkCompleted(childVersion);
+                if (node.version != nodeVersion)
+                    return RETRY;
+            } else if (child != node.child(direction)) {
+                if (node.version != nodeVersion)
+                    return RETRY;
+            } else {
+                if (node.version != nodeVersion)
+                    return RETRY;
+
+                Object result = attemptGet(data, child, comparison, childVersion);
+                if (result != RETRY)
+                    return result;
+            }
+        }
+    }
+
+    /**
+     * Shared entry for insert() and delete().
+     * @param data
+     * @param insert true to make data present, false to make it absent
+     * @return whether the tree changed
+     */
+    private boolean update(T data, boolean insert) {
+        while (true) {
+            Node<T> right = this.holder.right;
+
+            if (right == null) {
+                if (!insert)
+                    return false;
+
+                if (attemptInsertIntoEmpty(data))
+                    return true;
+            } else {
+                long version = right.version;
+                if ((version & (SHRINKING | UNLINKED)) != 0) {
+                    right.waitUntilShrinkCompleted(version);
+                } else if (right == this.holder.right) {
+                    Object result = attemptUpdate(data, insert, this.holder, right, version);
+                    if (result != RETRY)
+                        return (Boolean) result;
+                }
+            }
+        }
+    }
+
+    private boolean attemptInsertIntoEmpty(T data) {
+        synchronized (this.holder) {
+            if (this.holder.right != null)
+                return false;
+
+            this.holder.right = new Node<T>(data, true, this.holder);
+            this.holder.height = 2;
+            return true;
+        }
+    }
+
+    /**
+     * Same descent as attemptGet(), but when the key is missing it locks the node
+     * that should hold it as a child and links a new leaf there.
+     * @return Boolean result, or RETRY if node changed under us
+     */
+    private Object attemptUpdate(T data, boolean insert, Node<T> parent, Node<T> node, long nodeVersion) {
+        int direction = data.compareTo(node.key);
+        if (direction == 0)
+            return attemptNodeUpdate(insert, parent, node);
+
+        while (true) {
+            Node<T> child = node.child(direction);
+            if (node.version != nodeVersion)
+                return RETRY;
+
+            if (child == null) {
+                if (!insert)
+                    return Boolean.FALSE;
+
+                Node<T> damaged;
+                synchronized (node) {
+                    // with the lock held no rotation can move node any more,
+                    // so one last version check is enough
+                    if (node.version != nodeVersion)
+                        return RETRY;
+
+                    // lost a race with another insert, look again
+                    if (node.child(direction) != null)
+                        continue;
+
+                    node.setChild(direction, new Node<T>(data, true, node));
+                    damaged = fixHeight(node);
+                }
+
+                fixHeightAndRebalance(damaged);
+                return Boolean.TRUE;
+            }
+
+            long childVersion = child.version;
+            if ((childVersion & (SHRINKING | UNLINKED)) != 0) {
+                child.waitUntilShrinkCompleted(childVersion);
+            } else if (child == node.child(direction)) {
+                if (node.version != nodeVersion)
+                    return RETRY;
+
+                Object result = attemptUpdate(data, insert, node, child, childVersion);
+                if (result != RETRY)
+                    return result;
+            }
+        }
+    }
+
+    /**
+     * Flips the presence of a node that holds the key. A delete that leaves a node
+     * with fewer than two children unlinks it straight away, which needs the parent
+     * locked as well.
+     * @return Boolean result, or RETRY if node changed under us
+     */
+    private Object attemptNodeUpdate(boolean insert, Node<T> parent, Node<T> node) {
+        if (!insert && !node.present)
+            return Boolean.FALSE;
+
+        if (!insert && (node.left == null || node.right == null)) {
+            Node<T> damaged;
+            synchronized (parent) {
+                if ((parent.version & UNLINKED) != 0 || node.parent != parent)
+                    return RETRY;
+
+                synchronized (node) {
+                    if (!node.present)
+                        return Boolean.FALSE;
+
+                    if (!attemptUnlink(parent, node))
+                        return RETRY;
+                }
+
+                damaged = fixHeight(parent);
+            }
+
+            fixHeightAndRebalance(damaged);
+            return Boolean.TRUE;
+        }
+
+        synchronized (node) {
+            if ((node.version & UNLINKED) != 0)
+                return RETRY;
+
+            if (node.present == insert)
+                return Boolean.FALSE;
+
+            // a child went away since we looked, so it can be unlinked now
+            if (!insert && (node.left == null || node.right == null))
+                return RETRY;
+
+            node.present = insert;
+            return Boolean.TRUE;
+        }
+    }
+
+    /**
+     * Splices node out from under parent. Both monitors must be held.
+     * @return false if node is no longer a child of parent or has two children
+     */
+    private boolean attemptUnlink(Node<T> parent, Node<T> node) {
+        Node<T> parentLeft = parent.left;
+        Node<T> parentRight = parent.right;
+        if (parentLeft != node && parentRight != node)
+            return false;
+
+        Node<T> left = node.left;
+        Node<T> right = node.right;
+        if (left != null && right != null)
+            return false;
+
+        Node<T> splice = (left != null) ? left : right;
+        if (parentLeft == node)
+            parent.left = splice;
+        else
+            parent.right = splice;
+
+        if (splice != null)
+            splice.parent = parent;
+
+        node.version = UNLINKED;
+        node.present = false;
+        return true;
+    }
+
+    /**
+     * Works out what, if anything, node needs. Reads without locks, so the answer
+     * is only a hint unless the caller holds the monitor.
+     * @return UNLINK_REQUIRED, REBALANCE_REQUIRED, NOTHING_REQUIRED or a new height
+     */
+    private int nodeCondition(Node<T> node) {
+        Node<T> left = node.left;
+        Node<T> right = node.right;
+
+        // routing node that can be spliced out
+        if ((left == null || right == null) && !node.present)
+            return UNLINK_REQUIRED;
+
+        int height = node.height;
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        int newHeight = 1 + Math.max(leftHeight, rightHeight);
+        int balanceFactor = leftHeight - rightHeight;
+
+        if (balanceFactor < -1 || balanceFactor > 1)
+            return REBALANCE_REQUIRED;
+
+        return (height != newHeight) ? newHeight : NOTHING_REQUIRED;
+    }
+
+    /**
+     * Repairs damage from node upwards, one node at a time. Height changes only need
+     * the nodes own lock, rotations and unlinks lock the parent first. Nodes that
+     * need nothing are passed over without locking, and the walk always goes on to
+     * the root: a rotation reports only its deepest damage, so a stale height it
+     * left higher up is only found by looking.
+     * @param node
+     */
+    private void fixHeightAndRebalance(Node<T> node) {
+        while (node != null && node.parent != null) {
+            int condition = nodeCondition(node);
+            Node<T> next;
+
+            if (condition == NOTHING_REQUIRED || (node.version & UNLINKED) != 0) {
+                next = null;
+            } else if (condition != UNLINK_REQUIRED && condition != REBALANCE_REQUIRED) {
+                synchronized (node) {
+                    next = fixHeight(node);
+                }
+            } else {
+                // if the parent changed before we got its lock, look again
+                next = node;
+                Node<T> parent = node.parent;
+                synchronized (parent) {
+                    if ((parent.version & UNLINKED) == 0 && node.parent == parent) {
+                        synchronized (node) {
+                            next = rebalance(parent, node);
+                        }
+                    }
+                }
+            }
+
+            node = (next != null) ? next : node.parent;
+        }
+    }
+
+    /**
+     * Sets the height of node if that is all it needs. Caller holds its monitor.
+     * @return the next node that may need repair, or null if there is none
+     */
+    private Node<T> fixHeight(Node<T> node) {
+        int condition = nodeCondition(node);
+
+        if (condition == REBALANCE_REQUIRED || condition == UNLINK_REQUIRED)
+            return node;
+
+        if (condition == NOTHING_REQUIRED)
+            return null;
+
+        node.height = condition;
+        return node.parent;
+    }
+
+    /**
+     * Unlinks, rotates or refreshes node. Caller holds the monitors of parent and
+     * node.
+     * @return the next node that may need repair, or null if there is none
+     */
+    private Node<T> rebalance(Node<T> parent, Node<T> node) {
+        Node<T> left = node.left;
+        Node<T> right = node.right;
+
+        if ((left == null || right == null) && !node.present) {
+            if (attemptUnlink(parent, node))
+                return fixHeight(parent);
+
+            return node;
+        }
+
+        int height = node.height;
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        int newHeight = 1 + Math.max(leftHeight, rightHeight);
+        int balanceFactor = leftHeight - rightHeight;
+
+        if (balanceFactor > 1)
+            return rebalanceToRight(parent, node, left, rightHeight);
+
+        if (balanceFactor < -1)
+            return rebalanceToLeft(parent, node, right, leftHeight);
+
+        if (newHeight != height) {
+            node.height = newHeight;
+            return fixHeight(parent);
+        }
+
+        return null;
+    }
+
+    /**
+     * node is too heavy on the left. Rotates right, straightening a left-right
+     * zig-zag first, while holding the locks of the nodes that move.
+     */
+    private Node<T> rebalanceToRight(Node<T> parent, Node<T> node, Node<T> left, int rightHeight) {
+        synchronized (left) {
+            int leftHeight = left.height;
+            if (leftHeight - rightHeight <= 1)
+                return node;
+
+            Node<T> leftRight = left.right;
+            int leftLeftHeight = height(left.left);
+            int leftRightHeight = height(leftRight);
+
+            if (leftLeftHeight >= leftRightHeight)
+                return rotateRight(parent, node, left, rightHeight, leftLeftHeight, leftRight, leftRightHeight);
+
+            synchronized (leftRight) {
+                // the height we read may be stale, a single rotation may do
+                leftRightHeight = leftRight.height;
+                if (leftLeftHeight >= leftRightHeight)
+                    return rotateRight(parent, node, left, rightHeight, leftLeftHeight, leftRight, leftRightHeight);
+
+                // only do the double rotation if it leaves left in balance,
+                // otherwise fix left on its own and come back for node later
+                int leftRightLeftHeight = height(leftRight.left);
+                int balance = leftLeftHeight - leftRightLeftHeight;
+                if (balance >= -1 && balance <= 1
+                    && !((leftLeftHeight == 0 || leftRightLeftHeight == 0) && !left.present))
+                {
+                    return rotateRightOverLeft(parent, node, left, rightHeight, leftLeftHeight,
+                        leftRight, leftRightLeftHeight);
+                }
+
+                // left is a routing node that the double rotation would leave
+                // with an empty side. do the first half on its own, left comes
+                // out ready to be unlinked, and the repair of node continues
+                // from there
+                if (balance >= -1 && balance <= 1) {
+                    return rotateLeft(node, left, leftLeftHeight, leftRight, leftRight.left,
+                        leftRightLeftHeight, height(leftRight.right));
+                }
+            }
+
+            return rebalanceToLeft(node, left, leftRight, leftLeftHeight);
+        }
+    }
+
+    /**
+     * Mirror of rebalanceToRight().
+     */
+    private Node<T> rebalanceToLeft(Node<T> parent, Node<T> node, Node<T> right, int leftHeight) {
+        synchronized (right) {
+            int rightHeight = right.height;
+            if (leftHeight - rightHeight >= -1)
+                return node;
+
+            Node<T> rightLeft = right.left;
+            int rightLeftHeight = height(rightLeft);
+            int rightRightHeight = height(right.right);
+
+            if (rightRightHeight >= rightLeftHeight)
+                return rotateLeft(parent, node, leftHeight, right, rightLeft, rightLeftHeight, rightRightHeight);
+
+            synchronized (rightLeft) {
+                rightLeftHeight = rightLeft.height;
+                if (rightRightHeight >= rightLeftHeight)
+                    return rotateLeft(parent, node, leftHeight, right, rightLeft, rightLeftHeight, rightRightHeight);
+
+                int rightLeftRightHeight = height(rightLeft.right);
+                int balance = rightRightHeight - rightLeftRightHeight;
+                if (balance >= -1 && balance <= 1
+                    && !((rightRightHeight == 0 || rightLeftRightHeight == 0) && !right.present))
+                {
+                    return rotateLeftOverRight(parent, node, leftHeight, right, rightLeft,
+                        rightRightHeight, rightLeftRightHeight);
+                }
+
+                if (balance >= -1 && balance <= 1) {
+                    return rotateRight(node, right, rightLeft, rightRightHeight, height(rightLeft.left),
+                        rightLeft.right, rightLeftRightHeight);
+                }
+            }
+
+            return rebalanceToRight(node, right, rightLeft, rightRightHeight);
+        }
+    }
+
+    /**
+     * Rotates left up over node. node is marked shrinking for the duration, which
+     * is what sends concurrent readers below it back up.
+     * @return the next node that may need repair, or null if there is none
+     */
+    private Node<T> rotateRight(Node<T> parent, Node<T> node, Node<T> left, int rightHeight,
+        int leftLeftHeight, Node<T> leftRight, int leftRightHeight)
+    {
+        long nodeVersion = node.version;
+        Node<T> parentLeft = parent.left;
+
+        node.version = nodeVersion | SHRINKING;
+
+        node.left = leftRight;
+        if (leftRight != null)
+            leftRight.parent = node;
+
+        left.right = node;
+        node.parent = left;
+
+        if (parentLeft == node)
+            parent.left = left;
+        else
+            parent.right = left;
+        left.parent = parent;
+
+        int newNodeHeight = 1 + Math.max(leftRightHeight, rightHeight);
+        node.height = newNodeHeight;
+        left.height = 1 + Math.max(leftLeftHeight, newNodeHeight);
+
+        node.version = nodeVersion + VERSION_STEP;
+
+        // node is the deepest damage, see how much we can fix with these locks
+        int nodeBalance = leftRightHeight - rightHeight;
+        if (nodeBalance < -1 || nodeBalance > 1)
+            return node;
+
+        if ((leftRight == null || rightHeight == 0) && !node.present)
+            return node;
+
+        int leftBalance = leftLeftHeight - newNodeHeight;
+        if (leftBalance < -1 || leftBalance > 1)
+            return left;
+
+        if (leftLeftHeight == 0 && !left.present)
+            return left;
+
+        return fixHeight(parent);
+    }
+
+    /**
+     * Mirror of rotateRight().
+     */
+    private Node<T> rotateLeft(Node<T> parent, Node<T> node, int leftHeight, Node<T> right,
+        Node<T> rightLeft, int rightLeftHeight, int rightRightHeight)
+    {
+        long nodeVersion = node.version;
+        Node<T> parentLeft = parent.left;
+
+        node.version = nodeVersion | SHRINKING;
+
+        node.right = rightLeft;
+        if (rightLeft != null)
+            rightLeft.parent = node;
+
+        right.left = node;
+        node.parent = right;
+
+        if (parentLeft == node)
+            parent.left = right;
+        else
+            parent.right = right;
+        right.parent = parent;
+
+        int newNodeHeight = 1 + Math.max(leftHeight, rightLeftHeight);
+        node.height = newNodeHeight;
+        right.height = 1 + Math.max(newNodeHeight, rightRightHeight);
+
+        node.version = nodeVersion + VERSION_STEP;
+
+        int nodeBalance = leftHeight - rightLeftHeight;
+        if (nodeBalance < -1 || nodeBalance > 1)
+            return node;
+
+        if ((rightLeft == null || leftHeight == 0) && !node.present)
+            return node;
+
+        int rightBalance = newNodeHeight - rightRightHeight;
+        if (rightBalance < -1 || rightBalance > 1)
+            return right;
+
+        if (rightRightHeight == 0 && !right.present)
+            return right;
+
+        return fixHeight(parent);
+    }
+
+    /**
+     * Double rotation, leftRight ends up where node was. Both node and left move
+     * down, so both are marked shrinking.
+     * @return the next node that may need repair, or null if there is none
+     */
+    private Node<T> rotateRightOverLeft(Node<T> parent, Node<T> node, Node<T> left, int rightHeight,
+        int leftLeftHeight, Node<T> leftRight, int leftRightLeftHeight)
+    {
+        long nodeVersion = node.version;
+        long leftVersion = left.version;
+
+        Node<T> parentLeft = parent.left;
+        Node<T> leftRightLeft = leftRight.left;
+        Node<T> leftRightRight = leftRight.right;
+        int leftRightRightHeight = height(leftRightRight);
+
+        node.version = nodeVersion | SHRINKING;
+        left.version = leftVersion | SHRINKING;
+
+        node.left = leftRightRight;
+        if (leftRightRight != null)
+            leftRightRight.parent = node;
+
+        left.right = leftRightLeft;
+        if (leftRightLeft != null)
+            leftRightLeft.parent = left;
+
+        leftRight.left = left;
+        left.parent = leftRight;
+        leftRight.right = node;
+        node.parent = leftRight;
+
+        if (parentLeft == node)
+            parent.left = leftRight;
+        else
+            parent.right = leftRight;
+        leftRight.parent = parent;
+
+        int newNodeHeight = 1 + Math.max(leftRightRightHeight, rightHeight);
+        node.height = newNodeHeight;
+        int newLeftHeight = 1 + Math.max(leftLeftHeight, leftRightLeftHeight);
+        left.height = newLeftHeight;
+        leftRight.height = 1 + Math.max(newLeftHeight, newNodeHeight);
+
+        node.version = nodeVersion + VERSION_STEP;
+        left.version = leftVersion + VERSION_STEP;
+
+        int nodeBalance = leftRightRightHeight - rightHeight;
+        if (nodeBalance < -1 || nodeBalance > 1)
+            return node;
+
+        if ((leftRightRight == null || rightHeight == 0) && !node.present)
+            return node;
+
+        int leftRightBalance = newLeftHeight - newNodeHeight;
+        if (leftRightBalance < -1 || leftRightBalance > 1)
+            return leftRight;
+
+        return fixHeight(parent);
+    }
+
+    /**
+     * Mirror of rotateRightOverLeft().
+     */
+    private Node<T> rotateLeftOverRight(Node<T> parent, Node<T> node, int leftHeight, Node<T> right,
+        Node<T> rightLeft, int rightRightHeight, int rightLeftRightHeight)
+    {
+        long nodeVersion = node.version;
+        long rightVersion = right.version;
+
+        Node<T> parentLeft = parent.left;
+        Node<T> rightLeftLeft = rightLeft.left;
+        Node<T> rightLeftRight = rightLeft.right;
+        int rightLeftLeftHeight = height(rightLeftLeft);
+
+        node.version = nodeVersion | SHRINKING;
+        right.version = rightVersion | SHRINKING;
+
+        node.right = rightLeftLeft;
+        if (rightLeftLeft != null)
+            rightLeftLeft.parent = node;
+
+        right.left = rightLeftRight;
+        if (rightLeftRight != null)
+            rightLeftRight.parent = right;
+
+        rightLeft.right = right;
+        right.parent = rightLeft;
+        rightLeft.left = node;
+        node.parent = rightLeft;
+
+        if (parentLeft == node)
+            parent.left = rightLeft;
+        else
+            parent.right = rightLeft;
+        rightLeft.parent = parent;
+
+        int newNodeHeight = 1 + Math.max(leftHeight, rightLeftLeftHeight);
+        node.height = newNodeHeight;
+        int newRightHeight = 1 + Math.max(rightLeftRightHeight, rightRightHeight);
+        right.height = newRightHeight;
+        rightLeft.height = 1 + Math.max(newNodeHeight, newRightHeight);
+
+        node.version = nodeVersion + VERSION_STEP;
+        right.version = rightVersion + VERSION_STEP;
+
+        int nodeBalance = leftHeight - rightLeftLeftHeight;
+        if (nodeBalance < -1 || nodeBalance > 1)
+            return node;
+
+        if ((rightLeftLeft == null || leftHeight == 0) && !node.present)
+            return node;
+
+        int rightLeftBalance = newNodeHeight - newRightHeight;
+        if (rightLeftBalance < -1 || rightLeftBalance > 1)
+            return rightLeft;
+
+        return fixHeight(parent);
+    }
+}
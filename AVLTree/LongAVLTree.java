@@ -0,0 +1,309 @@
+package AVLTree;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
+/**
+ * AVL tree over primitive long keys. Same balancing as AVLTree, but the keys are
+ * stored unboxed in the nodes and compared with plain operators, so lookups and
+ * iteration never allocate wrapper objects. Duplicates are kept, just like in AVLTree.
+ * @author Matthew Smith
+ */
+public class LongAVLTree {
+
+    /**
+     * Simple node holding an unboxed key and the height of its subtree.
+     */
+    private static final class Node {
+        long key;
+        int height;
+        Node parent;
+        Node left;
+        Node right;
+
+        Node(long key) {
+            this.key = key;
+            this.height = 1;
+        }
+    }
+
+    // root node
+    private Node root;
+
+    // number of keys, duplicates included
+    private int size;
+
+    /**
+     * Simple constructor.
+     */
+    public LongAVLTree() {
+        this.root = null;
+        this.size = 0;
+    }
+
+    /**
+     * Inserts key into the tree. A duplicate goes in just before the equal keys
+     * already in the tree.
+     * @param key
+     */
+    public void insert(long key) {
+        Node insertNode = new Node(key);
+        this.size++;
+
+        if (this.root == null) {
+            this.root = insertNode;
+            return;
+        }
+
+        Node search = this.root;
+        while (true) {
+            if (key <= search.key) {
+                if (search.left == null) {
+                    search.left = insertNode;
+                    break;
+                }
+                search = search.left;
+            } else {
+                if (search.right == null) {
+                    search.right = insertNode;
+                    break;
+                }
+                search = search.right;
+            }
+        }
+
+        insertNode.parent = search;
+        rebalanceUpwards(search);
+    }
+
+    /**
+     * Searches the tree for key.
+     * @param key
+     * @return true if the tree contains key
+     */
+    public boolean contains(long key) {
+        return find(key) != null;
+    }
+
+    /**
+     * Removes one occurrence of key from the tree.
+     * @param key
+     * @return true if key was found and removed
+     *         false if the tree did not contain key
+     */
+    public boolean delete(long key) {
+        Node deletionNode = find(key);
+        if (deletionNode == null)
+            return false;
+
+        // two children, take the successors key and remove the successor
+        if (deletionNode.left != null && deletionNode.right != null) {
+            Node successor = deletionNode.right;
+            while (successor.left != null)
+                successor = successor.left;
+
+            deletionNode.key = successor.key;
+            deletionNode = successor;
+        }
+
+        Node parent = deletionNode.parent;
+        Node child = (deletionNode.left != null) ? deletionNode.left : deletionNode.right;
+
+        if (child != null)
+            child.parent = parent;
+
+        if (parent == null)
+            this.root = child;
+        else if (parent.left == deletionNode)
+            parent.left = child;
+        else
+            parent.right = child;
+
+        this.size--;
+        rebalanceUpwards(parent);
+        return true;
+    }
+
+    /**
+     * Returns the height of the tree. O(1), read from the root.
+     */
+    public int height() {
+        return height(this.root);
+    }
+
+    /**
+     * Returns how many keys the tree holds.
+     * @return
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks to see if the tree is empty.
+     * @return
+     */
+    public boolean isEmpty() {
+        return this.root == null;
+    }
+
+    /**
+     * Clears the tree.
+     */
+    public void clear() {
+        this.root = null;
+        this.size = 0;
+    }
+
+    /**
+     * Returns an iterator over the keys in ascending order. It steps from node to
+     * node with the parent links, so it holds a single node reference and next()
+     * returns an unboxed key.
+     * @return
+     */
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private Node next = first(LongAVLTree.this.root);
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public long nextLong() {
+                if (this.next == null)
+                    throw new NoSuchElementException();
+
+                long key = this.next.key;
+                this.next = successor(this.next);
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Hands every key to action in ascending order.
+     * @param action
+     */
+    public void forEach(LongConsumer action) {
+        for (Node node = first(this.root); node != null; node = successor(node))
+            action.accept(node.key);
+    }
+
+    /**
+     * Finds a node holding key.
+     * @param key
+     * @return the node, or null if there is none
+     */
+    private Node find(long key) {
+        Node search = this.root;
+        while (search != null && search.key != key)
+            search = (key < search.key) ? search.left : search.right;
+
+        return search;
+    }
+
+    /**
+     * Leftmost node of a subtree.
+     * @param node
+     * @return null if node is null
+     */
+    private static Node first(Node node) {
+        if (node != null)
+            while (node.left != null)
+                node = node.left;
+
+        return node;
+    }
+
+    /**
+     * In-order successor using the parent links.
+     * @param node
+     * @return the next node, or null if node was the last
+     */
+    private static Node successor(Node node) {
+        if (node.right != null)
+            return first(node.right);
+
+        while (node.parent != null && node.parent.right == node)
+            node = node.parent;
+
+        return node.parent;
+    }
+
+    private static int height(Node node) {
+        return (node == null) ? 0 : node.height;
+    }
+
+    private static void updateHeight(Node node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    /**
+     * Walks from node up to the root, refreshing heights and rotating wherever a
+     * balance factor reached two. Same cases as AVLTree.ensureBalance().
+     * @param node
+     */
+    private void rebalanceUpwards(Node node) {
+        while (node != null) {
+            Node parent = node.parent;
+            updateHeight(node);
+            int balanceFactor = height(node.left) - height(node.right);
+
+            if (balanceFactor >= 2) {
+                Node left = node.left;
+                if (height(left.left) < height(left.right))
+                    rotate(left.right, left);
+
+                rotate(node.left, node);
+            } else if (balanceFactor <= -2) {
+                Node right = node.right;
+                if (height(right.right) < height(right.left))
+                    rotate(right.left, right);
+
+                rotate(node.right, node);
+            }
+
+            node = parent;
+        }
+    }
+
+    /**
+     * Method used to rotate a child in the parents direction.
+     * @param child
+     * @param parent
+     */
+    private void rotate(Node child, Node parent) {
+        Node grandparentNode = parent.parent;
+        Node liminalNode;
+
+        if (parent.right == child) {
+            liminalNode = child.left;
+            child.left = parent;
+            parent.right = liminalNode;
+        } else {
+            liminalNode = child.right;
+            child.right = parent;
+            parent.left = liminalNode;
+        }
+
+        if (liminalNode != null)
+            liminalNode.parent = parent;
+
+        parent.parent = child;
+        child.parent = grandparentNode;
+
+        if (grandparentNode == null)
+            this.root = child;
+        else if (grandparentNode.left == parent)
+            grandparentNode.left = child;
+        else
+            grandparentNode.right = child;
+
+        // parent is now below child, so refresh it first
+        updateHeight(parent);
+        updateHeight(child);
+    }
+}
@@ -10,6 +10,12 @@ public class Node<T extends Comparable<T>> {
     public Node<T> parent;
     public Node<T> left;
     public Node<T> right;
+    public int height;
+    public int size;
+    public int count;
+
+    // nodes in the subtree rooted here, tombstones included
+    public int nodes;
     
     /**
      * Constructor. Only way to set data.
@@ -20,13 +26,66 @@ public class Node<T extends Comparable<T>> {
         this.parent = null;
         this.left = null;
         this.right = null;
+        this.height = 1;
+        this.size = 1;
+        this.count = 1;
+        this.nodes = 1;
     }
 
     public boolean isRightChild() {
         if (this.getParent() == null)
             return false;
 
-        return (this.getData().compareTo(this.getParent().getData()) > 0) ? true : false;
+        return (this.getParent().getRight() == this) ? true : false;
+    }
+
+    /**
+     * Recomputes the cached height from the cached heights of the children. Only
+     * valid if both children are already up to date, so callers work bottom up.
+     */
+    public void updateHeight() {
+        int leftHeight = (this.left == null) ? 0 : this.left.height;
+        int rightHeight = (this.right == null) ? 0 : this.right.height;
+        this.height = 1 + Math.max(leftHeight, rightHeight);
+    }
+
+    /**
+     * Recomputes the number of elements in the subtree rooted here from the sizes
+     * cached in the children, counting this node count times, and the number of
+     * nodes. Same bottom up rule as updateHeight().
+     */
+    public void updateSize() {
+        this.size = this.count + sizeOf(this.left) + sizeOf(this.right);
+        this.nodes = 1 + nodesOf(this.left) + nodesOf(this.right);
+    }
+
+    /**
+     * Null safe subtree size.
+     * @param node
+     * @return 0 if node is null, otherwise the size cached in node
+     */
+    public static int sizeOf(Node<?> node) {
+        return (node == null) ? 0 : node.size;
+    }
+
+    /**
+     * Null safe subtree node count.
+     * @param node
+     * @return 0 if node is null, otherwise the node count cached in node
+     */
+    public static int nodesOf(Node<?> node) {
+        return (node == null) ? 0 : node.nodes;
+    }
+
+    /**
+     * Height of the left subtree minus the height of the right subtree, read from
+     * the cached child heights.
+     * @return the balance factor of this node
+     */
+    public int getBalanceFactor() {
+        int leftHeight = (this.left == null) ? 0 : this.left.height;
+        int rightHeight = (this.right == null) ? 0 : this.right.height;
+        return leftHeight - rightHeight;
     }
 
     // getters and setters
@@ -46,6 +105,26 @@ public class Node<T extends Comparable<T>> {
         return this.right;
     }
 
+    public int getHeight() {
+        return this.height;
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    public int getNodes() {
+        return this.nodes;
+    }
+
+    public void setData(T data) {
+        this.data = data;
+    }
+
     public void setParent(Node<T> parentNode) {
         this.parent = parentNode;
     }
@@ -57,4 +136,20 @@ public class Node<T extends Comparable<T>> {
     public void setRight(Node<T> rightNode) {
         this.right = rightNode;
     }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public void setNodes(int nodes) {
+        this.nodes = nodes;
+    }
 }
\ No newline at end of file
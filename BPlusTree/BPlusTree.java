@@ -0,0 +1,538 @@
+package BPlusTree;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * In-memory B+ tree holding a sorted set. Every node keeps up to capacity keys in
+ * one sorted array, so a lookup touches one node per level, and a level holds
+ * capacity times as many keys as the one above it. With the default capacity a
+ * tree of a hundred million keys is five levels deep, where a red-black tree is
+ * thirty or more. Keys are only stored in the leaves; inner nodes hold separators.
+ * The leaves are linked in order, so iteration and range scans walk straight along
+ * the key arrays without going back up the tree.
+ *
+ * Unlike RedBlackTree this is a set, inserting an element that is already present
+ * does nothing.
+ * @author Matthew Smith
+ */
+public class BPlusTree<T extends Comparable<T>> implements Iterable<T> {
+
+    // 64 compressed references fill four 64 byte cache lines
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * Keys of a node, sorted. The array has one slot more than the capacity so a
+     * node can overflow by one key before it is split.
+     */
+    private static class Node {
+        final Object[] keys;
+        int count;
+
+        Node(int capacity) {
+            this.keys = new Object[capacity + 1];
+            this.count = 0;
+        }
+    }
+
+    /**
+     * Leaf holding the elements themselves, linked to the next leaf.
+     */
+    private static final class Leaf extends Node {
+        Leaf next;
+
+        Leaf(int capacity) {
+            super(capacity);
+        }
+    }
+
+    /**
+     * Inner node. children[i] holds the elements less than keys[i], and at least
+     * keys[i - 1]. It has count + 1 children.
+     */
+    private static final class Inner extends Node {
+        final Node[] children;
+
+        Inner(int capacity) {
+            super(capacity);
+            this.children = new Node[capacity + 2];
+        }
+    }
+
+    // most keys in a node, and the fewest any node but the root may have
+    private final int capacity;
+    private final int minimum;
+
+    private Node root;
+
+    // first leaf, where iteration starts
+    private Leaf head;
+
+    private int size;
+    private int height;
+
+    // separator handed up by the last split during an insert
+    private Object splitKey;
+
+    /**
+     * Simple constructor, nodes hold up to 64 keys.
+     */
+    public BPlusTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a tree whose nodes hold up to capacity keys. Nodes are split when
+     * they overflow and merged when they fall under half full.
+     * @param capacity
+     * @throws IllegalArgumentException when capacity is less than 4
+     */
+    public BPlusTree(int capacity) throws IllegalArgumentException {
+        if (capacity < 4)
+            throw new IllegalArgumentException("Node capacity must be at least 4.");
+
+        this.capacity = capacity;
+        this.minimum = capacity / 2;
+        clear();
+    }
+
+    /**
+     * Adds data to the tree if it is not already there.
+     * @param data
+     * @return true if data was added
+     *         false if it was already present
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean insert(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not insert null into a tree.");
+
+        if (this.root == null) {
+            this.head = new Leaf(this.capacity);
+            this.root = this.head;
+            this.height = 1;
+        }
+
+        int oldSize = this.size;
+        Node sibling = insertHelper(this.root, data);
+
+        // the root split, grow a new root above both halves
+        if (sibling != null) {
+            Inner newRoot = new Inner(this.capacity);
+            newRoot.keys[0] = this.splitKey;
+            newRoot.children[0] = this.root;
+            newRoot.children[1] = sibling;
+            newRoot.count = 1;
+            this.root = newRoot;
+            this.height++;
+        }
+
+        this.splitKey = null;
+        return this.size != oldSize;
+    }
+
+    /**
+     * Inserts data below node.
+     * @param node
+     * @param data
+     * @return the new right half if node had to be split, its first key is left in
+     *         splitKey, otherwise null
+     */
+    private Node insertHelper(Node node, T data) {
+        if (node instanceof Leaf) {
+            int index = search(node, data);
+            if (index >= 0)
+                return null;
+
+            insertKey(node, -index - 1, data);
+            this.size++;
+            return (node.count > this.capacity) ? splitLeaf((Leaf) node) : null;
+        }
+
+        Inner inner = (Inner) node;
+        int index = childIndex(inner, data);
+        Node sibling = insertHelper(inner.children[index], data);
+        if (sibling == null)
+            return null;
+
+        insertKey(inner, index, this.splitKey);
+        System.arraycopy(inner.children, index + 1, inner.children, index + 2, inner.count - index - 1);
+        inner.children[index + 1] = sibling;
+
+        return (inner.count > this.capacity) ? splitInner(inner) : null;
+    }
+
+    /**
+     * Searches the tree for the specified data. One binary search per level.
+     * @param data
+     * @return true if tree contains the data
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean contains(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not search a tree for null.");
+
+        return this.root != null && search(findLeaf(data), data) >= 0;
+    }
+
+    /**
+     * Removes data from the tree.
+     * @param data
+     * @return true if data was removed
+     *         false if it was not present
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean delete(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not delete null from a tree.");
+
+        if (this.root == null || !deleteHelper(this.root, data))
+            return false;
+
+        if (this.size == 0) {
+            clear();
+        } else if (this.root instanceof Inner && this.root.count == 0) {
+            // the root lost its last separator, its only child takes over
+            this.root = ((Inner) this.root).children[0];
+            this.height--;
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes data below node and refills any child that fell under half full on
+     * the way back up. Separators equal to a deleted key are left alone, they still
+     * divide the children correctly.
+     * @param node
+     * @param data
+     * @return true if data was found
+     */
+    private boolean deleteHelper(Node node, T data) {
+        if (node instanceof Leaf) {
+            int index = search(node, data);
+            if (index < 0)
+                return false;
+
+            removeKey(node, index);
+            this.size--;
+            return true;
+        }
+
+        Inner inner = (Inner) node;
+        int index = childIndex(inner, data);
+        if (!deleteHelper(inner.children[index], data))
+            return false;
+
+        if (inner.children[index].count < this.minimum)
+            rebalance(inner, index);
+
+        return true;
+    }
+
+    /**
+     * Returns how many elements the tree holds.
+     * @return
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Returns the number of levels, 0 for an empty tree. Every leaf is this deep.
+     */
+    public int height() {
+        return this.height;
+    }
+
+    /**
+     * Clears this tree of all nodes.
+     */
+    public void clear() {
+        this.root = null;
+        this.head = null;
+        this.size = 0;
+        this.height = 0;
+    }
+
+    /**
+     * Returns an iterator over the elements in ascending order. It walks the leaf
+     * chain, so each step is a read of the next slot in an array.
+     * @return
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new LeafIterator(this.head, 0, null);
+    }
+
+    /**
+     * Returns an iterator over the elements in [lo, hi] in ascending order. One
+     * descent finds lo, after that it walks the leaf chain.
+     * @param lo
+     * @param hi
+     * @return
+     * @throws IllegalArgumentException when lo or hi is null
+     */
+    public Iterator<T> range(T lo, T hi) throws IllegalArgumentException {
+        if (lo == null || hi == null)
+            throw new IllegalArgumentException("range() bounds can not be null.");
+
+        if (this.root == null)
+            return new LeafIterator(null, 0, hi);
+
+        Leaf leaf = findLeaf(lo);
+        int index = search(leaf, lo);
+        return new LeafIterator(leaf, (index >= 0) ? index : -index - 1, hi);
+    }
+
+    /**
+     * Hands every element to action in ascending order, one key array at a time.
+     * @param action
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super T> action) {
+        for (Leaf leaf = this.head; leaf != null; leaf = leaf.next) {
+            Object[] keys = leaf.keys;
+            for (int i = 0, count = leaf.count; i < count; i++)
+                action.accept((T) keys[i]);
+        }
+    }
+
+    /**
+     * Iterator walking the leaf chain from a starting slot, stopping at the end of
+     * the tree or after the last element not greater than hi.
+     */
+    private final class LeafIterator implements Iterator<T> {
+        private Leaf leaf;
+        private int index;
+        // inclusive upper bound, null for none
+        private final T hi;
+
+        LeafIterator(Leaf leaf, int index, T hi) {
+            this.leaf = leaf;
+            this.index = index;
+            this.hi = hi;
+            skipFinishedLeaves();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean hasNext() {
+            return this.leaf != null
+                && (this.hi == null || ((T) this.leaf.keys[this.index]).compareTo(this.hi) <= 0);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            T data = (T) this.leaf.keys[this.index++];
+            skipFinishedLeaves();
+            return data;
+        }
+
+        private void skipFinishedLeaves() {
+            while (this.leaf != null && this.index >= this.leaf.count) {
+                this.leaf = this.leaf.next;
+                this.index = 0;
+            }
+        }
+    }
+
+    /**
+     * Walks down to the leaf where data is or would be.
+     * @param data
+     * @return
+     */
+    private Leaf findLeaf(T data) {
+        Node node = this.root;
+        while (node instanceof Inner)
+            node = ((Inner) node).children[childIndex((Inner) node, data)];
+
+        return (Leaf) node;
+    }
+
+    /**
+     * Binary search over the keys of node.
+     * @param node
+     * @param data
+     * @return the index of data, or (-(insertion point) - 1) if it is not there
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Comparable<T>> int search(Node node, T data) {
+        Object[] keys = node.keys;
+        int low = 0;
+        int high = node.count - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = ((T) keys[middle]).compareTo(data);
+
+            if (comparison < 0)
+                low = middle + 1;
+            else if (comparison > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+
+        return -(low + 1);
+    }
+
+    /**
+     * Which child of inner holds data: the one after the last separator not
+     * greater than data.
+     */
+    private static <T extends Comparable<T>> int childIndex(Inner inner, T data) {
+        int index = search(inner, data);
+        return (index >= 0) ? index + 1 : -index - 1;
+    }
+
+    private static void insertKey(Node node, int index, Object key) {
+        System.arraycopy(node.keys, index, node.keys, index + 1, node.count - index);
+        node.keys[index] = key;
+        node.count++;
+    }
+
+    private static void removeKey(Node node, int index) {
+        System.arraycopy(node.keys, index + 1, node.keys, index, node.count - index - 1);
+        node.keys[--node.count] = null;
+    }
+
+    /**
+     * Moves the upper half of an overflowing leaf into a new leaf after it.
+     * @param leaf
+     * @return the new leaf, its first key is left in splitKey
+     */
+    private Leaf splitLeaf(Leaf leaf) {
+        Leaf right = new Leaf(this.capacity);
+        int keep = leaf.count / 2;
+
+        right.count = leaf.count - keep;
+        System.arraycopy(leaf.keys, keep, right.keys, 0, right.count);
+        Arrays.fill(leaf.keys, keep, leaf.count, null);
+        leaf.count = keep;
+
+        right.next = leaf.next;
+        leaf.next = right;
+
+        this.splitKey = right.keys[0];
+        return right;
+    }
+
+    /**
+     * Moves the upper half of an overflowing inner node into a new node. The middle
+     * key moves up instead of into either half.
+     * @param inner
+     * @return the new node, the middle key is left in splitKey
+     */
+    private Inner splitInner(Inner inner) {
+        Inner right = new Inner(this.capacity);
+        int keep = inner.count / 2;
+
+        this.splitKey = inner.keys[keep];
+        right.count = inner.count - keep - 1;
+        System.arraycopy(inner.keys, keep + 1, right.keys, 0, right.count);
+        System.arraycopy(inner.children, keep + 1, right.children, 0, right.count + 1);
+        Arrays.fill(inner.keys, keep, inner.count, null);
+        Arrays.fill(inner.children, keep + 1, inner.count + 1, null);
+        inner.count = keep;
+
+        return right;
+    }
+
+    /**
+     * Refills parent.children[index], which fell under half full. Borrows a key
+     * from a sibling that can spare one, otherwise merges with a sibling.
+     * @param parent
+     * @param index
+     */
+    private void rebalance(Inner parent, int index) {
+        Node child = parent.children[index];
+        Node left = (index > 0) ? parent.children[index - 1] : null;
+        Node right = (index < parent.count) ? parent.children[index + 1] : null;
+
+        if (left != null && left.count > this.minimum)
+            borrowFromLeft(parent, index, left, child);
+        else if (right != null && right.count > this.minimum)
+            borrowFromRight(parent, index, child, right);
+        else if (left != null)
+            merge(parent, index - 1, left, child);
+        else
+            merge(parent, index, child, right);
+    }
+
+    private static void borrowFromLeft(Inner parent, int index, Node left, Node child) {
+        if (child instanceof Leaf) {
+            insertKey(child, 0, left.keys[left.count - 1]);
+            removeKey(left, left.count - 1);
+            parent.keys[index - 1] = child.keys[0];
+            return;
+        }
+
+        // rotate through the parent, the separator comes down and the last key of
+        // left goes up, taking its last child across
+        Inner innerChild = (Inner) child;
+        Inner innerLeft = (Inner) left;
+        System.arraycopy(innerChild.children, 0, innerChild.children, 1, innerChild.count + 1);
+        innerChild.children[0] = innerLeft.children[innerLeft.count];
+        innerLeft.children[innerLeft.count] = null;
+        insertKey(innerChild, 0, parent.keys[index - 1]);
+        parent.keys[index - 1] = innerLeft.keys[innerLeft.count - 1];
+        removeKey(innerLeft, innerLeft.count - 1);
+    }
+
+    private static void borrowFromRight(Inner parent, int index, Node child, Node right) {
+        if (child instanceof Leaf) {
+            insertKey(child, child.count, right.keys[0]);
+            removeKey(right, 0);
+            parent.keys[index] = right.keys[0];
+            return;
+        }
+
+        Inner innerChild = (Inner) child;
+        Inner innerRight = (Inner) right;
+        insertKey(innerChild, innerChild.count, parent.keys[index]);
+        innerChild.children[innerChild.count] = innerRight.children[0];
+        parent.keys[index] = innerRight.keys[0];
+        System.arraycopy(innerRight.children, 1, innerRight.children, 0, innerRight.count);
+        innerRight.children[innerRight.count] = null;
+        removeKey(innerRight, 0);
+    }
+
+    /**
+     * Moves everything in right into left and drops right and the separator between
+     * them from parent.
+     * @param parent
+     * @param separator index of the separator between left and right
+     * @param left
+     * @param right
+     */
+    private void merge(Inner parent, int separator, Node left, Node right) {
+        if (left instanceof Leaf) {
+            ((Leaf) left).next = ((Leaf) right).next;
+        } else {
+            // inner nodes take the separator down between the two key runs
+            Inner innerLeft = (Inner) left;
+            System.arraycopy(((Inner) right).children, 0, innerLeft.children, left.count + 1, right.count + 1);
+            left.keys[left.count++] = parent.keys[separator];
+        }
+
+        System.arraycopy(right.keys, 0, left.keys, left.count, right.count);
+        left.count += right.count;
+
+        removeKey(parent, separator);
+        System.arraycopy(parent.children, separator + 2, parent.children, separator + 1,
+            parent.count - separator);
+        parent.children[parent.count + 1] = null;
+    }
+}
@@ -0,0 +1,180 @@
+package BPlusTree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.*;
+
+/**
+ * Class for testing BPlusTree package. Utilizes JUnit Jupiter otherwise known as
+ * JUnit 5.
+ * @author Matthew Smith
+ */
+class BPlusTreeTests {
+
+    /**
+     * BPlusTree Tester
+     */
+    @Test
+    protected void testClassBPlusTree() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BPlusTree<Integer>(3));
+
+        BPlusTree<Integer> tree = new BPlusTree<Integer>(4);
+        Assertions.assertTrue(tree.isEmpty());
+        Assertions.assertEquals(0, tree.height());
+        Assertions.assertFalse(tree.contains(1));
+        Assertions.assertFalse(tree.delete(1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tree.insert(null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tree.contains(null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tree.delete(null));
+
+        // 1. Inserts split nodes, duplicates are ignored
+        for (int i = 0; i < 100; i++)
+            Assertions.assertTrue(tree.insert(i));
+        Assertions.assertFalse(tree.insert(50));
+        Assertions.assertEquals(100, tree.size());
+        Assertions.assertTrue(tree.height() > 2);
+        for (int i = 0; i < 100; i++)
+            Assertions.assertTrue(tree.contains(i));
+        Assertions.assertFalse(tree.contains(100));
+
+        // 2. Deletes merge nodes until the tree is empty again
+        for (int i = 0; i < 100; i += 2)
+            Assertions.assertTrue(tree.delete(i));
+        Assertions.assertFalse(tree.delete(0));
+        Assertions.assertEquals(50, tree.size());
+        for (int i = 0; i < 100; i++)
+            Assertions.assertEquals(i % 2 == 1, tree.contains(i));
+        for (int i = 1; i < 100; i += 2)
+            Assertions.assertTrue(tree.delete(i));
+        Assertions.assertTrue(tree.isEmpty());
+        Assertions.assertEquals(0, tree.height());
+    }
+
+    /**
+     * Random inserts and deletes checked against TreeSet
+     */
+    @Test
+    protected void testAgainstTreeSet() {
+        Random random = new Random(14);
+
+        for (int capacity : new int[] { 4, 5, 64 }) {
+            BPlusTree<Integer> tree = new BPlusTree<Integer>(capacity);
+            TreeSet<Integer> expected = new TreeSet<Integer>();
+
+            for (int i = 0; i < 20000; i++) {
+                int value = random.nextInt(2000);
+                if (random.nextInt(10) < 6)
+                    Assertions.assertEquals(expected.add(value), tree.insert(value));
+                else
+                    Assertions.assertEquals(expected.remove(value), tree.delete(value));
+            }
+
+            Assertions.assertEquals(expected.size(), tree.size());
+
+            List<Integer> elements = new ArrayList<Integer>();
+            tree.forEach(elements::add);
+            Assertions.assertEquals(new ArrayList<Integer>(expected), elements);
+
+            elements.clear();
+            for (int element : tree)
+                elements.add(element);
+            Assertions.assertEquals(new ArrayList<Integer>(expected), elements);
+        }
+    }
+
+    /**
+     * Iterator and range Tester
+     */
+    @Test
+    protected void testIterators() {
+        BPlusTree<Integer> tree = new BPlusTree<Integer>(4);
+        Assertions.assertFalse(tree.iterator().hasNext());
+        Assertions.assertThrows(NoSuchElementException.class, () -> tree.iterator().next());
+
+        for (int i = 0; i < 50; i++)
+            tree.insert(i * 2);
+
+        List<Integer> elements = new ArrayList<Integer>();
+        tree.range(9, 21).forEachRemaining(elements::add);
+        Assertions.assertEquals(List.of(10, 12, 14, 16, 18, 20), elements);
+
+        Assertions.assertFalse(tree.range(99, 200).hasNext());
+        Assertions.assertFalse(tree.range(5, 4).hasNext());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tree.range(null, 4));
+
+        Iterator<Integer> iterator = tree.range(-10, 0);
+        Assertions.assertEquals(0, iterator.next());
+        Assertions.assertFalse(iterator.hasNext());
+    }
+
+    /**
+     * MappedBPlusTree Tester
+     */
+    @Test
+    protected void testMappedBPlusTree() throws IOException {
+        Path file = Files.createTempFile("MappedBPlusTree", ".tree");
+        Files.delete(file);
+
+        try {
+            // 1. Enough keys to need inner pages, every other one deleted again
+            try (MappedBPlusTree tree = new MappedBPlusTree(file)) {
+                Assertions.assertTrue(tree.isEmpty());
+                for (long i = 0; i < 100000; i++)
+                    Assertions.assertTrue(tree.insert(i * 3));
+                Assertions.assertFalse(tree.insert(0));
+                for (long i = 0; i < 100000; i += 2)
+                    Assertions.assertTrue(tree.delete(i * 3));
+                Assertions.assertFalse(tree.delete(1));
+                Assertions.assertEquals(50000, tree.size());
+                Assertions.assertTrue(tree.height() > 1);
+            }
+
+            // 2. Everything is still there after opening the file again
+            try (MappedBPlusTree tree = new MappedBPlusTree(file)) {
+                Assertions.assertEquals(50000, tree.size());
+                Assertions.assertTrue(tree.contains(3));
+                Assertions.assertFalse(tree.contains(6));
+                Assertions.assertFalse(tree.contains(4));
+
+                PrimitiveIterator.OfLong keys = tree.iterator();
+                for (long i = 1; i < 100000; i += 2)
+                    Assertions.assertEquals(i * 3, keys.nextLong());
+                Assertions.assertFalse(keys.hasNext());
+
+                List<Long> range = new ArrayList<Long>();
+                tree.range(10, 30).forEachRemaining((long key) -> range.add(key));
+                Assertions.assertEquals(List.of(15L, 21L, 27L), range);
+                Assertions.assertFalse(tree.range(30, 10).hasNext());
+
+                for (long i = 1; i < 100000; i += 2)
+                    Assertions.assertTrue(tree.delete(i * 3));
+                Assertions.assertTrue(tree.isEmpty());
+                Assertions.assertEquals(0, tree.height());
+            }
+
+            // 3. A closed tree can not be used
+            MappedBPlusTree tree = new MappedBPlusTree(file);
+            tree.close();
+            Assertions.assertThrows(IllegalStateException.class, () -> tree.insert(1));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        // 4. Files that are not trees are refused
+        Path other = Files.write(Files.createTempFile("MappedBPlusTree", ".txt"), new byte[64]);
+        try {
+            Assertions.assertThrows(IOException.class, () -> new MappedBPlusTree(other));
+        } finally {
+            Files.delete(other);
+        }
+    }
+}
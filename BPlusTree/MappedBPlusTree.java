@@ -0,0 +1,725 @@
+package BPlusTree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
+/**
+ * B+ tree over long keys kept in a file instead of on the heap. The file is a
+ * sequence of 4 KiB pages, one node per page, mapped into memory with
+ * FileChannel.map(). Nodes are read and written in place through the mapping, so
+ * nothing is deserialized and the operating system page cache decides which pages
+ * stay in memory. A tree can therefore hold far more keys than fit in the heap, and
+ * opening an existing file again gives back the same set.
+ *
+ * Like BPlusTree this is a set. Changes reach the file when the operating system
+ * writes the dirty pages back, flush() and close() force them out. A crash before
+ * that can leave the file inconsistent.
+ *
+ * The tree is not thread safe.
+ * @author Matthew Smith
+ */
+public class MappedBPlusTree implements Closeable {
+
+    // page 0 holds the header, nodes use the rest
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    // the file is mapped 64 MiB at a time, a single mapping can not pass 2 GiB
+    private static final int SEGMENT_SHIFT = 26;
+    private static final int PAGES_PER_SEGMENT_SHIFT = SEGMENT_SHIFT - PAGE_SHIFT;
+    private static final long PAGE_IN_SEGMENT_MASK = (1L << PAGES_PER_SEGMENT_SHIFT) - 1;
+
+    private static final long MAGIC = 0x4250_5452_4545_3031L; // "BPTREE01"
+    private static final int VERSION = 1;
+
+    // header layout
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 8;
+    private static final int HEADER_PAGE_SIZE = 12;
+    private static final int HEADER_ROOT = 16;
+    private static final int HEADER_HEIGHT = 24;
+    private static final int HEADER_SIZE = 32;
+    private static final int HEADER_PAGE_COUNT = 40;
+    private static final int HEADER_FREE_HEAD = 48;
+    private static final int HEADER_FIRST_LEAF = 56;
+
+    // node layout, the key array starts at KEYS and inner nodes keep their
+    // children after it at CHILDREN. Both arrays have a slot to spare, so a node
+    // can overflow by one before it is split.
+    private static final int TYPE = 0;
+    private static final int COUNT = 4;
+    private static final int NEXT = 8;
+    private static final int KEYS = 16;
+    private static final int LEAF_CAPACITY = (PAGE_SIZE - KEYS) / Long.BYTES - 1;
+    private static final int INNER_CAPACITY = (PAGE_SIZE - KEYS - 3 * Long.BYTES) / (2 * Long.BYTES);
+    private static final int CHILDREN = KEYS + (INNER_CAPACITY + 1) * Long.BYTES;
+
+    private static final byte LEAF = 0;
+    private static final byte INNER = 1;
+    private static final byte FREE = 2;
+
+    // page number used for no page, page 0 is the header so no node lives there
+    private static final long NONE = 0;
+
+    private final FileChannel channel;
+    private MappedByteBuffer[] segments;
+
+    // copies of the header fields, written back after every change
+    private long root;
+    private int height;
+    private long size;
+    private long pageCount;
+    // first page of the free list, chained through NEXT
+    private long freeHead;
+    private long firstLeaf;
+
+    // separator handed up by the last split during an insert
+    private long splitKey;
+
+    /**
+     * Opens the tree stored in file, or creates an empty one if the file does not
+     * exist or is empty.
+     * @param file
+     * @throws IOException when the file can not be mapped or holds something else
+     */
+    public MappedBPlusTree(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segments = new MappedByteBuffer[0];
+
+        try {
+            if (this.channel.size() == 0) {
+                this.pageCount = 1;
+                mapPages(this.pageCount);
+                clear();
+            } else {
+                mapPages(1);
+                readHeader(file);
+                mapPages(this.pageCount);
+            }
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds key to the tree if it is not already there.
+     * @param key
+     * @return true if key was added
+     *         false if it was already present
+     */
+    public boolean insert(long key) {
+        ensureOpen();
+
+        if (this.root == NONE) {
+            this.root = allocatePage(LEAF);
+            this.firstLeaf = this.root;
+            this.height = 1;
+        }
+
+        long oldSize = this.size;
+        long sibling = insertHelper(this.root, key);
+
+        // the root split, grow a new root above both halves
+        if (sibling != NONE) {
+            long newRoot = allocatePage(INNER);
+            setKey(newRoot, 0, this.splitKey);
+            setChild(newRoot, 0, this.root);
+            setChild(newRoot, 1, sibling);
+            setCount(newRoot, 1);
+            this.root = newRoot;
+            this.height++;
+        }
+
+        writeHeader();
+        return this.size != oldSize;
+    }
+
+    /**
+     * Inserts key below page.
+     * @param page
+     * @param key
+     * @return the new right half if page had to be split, its first key is left in
+     *         splitKey, otherwise NONE
+     */
+    private long insertHelper(long page, long key) {
+        if (isLeaf(page)) {
+            int index = search(page, key);
+            if (index >= 0)
+                return NONE;
+
+            insertKey(page, -index - 1, key);
+            this.size++;
+            return (count(page) > LEAF_CAPACITY) ? splitLeaf(page) : NONE;
+        }
+
+        int index = childIndex(page, key);
+        long sibling = insertHelper(child(page, index), key);
+        if (sibling == NONE)
+            return NONE;
+
+        insertKey(page, index, this.splitKey);
+        for (int i = count(page); i > index + 1; i--)
+            setChild(page, i, child(page, i - 1));
+        setChild(page, index + 1, sibling);
+
+        return (count(page) > INNER_CAPACITY) ? splitInner(page) : NONE;
+    }
+
+    /**
+     * Searches the tree for key, one binary search per page on the way down.
+     * @param key
+     * @return true if tree contains the key
+     */
+    public boolean contains(long key) {
+        ensureOpen();
+        return this.root != NONE && search(findLeaf(key), key) >= 0;
+    }
+
+    /**
+     * Removes key from the tree. Pages that empty out go on a free list and are
+     * reused by later inserts, the file itself never shrinks.
+     * @param key
+     * @return true if key was removed
+     *         false if it was not present
+     */
+    public boolean delete(long key) {
+        ensureOpen();
+
+        if (this.root == NONE || !deleteHelper(this.root, key))
+            return false;
+
+        if (this.size == 0) {
+            freePage(this.root);
+            this.root = NONE;
+            this.firstLeaf = NONE;
+            this.height = 0;
+        } else if (!isLeaf(this.root) && count(this.root) == 0) {
+            // the root lost its last separator, its only child takes over
+            long oldRoot = this.root;
+            this.root = child(oldRoot, 0);
+            freePage(oldRoot);
+            this.height--;
+        }
+
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Removes key below page and refills any child that fell under half full on the
+     * way back up.
+     * @param page
+     * @param key
+     * @return true if key was found
+     */
+    private boolean deleteHelper(long page, long key) {
+        if (isLeaf(page)) {
+            int index = search(page, key);
+            if (index < 0)
+                return false;
+
+            removeKey(page, index);
+            this.size--;
+            return true;
+        }
+
+        int index = childIndex(page, key);
+        long child = child(page, index);
+        if (!deleteHelper(child, key))
+            return false;
+
+        if (count(child) < minimum(child))
+            rebalance(page, index);
+
+        return true;
+    }
+
+    /**
+     * Returns how many keys the tree holds.
+     * @return
+     */
+    public long size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Returns the number of levels, 0 for an empty tree.
+     */
+    public int height() {
+        return this.height;
+    }
+
+    /**
+     * Clears this tree of all keys. Every page is dropped, the file keeps its length
+     * and the pages are handed out again from the start.
+     */
+    public void clear() {
+        ensureOpen();
+        this.root = NONE;
+        this.height = 0;
+        this.size = 0;
+        this.pageCount = 1;
+        this.freeHead = NONE;
+        this.firstLeaf = NONE;
+        writeHeader();
+    }
+
+    /**
+     * Returns an iterator over the keys in ascending order. It walks the leaf
+     * chain and reads the keys straight out of the mapped pages.
+     * @return
+     */
+    public PrimitiveIterator.OfLong iterator() {
+        ensureOpen();
+        return new LeafIterator(this.firstLeaf, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns an iterator over the keys in [lo, hi] in ascending order. One descent
+     * finds lo, after that it walks the leaf chain.
+     * @param lo
+     * @param hi
+     * @return
+     */
+    public PrimitiveIterator.OfLong range(long lo, long hi) {
+        ensureOpen();
+
+        if (this.root == NONE || lo > hi)
+            return new LeafIterator(NONE, 0, hi);
+
+        long leaf = findLeaf(lo);
+        int index = search(leaf, lo);
+        return new LeafIterator(leaf, (index >= 0) ? index : -index - 1, hi);
+    }
+
+    /**
+     * Hands every key to action in ascending order.
+     * @param action
+     */
+    public void forEach(LongConsumer action) {
+        ensureOpen();
+
+        for (long leaf = this.firstLeaf; leaf != NONE; leaf = next(leaf))
+            for (int i = 0, count = count(leaf); i < count; i++)
+                action.accept(key(leaf, i));
+    }
+
+    /**
+     * Writes the header and forces every changed page out to the file.
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        ensureOpen();
+        writeHeader();
+        for (MappedByteBuffer segment : this.segments)
+            segment.force();
+    }
+
+    /**
+     * Flushes the tree and closes the file. The tree can not be used afterwards.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.segments == null)
+            return;
+
+        try {
+            flush();
+        } finally {
+            this.segments = null;
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Iterator walking the leaf chain from a starting slot, stopping at the end of
+     * the tree or after the last key not greater than hi.
+     */
+    private final class LeafIterator implements PrimitiveIterator.OfLong {
+        private long leaf;
+        private int index;
+        private final long hi;
+
+        LeafIterator(long leaf, int index, long hi) {
+            this.leaf = leaf;
+            this.index = index;
+            this.hi = hi;
+            skipFinishedLeaves();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.leaf != NONE && key(this.leaf, this.index) <= this.hi;
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            long key = key(this.leaf, this.index++);
+            skipFinishedLeaves();
+            return key;
+        }
+
+        private void skipFinishedLeaves() {
+            while (this.leaf != NONE && this.index >= count(this.leaf)) {
+                this.leaf = MappedBPlusTree.this.next(this.leaf);
+                this.index = 0;
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (this.segments == null)
+            throw new IllegalStateException("Tree has been closed.");
+    }
+
+    /**
+     * Maps more of the file until pages [0, pages) are all mapped. Mapping past the
+     * end of the file grows it.
+     * @param pages
+     * @throws IOException
+     */
+    private void mapPages(long pages) throws IOException {
+        int needed = (int) ((pages + PAGE_IN_SEGMENT_MASK) >>> PAGES_PER_SEGMENT_SHIFT);
+        if (needed <= this.segments.length)
+            return;
+
+        MappedByteBuffer[] grown = Arrays.copyOf(this.segments, needed);
+        for (int i = this.segments.length; i < needed; i++) {
+            grown[i] = this.channel.map(FileChannel.MapMode.READ_WRITE, (long) i << SEGMENT_SHIFT, 1L << SEGMENT_SHIFT);
+            // the file is always little endian, which is also what x86 and ARM
+            // read without swapping bytes
+            grown[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        this.segments = grown;
+    }
+
+    private void readHeader(Path file) throws IOException {
+        MappedByteBuffer header = this.segments[0];
+        if (header.getLong(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) != VERSION
+                || header.getInt(HEADER_PAGE_SIZE) != PAGE_SIZE)
+            throw new IOException(file + " does not hold a MappedBPlusTree.");
+
+        this.root = header.getLong(HEADER_ROOT);
+        this.height = header.getInt(HEADER_HEIGHT);
+        this.size = header.getLong(HEADER_SIZE);
+        this.pageCount = header.getLong(HEADER_PAGE_COUNT);
+        this.freeHead = header.getLong(HEADER_FREE_HEAD);
+        this.firstLeaf = header.getLong(HEADER_FIRST_LEAF);
+    }
+
+    private void writeHeader() {
+        MappedByteBuffer header = this.segments[0];
+        header.putLong(HEADER_MAGIC, MAGIC);
+        header.putInt(HEADER_VERSION, VERSION);
+        header.putInt(HEADER_PAGE_SIZE, PAGE_SIZE);
+        header.putLong(HEADER_ROOT, this.root);
+        header.putInt(HEADER_HEIGHT, this.height);
+        header.putLong(HEADER_SIZE, this.size);
+        header.putLong(HEADER_PAGE_COUNT, this.pageCount);
+        header.putLong(HEADER_FREE_HEAD, this.freeHead);
+        header.putLong(HEADER_FIRST_LEAF, this.firstLeaf);
+    }
+
+    /**
+     * Hands out a page from the free list, or a new one at the end of the file.
+     * @param type LEAF or INNER
+     * @return an empty node page
+     */
+    private long allocatePage(byte type) {
+        long page;
+
+        if (this.freeHead != NONE) {
+            page = this.freeHead;
+            this.freeHead = next(page);
+        } else {
+            page = this.pageCount++;
+            try {
+                mapPages(this.pageCount);
+            } catch (IOException e) {
+                this.pageCount--;
+                throw new IllegalStateException("Could not grow the tree file.", e);
+            }
+        }
+
+        segment(page).put(offset(page) + TYPE, type);
+        setCount(page, 0);
+        setNext(page, NONE);
+        return page;
+    }
+
+    private void freePage(long page) {
+        segment(page).put(offset(page) + TYPE, FREE);
+        setNext(page, this.freeHead);
+        this.freeHead = page;
+    }
+
+    // page accessors, every read and write goes straight to the mapping
+
+    private MappedByteBuffer segment(long page) {
+        return this.segments[(int) (page >>> PAGES_PER_SEGMENT_SHIFT)];
+    }
+
+    private static int offset(long page) {
+        return (int) (page & PAGE_IN_SEGMENT_MASK) << PAGE_SHIFT;
+    }
+
+    private boolean isLeaf(long page) {
+        return segment(page).get(offset(page) + TYPE) == LEAF;
+    }
+
+    // fewest keys a page other than the root may hold
+    private int minimum(long page) {
+        return (isLeaf(page) ? LEAF_CAPACITY : INNER_CAPACITY) / 2;
+    }
+
+    private int count(long page) {
+        return segment(page).getInt(offset(page) + COUNT);
+    }
+
+    private void setCount(long page, int count) {
+        segment(page).putInt(offset(page) + COUNT, count);
+    }
+
+    private long next(long page) {
+        return segment(page).getLong(offset(page) + NEXT);
+    }
+
+    private void setNext(long page, long next) {
+        segment(page).putLong(offset(page) + NEXT, next);
+    }
+
+    private long key(long page, int index) {
+        return segment(page).getLong(offset(page) + KEYS + index * Long.BYTES);
+    }
+
+    private void setKey(long page, int index, long key) {
+        segment(page).putLong(offset(page) + KEYS + index * Long.BYTES, key);
+    }
+
+    private long child(long page, int index) {
+        return segment(page).getLong(offset(page) + CHILDREN + index * Long.BYTES);
+    }
+
+    private void setChild(long page, int index, long child) {
+        segment(page).putLong(offset(page) + CHILDREN + index * Long.BYTES, child);
+    }
+
+    /**
+     * Walks down to the leaf where key is or would be.
+     * @param key
+     * @return
+     */
+    private long findLeaf(long key) {
+        long page = this.root;
+        while (!isLeaf(page))
+            page = child(page, childIndex(page, key));
+
+        return page;
+    }
+
+    /**
+     * Binary search over the keys of page.
+     * @param page
+     * @param key
+     * @return the index of key, or (-(insertion point) - 1) if it is not there
+     */
+    private int search(long page, long key) {
+        MappedByteBuffer segment = segment(page);
+        int base = offset(page) + KEYS;
+        int low = 0;
+        int high = segment.getInt(offset(page) + COUNT) - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleKey = segment.getLong(base + middle * Long.BYTES);
+
+            if (middleKey < key)
+                low = middle + 1;
+            else if (middleKey > key)
+                high = middle - 1;
+            else
+                return middle;
+        }
+
+        return -(low + 1);
+    }
+
+    /**
+     * Which child of an inner page holds key: the one after the last separator not
+     * greater than key.
+     */
+    private int childIndex(long page, long key) {
+        int index = search(page, key);
+        return (index >= 0) ? index + 1 : -index - 1;
+    }
+
+    private void insertKey(long page, int index, long key) {
+        int count = count(page);
+        for (int i = count; i > index; i--)
+            setKey(page, i, key(page, i - 1));
+        setKey(page, index, key);
+        setCount(page, count + 1);
+    }
+
+    private void removeKey(long page, int index) {
+        int count = count(page);
+        for (int i = index + 1; i < count; i++)
+            setKey(page, i - 1, key(page, i));
+        setCount(page, count - 1);
+    }
+
+    /**
+     * Moves the upper half of an overflowing leaf into a new leaf after it.
+     * @param leaf
+     * @return the new leaf, its first key is left in splitKey
+     */
+    private long splitLeaf(long leaf) {
+        long right = allocatePage(LEAF);
+        int count = count(leaf);
+        int keep = count / 2;
+
+        for (int i = keep; i < count; i++)
+            setKey(right, i - keep, key(leaf, i));
+        setCount(right, count - keep);
+        setCount(leaf, keep);
+
+        setNext(right, next(leaf));
+        setNext(leaf, right);
+
+        this.splitKey = key(right, 0);
+        return right;
+    }
+
+    /**
+     * Moves the upper half of an overflowing inner page into a new page. The middle
+     * key moves up instead of into either half.
+     * @param inner
+     * @return the new page, the middle key is left in splitKey
+     */
+    private long splitInner(long inner) {
+        long right = allocatePage(INNER);
+        int count = count(inner);
+        int keep = count / 2;
+
+        this.splitKey = key(inner, keep);
+        for (int i = keep + 1; i < count; i++)
+            setKey(right, i - keep - 1, key(inner, i));
+        for (int i = keep + 1; i <= count; i++)
+            setChild(right, i - keep - 1, child(inner, i));
+        setCount(right, count - keep - 1);
+        setCount(inner, keep);
+
+        return right;
+    }
+
+    /**
+     * Refills child index of parent, which fell under half full. Borrows a key from
+     * a sibling that can spare one, otherwise merges with a sibling.
+     * @param parent
+     * @param index
+     */
+    private void rebalance(long parent, int index) {
+        long child = child(parent, index);
+        long left = (index > 0) ? child(parent, index - 1) : NONE;
+        long right = (index < count(parent)) ? child(parent, index + 1) : NONE;
+        int minimum = minimum(child);
+
+        if (left != NONE && count(left) > minimum)
+            borrowFromLeft(parent, index, left, child);
+        else if (right != NONE && count(right) > minimum)
+            borrowFromRight(parent, index, child, right);
+        else if (left != NONE)
+            merge(parent, index - 1, left, child);
+        else
+            merge(parent, index, child, right);
+    }
+
+    private void borrowFromLeft(long parent, int index, long left, long child) {
+        int leftCount = count(left);
+
+        if (isLeaf(child)) {
+            insertKey(child, 0, key(left, leftCount - 1));
+            setCount(left, leftCount - 1);
+            setKey(parent, index - 1, key(child, 0));
+            return;
+        }
+
+        // rotate through the parent, the separator comes down and the last key of
+        // left goes up, taking its last child across
+        for (int i = count(child) + 1; i > 0; i--)
+            setChild(child, i, child(child, i - 1));
+        setChild(child, 0, child(left, leftCount));
+        insertKey(child, 0, key(parent, index - 1));
+        setKey(parent, index - 1, key(left, leftCount - 1));
+        setCount(left, leftCount - 1);
+    }
+
+    private void borrowFromRight(long parent, int index, long child, long right) {
+        if (isLeaf(child)) {
+            insertKey(child, count(child), key(right, 0));
+            removeKey(right, 0);
+            setKey(parent, index, key(right, 0));
+            return;
+        }
+
+        int rightCount = count(right);
+        insertKey(child, count(child), key(parent, index));
+        setChild(child, count(child), child(right, 0));
+        setKey(parent, index, key(right, 0));
+        for (int i = 1; i <= rightCount; i++)
+            setChild(right, i - 1, child(right, i));
+        removeKey(right, 0);
+    }
+
+    /**
+     * Moves everything in right into left, drops the separator between them from
+     * parent and frees the page of right.
+     * @param parent
+     * @param separator index of the separator between left and right
+     * @param left
+     * @param right
+     */
+    private void merge(long parent, int separator, long left, long right) {
+        int leftCount = count(left);
+        int rightCount = count(right);
+
+        if (isLeaf(left)) {
+            setNext(left, next(right));
+        } else {
+            // inner pages take the separator down between the two key runs
+            for (int i = 0; i <= rightCount; i++)
+                setChild(left, leftCount + 1 + i, child(right, i));
+            setKey(left, leftCount++, key(parent, separator));
+        }
+
+        for (int i = 0; i < rightCount; i++)
+            setKey(left, leftCount + i, key(right, i));
+        setCount(left, leftCount + rightCount);
+
+        int parentCount = count(parent);
+        removeKey(parent, separator);
+        for (int i = separator + 2; i <= parentCount; i++)
+            setChild(parent, i - 1, child(parent, i));
+
+        freePage(right);
+    }
+}
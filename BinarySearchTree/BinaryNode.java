@@ -6,6 +6,10 @@ public class BinaryNode<T extends Comparable<T>> {
     private BinaryNode<T> parent;
     private BinaryNode<T> leftChild;
     private BinaryNode<T> rightChild;
+    private int size;
+
+    // occurrences of data, only ever above 1 in a multiset tree
+    private int count;
 
     /**
      * Creates a new node with supplied data and without references to other nodes.
@@ -16,6 +20,8 @@ public class BinaryNode<T extends Comparable<T>> {
         this.parent = null;
         this.leftChild = null;
         this.rightChild = null;
+        this.size = 1;
+        this.count = 1;
     }
 
     /**
@@ -30,6 +36,23 @@ public class BinaryNode<T extends Comparable<T>> {
         return false;
     }
 
+    /**
+     * Recomputes the number of elements in the subtree rooted here from the sizes
+     * stored in the children, counting this node count times.
+     */
+    public void updateSize() {
+        this.size = this.count + sizeOf(this.leftChild) + sizeOf(this.rightChild);
+    }
+
+    /**
+     * Null safe subtree size.
+     * @param node
+     * @return 0 if node is null, otherwise the size stored in node
+     */
+    public static int sizeOf(BinaryNode<?> node) {
+        return (node == null) ? 0 : node.size;
+    }
+
     // getters and setters
     public T getData() {
         return this.data;
@@ -47,6 +70,14 @@ public class BinaryNode<T extends Comparable<T>> {
         return this.rightChild;
     }
 
+    public int getSize() {
+        return this.size;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
     public void setData(T data) {
         this.data = data;
     }
@@ -63,4 +94,12 @@ public class BinaryNode<T extends Comparable<T>> {
         this.rightChild = rightChild;
     }
 
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
 }
\ No newline at end of file
@@ -1,11 +1,64 @@
 package BinarySearchTree;
 
-public class BinarySearchTree<T extends Comparable<T>> {
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class BinarySearchTree<T extends Comparable<T>> implements Iterable<T> {
     // the root node
     protected BinaryNode<T> root;
 
+    // equal elements share one node and its count
+    protected final boolean multiset;
+
+    // weight balance every subtree is held to, 1 for none
+    private final double alpha;
+
+    // most elements held since the tree was last rebuilt as a whole
+    private int maxSize;
+
     public BinarySearchTree() {
+        this(false);
+    }
+
+    /**
+     * Creates a tree that is a multiset if asked to. A multiset keeps one node per
+     * distinct element and counts the occurrences in it, so adding or removing a
+     * repeat only changes that count and the sizes above it. Otherwise every
+     * duplicate gets a node of its own.
+     * @param multiset
+     */
+    public BinarySearchTree(boolean multiset) {
         this.root = null;
+        this.multiset = multiset;
+        this.alpha = 1;
+    }
+
+    /**
+     * Creates a scapegoat tree, balanced without anything added to its nodes. No
+     * child may hold more than alpha of the elements below its parent by the time
+     * an insert goes deeper than log base 1/alpha of size(), then the subtree around
+     * the parent that broke the rule is rebuilt perfectly balanced. Deleting down to
+     * alpha of the most elements held rebuilds the whole tree. Updates take
+     * amortized O(log n) and the height stays O(log n). A lower alpha keeps the tree
+     * flatter and rebuilds more often, 0.7 is a common middle ground.
+     * @param multiset
+     * @param alpha within (0.5, 1)
+     * @throws IllegalArgumentException when alpha is outside (0.5, 1)
+     */
+    public BinarySearchTree(boolean multiset, double alpha) throws IllegalArgumentException {
+        if (!(alpha > 0.5 && alpha < 1))
+            throw new IllegalArgumentException("alpha must be within (0.5, 1).");
+
+        this.root = null;
+        this.multiset = multiset;
+        this.alpha = alpha;
     }
 
     public void insert(T data) throws IllegalArgumentException {
@@ -14,73 +67,96 @@ public class BinarySearchTree<T extends Comparable<T>> {
         
         if (this.root == null) { // set insert node to root if null
             this.root = new BinaryNode<T>(data);
+            this.maxSize = Math.max(this.maxSize, 1);
             return;
         }
 
         BinaryNode<T> insertNode = new BinaryNode<T>(data);
 
         // otherwise look for the spot and insert
-        insertHelper(insertNode, this.root);
+        int depth = insertHelper(insertNode, this.root);
+        this.maxSize = Math.max(this.maxSize, size());
+
+        // too deep, some ancestor has to be out of balance
+        if (this.alpha < 1 && depth > Math.log(size()) / Math.log(1 / this.alpha))
+            rebuild(scapegoat(insertNode));
     }
 
     /**
      * The insert algorithm assumes that this tree is non-balanced. It will find the
      * empty spot where it belongs (if it is not a duplicate) and insert. If it is a
-     * duplicate, it will insert just below the node its duplicating
+     * duplicate, it will insert just below the node its duplicating. A scapegoat
+     * tree hangs duplicates to the right as leaves instead, so every new node is as
+     * deep as any below it. Walks down in a loop, so a degenerate tree is limited
+     * by heap rather than by stack depth.
      * 
      * @param insertNode
      * @param search
+     * @return the depth insertNode landed at, 0 if it was only counted
      */
-    private void insertHelper(BinaryNode<T> insertNode, BinaryNode<T> search) {
-        int comparison = insertNode.getData().compareTo(search.getData());
+    private int insertHelper(BinaryNode<T> insertNode, BinaryNode<T> search) {
+        for (int depth = 1; ; depth++) {
+            int comparison = insertNode.getData().compareTo(search.getData());
 
-        // case 2: insert nodes data is less than current nodes data
-        //         and left child is empty, insert
-        if (comparison < 0 
-            && search.getLeftChild() == null) 
-        {
-            search.setLeftChild(insertNode);
-            insertNode.setParent(search);
-            return;
-        } 
+            // a scapegoat tree files duplicates under greater
+            if (comparison == 0 && !this.multiset && this.alpha < 1)
+                comparison = 1;
 
-        // case 2.1: insert nodes data is less than current nodes data
-        //           and left child is not empty, search left
-        if (comparison < 0
-            && search.getLeftChild() != null) 
-        {
-            insertHelper(insertNode, search.getLeftChild());
-        }
+            // the insert node always lands somewhere below search
+            search.setSize(search.getSize() + 1);
 
-        // case 3: insert nodes data is greater than current nodes data
-        //         and new spot is empty, insert
-        if (comparison > 0
-            && search.getRightChild() == null)
-        {
-            search.setRightChild(insertNode);
-            insertNode.setParent(search);
-            return;
-        }
+            // case 2: insert nodes data is less than current nodes data
+            //         and left child is empty, insert
+            if (comparison < 0 
+                && search.getLeftChild() == null) 
+            {
+                search.setLeftChild(insertNode);
+                insertNode.setParent(search);
+                return depth;
+            } 
 
-        // case 3.1: insert nodes data is less than current ndoes data
-        //           and right child is not empty, search right
-        if (comparison > 0
-            && search.getRightChild() != null)
-        {
-            insertHelper(insertNode, search.getRightChild());   
-        }
+            // case 2.1: insert nodes data is less than current nodes data
+            //           and left child is not empty, search left
+            if (comparison < 0)
+            {
+                search = search.getLeftChild();
+                continue;
+            }
 
-        // case 4: insert nodes data is equal to the current nodes data
-        //         determine we can insert in an empty spot or 
-        //         if we need to do the surgery
-        if (comparison == 0)
-        {
+            // case 3: insert nodes data is greater than current nodes data
+            //         and new spot is empty, insert
+            if (comparison > 0
+                && search.getRightChild() == null)
+            {
+                search.setRightChild(insertNode);
+                insertNode.setParent(search);
+                return depth;
+            }
+
+            // case 3.1: insert nodes data is greater than current ndoes data
+            //           and right child is not empty, search right
+            if (comparison > 0)
+            {
+                search = search.getRightChild();
+                continue;
+            }
+
+            // case 4: insert nodes data is equal to the current nodes data
+            //         in a multiset just count it, sizes on the path
+            //         were already bumped on the way down
+            if (this.multiset) {
+                search.setCount(search.getCount() + 1);
+                return 0;
+            }
+
+            // case 4.1: determine we can insert in an empty spot or 
+            //           if we need to do the surgery
             // if left is null, insert
             if (search.getLeftChild() == null)
             {
                 search.setLeftChild(insertNode);
                 insertNode.setParent(search);
-                return;
+                return depth;
             } 
 
             // IMPLEMENTATION NOTE: just insert, do not look for recurrences
@@ -89,13 +165,10 @@ public class BinarySearchTree<T extends Comparable<T>> {
             search.setLeftChild(insertNode);
             insertNode.setParent(search);
             insertNode.setLeftChild(liminalNode);
-            liminalNode.setParent(liminalNode);
-            return;
+            liminalNode.setParent(insertNode);
+            insertNode.updateSize();
+            return depth;
         }
-
-        // recursive cases
-        if (comparison < 0) {insertHelper(insertNode, search.getLeftChild());}
-        if (comparison > 0) {insertHelper(insertNode, search.getRightChild());}
     }
 
     /**
@@ -111,64 +184,75 @@ public class BinarySearchTree<T extends Comparable<T>> {
         if (this.root == null)
             throw new NullPointerException("There is nothing to delete as the tree is empty.");
 
-        return 0 + deleteHelper(data, this.root.getLeftChild()) + deleteHelper(data, this.root.getRightChild());
+        int deleted = deleteHelper(data, this.root);
+
+        // shrunk too far below the size it was balanced for
+        if (this.alpha < 1 && size() < this.alpha * this.maxSize) {
+            if (this.root != null)
+                rebuild(this.root);
+            this.maxSize = size();
+        }
+
+        return deleted;
     }
 
     /**
-     * Internal helper for delete algoritm.
-     * @param deleteNode
+     * Internal helper for delete algoritm. Finds the node holding data and splices
+     * it out. A node with two children takes the data of its in-order successor and
+     * the successor is spliced out instead. Every ancestor of the removed node has
+     * its size refreshed on the way back up.
+     * @param data
      * @param search
      * @return int 0 if tree did not contain the specified value
      *         int 1 if value was successfully deleted
      */
     private int deleteHelper(T data, BinaryNode<T> search) {
+        while (search != null && data.compareTo(search.getData()) != 0)
+            search = (data.compareTo(search.getData()) < 0) 
+                ? search.getLeftChild() : search.getRightChild();
+
         if (search == null)
             return 0;
 
-        if (data.compareTo(search.getData()) == 0)
-        {
-            // create some placeholders for easier readability
-            BinaryNode parent, left, right, leftGrandchild = null, rightGrandchild = null;
-            parent = search.getParent();
-            left = search.getLeftChild();
-            right = search.getRightChild();
-
-            // get grandchildren, if there are any
-            if (left != null)
-                leftGrandchild = left.getRightChild();
-
-            if (right != null)
-                rightGrandchild = right.getLeftChild();
-
-            // TODO: implement deletion algorithm
-            // default to using leftGrandchild are replacement
-            if (leftGrandchild != null)
-            {
-                
-            }
-            
-            else if (rightGrandchild != null)
-            {
-                
-            }
-
+        // one of several occurrences is just counted down
+        if (search.getCount() > 1) {
+            search.setCount(search.getCount() - 1);
+            for (; search != null; search = search.getParent())
+                search.updateSize();
             return 1;
         }
 
-        if (data.compareTo(search.getData()) < 0)
-        {    
-            deleteHelper(data, search.getLeftChild());
-            return 0;
-        }
-
-        if (data.compareTo(search.getData()) > 0)
+        // two children, borrow the successors data and remove the successor
+        if (search.getLeftChild() != null && search.getRightChild() != null)
         {
-            deleteHelper(data, search.getRightChild());
-            return 0;
+            BinaryNode<T> successor = search.getRightChild();
+            while (successor.getLeftChild() != null)
+                successor = successor.getLeftChild();
+
+            search.setData(successor.getData());
+            search.setCount(successor.getCount());
+            search = successor;
         }
 
-        // to clear compile error
-        return -1;
+        // at most one child left, so move it into the deleted nodes place
+        BinaryNode<T> parent = search.getParent();
+        BinaryNode<T> child = (search.getLeftChild() != null) 
+            ? search.getLeftChild() : search.getRightChild();
+
+        if (child != null)
+            child.setParent(parent);
+
+        if (parent == null)
+            this.root = child;
+        else if (parent.getLeftChild() == search)
+            parent.setLeftChild(child);
+        else
+            parent.setRightChild(child);
+
+        for (BinaryNode<T> node = parent; node != null; node = node.getParent())
+            node.updateSize();
+
+        return 1;
     }
 
     /**
@@ -176,6 +260,76 @@ public class BinarySearchTree<T extends Comparable<T>> {
      */
     public void clear() {
         this.root = null;
+        this.maxSize = 0;
+    }
+
+    /**
+     * Finds the lowest ancestor of node with a child holding more than alpha of the
+     * elements below it. One must exist once node is deeper than log base 1/alpha
+     * of size().
+     * @param node
+     * @return the ancestor, or the root should rounding have hidden it
+     */
+    private BinaryNode<T> scapegoat(BinaryNode<T> node) {
+        for (; node.getParent() != null; node = node.getParent())
+            if (node.getSize() > this.alpha * node.getParent().getSize())
+                return node.getParent();
+
+        return node;
+    }
+
+    /**
+     * Rebuilds the subtree rooted at node into a perfectly balanced one in linear
+     * time, reusing its nodes. The elements stay the same, so no size above changes.
+     * @param node
+     */
+    private void rebuild(BinaryNode<T> node) {
+        BinaryNode<T> parent = node.getParent();
+        boolean isRight = node.isRightChild();
+
+        List<BinaryNode<T>> nodes = new ArrayList<BinaryNode<T>>();
+        int remaining = node.getSize();
+        for (BinaryNode<T> next = first(node); remaining > 0; next = successor(next)) {
+            nodes.add(next);
+            remaining -= next.getCount();
+        }
+
+        BinaryNode<T> top = buildBalanced(nodes, 0, nodes.size());
+        top.setParent(parent);
+        if (parent == null)
+            this.root = top;
+        else if (isRight)
+            parent.setRightChild(top);
+        else
+            parent.setLeftChild(top);
+    }
+
+    /**
+     * Links nodes[from, to), which are in order, into a balanced tree with the
+     * middle node on top. Recursion depth is only log of the count.
+     * @param nodes
+     * @param from
+     * @param to
+     * @return the root of the tree, null if the range is empty
+     */
+    private static <T extends Comparable<T>> BinaryNode<T> buildBalanced(List<BinaryNode<T>> nodes, int from, int to) {
+        if (from >= to)
+            return null;
+
+        int middle = (from + to) >>> 1;
+        BinaryNode<T> node = nodes.get(middle);
+        BinaryNode<T> left = buildBalanced(nodes, from, middle);
+        BinaryNode<T> right = buildBalanced(nodes, middle + 1, to);
+
+        node.setLeftChild(left);
+        if (left != null)
+            left.setParent(node);
+        node.setRightChild(right);
+        if (right != null)
+            right.setParent(node);
+
+        node.updateSize();
+        return node;
     }
 
     /**
@@ -188,55 +342,498 @@ public class BinarySearchTree<T extends Comparable<T>> {
 
     /**
      * Searches the tree for the specified data and returns true if it is found.
+     * Follows the ordering down a single path, so it is O(log n) on a balanced tree.
      * 
      * @param data
      * @return true if tree contains the data
      *         false if the tree does not contain the data
+     * @throws IllegalArgumentException when data is null
      */
-    public boolean contains(T data) {
-        if (this.root == null)
-            return false;
+    public boolean contains(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not search a tree for null.");
+
+        BinaryNode<T> search = this.root;
+        while (search != null) {
+            int comparison = data.compareTo(search.getData());
+
+            if (comparison == 0)
+                return true;
+
+            search = (comparison < 0) ? search.getLeftChild() : search.getRightChild();
+        }
 
-        // ORing false with the result of a recursive call to return result
-        return false || containsHelper(data, this.root);
+        return false;
     }
 
     /**
-     * Recursive helper method for contains()
+     * Returns the greatest element less than or equal to data.
      * @param data
-     * @param search
-     * @return
+     * @return the floor of data, or null if every element is greater
+     * @throws IllegalArgumentException when data is null
      */
-    private boolean containsHelper(T data, BinaryNode<T> search) {
-        if (data.compareTo(search.getData()) == 0)
-            return true;
+    public T floor(T data) throws IllegalArgumentException {
+        return navigate(data, true, true);
+    }
 
-        return containsHelper(data, search.getLeftChild()) 
-            || containsHelper(data, search.getRightChild());
+    /**
+     * Returns the least element greater than or equal to data.
+     * @param data
+     * @return the ceiling of data, or null if every element is less
+     * @throws IllegalArgumentException when data is null
+     */
+    public T ceiling(T data) throws IllegalArgumentException {
+        return navigate(data, false, true);
     }
 
     /**
-     * Iterates over the tree and returns how many nodes it contains.
+     * Returns the greatest element strictly less than data.
+     * @param data
+     * @return the element just below data, or null if there is none
+     * @throws IllegalArgumentException when data is null
+     */
+    public T lower(T data) throws IllegalArgumentException {
+        return navigate(data, true, false);
+    }
+
+    /**
+     * Returns the least element strictly greater than data.
+     * @param data
+     * @return the element just above data, or null if there is none
+     * @throws IllegalArgumentException when data is null
+     */
+    public T higher(T data) throws IllegalArgumentException {
+        return navigate(data, false, false);
+    }
+
+    /**
+     * Shared descent for floor(), ceiling(), lower() and higher(). Remembers the
+     * last node that was on the wanted side of data and keeps looking for a closer
+     * one below it.
+     * @param data
+     * @param below true to look for elements under data, false for above
+     * @param inclusive whether an element equal to data is an answer
+     * @return the closest element on the wanted side, or null
+     */
+    private T navigate(T data, boolean below, boolean inclusive) {
+        if (data == null)
+            throw new IllegalArgumentException("Can not navigate from null.");
+
+        BinaryNode<T> search = this.root, candidate = null;
+        while (search != null) {
+            int comparison = search.getData().compareTo(data);
+
+            if (comparison == 0 && inclusive)
+                return search.getData();
+
+            if (below && comparison < 0) {
+                candidate = search;
+                search = search.getRightChild();
+            } else if (below) {
+                search = search.getLeftChild();
+            } else if (comparison > 0) {
+                candidate = search;
+                search = search.getLeftChild();
+            } else {
+                search = search.getRightChild();
+            }
+        }
+
+        return (candidate == null) ? null : candidate.getData();
+    }
+
+    /**
+     * Returns how many nodes the tree contains. O(1), every node keeps the size of
+     * its own subtree.
      * 
      * @return the size of the tree
      */
     public int size() {
-        if (this.root == null)
-            return 0;
-        
-        return sizeHelper(this.root);
+        return BinaryNode.sizeOf(this.root);
     }
 
     /**
-     * Recursive helper method for size.
-     * @param search
+     * Returns the k-th smallest element, counting from 0.
+     * @param k
+     * @return the element that has exactly k elements before it in order
+     * @throws IllegalArgumentException when k is outside [0, size())
+     */
+    public T select(int k) throws IllegalArgumentException {
+        if (k < 0 || k >= size())
+            throw new IllegalArgumentException("select() index must be within [0, size()).");
+
+        return selectNode(k).getData();
+    }
+
+    /**
+     * Finds the node holding the kth smallest element using the cached subtree sizes.
+     * A node holding several occurrences covers that many ranks.
+     * @param k must be within [0, size())
      * @return
      */
-    private int sizeHelper(BinaryNode<T> search) {
-        if (search == null)
+    private BinaryNode<T> selectNode(int k) {
+        BinaryNode<T> search = this.root;
+        while (true) {
+            int leftSize = BinaryNode.sizeOf(search.getLeftChild());
+
+            if (k < leftSize) {
+                search = search.getLeftChild();
+            } else if (k < leftSize + search.getCount()) {
+                return search;
+            } else {
+                k -= leftSize + search.getCount();
+                search = search.getRightChild();
+            }
+        }
+    }
+
+    /**
+     * Rank of the first occurrence held by node, found by walking up the parent links.
+     * @param node
+     * @return how many elements come before node
+     */
+    private static <T extends Comparable<T>> int rankOf(BinaryNode<T> node) {
+        int rank = BinaryNode.sizeOf(node.getLeftChild());
+        for (; node.getParent() != null; node = node.getParent())
+            if (node.getParent().getRightChild() == node)
+                rank += BinaryNode.sizeOf(node.getParent().getLeftChild()) + node.getParent().getCount();
+
+        return rank;
+    }
+
+    /**
+     * In-order successor using the parent links.
+     * @param node
+     * @return the next node, or null if node was the last
+     */
+    private static <T extends Comparable<T>> BinaryNode<T> successor(BinaryNode<T> node) {
+        if (node.getRightChild() != null) {
+            node = node.getRightChild();
+            while (node.getLeftChild() != null)
+                node = node.getLeftChild();
+            return node;
+        }
+
+        while (node.getParent() != null && node.getParent().getRightChild() == node)
+            node = node.getParent();
+
+        return node.getParent();
+    }
+
+    /**
+     * In-order predecessor using the parent links.
+     * @param node
+     * @return the previous node, or null if node was the first
+     */
+    private static <T extends Comparable<T>> BinaryNode<T> predecessor(BinaryNode<T> node) {
+        if (node.getLeftChild() != null) {
+            node = node.getLeftChild();
+            while (node.getRightChild() != null)
+                node = node.getRightChild();
+            return node;
+        }
+
+        while (node.getParent() != null && node.getParent().getLeftChild() == node)
+            node = node.getParent();
+
+        return node.getParent();
+    }
+
+    /**
+     * Returns an iterator over the elements in ascending order. It holds a single
+     * node and steps to the successor with the parent links, so it needs no stack
+     * and reads nothing ahead. The tree must not be changed while it is in use.
+     * @return
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new TreeIterator(first(this.root), null, false);
+    }
+
+    /**
+     * Same as iterator() but walks the elements in descending order.
+     * @return
+     */
+    public Iterator<T> descendingIterator() {
+        return new TreeIterator(last(this.root), null, true);
+    }
+
+    /**
+     * Returns an iterator over the elements in [lo, hi] in ascending order. Finding
+     * lo is one O(log n) descent, each further element is one successor step, so
+     * reading the first k elements costs O(log n + k) whatever the size of the range.
+     * @param lo
+     * @param hi
+     * @return
+     * @throws IllegalArgumentException when lo or hi is null
+     */
+    public Iterator<T> range(T lo, T hi) throws IllegalArgumentException {
+        if (lo == null || hi == null)
+            throw new IllegalArgumentException("range() bounds can not be null.");
+
+        return new TreeIterator(firstAtLeast(lo), hi, false);
+    }
+
+    /**
+     * Finds the leftmost node whose data is not less than data. Unlike ceiling()
+     * it does not stop at the first equal node, so no duplicate is skipped.
+     * @param data
+     * @return the node, or null if every element is less
+     */
+    private BinaryNode<T> firstAtLeast(T data) {
+        BinaryNode<T> search = this.root, candidate = null;
+        while (search != null) {
+            if (search.getData().compareTo(data) >= 0) {
+                candidate = search;
+                search = search.getLeftChild();
+            } else {
+                search = search.getRightChild();
+            }
+        }
+
+        return candidate;
+    }
+
+    /**
+     * Rightmost node of a subtree.
+     * @param node
+     * @return null if node is null
+     */
+    static <T extends Comparable<T>> BinaryNode<T> last(BinaryNode<T> node) {
+        if (node != null)
+            while (node.getRightChild() != null)
+                node = node.getRightChild();
+
+        return node;
+    }
+
+    /**
+     * Iterator that steps from node to node with the parent links, stopping at the
+     * end of the tree or after the last element not greater than hi.
+     */
+    private final class TreeIterator implements Iterator<T> {
+        private BinaryNode<T> next;
+        // occurrences of next still to be returned
+        private int remaining;
+        // inclusive upper bound, null for none
+        private final T hi;
+        private final boolean descending;
+
+        TreeIterator(BinaryNode<T> next, T hi, boolean descending) {
+            this.next = next;
+            this.remaining = (next == null) ? 0 : next.getCount();
+            this.hi = hi;
+            this.descending = descending;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null && (this.hi == null || this.next.getData().compareTo(this.hi) <= 0);
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            T data = this.next.getData();
+            if (--this.remaining == 0) {
+                this.next = this.descending ? predecessor(this.next) : successor(this.next);
+                this.remaining = (this.next == null) ? 0 : this.next.getCount();
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Returns a spliterator over the elements in ascending order. It reports its
+     * exact size, and splits by rank: the cached subtree sizes find the middle
+     * element in O(log n), so both halves are always even. Duplicates are kept, so
+     * it is not DISTINCT. The tree must not be changed while it is in use.
+     * @return
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new TreeSpliterator(first(this.root), 0, 0, size());
+    }
+
+    /**
+     * Returns a sequential stream over the elements in ascending order.
+     * @return
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream over the elements. Work is split by subtree ranks,
+     * so it fans out evenly across the common ForkJoinPool.
+     * @return
+     */
+    public Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Leftmost node of a subtree.
+     * @param node
+     * @return null if node is null
+     */
+    static <T extends Comparable<T>> BinaryNode<T> first(BinaryNode<T> node) {
+        if (node != null)
+            while (node.getLeftChild() != null)
+                node = node.getLeftChild();
+
+        return node;
+    }
+
+    /**
+     * Spliterator over the elements whose ranks are in [index, fence). Steps from
+     * node to node with the parent links and splits at the middle rank.
+     */
+    private final class TreeSpliterator implements Spliterator<T> {
+        // node holding rank index, only meaningful while index < fence
+        private BinaryNode<T> next;
+        // occurrences of next that come before rank index
+        private int offset;
+        private int index;
+        private final int fence;
+
+        TreeSpliterator(BinaryNode<T> next, int offset, int index, int fence) {
+            this.next = next;
+            this.offset = offset;
+            this.index = index;
+            this.fence = fence;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (this.index >= this.fence)
+                return false;
+
+            T data = this.next.getData();
+            if (++this.offset == this.next.getCount()) {
+                this.next = successor(this.next);
+                this.offset = 0;
+            }
+            this.index++;
+            action.accept(data);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            BinaryNode<T> node = this.next;
+            int offset = this.offset;
+            for (int i = this.index; i < this.fence; i++) {
+                action.accept(node.getData());
+                if (++offset == node.getCount()) {
+                    node = successor(node);
+                    offset = 0;
+                }
+            }
+
+            this.next = node;
+            this.offset = offset;
+            this.index = this.fence;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (this.fence - this.index < 2)
+                return null;
+
+            int middle = (this.index + this.fence) >>> 1;
+            TreeSpliterator prefix = new TreeSpliterator(this.next, this.offset, this.index, middle);
+            this.next = selectNode(middle);
+            this.offset = middle - rankOf(this.next);
+            this.index = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return this.fence - this.index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | SIZED | SUBSIZED | NONNULL;
+        }
+
+        // null means natural ordering
+        @Override
+        public Comparator<? super T> getComparator() {
+            return null;
+        }
+    }
+
+    /**
+     * Returns how many elements in the tree are strictly less than data.
+     * @param data
+     * @return the index data has, or would have, in sorted order
+     * @throws IllegalArgumentException when data is null
+     */
+    public int rank(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("rank() method argument can not be null.");
+
+        return countBelow(data, false);
+    }
+
+    /**
+     * Returns how many elements fall within [lo, hi], both ends inclusive.
+     * @param lo
+     * @param hi
+     * @return 0 if lo is greater than hi
+     * @throws IllegalArgumentException when either bound is null
+     */
+    public int countInRange(T lo, T hi) throws IllegalArgumentException {
+        if (lo == null || hi == null)
+            throw new IllegalArgumentException("countInRange() bounds can not be null.");
+
+        if (lo.compareTo(hi) > 0)
             return 0;
-        
-        return 1 + sizeHelper(search.getLeftChild()) + sizeHelper(search.getRightChild());
+
+        return countBelow(hi, true) - countBelow(lo, false);
+    }
+
+    /**
+     * Returns how many times data occurs in the tree. Two root to leaf walks, so
+     * O(log n) however many occurrences there are.
+     * @param data
+     * @return 0 if the tree does not contain data
+     * @throws IllegalArgumentException when data is null
+     */
+    public int count(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("count() method argument can not be null.");
+
+        return countBelow(data, true) - countBelow(data, false);
+    }
+
+    /**
+     * Walks one root to leaf path adding up the subtrees that fall below data.
+     * @param data
+     * @param inclusive whether elements equal to data are counted
+     * @return the number of elements less than (or equal to) data
+     */
+    private int countBelow(T data, boolean inclusive) {
+        int count = 0;
+        BinaryNode<T> search = this.root;
+
+        while (search != null) {
+            int comparison = search.getData().compareTo(data);
+
+            if (comparison < 0 || (inclusive && comparison == 0)) {
+                count += BinaryNode.sizeOf(search.getLeftChild()) + search.getCount();
+                search = search.getRightChild();
+            } else {
+                search = search.getLeftChild();
+            }
+        }
+
+        return count;
     }
 
     public void rotate(BinaryNode<T> parent, BinaryNode<T> child) throws IllegalArgumentException{
@@ -290,7 +887,8 @@ public class BinarySearchTree<T extends Comparable<T>> {
 
             // move liminal node to where child was on parent
             parent.setRightChild(liminialNode);
-            liminialNode.setParent(parent);
+            if (liminialNode != null)
+                liminialNode.setParent(parent);
         } 
         
         // since child is left child we intend to rotate left
@@ -318,12 +916,18 @@ public class BinarySearchTree<T extends Comparable<T>> {
                 this.root = child;
 
             // proceed to set parent and childs right child
-            child.setLeftChild(parent);
+            child.setRightChild(parent);
             parent.setParent(child);
 
             // move liminal node to where child was on the parent
             parent.setLeftChild(liminialNode);
-            liminialNode.setParent(parent);
+            if (liminialNode != null)
+                liminialNode.setParent(parent);
         }
+
+        // child took over parents whole subtree, parent lost the childs 
+        // other side, so recount parent first
+        parent.updateSize();
+        child.updateSize();
     }
 }
\ No newline at end of file
@@ -1,5 +1,15 @@
 package BinarySearchTree;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.IntStream;
+
 import org.junit.jupiter.api.*;
 
 class BinarySearchTreeTests {
@@ -102,4 +112,456 @@ class BinarySearchTreeTests {
             () -> {Assertions.assertEquals(3, tree.root.getLeftChild().getRightChild().getData());}
         );
     }
-}
\ No newline at end of file
+
+    /**
+     * BST Tester, size(), select(), rank(), countInRange()
+     * 1. Empty tree has size 0 and select() rejects every index.
+     * 2. Order statistics on a small tree with a duplicate.
+     * 3. Sizes stay correct after delete().
+     */
+    @Test
+    public void testOrderStatistics() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+
+        // 1. empty tree
+        Assertions.assertEquals(0, tree.size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.select(0);});
+
+        // 2. in order the tree holds 5 8 10 10 15 18
+        tree.insert(10);
+        tree.insert(5);
+        tree.insert(15);
+        tree.insert(8);
+        tree.insert(18);
+        tree.insert(10);
+        Assertions.assertAll(
+            "statistics",
+            () -> {Assertions.assertEquals(6, tree.size());},
+            () -> {Assertions.assertEquals(5, tree.select(0));},
+            () -> {Assertions.assertEquals(10, tree.select(3));},
+            () -> {Assertions.assertEquals(18, tree.select(5));},
+            () -> {Assertions.assertEquals(2, tree.rank(10));},
+            () -> {Assertions.assertEquals(6, tree.rank(100));},
+            () -> {Assertions.assertEquals(4, tree.countInRange(8, 15));},
+            () -> {Assertions.assertEquals(0, tree.countInRange(15, 8));}
+        );
+
+        // 3. delete a leaf and a node with two children
+        Assertions.assertEquals(1, tree.delete(8));
+        Assertions.assertEquals(1, tree.delete(15));
+        Assertions.assertEquals(0, tree.delete(15));
+        Assertions.assertEquals(4, tree.size());
+        Assertions.assertEquals(18, tree.select(3));
+        Assertions.assertEquals(3, tree.countInRange(5, 10));
+    }
+
+    /**
+     * Tests contains(), floor(), ceiling(), lower() and higher()
+     * 1. Empty tree finds nothing.
+     * 2. Hits and misses on both sides of every element.
+     */
+    @Test
+    public void testNavigation() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+
+        // 1. empty tree
+        Assertions.assertFalse(tree.contains(10));
+        Assertions.assertNull(tree.floor(10));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.contains(null);});
+
+        // 2. tree holds 5 8 10 15 18
+        tree.insert(10);
+        tree.insert(5);
+        tree.insert(15);
+        tree.insert(8);
+        tree.insert(18);
+        Assertions.assertAll(
+            "navigation",
+            () -> {Assertions.assertTrue(tree.contains(8));},
+            () -> {Assertions.assertFalse(tree.contains(9));},
+            () -> {Assertions.assertFalse(tree.contains(100));},
+            () -> {Assertions.assertEquals(8, tree.floor(9));},
+            () -> {Assertions.assertEquals(10, tree.floor(10));},
+            () -> {Assertions.assertNull(tree.floor(4));},
+            () -> {Assertions.assertEquals(10, tree.ceiling(9));},
+            () -> {Assertions.assertNull(tree.ceiling(19));},
+            () -> {Assertions.assertEquals(8, tree.lower(10));},
+            () -> {Assertions.assertNull(tree.lower(5));},
+            () -> {Assertions.assertEquals(15, tree.higher(10));},
+            () -> {Assertions.assertNull(tree.higher(18));}
+        );
+    }
+
+    /**
+     * BST Tester, degenerate input
+     * 1. Sorted inserts build a 20,000 node list without overflowing the stack.
+     * 2. Every other operation walks the full depth just as safely.
+     */
+    @Test
+    public void testDegenerateInsert() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+
+        // 1. each insert walks to the bottom of the list
+        Assertions.assertDoesNotThrow(() -> {
+            for (int i = 0; i < 20000; i++)
+                tree.insert(i);
+        });
+        Assertions.assertEquals(20000, tree.size());
+
+        // 2. search, order statistics and delete at the deep end
+        Assertions.assertTrue(tree.contains(19999));
+        Assertions.assertEquals(19999, tree.select(19999));
+        Assertions.assertEquals(19998, tree.floor(19998));
+        Assertions.assertEquals(1, tree.delete(19999));
+        Assertions.assertFalse(tree.contains(19999));
+    }
+
+    @Test
+    void testStreams() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+        Assertions.assertEquals(0, tree.parallelStream().count());
+
+        List<Integer> data = new ArrayList<Integer>(IntStream.range(0, 10000).boxed().toList());
+        Collections.shuffle(data, new Random(7));
+        for (int i : data)
+            tree.insert(i);
+
+        // 1. sequential and parallel streams see every element once, in order
+        Assertions.assertEquals(IntStream.range(0, 10000).boxed().toList(), tree.stream().toList());
+        Assertions.assertEquals(IntStream.range(0, 10000).boxed().toList(), tree.parallelStream().toList());
+        Assertions.assertEquals(5000, tree.parallelStream().filter(i -> i % 2 == 0).count());
+
+        // 2. splits are exact halves that together cover the tree
+        Spliterator<Integer> suffix = tree.spliterator();
+        Assertions.assertTrue(suffix.hasCharacteristics(Spliterator.SORTED | Spliterator.SIZED));
+        Spliterator<Integer> prefix = suffix.trySplit();
+        Assertions.assertEquals(5000, prefix.estimateSize());
+        Assertions.assertEquals(5000, suffix.estimateSize());
+        Assertions.assertTrue(suffix.tryAdvance(i -> Assertions.assertEquals(5000, i)));
+        Assertions.assertEquals(4999, suffix.estimateSize());
+    }
+
+    @Test
+    void testIterators() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+        Assertions.assertFalse(tree.iterator().hasNext());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.range(null, 1);});
+
+        List<Integer> data = new ArrayList<Integer>(IntStream.range(0, 1000).boxed().toList());
+        Collections.shuffle(data, new Random(11));
+        for (int i : data)
+            tree.insert(i);
+        tree.insert(500);
+
+        // 1. both directions visit everything, duplicates included
+        List<Integer> ascending = new ArrayList<Integer>();
+        for (int i : tree)
+            ascending.add(i);
+        Assertions.assertEquals(1001, ascending.size());
+        Assertions.assertEquals(500, ascending.get(501));
+
+        List<Integer> descending = new ArrayList<Integer>();
+        tree.descendingIterator().forEachRemaining(descending::add);
+        Collections.reverse(descending);
+        Assertions.assertEquals(ascending, descending);
+
+        // 2. ranges are inclusive and start at the first duplicate
+        Iterator<Integer> range = tree.range(498, 501);
+        Assertions.assertEquals(List.of(498, 499, 500, 500, 501), List.of(range.next(), range.next(), 
+            range.next(), range.next(), range.next()));
+        Assertions.assertFalse(range.hasNext());
+        Assertions.assertThrows(NoSuchElementException.class, () -> {range.next();});
+
+        // 3. bounds outside the tree and empty ranges
+        Assertions.assertEquals(0, tree.range(-10, 0).next());
+        Assertions.assertFalse(tree.range(1000, 2000).hasNext());
+        Assertions.assertFalse(tree.range(7, 6).hasNext());
+    }
+
+    @Test
+    void testMultiset() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(true);
+
+        // 1. a million repeats of three keys still make a three node tree
+        for (int i = 0; i < 1000000; i++)
+            tree.insert(i % 3);
+        Assertions.assertEquals(1000000, tree.size());
+        Assertions.assertEquals(333334, tree.count(0));
+        Assertions.assertEquals(333333, tree.count(2));
+        Assertions.assertEquals(0, tree.count(3));
+
+        // 2. order statistics count every occurrence
+        Assertions.assertEquals(0, tree.select(333333));
+        Assertions.assertEquals(1, tree.select(333334));
+        Assertions.assertEquals(666667, tree.rank(2));
+        Assertions.assertEquals(333333, tree.countInRange(1, 1));
+
+        // 3. occurrences are removed one at a time
+        tree.clear();
+        for (int i : List.of(5, 7, 7, 7, 9))
+            tree.insert(i);
+        Assertions.assertEquals(1, tree.delete(7));
+        Assertions.assertEquals(2, tree.count(7));
+        Assertions.assertEquals(4, tree.size());
+
+        // 4. iteration repeats each element as often as it occurs
+        Assertions.assertEquals(List.of(5, 7, 7, 9), tree.stream().toList());
+        List<Integer> descending = new ArrayList<Integer>();
+        tree.descendingIterator().forEachRemaining(descending::add);
+        Assertions.assertEquals(List.of(9, 7, 7, 5), descending);
+        Spliterator<Integer> prefix = tree.spliterator();
+        Spliterator<Integer> suffix = prefix.trySplit();
+        Assertions.assertEquals(2, suffix.estimateSize());
+
+        // 5. without the flag duplicates are still counted
+        BinarySearchTree<Integer> plain = new BinarySearchTree<Integer>();
+        plain.insert(4);
+        plain.insert(4);
+        Assertions.assertEquals(2, plain.count(4));
+    }
+
+    /**
+     * Scapegoat Tester
+     * 1. alpha has to lie within (0.5, 1).
+     * 2. Sorted inserts, duplicates included, stay within the height bound.
+     * 3. Random inserts and deletes agree with a sorted list and deleting most of the
+     *    tree keeps it flat.
+     */
+    @Test
+    void testScapegoat() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {new BinarySearchTree<Integer>(false, 0.5);});
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {new BinarySearchTree<Integer>(false, 1);});
+
+        // 2. a plain tree would be a 100,000 node list
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(false, 0.7);
+        for (int i = 0; i < 100000; i++)
+            tree.insert(i);
+        Assertions.assertEquals(100000, tree.size());
+        Assertions.assertTrue(heightOf(tree.root) <= 1 + Math.log(100000) / Math.log(1 / 0.7));
+        Assertions.assertEquals(IntStream.range(0, 100000).boxed().toList(), tree.stream().toList());
+
+        BinarySearchTree<Integer> same = new BinarySearchTree<Integer>(false, 0.6);
+        for (int i = 0; i < 10000; i++)
+            same.insert(42);
+        Assertions.assertEquals(10000, same.count(42));
+        Assertions.assertTrue(heightOf(same.root) <= 1 + Math.log(10000) / Math.log(1 / 0.6));
+
+        // 3. against a sorted list, as a multiset too
+        for (BinarySearchTree<Integer> random : List.of(new BinarySearchTree<Integer>(false, 0.75), 
+            new BinarySearchTree<Integer>(true, 0.75))) 
+        {
+            List<Integer> expected = new ArrayList<Integer>();
+            Random rand = new Random(19);
+            for (int i = 0; i < 40000; i++) {
+                int data = (i < 20000) ? i / 2 : rand.nextInt(10000);
+                int index = Collections.binarySearch(expected, data);
+
+                if (i < 20000 || rand.nextInt(4) == 0) {
+                    expected.add((index >= 0) ? index : -index - 1, data);
+                    random.insert(data);
+                } else {
+                    Assertions.assertEquals((index >= 0) ? 1 : 0, random.delete(data));
+                    if (index >= 0)
+                        expected.remove(index);
+                }
+            }
+
+            Assertions.assertEquals(expected, random.stream().toList());
+            Assertions.assertEquals(expected.size(), random.size());
+            Assertions.assertEquals(expected.get(expected.size() / 3), random.select(expected.size() / 3));
+            Assertions.assertTrue(heightOf(random.root) <= 1 + Math.log(20000) / Math.log(1 / 0.75));
+        }
+    }
+
+    // number of nodes on the longest root to leaf path
+    private static int heightOf(BinaryNode<?> node) {
+        return (node == null) ? 0 : 1 + Math.max(heightOf(node.getLeftChild()), heightOf(node.getRightChild()));
+    }
+
+    /**
+     * Splay Tree Tester
+     * 1. Accessed elements end up at the root, semi-splayed ones at most half as deep.
+     * 2. Sorted inserts and deep lookups do not overflow the stack.
+     * 3. Random inserts, lookups and deletes agree with a sorted list, sizes included.
+     */
+    @Test
+    void testSplayTree() {
+        SplayTree<Integer> tree = new SplayTree<Integer>();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.contains(null);});
+        Assertions.assertThrows(NullPointerException.class, () -> {tree.delete(1);});
+
+        // 1. sorted inserts leave a list, the hot key is pulled to the top
+        for (int i = 0; i < 20000; i++)
+            tree.insert(i);
+        Assertions.assertEquals(19999, tree.root.getData());
+        Assertions.assertTrue(tree.contains(0));
+        Assertions.assertEquals(0, tree.root.getData());
+        Assertions.assertFalse(tree.contains(-1));
+        Assertions.assertEquals(0, tree.root.getData());
+
+        SplayTree<Integer> semi = new SplayTree<Integer>(false, true);
+        for (int i = 0; i < 1000; i++)
+            semi.insert(i);
+        Assertions.assertEquals(999, depthOf(semi, 0));
+        Assertions.assertTrue(semi.contains(0));
+        Assertions.assertTrue(depthOf(semi, 0) <= 500);
+        Assertions.assertTrue(semi.contains(0));
+        Assertions.assertTrue(depthOf(semi, 0) <= 250);
+
+        // 2. the list is walked and unwound without recursion
+        Assertions.assertEquals(20000, tree.size());
+        Assertions.assertEquals(1, tree.delete(19999));
+        Assertions.assertEquals(0, tree.delete(19999));
+        Assertions.assertEquals(19998, tree.select(19998));
+
+        // 3. against a sorted list, multiset and semi-splaying alike
+        for (SplayTree<Integer> random : List.of(new SplayTree<Integer>(), new SplayTree<Integer>(true, false), 
+            new SplayTree<Integer>(false, true))) 
+        {
+            List<Integer> expected = new ArrayList<Integer>();
+            Random rand = new Random(13);
+            for (int i = 0; i < 20000; i++) {
+                int data = rand.nextInt(500);
+                int index = Collections.binarySearch(expected, data);
+
+                if (rand.nextInt(3) == 0) {
+                    Assertions.assertEquals(index >= 0, random.contains(data));
+                } else if (rand.nextBoolean()) {
+                    expected.add((index >= 0) ? index : -index - 1, data);
+                    random.insert(data);
+                } else if (!expected.isEmpty()) {
+                    Assertions.assertEquals((index >= 0) ? 1 : 0, random.delete(data));
+                    if (index >= 0)
+                        expected.remove(index);
+                }
+            }
+
+            Assertions.assertEquals(expected, random.stream().toList());
+            Assertions.assertEquals(expected.size(), random.size());
+            Assertions.assertEquals(Collections.frequency(expected, 250), random.count(250));
+            Assertions.assertEquals(expected.get(expected.size() / 2), random.select(expected.size() / 2));
+        }
+    }
+
+    /**
+     * Treap Tester
+     * 1. Random inserts and deletes agree with a sorted list and keep the heap order.
+     * 2. split() and merge() take a treap apart and put it back together.
+     * 3. A range moves from one shard into the gap of another and back.
+     * 4. A multiset keeps one node per element across merges.
+     */
+    @Test
+    void testTreap() {
+        Treap<Integer> tree = new Treap<Integer>();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.split(null);});
+        Assertions.assertThrows(NullPointerException.class, () -> {tree.delete(1);});
+
+        // 1. against a sorted list, sorted inserts included
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            tree.insert(i * 2);
+            expected.add(i * 2);
+        }
+        Random rand = new Random(17);
+        for (int i = 0; i < 20000; i++) {
+            int data = rand.nextInt(30000);
+            int index = Collections.binarySearch(expected, data);
+
+            if (rand.nextBoolean()) {
+                expected.add((index >= 0) ? index : -index - 1, data);
+                tree.insert(data);
+            } else {
+                Assertions.assertEquals((index >= 0) ? 1 : 0, tree.delete(data));
+                if (index >= 0)
+                    expected.remove(index);
+            }
+        }
+        Assertions.assertEquals(expected, tree.stream().toList());
+        Assertions.assertEquals(expected.size(), verifyTreap(tree.root));
+        Assertions.assertTrue(depthOf(tree, expected.get(expected.size() - 1)) < 100);
+
+        // 2. split at a key and merge back, out of order merges are refused
+        int size = tree.size();
+        Treap<Integer> upper = tree.split(15000);
+        Assertions.assertEquals(tree.rank(15000), tree.size());
+        Assertions.assertEquals(size, tree.size() + upper.size());
+        Assertions.assertTrue(upper.select(0) >= 15000);
+        Assertions.assertEquals(tree.size(), verifyTreap(tree.root));
+        Assertions.assertEquals(upper.size(), verifyTreap(upper.root));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {Treap.merge(upper, tree);});
+        Treap<Integer> merged = Treap.merge(tree, upper);
+        Assertions.assertTrue(tree.isEmpty() && upper.isEmpty());
+        Assertions.assertEquals(expected, merged.stream().toList());
+        Assertions.assertEquals(size, verifyTreap(merged.root));
+
+        // 3. shard a holds the evens, shard b the odds above 20000
+        Treap<Integer> a = new Treap<Integer>(), b = new Treap<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            a.insert(i * 2);
+            b.insert(20001 + i * 2);
+        }
+        Treap<Integer> range = a.extract(5000, 5999);
+        Assertions.assertEquals(500, range.size());
+        Assertions.assertEquals(9500, verifyTreap(a.root));
+        Assertions.assertEquals(0, a.countInRange(5000, 5999));
+        Assertions.assertEquals(0, a.extract(7, 6).size());
+
+        b.insert(5501);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {b.splice(range);});
+        Assertions.assertEquals(500, range.size());
+        Assertions.assertEquals(10001, verifyTreap(b.root));
+        Assertions.assertEquals(1, b.delete(5501));
+
+        a.splice(range);
+        Assertions.assertTrue(range.isEmpty());
+        Assertions.assertEquals(10000, verifyTreap(a.root));
+        Assertions.assertEquals(IntStream.range(0, 10000).map(i -> i * 2).boxed().toList(), a.stream().toList());
+
+        Treap<Integer> top = b.extract(30001, 40000);
+        Treap<Integer> all = Treap.merge(a, top);
+        Assertions.assertEquals(15000, verifyTreap(all.root));
+        Assertions.assertEquals(30001, all.select(10000));
+
+        // 4. the counts of an element on both sides add up
+        Treap<Integer> left = new Treap<Integer>(true), right = new Treap<Integer>(true);
+        for (int i : List.of(1, 2, 3, 3))
+            left.insert(i);
+        for (int i : List.of(3, 3, 3, 4))
+            right.insert(i);
+        Treap<Integer> multiset = Treap.merge(left, right);
+        Assertions.assertEquals(8, multiset.size());
+        Assertions.assertEquals(5, multiset.count(3));
+        Assertions.assertEquals(8, verifyTreap(multiset.root));
+        Assertions.assertEquals(1, multiset.delete(3));
+        Treap<Integer> threes = multiset.extract(3, 3);
+        Assertions.assertEquals(4, threes.root.getCount());
+        Assertions.assertEquals(4, verifyTreap(threes.root));
+        Assertions.assertEquals(List.of(1, 2, 4), multiset.stream().toList());
+    }
+
+    // checks parent links, heap order and sizes, returns the size of the subtree
+    private static int verifyTreap(BinaryNode<Integer> node) {
+        if (node == null)
+            return 0;
+
+        for (BinaryNode<Integer> child : Arrays.asList(node.getLeftChild(), node.getRightChild())) {
+            if (child != null) {
+                Assertions.assertSame(node, child.getParent());
+                Assertions.assertTrue(TreapNode.priorityOf(child) <= TreapNode.priorityOf(node));
+            }
+        }
+
+        int size = verifyTreap(node.getLeftChild()) + node.getCount() + verifyTreap(node.getRightChild());
+        Assertions.assertEquals(size, node.getSize());
+        return size;
+    }
+
+    // number of edges between the root and the node holding data
+    private static int depthOf(BinarySearchTree<Integer> tree, int data) {
+        int depth = 0;
+        for (BinaryNode<Integer> node = tree.root; node.getData() != data; depth++)
+            node = (data < node.getData()) ? node.getLeftChild() : node.getRightChild();
+
+        return depth;
+    }
+}
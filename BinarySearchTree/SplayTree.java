@@ -0,0 +1,191 @@
+package BinarySearchTree;
+
+/**
+ * Binary search tree that moves every node it touches to the root with rotate().
+ * Recently used elements therefore sit a few steps below the root, which suits
+ * lookups that keep coming back to a small set of hot elements even as that set
+ * drifts. No balance is kept, but any sequence of operations costs amortized
+ * O(log n) each.
+ *
+ * A semi-splaying tree only moves looked up nodes halfway up, rotating about half
+ * as often on contains(). Inserts and deletes always splay all the way.
+ * @author Matthew Smith
+ */
+public class SplayTree<T extends Comparable<T>> extends BinarySearchTree<T> {
+
+    // contains() only semi-splays
+    private final boolean semiSplay;
+
+    public SplayTree() {
+        this(false, false);
+    }
+
+    /**
+     * Creates a splay tree that is a multiset and semi-splays lookups if asked to.
+     * @param multiset
+     * @param semiSplay
+     */
+    public SplayTree(boolean multiset, boolean semiSplay) {
+        super(multiset);
+        this.semiSplay = semiSplay;
+    }
+
+    /**
+     * Inserts data as a leaf, or counts it in a multiset, and splays its node to the
+     * root. Duplicates go to the right of the elements they equal.
+     * @param data
+     * @throws IllegalArgumentException when data is null
+     */
+    @Override
+    public void insert(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not insert null into a tree.");
+
+        if (this.root == null) {
+            this.root = new BinaryNode<T>(data);
+            return;
+        }
+
+        BinaryNode<T> search = this.root, parent;
+        int comparison;
+        do {
+            // the element always lands somewhere below search
+            search.setSize(search.getSize() + 1);
+            comparison = data.compareTo(search.getData());
+
+            if (comparison == 0 && this.multiset) {
+                search.setCount(search.getCount() + 1);
+                splay(search, false);
+                return;
+            }
+
+            parent = search;
+            search = (comparison < 0) ? search.getLeftChild() : search.getRightChild();
+        } while (search != null);
+
+        BinaryNode<T> insertNode = new BinaryNode<T>(data);
+        insertNode.setParent(parent);
+        if (comparison < 0)
+            parent.setLeftChild(insertNode);
+        else
+            parent.setRightChild(insertNode);
+
+        splay(insertNode, false);
+    }
+
+    /**
+     * Splays data to the root and removes it there. The left subtree has its largest
+     * element splayed up, which leaves no right child for the right subtree to take.
+     * @param data
+     * @return int 0 if tree did not contain the specified value
+     *         int 1 if value was successfully deleted
+     */
+    @Override
+    public int delete(T data) throws IllegalArgumentException, NullPointerException {
+        if (data == null)
+            throw new IllegalArgumentException("delete() method argument can not be null.");
+
+        if (this.root == null)
+            throw new NullPointerException("There is nothing to delete as the tree is empty.");
+
+        if (!find(data, false))
+            return 0;
+
+        // one of several occurrences is just counted down
+        if (this.root.getCount() > 1) {
+            this.root.setCount(this.root.getCount() - 1);
+            this.root.updateSize();
+            return 1;
+        }
+
+        BinaryNode<T> left = this.root.getLeftChild(), right = this.root.getRightChild();
+        if (left == null) {
+            this.root = right;
+            if (right != null)
+                right.setParent(null);
+            return 1;
+        }
+
+        left.setParent(null);
+        this.root = left;
+        BinaryNode<T> last = left;
+        while (last.getRightChild() != null)
+            last = last.getRightChild();
+        splay(last, false);
+
+        this.root.setRightChild(right);
+        if (right != null)
+            right.setParent(this.root);
+        this.root.updateSize();
+        return 1;
+    }
+
+    /**
+     * Searches the tree for data and splays the last node visited, so a hit ends up
+     * at the root, or halfway there when semi-splaying.
+     * @param data
+     * @return true if tree contains the data
+     *         false if the tree does not contain the data
+     * @throws IllegalArgumentException when data is null
+     */
+    @Override
+    public boolean contains(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not search a tree for null.");
+
+        return find(data, this.semiSplay);
+    }
+
+    /**
+     * Walks down to data and splays the last node visited.
+     * @param data
+     * @param semi whether to semi-splay
+     * @return true if data was found, with a full splay it is then at the root
+     */
+    private boolean find(T data, boolean semi) {
+        BinaryNode<T> search = this.root, last = null;
+        while (search != null) {
+            int comparison = data.compareTo(search.getData());
+            last = search;
+
+            if (comparison == 0)
+                break;
+
+            search = (comparison < 0) ? search.getLeftChild() : search.getRightChild();
+        }
+
+        if (last != null)
+            splay(last, semi);
+
+        return search != null;
+    }
+
+    /**
+     * Rotates node up to the root. Where node and its parent lean the same way the
+     * parent is rotated first (zig-zig), otherwise node is rotated up twice
+     * (zig-zag), and a child of the root takes one last rotation (zig). A semi-splay
+     * stops after the zig-zig's first rotation and carries on from the parent, so
+     * every node on the path ends up about half as deep, node included.
+     * @param node
+     * @param semi
+     */
+    private void splay(BinaryNode<T> node, boolean semi) {
+        while (node.getParent() != null) {
+            BinaryNode<T> parent = node.getParent();
+            BinaryNode<T> grandparent = parent.getParent();
+
+            if (grandparent == null) {
+                rotate(parent, node);
+            } else if (node.isRightChild() == parent.isRightChild()) {
+                rotate(grandparent, parent);
+                if (semi)
+                    node = parent;
+                else
+                    rotate(parent, node);
+            } else {
+                rotate(parent, node);
+                rotate(grandparent, node);
+            }
+        }
+    }
+}
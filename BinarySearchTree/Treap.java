@@ -0,0 +1,328 @@
+package BinarySearchTree;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Binary search tree whose nodes also form a heap on random priorities. The shape
+ * is that of a tree built from the elements in random order, so every path is
+ * expected O(log n) long whatever order the elements came in.
+ *
+ * Without any balance to restore, a treap cuts apart and glues together along a
+ * single path: split(), merge(), extract() and splice() all take expected O(log n),
+ * however many elements they move.
+ * @author Matthew Smith
+ */
+public class Treap<T extends Comparable<T>> extends BinarySearchTree<T> {
+
+    public Treap() {
+        this(false);
+    }
+
+    /**
+     * Creates a treap that is a multiset if asked to.
+     * @param multiset
+     */
+    public Treap(boolean multiset) {
+        super(multiset);
+    }
+
+    /**
+     * Inserts data as a leaf, or counts it in a multiset, and rotates the new node up
+     * while its priority beats its parents. Duplicates go to the right of the
+     * elements they equal.
+     * @param data
+     * @throws IllegalArgumentException when data is null
+     */
+    @Override
+    public void insert(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not insert null into a tree.");
+
+        if (this.root == null) {
+            this.root = new TreapNode<T>(data, ThreadLocalRandom.current().nextInt());
+            return;
+        }
+
+        BinaryNode<T> search = this.root, parent;
+        int comparison;
+        do {
+            // the element always lands somewhere below search
+            search.setSize(search.getSize() + 1);
+            comparison = data.compareTo(search.getData());
+
+            if (comparison == 0 && this.multiset) {
+                search.setCount(search.getCount() + 1);
+                return;
+            }
+
+            parent = search;
+            search = (comparison < 0) ? search.getLeftChild() : search.getRightChild();
+        } while (search != null);
+
+        TreapNode<T> insertNode = new TreapNode<T>(data, ThreadLocalRandom.current().nextInt());
+        insertNode.setParent(parent);
+        if (comparison < 0)
+            parent.setLeftChild(insertNode);
+        else
+            parent.setRightChild(insertNode);
+
+        while (insertNode.getParent() != null
+            && TreapNode.priorityOf(insertNode.getParent()) < insertNode.getPriority())
+            rotate(insertNode.getParent(), insertNode);
+    }
+
+    /**
+     * Deletes data from the treap. The node is rotated down below whichever child
+     * has the greater priority until it has at most one child, then spliced out.
+     * @param data
+     * @return int 0 if tree did not contain the specified value
+     *         int 1 if value was successfully deleted
+     */
+    @Override
+    public int delete(T data) throws IllegalArgumentException, NullPointerException {
+        if (data == null)
+            throw new IllegalArgumentException("delete() method argument can not be null.");
+
+        if (this.root == null)
+            throw new NullPointerException("There is nothing to delete as the tree is empty.");
+
+        BinaryNode<T> search = this.root;
+        while (search != null && data.compareTo(search.getData()) != 0)
+            search = (data.compareTo(search.getData()) < 0)
+                ? search.getLeftChild() : search.getRightChild();
+
+        if (search == null)
+            return 0;
+
+        // one of several occurrences is just counted down
+        if (search.getCount() > 1) {
+            search.setCount(search.getCount() - 1);
+            for (; search != null; search = search.getParent())
+                search.updateSize();
+            return 1;
+        }
+
+        unlink(search);
+        return 1;
+    }
+
+    /**
+     * Moves every element not less than key out of this treap and into a new one,
+     * so this treap keeps the elements less than key. Expected O(log n).
+     * @param key
+     * @return a treap holding the elements greater than or equal to key
+     * @throws IllegalArgumentException when key is null
+     */
+    public Treap<T> split(T key) throws IllegalArgumentException {
+        if (key == null)
+            throw new IllegalArgumentException("Can not split a tree at null.");
+
+        return cut(key, false);
+    }
+
+    /**
+     * Builds a treap out of every element of left followed by every element of
+     * right. Expected O(log n). Both treaps are emptied and the result is a
+     * multiset like left, in which case an element ending left and starting right
+     * is kept in one node.
+     * @param left every element must be no greater than those of right
+     * @param right
+     * @return the merged treap
+     * @throws IllegalArgumentException when either treap is null, they are the same
+     *         treap, or they are not in order
+     */
+    public static <T extends Comparable<T>> Treap<T> merge(Treap<T> left, Treap<T> right)
+        throws IllegalArgumentException
+    {
+        if (left == null || right == null)
+            throw new IllegalArgumentException("Can not merge a tree with null.");
+
+        if (left == right && !left.isEmpty())
+            throw new IllegalArgumentException("Can not merge a tree with itself.");
+
+        BinaryNode<T> leftLast = last(left.root);
+        BinaryNode<T> rightFirst = first(right.root);
+        if (leftLast != null && rightFirst != null
+            && leftLast.getData().compareTo(rightFirst.getData()) > 0)
+            throw new IllegalArgumentException("merge() needs left <= right.");
+
+        Treap<T> treap = new Treap<T>(left.multiset);
+        treap.root = left.root;
+        left.root = null;
+        treap.append(right);
+        return treap;
+    }
+
+    /**
+     * Moves every element within [lo, hi], both ends inclusive, out of this treap
+     * and into a new one. Expected O(log n), however many elements are in range.
+     * @param lo
+     * @param hi
+     * @return a treap holding the elements of the range, empty if lo is greater
+     *         than hi
+     * @throws IllegalArgumentException when either bound is null
+     */
+    public Treap<T> extract(T lo, T hi) throws IllegalArgumentException {
+        if (lo == null || hi == null)
+            throw new IllegalArgumentException("extract() bounds can not be null.");
+
+        if (lo.compareTo(hi) > 0)
+            return new Treap<T>(this.multiset);
+
+        Treap<T> range = cut(lo, false);
+        append(range.cut(hi, true));
+        return range;
+    }
+
+    /**
+     * Moves every element of range into this treap. The range has to fit between
+     * two neighbouring elements of this treap, as one taken out by extract() fits
+     * back into the gap it left. Expected O(log n), however big the range is. range
+     * is left empty.
+     * @param range no element of this treap may fall strictly between its first and
+     *        last element
+     * @throws IllegalArgumentException when range is null, this treap, or does not
+     *         fit between two elements
+     */
+    public void splice(Treap<T> range) throws IllegalArgumentException {
+        if (range == null)
+            throw new IllegalArgumentException("Can not splice null into a tree.");
+
+        if (range == this)
+            throw new IllegalArgumentException("Can not splice a tree into itself.");
+
+        if (range.isEmpty())
+            return;
+
+        Treap<T> rest = cut(first(range.root).getData(), false);
+        BinaryNode<T> restFirst = first(rest.root);
+        if (restFirst != null && restFirst.getData().compareTo(last(range.root).getData()) < 0) {
+            append(rest);
+            throw new IllegalArgumentException("splice() needs a range that fits between two elements.");
+        }
+
+        append(range);
+        append(rest);
+    }
+
+    /**
+     * Cuts the treap along the path to key. Nodes that go left are chained down the
+     * right spine of this treap, the others down the left spine of the new one, and
+     * only the nodes on the path need their sizes refreshed.
+     * @param key
+     * @param inclusive whether elements equal to key stay in this treap
+     * @return a treap holding the elements after key
+     */
+    private Treap<T> cut(T key, boolean inclusive) {
+        Treap<T> right = new Treap<T>(this.multiset);
+        BinaryNode<T> search = this.root, leftTail = null, rightHead = null;
+        this.root = null;
+
+        while (search != null) {
+            int comparison = search.getData().compareTo(key);
+
+            if (comparison < 0 || (inclusive && comparison == 0)) {
+                link(this, leftTail, true, search);
+                leftTail = search;
+                search = search.getRightChild();
+            } else {
+                link(right, rightHead, false, search);
+                rightHead = search;
+                search = search.getLeftChild();
+            }
+        }
+
+        if (leftTail != null)
+            leftTail.setRightChild(null);
+        if (rightHead != null)
+            rightHead.setLeftChild(null);
+
+        for (; leftTail != null; leftTail = leftTail.getParent())
+            leftTail.updateSize();
+        for (; rightHead != null; rightHead = rightHead.getParent())
+            rightHead.updateSize();
+
+        return right;
+    }
+
+    /**
+     * Moves every element of right, which are no less than those of this treap, in
+     * behind them. The two right and left spines are zipped together by priority.
+     * @param right is left empty
+     */
+    private void append(Treap<T> right) {
+        BinaryNode<T> tail = last(this.root), head = first(right.root);
+
+        // a multiset keeps a single node per element
+        if (this.multiset && tail != null && head != null
+            && tail.getData().compareTo(head.getData()) == 0)
+        {
+            tail.setCount(tail.getCount() + head.getCount());
+            for (; tail != null; tail = tail.getParent())
+                tail.updateSize();
+            right.unlink(head);
+        }
+
+        BinaryNode<T> a = this.root, b = right.root, hook = null;
+        boolean hookRight = false;
+        right.root = null;
+
+        while (a != null && b != null) {
+            if (TreapNode.priorityOf(a) >= TreapNode.priorityOf(b)) {
+                link(this, hook, hookRight, a);
+                hook = a;
+                hookRight = true;
+                a = a.getRightChild();
+            } else {
+                link(this, hook, hookRight, b);
+                hook = b;
+                hookRight = false;
+                b = b.getLeftChild();
+            }
+        }
+
+        link(this, hook, hookRight, (a != null) ? a : b);
+        for (; hook != null; hook = hook.getParent())
+            hook.updateSize();
+    }
+
+    /**
+     * Removes node, rotating it down until it has at most one child.
+     * @param node
+     */
+    private void unlink(BinaryNode<T> node) {
+        while (node.getLeftChild() != null && node.getRightChild() != null) {
+            BinaryNode<T> child = (TreapNode.priorityOf(node.getLeftChild())
+                > TreapNode.priorityOf(node.getRightChild())) ? node.getLeftChild() : node.getRightChild();
+            rotate(node, child);
+        }
+
+        BinaryNode<T> parent = node.getParent();
+        BinaryNode<T> child = (node.getLeftChild() != null) ? node.getLeftChild() : node.getRightChild();
+        link(this, parent, parent != null && parent.getRightChild() == node, child);
+
+        for (; parent != null; parent = parent.getParent())
+            parent.updateSize();
+    }
+
+    /**
+     * Hangs child from parent, or makes it the root of treap when parent is null.
+     * @param treap
+     * @param parent
+     * @param right whether child becomes the right child
+     * @param child may be null
+     */
+    private static <T extends Comparable<T>> void link(Treap<T> treap, BinaryNode<T> parent, boolean right,
+        BinaryNode<T> child)
+    {
+        if (child != null)
+            child.setParent(parent);
+
+        if (parent == null)
+            treap.root = child;
+        else if (right)
+            parent.setRightChild(child);
+        else
+            parent.setLeftChild(child);
+    }
+}
@@ -0,0 +1,31 @@
+package BinarySearchTree;
+
+public class TreapNode<T extends Comparable<T>> extends BinaryNode<T> {
+
+    // heap order, no node has a greater priority than its parent
+    private final int priority;
+
+    /**
+     * Creates a new node with supplied data and priority and without references to
+     * other nodes.
+     * @param data
+     * @param priority
+     */
+    public TreapNode(T data, int priority) {
+        super(data);
+        this.priority = priority;
+    }
+
+    /**
+     * Null safe priority, an empty subtree loses to every node.
+     * @param node must be a TreapNode unless null
+     * @return Integer.MIN_VALUE if node is null
+     */
+    public static int priorityOf(BinaryNode<?> node) {
+        return (node == null) ? Integer.MIN_VALUE : ((TreapNode<?>) node).priority;
+    }
+
+    public int getPriority() {
+        return this.priority;
+    }
+}
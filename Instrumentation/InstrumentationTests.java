@@ -0,0 +1,178 @@
+package Instrumentation;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.jupiter.api.*;
+
+import AVLTree.AVLTree;
+import RedBlackTree.RedBlackTree;
+
+/**
+ * Class for testing Instrumentation package. Utilizes JUnit Jupiter otherwise known as
+ * JUnit 5.
+ * @author Matthew Smith
+ */
+class InstrumentationTests {
+
+    /**
+     * LatencyHistogram Tester
+     */
+    @Test
+    protected void testLatencyHistogram() {
+        // 1. Buckets cover every value exactly once, in order
+        for (int bucket = 0; bucket < 200; bucket++) {
+            Assertions.assertEquals(bucket, LatencyHistogram.bucketOf(LatencyHistogram.lowestValue(bucket)));
+            Assertions.assertEquals(bucket, LatencyHistogram.bucketOf(LatencyHistogram.highestValue(bucket)));
+            Assertions.assertEquals(LatencyHistogram.highestValue(bucket) + 1, LatencyHistogram.lowestValue(bucket + 1));
+        }
+        Assertions.assertTrue(LatencyHistogram.bucketOf(Long.MAX_VALUE) > 0);
+
+        // 2. A bucket is at most an eighth of the values it holds wide
+        for (long value : new long[] { 9, 100, 1000, 123456, 1L << 40 }) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long width = LatencyHistogram.highestValue(bucket) - LatencyHistogram.lowestValue(bucket) + 1;
+            Assertions.assertTrue(width * 8 <= LatencyHistogram.lowestValue(bucket));
+        }
+
+        // 3. Percentiles
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assertions.assertEquals(0, histogram.percentile(99));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> histogram.percentile(101));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> histogram.percentile(Double.NaN));
+
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i);
+        histogram.record(-5);
+
+        Assertions.assertEquals(1001, histogram.count());
+        Assertions.assertEquals(1000, histogram.max());
+        Assertions.assertEquals(0, histogram.percentile(0));
+        Assertions.assertEquals(1000, histogram.percentile(100));
+        long median = histogram.percentile(50);
+        Assertions.assertTrue(median >= 500 && median <= 500 + 500 / 8, "median " + median);
+        long p99 = histogram.percentile(99);
+        Assertions.assertTrue(p99 >= 990 && p99 <= 1000, "p99 " + p99);
+
+        histogram.reset();
+        Assertions.assertEquals(0, histogram.count());
+        Assertions.assertEquals(0, histogram.max());
+    }
+
+    /**
+     * TreeStatistics Tester
+     */
+    @Test
+    protected void testTreeStatistics() throws Exception {
+        TreeStatistics statistics = new TreeStatistics("InstrumentationTests");
+        Assertions.assertEquals(0.0, statistics.getNodesVisitedPerOperation());
+
+        // 1. Counters
+        statistics.record(TreeStatistics.Operation.INSERT, 100, 3, 5);
+        statistics.record(TreeStatistics.Operation.INSERT, 200, 4, 6);
+        statistics.record(TreeStatistics.Operation.CONTAINS, 50, 2, 2);
+        statistics.rotated();
+        statistics.recolored();
+        statistics.recolored();
+
+        Assertions.assertEquals(9, statistics.getComparisons());
+        Assertions.assertEquals(13, statistics.getNodesVisited());
+        Assertions.assertEquals(3, statistics.getOperations());
+        Assertions.assertEquals(1, statistics.getRotations());
+        Assertions.assertEquals(2, statistics.getRecolorings());
+        Assertions.assertEquals(13.0 / 3, statistics.getNodesVisitedPerOperation(), 1e-9);
+        Assertions.assertEquals(Long.valueOf(2), statistics.getOperationCounts().get("insert"));
+        Assertions.assertEquals(Long.valueOf(0), statistics.getOperationCounts().get("delete"));
+
+        Map<String, Long> latencies = statistics.getLatencyNanos();
+        Assertions.assertEquals(Long.valueOf(200), latencies.get("insert.max"));
+        Assertions.assertEquals(Long.valueOf(200), latencies.get("insert.p999"));
+        Assertions.assertEquals(Long.valueOf(50), latencies.get("contains.p50"));
+
+        // 2. Published attributes read back over JMX
+        ObjectName name = statistics.publish();
+        Assertions.assertEquals(name, statistics.publish());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            Assertions.assertEquals(9L, server.getAttribute(name, "Comparisons"));
+            Assertions.assertEquals(2L, server.getAttribute(name, "Recolorings"));
+
+            TabularData counts = (TabularData) server.getAttribute(name, "OperationCounts");
+            CompositeData inserts = counts.get(new Object[] { "insert" });
+            Assertions.assertEquals(2L, inserts.get("value"));
+
+            server.invoke(name, "reset", null, null);
+            Assertions.assertEquals(0L, server.getAttribute(name, "Comparisons"));
+            Assertions.assertEquals(0, statistics.getOperations());
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * Tree counters Tester, only runs with -Dtrees.instrumentation=true as the
+     * instrumentationTest task sets it
+     */
+    @Test
+    protected void testTreeCounters() throws Exception {
+        Assumptions.assumeTrue(TreeStatistics.ENABLED, "trees.instrumentation is off");
+
+        // 1. AVLTree
+        AVLTree<Integer> avl = new AVLTree<Integer>();
+        assertCounters("AVLTree", 0, 0, 0, 0);
+
+        for (int i = 1; i <= 7; i++)
+            avl.insert(i);
+        assertCounters("AVLTree", 14, 4, 0, 28);
+
+        avl.setLazyDelete(0.5);
+        avl.delete(4);
+        assertCounters("AVLTree", 1, 0, 0, 1);
+        // the tombstone at the root sends contains() down two more paths by rank
+        Assertions.assertFalse(avl.contains(4));
+        assertCounters("AVLTree", 7, 0, 0, 7);
+
+        avl.setLazyDelete(0);
+        avl.delete(1);
+        assertCounters("AVLTree", 2, 0, 0, 3);
+
+        // 2. RedBlackTree
+        RedBlackTree<Integer> redBlack = new RedBlackTree<Integer>();
+        assertCounters("RedBlackTree", 0, 0, 0, 0);
+
+        for (int i = 1; i <= 7; i++)
+            redBlack.insert(i);
+        assertCounters("RedBlackTree", 15, 3, 14, 15);
+
+        redBlack.setLazyDelete(0.5);
+        redBlack.delete(2);
+        assertCounters("RedBlackTree", 1, 0, 0, 1);
+        Assertions.assertFalse(redBlack.contains(2));
+        assertCounters("RedBlackTree", 6, 0, 0, 6);
+
+        redBlack.setLazyDelete(0);
+        redBlack.delete(7);
+        assertCounters("RedBlackTree", 3, 0, 2, 5);
+    }
+
+    /**
+     * Reads the counters a tree published over JMX, then resets them.
+     */
+    private static void assertCounters(String tree, long comparisons, long rotations, long recolorings,
+        long visited) throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("Trees:type=TreeStatistics,name=" + tree);
+        Assertions.assertEquals(comparisons, server.getAttribute(name, "Comparisons"), tree + " comparisons");
+        Assertions.assertEquals(rotations, server.getAttribute(name, "Rotations"), tree + " rotations");
+        Assertions.assertEquals(recolorings, server.getAttribute(name, "Recolorings"), tree + " recolorings");
+        Assertions.assertEquals(visited, server.getAttribute(name, "NodesVisited"), tree + " nodes visited");
+        server.invoke(name, "reset", null, null);
+    }
+}
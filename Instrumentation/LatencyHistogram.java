@@ -0,0 +1,122 @@
+package Instrumentation;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values, laid out like HdrHistogram: every power of two
+ * is cut into 8 equal buckets, so a bucket is never more than 1/8 of its values
+ * wide and the whole long range fits in under 500 counters. Recording is one
+ * array increment, safe from any number of threads.
+ * @author Matthew Smith
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final LongAdder total;
+    private final LongAccumulator max;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.total = new LongAdder();
+        this.max = new LongAccumulator(Long::max, 0);
+    }
+
+    /**
+     * Counts value, negative values count as 0.
+     * @param value
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        this.counts.incrementAndGet(bucketOf(value));
+        this.total.increment();
+        this.max.accumulate(value);
+    }
+
+    /**
+     * Returns how many values were recorded.
+     * @return
+     */
+    public long count() {
+        return this.total.sum();
+    }
+
+    public long max() {
+        return this.max.get();
+    }
+
+    /**
+     * Returns the value that percentile percent of the recorded values are at or
+     * under, rounded up to the top of its bucket.
+     * @param percentile from 0 to 100
+     * @return 0 if nothing was recorded
+     * @throws IllegalArgumentException when percentile is out of range
+     */
+    public long percentile(double percentile) throws IllegalArgumentException {
+        if (!(percentile >= 0 && percentile <= 100))
+            throw new IllegalArgumentException("Percentile has to be between 0 and 100.");
+
+        long[] snapshot = new long[BUCKETS];
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            recorded += snapshot[i] = this.counts.get(i);
+
+        if (recorded == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * recorded));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(highestValue(i), max());
+        }
+
+        return max();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            this.counts.set(i, 0);
+        this.total.reset();
+        this.max.reset();
+    }
+
+    /**
+     * Values below 8 get a bucket each, above that the bucket is picked by the
+     * position of the highest set bit and the 3 bits after it.
+     * @param value non-negative
+     * @return
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Smallest value that lands in bucket.
+     * @param bucket
+     * @return
+     */
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+
+    static long highestValue(int bucket) {
+        return (bucket == BUCKETS - 1) ? Long.MAX_VALUE : lowestValue(bucket + 1) - 1;
+    }
+}
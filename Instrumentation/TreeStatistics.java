@@ -0,0 +1,183 @@
+package Instrumentation;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for one kind of tree, shared by all its
+ * instances and published as the MBean Trees:type=TreeStatistics,name=<name>.
+ *
+ * Everything is switched on by starting the JVM with -Dtrees.instrumentation=true.
+ * ENABLED is a static final read once, so the trees guard every call with
+ * if (TreeStatistics.ENABLED) and when it is false the JIT compiles the guarded
+ * code away: no clock reads, no counters, no extra branches.
+ * @author Matthew Smith
+ */
+public final class TreeStatistics implements TreeStatisticsMXBean {
+
+    public static final boolean ENABLED = Boolean.getBoolean("trees.instrumentation");
+
+    /**
+     * The operations that are timed.
+     */
+    public enum Operation {
+        INSERT,
+        DELETE,
+        CONTAINS
+    }
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final String name;
+    private final LongAdder comparisons;
+    private final LongAdder rotations;
+    private final LongAdder recolorings;
+    private final LongAdder nodesVisited;
+    private final LatencyHistogram[] latencies;
+
+    public TreeStatistics(String name) {
+        this.name = name;
+        this.comparisons = new LongAdder();
+        this.rotations = new LongAdder();
+        this.recolorings = new LongAdder();
+        this.nodesVisited = new LongAdder();
+        this.latencies = new LatencyHistogram[Operation.values().length];
+        for (int i = 0; i < this.latencies.length; i++)
+            this.latencies[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Creates the statistics for a kind of tree, and publishes them if
+     * instrumentation is switched on.
+     * @param name
+     * @return
+     */
+    public static TreeStatistics register(String name) {
+        TreeStatistics statistics = new TreeStatistics(name);
+        if (ENABLED)
+            statistics.publish();
+        return statistics;
+    }
+
+    /**
+     * Registers this as an MBean with the platform MBean server. A name that is
+     * already taken, say by a second class loader, is left alone.
+     * @return the name it is registered under
+     */
+    public ObjectName publish() {
+        try {
+            ObjectName objectName = new ObjectName("Trees:type=TreeStatistics,name=" + this.name);
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                // first one wins
+            }
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register statistics for " + this.name + ".", e);
+        }
+    }
+
+    /**
+     * Records one finished operation.
+     * @param operation
+     * @param nanos how long it took
+     * @param comparisons compareTo() calls it made
+     * @param visited nodes it touched on the way down and back up
+     */
+    public void record(Operation operation, long nanos, long comparisons, long visited) {
+        this.latencies[operation.ordinal()].record(nanos);
+        this.comparisons.add(comparisons);
+        this.nodesVisited.add(visited);
+    }
+
+    public void rotated() {
+        this.rotations.increment();
+    }
+
+    public void recolored() {
+        this.recolorings.increment();
+    }
+
+    public LatencyHistogram latency(Operation operation) {
+        return this.latencies[operation.ordinal()];
+    }
+
+    @Override
+    public long getComparisons() {
+        return this.comparisons.sum();
+    }
+
+    @Override
+    public long getRotations() {
+        return this.rotations.sum();
+    }
+
+    @Override
+    public long getRecolorings() {
+        return this.recolorings.sum();
+    }
+
+    @Override
+    public long getNodesVisited() {
+        return this.nodesVisited.sum();
+    }
+
+    @Override
+    public long getOperations() {
+        long operations = 0;
+        for (LatencyHistogram latency : this.latencies)
+            operations += latency.count();
+        return operations;
+    }
+
+    @Override
+    public double getNodesVisitedPerOperation() {
+        long operations = getOperations();
+        return (operations == 0) ? 0 : (double) getNodesVisited() / operations;
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (Operation operation : Operation.values())
+            counts.put(key(operation), latency(operation).count());
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyNanos() {
+        Map<String, Long> latencies = new LinkedHashMap<String, Long>();
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram latency = latency(operation);
+            for (double percentile : PERCENTILES) {
+                String label = (percentile == Math.rint(percentile))
+                    ? Integer.toString((int) percentile) : Double.toString(percentile).replace(".", "");
+                latencies.put(key(operation) + ".p" + label, latency.percentile(percentile));
+            }
+            latencies.put(key(operation) + ".max", latency.max());
+        }
+        return latencies;
+    }
+
+    @Override
+    public void reset() {
+        this.comparisons.reset();
+        this.rotations.reset();
+        this.recolorings.reset();
+        this.nodesVisited.reset();
+        for (LatencyHistogram latency : this.latencies)
+            latency.reset();
+    }
+
+    private static String key(Operation operation) {
+        return operation.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,34 @@
+package Instrumentation;
+
+import java.util.Map;
+
+/**
+ * What TreeStatistics shows over JMX.
+ * @author Matthew Smith
+ */
+public interface TreeStatisticsMXBean {
+
+    long getComparisons();
+
+    long getRotations();
+
+    long getRecolorings();
+
+    long getNodesVisited();
+
+    long getOperations();
+
+    double getNodesVisitedPerOperation();
+
+    /**
+     * Operations done so far by kind, such as insert.
+     */
+    Map<String, Long> getOperationCounts();
+
+    /**
+     * Latency percentiles in nanoseconds by kind, such as insert.p99.
+     */
+    Map<String, Long> getLatencyNanos();
+
+    void reset();
+}
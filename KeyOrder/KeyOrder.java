@@ -0,0 +1,159 @@
+package KeyOrder;
+
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+
+/**
+ * The order of one tree. Trees call compare() on their own KeyOrder, and since the
+ * class is final that call is bound statically and inlined.
+ *
+ * Natural ordering of Long, Integer and String is detected from the first two keys
+ * compared and from then on compared without any virtual call. Those classes are
+ * final and only comparable to themselves, so no other key can end up in the same
+ * tree. A natural order therefore belongs to a single tree, get a new one per tree.
+ *
+ * Only those three key types get a monomorphic path. The Comparator call, the long
+ * key extractor call and the compareTo() of any other natural order each sit at one
+ * call site in compare() that every KeyOrder shares, so once a program orders trees
+ * by more than two comparators, extractors or key classes that site is megamorphic
+ * just like a plain compareTo() would be. kind is a plain field read on every
+ * compare, since a natural order only learns it from the keys.
+ * @author Matthew Smith
+ */
+public final class KeyOrder<T> implements Comparator<T> {
+
+    private static final int UNRESOLVED = 0;
+    private static final int NATURAL = 1;
+    private static final int LONGS = 2;
+    private static final int INTEGERS = 3;
+    private static final int STRINGS = 4;
+    private static final int COMPARATOR = 5;
+    private static final int LONG_KEY = 6;
+
+    // one of the kinds above, natural orders start out unresolved
+    private int kind;
+
+    // the comparator given, or the one equivalent to longKey
+    private final Comparator<? super T> comparator;
+    private final ToLongFunction<? super T> longKey;
+
+    private KeyOrder(int kind, Comparator<? super T> comparator, ToLongFunction<? super T> longKey) {
+        this.kind = kind;
+        this.comparator = comparator;
+        this.longKey = longKey;
+    }
+
+    /**
+     * Returns a new natural order, keys have to be Comparable to each other.
+     * @return
+     */
+    public static <T> KeyOrder<T> natural() {
+        return new KeyOrder<T>(UNRESOLVED, null, null);
+    }
+
+    /**
+     * Returns the order of comparator.
+     * @param comparator null for natural ordering
+     * @return
+     */
+    public static <T> KeyOrder<T> of(Comparator<? super T> comparator) {
+        if (comparator == null)
+            return natural();
+
+        return new KeyOrder<T>(COMPARATOR, comparator, null);
+    }
+
+    /**
+     * Returns the order of the long keys extracted by key, compared as signed longs.
+     * @param key
+     * @return
+     * @throws IllegalArgumentException when key is null
+     */
+    public static <T> KeyOrder<T> byLongKey(ToLongFunction<? super T> key) throws IllegalArgumentException {
+        if (key == null)
+            throw new IllegalArgumentException("Key extractor can not be null.");
+
+        return new KeyOrder<T>(LONG_KEY, Comparator.comparingLong(key), key);
+    }
+
+    /**
+     * Returns the comparator this order stands for.
+     * @return null for natural ordering
+     */
+    public Comparator<? super T> comparator() {
+        return this.comparator;
+    }
+
+    /**
+     * Orders are equal when they are both natural, or come from equal comparators or
+     * the same long key extractor.
+     * @param other
+     * @return
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+
+        if (!(other instanceof KeyOrder))
+            return false;
+
+        KeyOrder<?> order = (KeyOrder<?>) other;
+        if (this.comparator == null || order.comparator == null)
+            return this.comparator == order.comparator;
+
+        if (this.longKey != null || order.longKey != null)
+            return Objects.equals(this.longKey, order.longKey);
+
+        return this.comparator.equals(order.comparator);
+    }
+
+    @Override
+    public int hashCode() {
+        if (this.longKey != null)
+            return this.longKey.hashCode();
+
+        return Objects.hashCode(this.comparator);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int compare(T a, T b) {
+        switch (this.kind) {
+            case LONGS:
+                return Long.compare((Long) a, (Long) b);
+            case INTEGERS:
+                return Integer.compare((Integer) a, (Integer) b);
+            case STRINGS:
+                return ((String) a).compareTo((String) b);
+            case COMPARATOR:
+                return this.comparator.compare(a, b);
+            case LONG_KEY:
+                return Long.compare(this.longKey.applyAsLong(a), this.longKey.applyAsLong(b));
+            case UNRESOLVED:
+                resolve(a, b);
+                return ((Comparable<Object>) a).compareTo(b);
+            default:
+                return ((Comparable<Object>) a).compareTo(b);
+        }
+    }
+
+    /**
+     * Picks the specialized branch for the class of the keys. Racing threads all
+     * pick the same one, so the plain write is fine.
+     */
+    private void resolve(Object a, Object b) {
+        Class<?> type = a.getClass();
+        if (type != b.getClass())
+            this.kind = NATURAL;
+        else if (type == Long.class)
+            this.kind = LONGS;
+        else if (type == Integer.class)
+            this.kind = INTEGERS;
+        else if (type == String.class)
+            this.kind = STRINGS;
+        else
+            this.kind = NATURAL;
+    }
+}
@@ -0,0 +1,69 @@
+package KeyOrder;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+
+import org.junit.jupiter.api.*;
+
+/**
+ * Class for testing KeyOrder package. Utilizes JUnit Jupiter otherwise known as
+ * JUnit 5.
+ * @author Matthew Smith
+ */
+class KeyOrderTests {
+
+    /**
+     * KeyOrder Tester
+     * 1. Natural orders agree with compareTo() for the specialized and other classes.
+     * 2. Comparators and long keys.
+     * 3. Equality.
+     */
+    @Test
+    protected void testKeyOrder() {
+        Random random = new Random(21);
+
+        // 1. natural orders, resolved on the first comparison
+        KeyOrder<Long> longs = KeyOrder.natural();
+        KeyOrder<Integer> integers = KeyOrder.natural();
+        KeyOrder<String> strings = KeyOrder.natural();
+        KeyOrder<Double> doubles = KeyOrder.natural();
+        Assertions.assertNull(longs.comparator());
+        for (int i = 0; i < 1000; i++) {
+            long a = random.nextLong(), b = (i % 10 == 0) ? a : random.nextLong();
+            Assertions.assertEquals(Long.signum(Long.valueOf(a).compareTo(b)), Long.signum(longs.compare(a, b)));
+
+            int x = random.nextInt(), y = random.nextInt();
+            Assertions.assertEquals(Integer.signum(Integer.valueOf(x).compareTo(y)), Integer.signum(integers.compare(x, y)));
+
+            String s = Integer.toString(x, 36), t = Integer.toString(y, 36);
+            Assertions.assertEquals(Integer.signum(s.compareTo(t)), Integer.signum(strings.compare(s, t)));
+
+            double d = random.nextDouble(), e = random.nextDouble();
+            Assertions.assertEquals(Integer.signum(Double.compare(d, e)), Integer.signum(doubles.compare(d, e)));
+        }
+        Assertions.assertEquals(0, longs.compare(Long.MIN_VALUE, Long.MIN_VALUE));
+        Assertions.assertTrue(longs.compare(Long.MIN_VALUE, Long.MAX_VALUE) < 0);
+
+        // 2. comparators and long keys
+        Assertions.assertNull(KeyOrder.<String>of(null).comparator());
+        KeyOrder<String> reversed = KeyOrder.of(Comparator.reverseOrder());
+        Assertions.assertTrue(reversed.compare("a", "b") > 0);
+        Assertions.assertNotNull(reversed.comparator());
+
+        KeyOrder<String> byLength = KeyOrder.byLongKey(String::length);
+        Assertions.assertTrue(byLength.compare("zz", "aaa") < 0);
+        Assertions.assertEquals(0, byLength.compare("ab", "cd"));
+        Assertions.assertTrue(byLength.comparator().compare("zz", "aaa") < 0);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> KeyOrder.<String>byLongKey(null));
+
+        // 3. natural orders are equal however they resolved, the others by what they wrap
+        Assertions.assertEquals(KeyOrder.<String>natural(), strings);
+        Assertions.assertEquals(KeyOrder.<String>natural().hashCode(), strings.hashCode());
+        Assertions.assertNotEquals(strings, reversed);
+        Assertions.assertEquals(KeyOrder.<String>of(Comparator.reverseOrder()), reversed);
+        Assertions.assertNotEquals(reversed, byLength);
+        ToLongFunction<String> length = String::length;
+        Assertions.assertEquals(KeyOrder.byLongKey(length), KeyOrder.byLongKey(length));
+    }
+}
@@ -0,0 +1,365 @@
+package RedBlackTree;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Red-black tree over primitive int keys. Same algorithms as RedBlackTree, but the
+ * keys are stored unboxed in the nodes and compared with plain operators, so lookups
+ * and iteration never allocate wrapper objects. Duplicates are kept, just like in
+ * RedBlackTree.
+ * @author Matthew Smith
+ */
+public class IntRedBlackTree {
+
+    /**
+     * Simple node holding an unboxed key.
+     */
+    private static final class Node {
+        int key;
+        boolean isBlack;
+        Node parent;
+        Node left;
+        Node right;
+
+        Node(int key) {
+            this.key = key;
+            this.isBlack = false;
+        }
+    }
+
+    // the root node
+    private Node root;
+
+    // number of keys, duplicates included
+    private int size;
+
+    public IntRedBlackTree() {
+        this.root = null;
+        this.size = 0;
+    }
+
+    /**
+     * Inserts key into the tree. New nodes are always red. A duplicate goes in just
+     * before the equal keys already in the tree.
+     * @param key
+     */
+    public void insert(int key) {
+        Node insertNode = new Node(key);
+        this.size++;
+
+        if (this.root == null) {
+            insertNode.isBlack = true;
+            this.root = insertNode;
+            return;
+        }
+
+        Node search = this.root;
+        while (true) {
+            if (key <= search.key) {
+                if (search.left == null) {
+                    search.left = insertNode;
+                    break;
+                }
+                search = search.left;
+            } else {
+                if (search.right == null) {
+                    search.right = insertNode;
+                    break;
+                }
+                search = search.right;
+            }
+        }
+
+        insertNode.parent = search;
+        ensureColorProperties(insertNode);
+    }
+
+    /**
+     * Searches the tree for key.
+     * @param key
+     * @return true if the tree contains key
+     */
+    public boolean contains(int key) {
+        return find(key) != null;
+    }
+
+    /**
+     * Removes one occurrence of key from the tree.
+     * @param key
+     * @return true if key was found and removed
+     *         false if the tree did not contain key
+     */
+    public boolean delete(int key) {
+        Node deletionNode = find(key);
+        if (deletionNode == null)
+            return false;
+
+        // two children, take the successors key and remove the successor
+        if (deletionNode.left != null && deletionNode.right != null) {
+            Node successor = deletionNode.right;
+            while (successor.left != null)
+                successor = successor.left;
+
+            deletionNode.key = successor.key;
+            deletionNode = successor;
+        }
+
+        Node parent = deletionNode.parent;
+        Node child = (deletionNode.left != null) ? deletionNode.left : deletionNode.right;
+
+        if (child != null)
+            child.parent = parent;
+
+        if (parent == null)
+            this.root = child;
+        else if (parent.left == deletionNode)
+            parent.left = child;
+        else
+            parent.right = child;
+
+        this.size--;
+
+        // removing a red node never changes a black height,
+        // and a red child can take over the missing black
+        if (!deletionNode.isBlack)
+            return true;
+
+        if (child != null && !child.isBlack) {
+            child.isBlack = true;
+            return true;
+        }
+
+        ensureDeleteProperties(child, parent);
+        return true;
+    }
+
+    /**
+     * Returns how many keys the tree holds.
+     * @return the size of the tree
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks to see if the tree is empty.
+     * @return
+     */
+    public boolean isEmpty() {
+        return this.root == null;
+    }
+
+    /**
+     * Clears this tree of all nodes
+     */
+    public void clear() {
+        this.root = null;
+        this.size = 0;
+    }
+
+    /**
+     * Returns an iterator over the keys in ascending order. It steps from node to
+     * node with the parent links, so it holds a single node reference and next()
+     * returns an unboxed key.
+     * @return
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private Node next = first(IntRedBlackTree.this.root);
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public int nextInt() {
+                if (this.next == null)
+                    throw new NoSuchElementException();
+
+                int key = this.next.key;
+                this.next = successor(this.next);
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Hands every key to action in ascending order.
+     * @param action
+     */
+    public void forEach(IntConsumer action) {
+        for (Node node = first(this.root); node != null; node = successor(node))
+            action.accept(node.key);
+    }
+
+    /**
+     * Finds a node holding key.
+     * @param key
+     * @return the node, or null if there is none
+     */
+    private Node find(int key) {
+        Node search = this.root;
+        while (search != null && search.key != key)
+            search = (key < search.key) ? search.left : search.right;
+
+        return search;
+    }
+
+    /**
+     * Leftmost node of a subtree.
+     * @param node
+     * @return null if node is null
+     */
+    private static Node first(Node node) {
+        if (node != null)
+            while (node.left != null)
+                node = node.left;
+
+        return node;
+    }
+
+    /**
+     * In-order successor using the parent links.
+     * @param node
+     * @return the next node, or null if node was the last
+     */
+    private static Node successor(Node node) {
+        if (node.right != null)
+            return first(node.right);
+
+        while (node.parent != null && node.parent.right == node)
+            node = node.parent;
+
+        return node.parent;
+    }
+
+    private static boolean isBlack(Node node) {
+        return (node == null) ? true : node.isBlack;
+    }
+
+    /**
+     * Restores the color properties after insertNode was attached as a red leaf.
+     * Same cases as RedBlackTree.ensureColorProperties().
+     * @param insertNode
+     */
+    private void ensureColorProperties(Node insertNode) {
+        while (insertNode != this.root && !insertNode.parent.isBlack) {
+            Node parent = insertNode.parent;
+            Node grandParent = parent.parent;
+            boolean parentIsRight = (grandParent.right == parent);
+            Node auntNode = parentIsRight ? grandParent.left : grandParent.right;
+
+            // aunt is red, recolor and look again from the grandparent
+            if (!isBlack(auntNode)) {
+                parent.isBlack = true;
+                auntNode.isBlack = true;
+                grandParent.isBlack = false;
+                insertNode = grandParent;
+                continue;
+            }
+
+            // inside child, rotate it up to the outside first
+            if ((parent.right == insertNode) != parentIsRight) {
+                rotate(parent, insertNode);
+                Node liminalNode = parent;
+                parent = insertNode;
+                insertNode = liminalNode;
+            }
+
+            // outside child, rotate the parent over the grandparent
+            parent.isBlack = true;
+            grandParent.isBlack = false;
+            rotate(grandParent, parent);
+            break;
+        }
+
+        this.root.isBlack = true;
+    }
+
+    /**
+     * Restores the color properties after a black node was removed from above node.
+     * Same cases as RedBlackTree.ensureDeleteProperties().
+     * @param node may be null, hence the separate parent
+     * @param parent
+     */
+    private void ensureDeleteProperties(Node node, Node parent) {
+        while (node != this.root && isBlack(node)) {
+            boolean nodeIsLeft = (parent.left == node);
+            Node sibling = nodeIsLeft ? parent.right : parent.left;
+
+            // red sibling, rotate it up so the sibling is black
+            if (!sibling.isBlack) {
+                sibling.isBlack = true;
+                parent.isBlack = false;
+                rotate(parent, sibling);
+                sibling = nodeIsLeft ? parent.right : parent.left;
+            }
+
+            Node near = nodeIsLeft ? sibling.left : sibling.right;
+            Node far = nodeIsLeft ? sibling.right : sibling.left;
+
+            // black nephews, recolor and move up
+            if (isBlack(near) && isBlack(far)) {
+                sibling.isBlack = false;
+                node = parent;
+                parent = node.parent;
+                continue;
+            }
+
+            // only the near nephew is red, rotate it into the far spot
+            if (isBlack(far)) {
+                near.isBlack = true;
+                sibling.isBlack = false;
+                rotate(sibling, near);
+                far = sibling;
+                sibling = near;
+            }
+
+            // far nephew is red, rotate the sibling up and we are done
+            sibling.isBlack = parent.isBlack;
+            parent.isBlack = true;
+            far.isBlack = true;
+            rotate(parent, sibling);
+            node = this.root;
+        }
+
+        if (node != null)
+            node.isBlack = true;
+    }
+
+    /**
+     * Simple rotator. Will rotate child in parents direction.
+     * @param parent
+     * @param child
+     */
+    private void rotate(Node parent, Node child) {
+        Node grandparentNode = parent.parent;
+        Node liminalNode;
+
+        if (parent.right == child) {
+            liminalNode = child.left;
+            child.left = parent;
+            parent.right = liminalNode;
+        } else {
+            liminalNode = child.right;
+            child.right = parent;
+            parent.left = liminalNode;
+        }
+
+        if (liminalNode != null)
+            liminalNode.parent = parent;
+
+        parent.parent = child;
+        child.parent = grandparentNode;
+
+        if (grandparentNode == null)
+            this.root = child;
+        else if (grandparentNode.left == parent)
+            grandparentNode.left = child;
+        else
+            grandparentNode.right = child;
+    }
+}
@@ -0,0 +1,401 @@
+package RedBlackTree;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Immutable red-black tree. insert() and delete() never change a tree, they return
+ * a new version that copies only the nodes on the path to the change and shares
+ * every other node with the old version. An update allocates O(log n) nodes and the
+ * old version stays valid, so holding on to a version is a free snapshot.
+ *
+ * All fields are final, so any version can be read from any thread without locks
+ * once it has been handed over. Insertion balances like Okasaki, deletion follows
+ * Kahrs, "Red-black trees with types". Duplicates are kept, just like in RedBlackTree.
+ * @author Matthew Smith
+ */
+public final class PersistentRedBlackTree<T extends Comparable<T>> implements Iterable<T> {
+
+    /**
+     * Immutable node. The size of the subtree is fixed when the node is built.
+     */
+    private static final class Node<T> {
+        final T data;
+        final boolean isBlack;
+        final Node<T> left;
+        final Node<T> right;
+        final int size;
+
+        Node(boolean isBlack, Node<T> left, T data, Node<T> right) {
+            this.data = data;
+            this.isBlack = isBlack;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + sizeOf(left) + sizeOf(right);
+        }
+    }
+
+    // the root node, null for the empty tree
+    private final Node<T> root;
+
+    /**
+     * Creates an empty tree.
+     */
+    public PersistentRedBlackTree() {
+        this(null);
+    }
+
+    private PersistentRedBlackTree(Node<T> root) {
+        this.root = root;
+    }
+
+    /**
+     * Builds a balanced tree out of n elements that are already in sorted order, in
+     * linear time. Coloring is the same as RedBlackTree.fromSorted().
+     * @param iterator supplies the elements in ascending order
+     * @param n how many elements to take from the iterator
+     * @return a new tree holding the first n elements
+     * @throws IllegalArgumentException when n is negative, the iterator runs out
+     *         early, or it supplies null
+     */
+    public static <T extends Comparable<T>> PersistentRedBlackTree<T> fromSorted(Iterator<? extends T> iterator,
+        int n) throws IllegalArgumentException
+    {
+        if (n < 0)
+            throw new IllegalArgumentException("Can not build a tree of negative size.");
+
+        int deepest = 32 - Integer.numberOfLeadingZeros(n);
+        int redDepth = (n == (1 << deepest) - 1) ? -1 : deepest;
+
+        return new PersistentRedBlackTree<T>(buildSorted(iterator, n, 1, redDepth));
+    }
+
+    private static <T> Node<T> buildSorted(Iterator<? extends T> iterator, int n, int depth, int redDepth) {
+        if (n == 0)
+            return null;
+
+        int leftSize = (n - 1) / 2;
+        Node<T> left = buildSorted(iterator, leftSize, depth + 1, redDepth);
+
+        if (!iterator.hasNext())
+            throw new IllegalArgumentException("Iterator ran out before n elements were read.");
+
+        T data = iterator.next();
+        if (data == null)
+            throw new IllegalArgumentException("Can not insert null into a tree.");
+
+        Node<T> right = buildSorted(iterator, n - 1 - leftSize, depth + 1, redDepth);
+        return new Node<T>(depth != redDepth, left, data, right);
+    }
+
+    /**
+     * Returns a version of this tree that also holds data. A duplicate goes in just
+     * before the equal data already in the tree.
+     * @param data
+     * @return the new version, this tree is left as it was
+     * @throws IllegalArgumentException when data is null
+     */
+    public PersistentRedBlackTree<T> insert(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not insert null into a tree.");
+
+        return new PersistentRedBlackTree<T>(blacken(insertHelper(this.root, data)));
+    }
+
+    /**
+     * Returns a version of this tree with one occurrence of data removed.
+     * @param data
+     * @return the new version, or this tree if it does not contain data
+     * @throws IllegalArgumentException when data is null
+     */
+    public PersistentRedBlackTree<T> delete(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not delete null from a tree.");
+
+        if (!contains(data))
+            return this;
+
+        return new PersistentRedBlackTree<T>(blacken(deleteHelper(this.root, data)));
+    }
+
+    /**
+     * Searches the tree for the specified data and returns true if it is found.
+     * @param data
+     * @return true if tree contains the data
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean contains(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not search a tree for null.");
+
+        Node<T> search = this.root;
+        while (search != null) {
+            int comparison = data.compareTo(search.data);
+
+            if (comparison == 0)
+                return true;
+
+            search = (comparison < 0) ? search.left : search.right;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the kth smallest element, counting from 0.
+     * @param k
+     * @return
+     * @throws IllegalArgumentException when k is not in [0, size())
+     */
+    public T select(int k) throws IllegalArgumentException {
+        if (k < 0 || k >= size())
+            throw new IllegalArgumentException("Index " + k + " is out of bounds for size " + size() + ".");
+
+        Node<T> search = this.root;
+        while (true) {
+            int leftSize = sizeOf(search.left);
+
+            if (k == leftSize)
+                return search.data;
+
+            if (k < leftSize) {
+                search = search.left;
+            } else {
+                k -= leftSize + 1;
+                search = search.right;
+            }
+        }
+    }
+
+    /**
+     * Returns how many elements the tree holds. O(1).
+     * @return
+     */
+    public int size() {
+        return sizeOf(this.root);
+    }
+
+    public boolean isEmpty() {
+        return this.root == null;
+    }
+
+    /**
+     * Returns the height of the tree. Nodes do not store it, so this walks the
+     * whole tree.
+     */
+    public int height() {
+        return height(this.root);
+    }
+
+    /**
+     * Returns an iterator over the elements in ascending order. Nodes have no parent
+     * links, so the iterator keeps the path to the next node on a stack.
+     * @return
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private final Deque<Node<T>> path = new ArrayDeque<Node<T>>();
+
+            {
+                pushLeft(PersistentRedBlackTree.this.root);
+            }
+
+            private void pushLeft(Node<T> node) {
+                for (; node != null; node = node.left)
+                    this.path.push(node);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !this.path.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (this.path.isEmpty())
+                    throw new NoSuchElementException();
+
+                Node<T> node = this.path.pop();
+                pushLeft(node.right);
+                return node.data;
+            }
+        };
+    }
+
+    /**
+     * Hands every element to action in ascending order.
+     * @param action
+     */
+    @Override
+    public void forEach(Consumer<? super T> action) {
+        forEachHelper(this.root, action);
+    }
+
+    private static <T> void forEachHelper(Node<T> node, Consumer<? super T> action) {
+        while (node != null) {
+            forEachHelper(node.left, action);
+            action.accept(node.data);
+            node = node.right;
+        }
+    }
+
+    private static int sizeOf(Node<?> node) {
+        return (node == null) ? 0 : node.size;
+    }
+
+    private static int height(Node<?> node) {
+        return (node == null) ? 0 : 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    private static boolean isRed(Node<?> node) {
+        return node != null && !node.isBlack;
+    }
+
+    private static <T> Node<T> blacken(Node<T> node) {
+        return (node == null || node.isBlack) ? node : new Node<T>(true, node.left, node.data, node.right);
+    }
+
+    /**
+     * Copies the path down to where data belongs and hangs a red leaf there. Black
+     * nodes on the way back up fix any red-red pair below them.
+     * @param node
+     * @param data
+     * @return the new subtree, its root may be red with a red child
+     */
+    private static <T extends Comparable<T>> Node<T> insertHelper(Node<T> node, T data) {
+        if (node == null)
+            return new Node<T>(false, null, data, null);
+
+        if (data.compareTo(node.data) <= 0) {
+            Node<T> left = insertHelper(node.left, data);
+            return node.isBlack ? balance(left, node.data, node.right) : new Node<T>(false, left, node.data, node.right);
+        } else {
+            Node<T> right = insertHelper(node.right, data);
+            return node.isBlack ? balance(node.left, node.data, right) : new Node<T>(false, node.left, node.data, right);
+        }
+    }
+
+    /**
+     * Builds a black node over left and right, unless one side has a red node with
+     * a red child. Then the three nodes involved are rearranged into a red node with
+     * two black children, which keeps the black height.
+     */
+    private static <T> Node<T> balance(Node<T> left, T data, Node<T> right) {
+        if (isRed(left) && isRed(right))
+            return new Node<T>(false, blacken(left), data, blacken(right));
+
+        if (isRed(left)) {
+            if (isRed(left.left))
+                return new Node<T>(false, blacken(left.left), left.data, new Node<T>(true, left.right, data, right));
+            if (isRed(left.right))
+                return new Node<T>(false, new Node<T>(true, left.left, left.data, left.right.left), left.right.data,
+                    new Node<T>(true, left.right.right, data, right));
+        }
+
+        if (isRed(right)) {
+            if (isRed(right.right))
+                return new Node<T>(false, new Node<T>(true, left, data, right.left), right.data, blacken(right.right));
+            if (isRed(right.left))
+                return new Node<T>(false, new Node<T>(true, left, data, right.left.left), right.left.data,
+                    new Node<T>(true, right.left.right, right.data, right.right));
+        }
+
+        return new Node<T>(true, left, data, right);
+    }
+
+    /**
+     * Removes one occurrence of data below node. A subtree whose root was black
+     * comes back one black short, which the caller repairs with balanceLeft() or
+     * balanceRight().
+     * @param node
+     * @param data must be in the subtree
+     * @return the new subtree
+     */
+    private static <T extends Comparable<T>> Node<T> deleteHelper(Node<T> node, T data) {
+        int comparison = data.compareTo(node.data);
+
+        if (comparison < 0) {
+            Node<T> left = deleteHelper(node.left, data);
+            return (node.left.isBlack) ? balanceLeft(left, node.data, node.right)
+                : new Node<T>(false, left, node.data, node.right);
+        }
+
+        if (comparison > 0) {
+            Node<T> right = deleteHelper(node.right, data);
+            return (node.right.isBlack) ? balanceRight(node.left, node.data, right)
+                : new Node<T>(false, node.left, node.data, right);
+        }
+
+        return fuse(node.left, node.right);
+    }
+
+    /**
+     * Rebuilds a node whose left subtree is one black short of its right subtree.
+     */
+    private static <T> Node<T> balanceLeft(Node<T> left, T data, Node<T> right) {
+        if (isRed(left))
+            return new Node<T>(false, blacken(left), data, right);
+
+        if (right.isBlack)
+            return balance(left, data, redden(right));
+
+        // right is red with a black left child
+        return new Node<T>(false, new Node<T>(true, left, data, right.left.left), right.left.data,
+            balance(right.left.right, right.data, redden(right.right)));
+    }
+
+    /**
+     * Rebuilds a node whose right subtree is one black short of its left subtree.
+     */
+    private static <T> Node<T> balanceRight(Node<T> left, T data, Node<T> right) {
+        if (isRed(right))
+            return new Node<T>(false, left, data, blacken(right));
+
+        if (left.isBlack)
+            return balance(redden(left), data, right);
+
+        // left is red with a black right child
+        return new Node<T>(false, balance(redden(left.left), left.data, left.right.left), left.right.data,
+            new Node<T>(true, left.right.right, data, right));
+    }
+
+    private static <T> Node<T> redden(Node<T> node) {
+        return new Node<T>(false, node.left, node.data, node.right);
+    }
+
+    /**
+     * Joins the two subtrees of a removed node, which have the same black height,
+     * into one subtree with every element of left before every element of right.
+     */
+    private static <T> Node<T> fuse(Node<T> left, Node<T> right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+
+        if (isRed(left) && isRed(right)) {
+            Node<T> middle = fuse(left.right, right.left);
+            if (isRed(middle))
+                return new Node<T>(false, new Node<T>(false, left.left, left.data, middle.left), middle.data,
+                    new Node<T>(false, middle.right, right.data, right.right));
+            return new Node<T>(false, left.left, left.data, new Node<T>(false, middle, right.data, right.right));
+        }
+
+        if (left.isBlack && right.isBlack) {
+            Node<T> middle = fuse(left.right, right.left);
+            if (isRed(middle))
+                return new Node<T>(false, new Node<T>(true, left.left, left.data, middle.left), middle.data,
+                    new Node<T>(true, middle.right, right.data, right.right));
+            return balanceLeft(left.left, left.data, new Node<T>(true, middle, right.data, right.right));
+        }
+
+        if (isRed(right))
+            return new Node<T>(false, fuse(left, right.left), right.data, right.right);
+
+        return new Node<T>(false, left.left, left.data, fuse(left.right, right));
+    }
+}
@@ -0,0 +1,432 @@
+package RedBlackTree;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Red-black tree that keeps its nodes in parallel arrays instead of RedBlackNode
+ * objects. A node is just a slot index: its key lives in keys[], its links in the
+ * left[], right[] and parent[] int arrays and its color is one bit of black[]. The
+ * garbage collector only ever sees these few large arrays, however many entries
+ * there are. Deleted slots are chained into a free list (through right[]) and
+ * handed out again before the arrays grow.
+ * @author Matthew Smith
+ */
+public class PooledRedBlackTree<T extends Comparable<T>> {
+
+    // index used for an empty link
+    private static final int NIL = -1;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // node storage, one slot per node
+    private Object[] keys;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    private long[] black;
+
+    // the root slot
+    private int root;
+
+    // first recycled slot, NIL if there are none
+    private int freeHead;
+
+    // slots below this have been handed out at least once
+    private int used;
+
+    private int size;
+
+    public PooledRedBlackTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a tree with room for capacity nodes before the arrays have to grow.
+     * @param capacity
+     * @throws IllegalArgumentException when capacity is negative
+     */
+    public PooledRedBlackTree(int capacity) throws IllegalArgumentException {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity can not be negative.");
+
+        this.keys = new Object[capacity];
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.parent = new int[capacity];
+        this.black = new long[(capacity + 63) >>> 6];
+        this.root = NIL;
+        this.freeHead = NIL;
+        this.used = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Method to insert new data into the tree. New nodes are always red. A duplicate
+     * goes in just before the equal data already in the tree.
+     * @param data the data that is to be inserted into this tree
+     * @throws IllegalArgumentException when data is null
+     */
+    public void insert(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not insert null into a tree.");
+
+        int insertNode = allocate(data);
+        this.size++;
+
+        if (this.root == NIL) {
+            setBlack(insertNode, true);
+            this.root = insertNode;
+            return;
+        }
+
+        int search = this.root;
+        while (true) {
+            if (data.compareTo(key(search)) <= 0) {
+                if (this.left[search] == NIL) {
+                    this.left[search] = insertNode;
+                    break;
+                }
+                search = this.left[search];
+            } else {
+                if (this.right[search] == NIL) {
+                    this.right[search] = insertNode;
+                    break;
+                }
+                search = this.right[search];
+            }
+        }
+
+        this.parent[insertNode] = search;
+        ensureColorProperties(insertNode);
+    }
+
+    /**
+     * Searches the tree for the specified data and returns true if it is found.
+     * @param data
+     * @return true if tree contains the data
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean contains(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not search a tree for null.");
+
+        return find(data) != NIL;
+    }
+
+    /**
+     * Removes one occurrence of data from the tree and recycles its slot.
+     * @param data
+     * @return true if the data was found and removed
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean delete(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not delete null from a tree.");
+
+        int deletionNode = find(data);
+        if (deletionNode == NIL)
+            return false;
+
+        // two children, take the successors key and remove the successor
+        if (this.left[deletionNode] != NIL && this.right[deletionNode] != NIL) {
+            int successor = this.right[deletionNode];
+            while (this.left[successor] != NIL)
+                successor = this.left[successor];
+
+            this.keys[deletionNode] = this.keys[successor];
+            deletionNode = successor;
+        }
+
+        int parentNode = this.parent[deletionNode];
+        int child = (this.left[deletionNode] != NIL) ? this.left[deletionNode] : this.right[deletionNode];
+
+        if (child != NIL)
+            this.parent[child] = parentNode;
+
+        replaceChild(parentNode, deletionNode, child);
+
+        boolean removedBlack = isBlack(deletionNode);
+        release(deletionNode);
+        this.size--;
+
+        // removing a red node never changes a black height,
+        // and a red child can take over the missing black
+        if (!removedBlack)
+            return true;
+
+        if (child != NIL && !isBlack(child)) {
+            setBlack(child, true);
+            return true;
+        }
+
+        ensureDeleteProperties(child, parentNode);
+        return true;
+    }
+
+    /**
+     * Hands every element to action in ascending order. Walks the parent links, so
+     * no stack is needed.
+     * @param action
+     */
+    public void forEach(Consumer<? super T> action) {
+        for (int node = first(this.root); node != NIL; node = successor(node))
+            action.accept(key(node));
+    }
+
+    /**
+     * Returns how many elements the tree holds.
+     * @return
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.root == NIL;
+    }
+
+    /**
+     * Returns how many nodes fit before the arrays have to grow.
+     * @return
+     */
+    public int capacity() {
+        return this.keys.length;
+    }
+
+    /**
+     * Clears this tree of all nodes. The arrays are kept for reuse.
+     */
+    public void clear() {
+        Arrays.fill(this.keys, 0, this.used, null);
+        Arrays.fill(this.black, 0L);
+        this.root = NIL;
+        this.freeHead = NIL;
+        this.used = 0;
+        this.size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T key(int node) {
+        return (T) this.keys[node];
+    }
+
+    private int find(T data) {
+        int search = this.root;
+        while (search != NIL) {
+            int comparison = data.compareTo(key(search));
+
+            if (comparison == 0)
+                return search;
+
+            search = (comparison < 0) ? this.left[search] : this.right[search];
+        }
+
+        return NIL;
+    }
+
+    private int first(int node) {
+        if (node != NIL)
+            while (this.left[node] != NIL)
+                node = this.left[node];
+
+        return node;
+    }
+
+    private int successor(int node) {
+        if (this.right[node] != NIL)
+            return first(this.right[node]);
+
+        while (this.parent[node] != NIL && this.right[this.parent[node]] == node)
+            node = this.parent[node];
+
+        return this.parent[node];
+    }
+
+    /**
+     * Takes a slot off the free list, or the next never used slot, growing the
+     * arrays when they are full.
+     * @param data
+     * @return a red slot holding data with no links
+     */
+    private int allocate(T data) {
+        int node;
+
+        if (this.freeHead != NIL) {
+            node = this.freeHead;
+            this.freeHead = this.right[node];
+        } else {
+            if (this.used == this.keys.length)
+                grow();
+            node = this.used++;
+        }
+
+        this.keys[node] = data;
+        this.left[node] = NIL;
+        this.right[node] = NIL;
+        this.parent[node] = NIL;
+        setBlack(node, false);
+        return node;
+    }
+
+    /**
+     * Puts a slot on the free list. The key is dropped so it can be collected.
+     * @param node
+     */
+    private void release(int node) {
+        this.keys[node] = null;
+        this.right[node] = this.freeHead;
+        this.freeHead = node;
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, this.keys.length + (this.keys.length >>> 1));
+        this.keys = Arrays.copyOf(this.keys, capacity);
+        this.left = Arrays.copyOf(this.left, capacity);
+        this.right = Arrays.copyOf(this.right, capacity);
+        this.parent = Arrays.copyOf(this.parent, capacity);
+        this.black = Arrays.copyOf(this.black, (capacity + 63) >>> 6);
+    }
+
+    // empty links count as black
+    private boolean isBlack(int node) {
+        return node == NIL || (this.black[node >>> 6] & (1L << node)) != 0;
+    }
+
+    private void setBlack(int node, boolean isBlack) {
+        if (isBlack)
+            this.black[node >>> 6] |= 1L << node;
+        else
+            this.black[node >>> 6] &= ~(1L << node);
+    }
+
+    /**
+     * Points whichever link of parentNode held oldChild at newChild instead, or the
+     * root if parentNode is NIL.
+     */
+    private void replaceChild(int parentNode, int oldChild, int newChild) {
+        if (parentNode == NIL)
+            this.root = newChild;
+        else if (this.left[parentNode] == oldChild)
+            this.left[parentNode] = newChild;
+        else
+            this.right[parentNode] = newChild;
+    }
+
+    /**
+     * Restores the color properties after insertNode was attached as a red leaf.
+     * Same cases as RedBlackTree.ensureColorProperties().
+     * @param insertNode
+     */
+    private void ensureColorProperties(int insertNode) {
+        while (insertNode != this.root && !isBlack(this.parent[insertNode])) {
+            int parentNode = this.parent[insertNode];
+            int grandParent = this.parent[parentNode];
+            boolean parentIsRight = (this.right[grandParent] == parentNode);
+            int auntNode = parentIsRight ? this.left[grandParent] : this.right[grandParent];
+
+            // aunt is red, recolor and look again from the grandparent
+            if (!isBlack(auntNode)) {
+                setBlack(parentNode, true);
+                setBlack(auntNode, true);
+                setBlack(grandParent, false);
+                insertNode = grandParent;
+                continue;
+            }
+
+            // inside child, rotate it up to the outside first
+            if ((this.right[parentNode] == insertNode) != parentIsRight) {
+                rotate(parentNode, insertNode);
+                int liminalNode = parentNode;
+                parentNode = insertNode;
+                insertNode = liminalNode;
+            }
+
+            // outside child, rotate the parent over the grandparent
+            setBlack(parentNode, true);
+            setBlack(grandParent, false);
+            rotate(grandParent, parentNode);
+            break;
+        }
+
+        setBlack(this.root, true);
+    }
+
+    /**
+     * Restores the color properties after a black node was removed from above node.
+     * Same cases as RedBlackTree.ensureDeleteProperties().
+     * @param node may be NIL, hence the separate parent
+     * @param parentNode
+     */
+    private void ensureDeleteProperties(int node, int parentNode) {
+        while (node != this.root && isBlack(node)) {
+            boolean nodeIsLeft = (this.left[parentNode] == node);
+            int sibling = nodeIsLeft ? this.right[parentNode] : this.left[parentNode];
+
+            // red sibling, rotate it up so the sibling is black
+            if (!isBlack(sibling)) {
+                setBlack(sibling, true);
+                setBlack(parentNode, false);
+                rotate(parentNode, sibling);
+                sibling = nodeIsLeft ? this.right[parentNode] : this.left[parentNode];
+            }
+
+            int near = nodeIsLeft ? this.left[sibling] : this.right[sibling];
+            int far = nodeIsLeft ? this.right[sibling] : this.left[sibling];
+
+            // black nephews, recolor and move up
+            if (isBlack(near) && isBlack(far)) {
+                setBlack(sibling, false);
+                node = parentNode;
+                parentNode = this.parent[node];
+                continue;
+            }
+
+            // only the near nephew is red, rotate it into the far spot
+            if (isBlack(far)) {
+                setBlack(near, true);
+                setBlack(sibling, false);
+                rotate(sibling, near);
+                far = sibling;
+                sibling = near;
+            }
+
+            // far nephew is red, rotate the sibling up and we are done
+            setBlack(sibling, isBlack(parentNode));
+            setBlack(parentNode, true);
+            setBlack(far, true);
+            rotate(parentNode, sibling);
+            node = this.root;
+        }
+
+        if (node != NIL)
+            setBlack(node, true);
+    }
+
+    /**
+     * Simple rotator. Will rotate child in parents direction.
+     * @param parentNode
+     * @param child
+     */
+    private void rotate(int parentNode, int child) {
+        int grandparentNode = this.parent[parentNode];
+        int liminalNode;
+
+        if (this.right[parentNode] == child) {
+            liminalNode = this.left[child];
+            this.left[child] = parentNode;
+            this.right[parentNode] = liminalNode;
+        } else {
+            liminalNode = this.right[child];
+            this.right[child] = parentNode;
+            this.left[parentNode] = liminalNode;
+        }
+
+        if (liminalNode != NIL)
+            this.parent[liminalNode] = parentNode;
+
+        this.parent[parentNode] = child;
+        this.parent[child] = grandparentNode;
+        replaceChild(grandparentNode, parentNode, child);
+    }
+}
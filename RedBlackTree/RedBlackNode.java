@@ -1,5 +1,7 @@
 package RedBlackTree;
 
+import Instrumentation.TreeStatistics;
+
 public class RedBlackNode<T extends Comparable<T>>{
 
     protected T data;
@@ -7,6 +9,13 @@ public class RedBlackNode<T extends Comparable<T>>{
     private RedBlackNode<T> parent;
     private RedBlackNode<T> left;
     private RedBlackNode<T> right;
+    private int size;
+
+    // occurrences of data, only ever above 1 in a multiset tree
+    private int count;
+
+    // nodes in the subtree rooted here, tombstones included
+    private int nodes;
 
     /**
      * Creates a new node with supplied data and without references to other nodes.
@@ -18,6 +27,9 @@ public class RedBlackNode<T extends Comparable<T>>{
         this.parent = null;
         this.left = null;
         this.right = null;
+        this.size = 1;
+        this.count = 1;
+        this.nodes = 1;
     }
 
     /**
@@ -32,6 +44,43 @@ public class RedBlackNode<T extends Comparable<T>>{
         return false;
     }
 
+    /**
+     * Recomputes the number of elements in the subtree rooted here from the sizes
+     * stored in the children, counting this node count times, and the number of
+     * nodes.
+     */
+    public void updateSize() {
+        this.size = this.count + sizeOf(this.left) + sizeOf(this.right);
+        this.nodes = 1 + nodesOf(this.left) + nodesOf(this.right);
+    }
+
+    /**
+     * Null safe subtree size.
+     * @param node
+     * @return 0 if node is null, otherwise the size stored in node
+     */
+    public static int sizeOf(RedBlackNode<?> node) {
+        return (node == null) ? 0 : node.size;
+    }
+
+    /**
+     * Null safe subtree node count.
+     * @param node
+     * @return 0 if node is null, otherwise the node count stored in node
+     */
+    public static int nodesOf(RedBlackNode<?> node) {
+        return (node == null) ? 0 : node.nodes;
+    }
+
+    /**
+     * Null safe color check, empty leaves count as black.
+     * @param node
+     * @return true if node is null or black
+     */
+    public static boolean isBlack(RedBlackNode<?> node) {
+        return (node == null) ? true : node.isBlack;
+    }
+
     // getters and setters
     public T getData() {
         return this.data;
@@ -53,6 +102,18 @@ public class RedBlackNode<T extends Comparable<T>>{
         return this.right;
     }
 
+    public int getSize() {
+        return this.size;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    public int getNodes() {
+        return this.nodes;
+    }
+
     public void setData(T data) {
         this.data = data;
     }
@@ -61,6 +122,16 @@ public class RedBlackNode<T extends Comparable<T>>{
     // depending on its current state
     public void flipColor() {
         this.isBlack = !this.isBlack;
+        if (TreeStatistics.ENABLED)
+            RedBlackTree.STATISTICS.recolored();
+    }
+
+    // sets the color outright, for when the target color is known
+    // regardless of the current one
+    public void setBlack(boolean isBlack) {
+        if (TreeStatistics.ENABLED && this.isBlack != isBlack)
+            RedBlackTree.STATISTICS.recolored();
+        this.isBlack = isBlack;
     }
 
     public void setParent(RedBlackNode<T> parent) {
@@ -75,4 +146,16 @@ public class RedBlackNode<T extends Comparable<T>>{
         this.right = right;
     }
 
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public void setNodes(int nodes) {
+        this.nodes = nodes;
+    }
+
 }
\ No newline at end of file
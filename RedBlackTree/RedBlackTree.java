@@ -1,301 +1,1724 @@
 package RedBlackTree;
 
-public class RedBlackTree<T extends Comparable<T>> {
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import Instrumentation.TreeStatistics;
+import KeyOrder.KeyOrder;
+import Snapshot.KeyCodec;
+import Snapshot.SnapshotReader;
+import Snapshot.SnapshotWriter;
+import Snapshot.WriteAheadLog;
+
+public class RedBlackTree<T extends Comparable<T>> implements Iterable<T> {
+    // counters shared by every red black tree, live only with -Dtrees.instrumentation=true
+    static final TreeStatistics STATISTICS = TreeStatistics.register("RedBlackTree");
+
+    // nodes a lazy delete sweeps at most while tombstones are over the ratio
+    private static final int SWEEP_STEP = 32;
+
     // the root node
     protected RedBlackNode<T> root;
 
-    public RedBlackTree() {
-        this.root = null;
+    // equal elements share one node and its count
+    private final boolean multiset;
+
+    // how elements are compared, every comparison goes through it
+    private final KeyOrder<T> order;
+
+    // log that every insert and delete is written to, null for none
+    private WriteAheadLog<T> log;
+
+    // last log record contained in the snapshot this tree came from
+    private long logSequence;
+
+    // share of tombstones that triggers compaction steps, 0 while deleting eagerly
+    private double tombstoneRatio;
+
+    // nodes counted down to 0 by a lazy delete and still linked in
+    private int tombstones;
+
+    // node the next compaction step starts at, null for the first node
+    private RedBlackNode<T> sweep;
+
+    // comparisons and nodes visited by the insert, delete or contains in
+    // progress, only counted while instrumentation is on
+    private int comparisons;
+    private int visited;
+
+    public RedBlackTree() {
+        this(false);
+    }
+
+    /**
+     * Creates a tree that is a multiset if asked to. A multiset keeps one node per
+     * distinct element and counts the occurrences in it, so adding or removing a
+     * repeat only changes that count and the sizes above it. Otherwise every
+     * duplicate gets a node of its own.
+     * @param multiset
+     */
+    public RedBlackTree(boolean multiset) {
+        this(multiset, KeyOrder.<T>natural());
+    }
+
+    /**
+     * Creates a tree ordered by comparator instead of the natural ordering.
+     * @param comparator null for natural ordering
+     */
+    public RedBlackTree(Comparator<? super T> comparator) {
+        this(false, comparator);
+    }
+
+    /**
+     * Creates a tree ordered by comparator, a multiset if asked to. Elements the
+     * comparator finds equal count as duplicates.
+     * @param multiset
+     * @param comparator null for natural ordering
+     */
+    public RedBlackTree(boolean multiset, Comparator<? super T> comparator) {
+        this(multiset, KeyOrder.<T>of(comparator));
+    }
+
+    private RedBlackTree(boolean multiset, KeyOrder<T> order) {
+        this.root = null;
+        this.multiset = multiset;
+        this.order = order;
+    }
+
+    /**
+     * Creates a tree ordered by a long extracted from every element, compared
+     * without boxing and without going through a Comparator.
+     * @param multiset
+     * @param key extracts the long to order by
+     * @return an empty tree
+     * @throws IllegalArgumentException when key is null
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> byLongKey(boolean multiset, ToLongFunction<? super T> key) 
+        throws IllegalArgumentException
+    {
+        return new RedBlackTree<T>(multiset, KeyOrder.<T>byLongKey(key));
+    }
+
+    /**
+     * Returns the comparator the tree is ordered by.
+     * @return null for natural ordering
+     */
+    public Comparator<? super T> comparator() {
+        return this.order.comparator();
+    }
+
+    /**
+     * Builds a perfectly balanced tree out of n elements that are already in sorted
+     * order. Linear time: every element is read once and nothing is compared or
+     * rotated. Every level is full except maybe the deepest, so all nodes are black
+     * except the ones on a partial deepest level, which are red.
+     * @param iterator supplies the elements in ascending order
+     * @param n how many elements to take from the iterator
+     * @return a new tree holding the first n elements
+     * @throws IllegalArgumentException when n is negative, the iterator runs out
+     *         early, or it supplies null
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> fromSorted(Iterator<? extends T> iterator, int n) 
+        throws IllegalArgumentException
+    {
+        return fromSorted(iterator, n, null);
+    }
+
+    /**
+     * Same as fromSorted(Iterator, int) for elements sorted by comparator, which the
+     * new tree is then ordered by.
+     * @param iterator supplies the elements in ascending order of comparator
+     * @param n how many elements to take from the iterator
+     * @param comparator null for natural ordering
+     * @return a new tree holding the first n elements
+     * @throws IllegalArgumentException
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> fromSorted(Iterator<? extends T> iterator, int n, 
+        Comparator<? super T> comparator) throws IllegalArgumentException
+    {
+        if (n < 0)
+            throw new IllegalArgumentException("Can not build a tree of negative size.");
+
+        RedBlackTree<T> tree = new RedBlackTree<T>(false, comparator);
+        tree.root = buildSorted(iterator, null, n, 1, redDepth(n));
+        return tree;
+    }
+
+    /**
+     * Same as fromSorted(Iterator, int) but reads a presorted stream, so the
+     * elements never have to be collected first.
+     * @param stream supplies the elements in ascending order
+     * @param n how many elements to take from the stream
+     * @return a new tree holding the first n elements
+     * @throws IllegalArgumentException
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> fromSorted(Stream<? extends T> stream, int n) 
+        throws IllegalArgumentException
+    {
+        return fromSorted(stream.iterator(), n);
+    }
+
+    /**
+     * Writes the tree to file as a snapshot: whether it is a multiset, the last log
+     * record it holds, how many nodes follow, then every node in order with its key
+     * encoded by codec and, in a multiset, its count. Nodes are streamed straight
+     * out of the tree, and file is only replaced once the whole snapshot has been
+     * written. After that an attached log is emptied.
+     * @param file
+     * @param codec
+     * @throws IOException
+     * @throws IllegalArgumentException when file or codec is null
+     */
+    public void writeSnapshot(Path file, KeyCodec<T> codec) throws IOException, IllegalArgumentException {
+        if (file == null || codec == null)
+            throw new IllegalArgumentException("writeSnapshot() needs a file and a codec.");
+
+        compact();
+        int nodes = 0;
+        if (this.multiset) {
+            for (RedBlackNode<T> node = first(this.root); node != null; node = successor(node))
+                nodes++;
+        } else {
+            nodes = size();
+        }
+
+        long sequence = (this.log != null) ? this.log.sequence() : this.logSequence;
+
+        try (SnapshotWriter out = new SnapshotWriter(file)) {
+            out.writeByte(this.multiset ? 1 : 0);
+            out.writeVarLong(sequence);
+            out.writeVarLong(nodes);
+
+            T previous = null;
+            for (RedBlackNode<T> node = first(this.root); node != null; node = successor(node)) {
+                codec.encode(previous, node.getData(), out);
+                if (this.multiset)
+                    out.writeVarLong(node.getCount());
+                previous = node.getData();
+            }
+
+            out.commit();
+        }
+
+        this.logSequence = sequence;
+        if (this.log != null)
+            this.log.checkpoint(sequence);
+    }
+
+    /**
+     * Loads a tree written by writeSnapshot(). The keys are decoded one at a time
+     * and fed to the same linear builder as fromSorted(), so nothing is compared
+     * and the snapshot is never held in memory as a whole.
+     * @param file
+     * @param codec the codec the snapshot was written with
+     * @return
+     * @throws IOException when the file can not be read or is not a snapshot
+     * @throws IllegalArgumentException when file or codec is null
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> readSnapshot(Path file, KeyCodec<T> codec) 
+        throws IOException, IllegalArgumentException
+    {
+        return readSnapshot(file, codec, null);
+    }
+
+    /**
+     * Loads a snapshot written by a tree ordered by comparator.
+     * @param file
+     * @param codec the codec the snapshot was written with
+     * @param comparator the comparator of the tree that wrote it, null for natural
+     *        ordering
+     * @return
+     * @throws IOException when the file can not be read or is not a snapshot
+     * @throws IllegalArgumentException when file or codec is null
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> readSnapshot(Path file, KeyCodec<T> codec, 
+        Comparator<? super T> comparator) throws IOException, IllegalArgumentException
+    {
+        if (file == null || codec == null)
+            throw new IllegalArgumentException("readSnapshot() needs a file and a codec.");
+
+        try (SnapshotReader in = new SnapshotReader(file)) {
+            boolean multiset = (in.readByte() != 0);
+            long sequence = in.readVarLong();
+            int n = in.readLength();
+            SnapshotReader.KeyIterator<T> keys = in.keys(codec, n, multiset);
+
+            RedBlackTree<T> tree = new RedBlackTree<T>(multiset, comparator);
+            tree.root = buildSorted(keys, multiset ? keys::count : null, n, 1, redDepth(n));
+            tree.logSequence = sequence;
+            return tree;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Replays the records in log that came after the snapshot this tree was read
+     * from, then writes every later insert() and delete() to it. After a crash
+     * readSnapshot() and attachLog() bring the tree back, and writeSnapshot()
+     * empties the log again. Bulk changes such as clear() are not logged, write a
+     * snapshot after them.
+     * @param log
+     * @throws IOException when the log can not be replayed
+     * @throws IllegalArgumentException when log is null
+     */
+    public void attachLog(WriteAheadLog<T> log) throws IOException, IllegalArgumentException {
+        if (log == null)
+            throw new IllegalArgumentException("Can not attach a null log.");
+
+        this.log = null;
+        log.replay(this.logSequence, this::insert, this::delete);
+        this.log = log;
+    }
+
+    /**
+     * The depth fromSorted() colors red, the deepest level unless it is full.
+     * @param n
+     * @return -1 if no level is red
+     */
+    private static int redDepth(int n) {
+        int deepest = 32 - Integer.numberOfLeadingZeros(n);
+        return (n == (1 << deepest) - 1) ? -1 : deepest;
+    }
+
+    /**
+     * Internal helper for fromSorted(). Builds the left half, takes the middle
+     * element as the subtree root, then builds the right half. Recursion depth is
+     * the height of the result, so O(log n).
+     * @param iterator
+     * @param counts supplies the count of each element right after it is read,
+     *        null when every element occurs once
+     * @param n
+     * @param depth depth of the subtree root, the tree root is at 1
+     * @param redDepth the one depth whose nodes are red, -1 for none
+     * @return the root of the new subtree, or null if n is 0
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> buildSorted(Iterator<? extends T> iterator, 
+        IntSupplier counts, int n, int depth, int redDepth)
+    {
+        if (n == 0)
+            return null;
+
+        int leftSize = (n - 1) / 2;
+        RedBlackNode<T> left = buildSorted(iterator, counts, leftSize, depth + 1, redDepth);
+
+        if (!iterator.hasNext())
+            throw new IllegalArgumentException("Iterator ran out before n elements were read.");
+
+        T data = iterator.next();
+        if (data == null)
+            throw new IllegalArgumentException("Can not insert null into a tree.");
+
+        RedBlackNode<T> node = new RedBlackNode<T>(data);
+        node.setBlack(depth != redDepth);
+        if (counts != null)
+            node.setCount(counts.getAsInt());
+        RedBlackNode<T> right = buildSorted(iterator, counts, n - 1 - leftSize, depth + 1, redDepth);
+
+        node.setLeft(left);
+        node.setRight(right);
+        if (left != null)
+            left.setParent(node);
+        if (right != null)
+            right.setParent(node);
+
+        node.updateSize();
+        return node;
+    }
+
+    /**
+     * Method to insert new data into the tree. New nodes are
+     * always red.
+     * @param data the data that is to be inserted into this tree
+     * @throws IllegalArgumentException when data is null
+     */
+    public void insert(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not insert null into a tree.");
+
+        if (this.log != null)
+            this.log.logInsert(data);
+
+        if (!TreeStatistics.ENABLED) {
+            insertData(data);
+            return;
+        }
+
+        long start = begin();
+        insertData(data);
+        record(TreeStatistics.Operation.INSERT, start);
+    }
+
+    private void insertData(T data) {
+        if (this.root == null) { // set insert node to root if null and flip color
+            this.root = new RedBlackNode<T>(data);
+            ensureColorProperties(this.root);
+            return;
+        }
+
+        RedBlackNode<T> insertNode = new RedBlackNode<T>(data);
+
+        // otherwise look for the spot and insert
+        insertHelper(insertNode, this.root);
+    }
+
+    /**
+     * The insert algorithm assumes that this tree is non-balanced. It will find the
+     * empty spot where it belongs (if it is not a duplicate) and insert. If it is a
+     * duplicate, it will insert just below the node its duplicating. Walks down in a
+     * loop and always attaches the new node as a leaf, so the color fix up only ever
+     * has to deal with a red leaf.
+     * 
+     * @param insertNode
+     * @param search
+     */
+    private void insertHelper(RedBlackNode<T> insertNode, RedBlackNode<T> search) {
+        while (true) {
+            int comparison = this.order.compare(insertNode.getData(), search.getData());
+            if (TreeStatistics.ENABLED) {
+                this.comparisons++;
+                this.visited++;
+            }
+
+            // the insert node always lands somewhere below search
+            search.setSize(search.getSize() + 1);
+            search.setNodes(search.getNodes() + 1);
+
+            // case 2: insert nodes data is less than current nodes data
+            //         and left child is empty, insert
+            if (comparison < 0 
+                && search.getLeft() == null) 
+            {
+                search.setLeft(insertNode);
+                break;
+            } 
+
+            // case 2.1: insert nodes data is less than current nodes data
+            //           and left child is not empty, search left
+            if (comparison < 0)
+            {
+                search = search.getLeft();
+                continue;
+            }
+
+            // case 3: insert nodes data is greater than current nodes data
+            //         and new spot is empty, insert
+            if (comparison > 0
+                && search.getRight() == null)
+            {
+                search.setRight(insertNode);
+                break;
+            }
+
+            // case 3.1: insert nodes data is greater than current ndoes data
+            //           and right child is not empty, search right
+            if (comparison > 0)
+            {
+                search = search.getRight();
+                continue;
+            }
+
+            // case 4: insert nodes data is equal to the current nodes data
+            //         in a multiset just count it, sizes on the path
+            //         were already bumped on the way down but no node
+            //         is added after all, a tombstone is brought back
+            //         the same way
+            if (this.multiset || search.getCount() == 0) {
+                if (search.getCount() == 0 && --this.tombstones == 0)
+                    this.sweep = null;
+                search.setCount(search.getCount() + 1);
+                for (; search != null; search = search.getParent())
+                    search.setNodes(search.getNodes() - 1);
+                return;
+            }
+
+            // case 4.1: not a multiset, if left is null, insert
+            if (search.getLeft() == null)
+            {
+                search.setLeft(insertNode);
+                break;
+            } 
+
+            // IMPLEMENTATION NOTE: just insert, do not look for recurrences
+            // left is not null. splicing the node in above the left subtree
+            // would give it a black height the fix up can not repair, so
+            // hang it off the rightmost node of the left subtree instead,
+            // which is the same in-order spot just below search
+            search = search.getLeft();
+            search.setSize(search.getSize() + 1);
+            search.setNodes(search.getNodes() + 1);
+            while (search.getRight() != null) {
+                search = search.getRight();
+                search.setSize(search.getSize() + 1);
+                search.setNodes(search.getNodes() + 1);
+                if (TreeStatistics.ENABLED)
+                    this.visited++;
+            }
+
+            search.setRight(insertNode);
+            break;
+        }
+
+        insertNode.setParent(search);
+        ensureColorProperties(insertNode);
+    }
+
+    /**
+     * Removes one occurrence of data from the tree.
+     * @param data the data that is to be removed from this tree
+     * @return true if the data was found and removed
+     *         false if the tree did not contain the data
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean delete(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not delete null from a tree.");
+
+        if (this.log != null)
+            this.log.logDelete(data);
+
+        if (!TreeStatistics.ENABLED)
+            return deleteData(data);
+
+        long start = begin();
+        boolean deleted = deleteData(data);
+        record(TreeStatistics.Operation.DELETE, start);
+        return deleted;
+    }
+
+    private boolean deleteData(T data) {
+        if (this.tombstoneRatio > 0)
+            return markDeleted(data);
+
+        RedBlackNode<T> search = this.root;
+        while (search != null) {
+            int comparison = this.order.compare(data, search.getData());
+            if (TreeStatistics.ENABLED) {
+                this.comparisons++;
+                this.visited++;
+            }
+
+            // one of several occurrences is just counted down
+            if (comparison == 0 && search.getCount() > 1) {
+                search.setCount(search.getCount() - 1);
+                for (; search != null; search = search.getParent()) {
+                    search.updateSize();
+                    if (TreeStatistics.ENABLED)
+                        this.visited++;
+                }
+                return true;
+            }
+
+            if (comparison == 0) {
+                deleteHelper(search);
+                return true;
+            }
+
+            search = (comparison < 0) ? search.getLeft() : search.getRight();
+        }
+
+        return false;
+    }
+
+    /**
+     * Unlinks deletionNode from the tree. A node with two children takes the data of
+     * its in-order successor and the successor is unlinked instead, so the node that
+     * actually leaves always has at most one child.
+     * @param deletionNode
+     */
+    public void deleteHelper(RedBlackNode<T> deletionNode) {
+        if (deletionNode.getLeft() != null && deletionNode.getRight() != null) {
+            RedBlackNode<T> successor = deletionNode.getRight();
+            while (successor.getLeft() != null) {
+                successor = successor.getLeft();
+                if (TreeStatistics.ENABLED)
+                    this.visited++;
+            }
+
+            deletionNode.setData(successor.getData());
+            deletionNode.setCount(successor.getCount());
+            deletionNode = successor;
+        }
+
+        RedBlackNode<T> parent = deletionNode.getParent();
+        RedBlackNode<T> child = (deletionNode.getLeft() != null) 
+            ? deletionNode.getLeft() : deletionNode.getRight();
+
+        if (child != null)
+            child.setParent(parent);
+
+        if (parent == null)
+            this.root = child;
+        else if (parent.getLeft() == deletionNode)
+            parent.setLeft(child);
+        else
+            parent.setRight(child);
+
+        // sizes are fixed before any rotation, rotate() relies on them
+        for (RedBlackNode<T> node = parent; node != null; node = node.getParent()) {
+            node.updateSize();
+            if (TreeStatistics.ENABLED)
+                this.visited++;
+        }
+
+        // removing a red node never changes a black height
+        if (!deletionNode.isBlack())
+            return;
+
+        // a red child can take over the missing black
+        if (child != null && !child.isBlack()) {
+            child.flipColor();
+            return;
+        }
+
+        ensureDeleteProperties(child, parent);
+    }
+
+    /**
+     * Helper method that restores the color properties after a black node has been
+     * removed. The path through node (which may be an empty leaf, hence the separate
+     * parent) is one black short, so the missing black is pushed up or rotated in
+     * until it can be absorbed.
+     * @param node
+     * @param parent
+     */
+    private void ensureDeleteProperties(RedBlackNode<T> node, RedBlackNode<T> parent) {
+        while (node != this.root && RedBlackNode.isBlack(node)) {
+            boolean nodeIsLeft = (parent.getLeft() == node);
+            RedBlackNode<T> sibling = nodeIsLeft ? parent.getRight() : parent.getLeft();
+
+            // case 1: red sibling, rotate it up so the sibling is black
+            if (!sibling.isBlack()) {
+                sibling.flipColor();        // black
+                parent.flipColor();         // red
+                rotate(parent, sibling);
+                sibling = nodeIsLeft ? parent.getRight() : parent.getLeft();
+            }
+
+            RedBlackNode<T> near = nodeIsLeft ? sibling.getLeft() : sibling.getRight();
+            RedBlackNode<T> far = nodeIsLeft ? sibling.getRight() : sibling.getLeft();
+
+            // case 2: black sibling with black children, recolor and move up
+            if (RedBlackNode.isBlack(near) && RedBlackNode.isBlack(far)) {
+                sibling.flipColor();        // red
+                node = parent;
+                parent = node.getParent();
+                continue;
+            }
+
+            // case 3: only the near nephew is red, rotate it into the far spot
+            if (RedBlackNode.isBlack(far)) {
+                near.flipColor();           // black
+                sibling.flipColor();        // red
+                rotate(sibling, near);
+                far = sibling;
+                sibling = near;
+            }
+
+            // case 4: far nephew is red, rotate the sibling up and we are done
+            sibling.setBlack(parent.isBlack());
+            parent.setBlack(true);
+            far.setBlack(true);
+            rotate(parent, sibling);
+            node = this.root;
+        }
+
+        if (node != null)
+            node.setBlack(true);
+    }
+    
+    /**
+     * Helper method that ensures the RBTree does not violate color properties. 
+     * Only called during insertion of a new node. Works its way up in a loop, one
+     * recoloring step at a time, and stops after at most two rotations.
+     * @param insertNode
+     */
+    private void ensureColorProperties(RedBlackNode<T> insertNode) {
+
+        // case 1: insert node is the root node, it just has to be black
+        // case 2: insert node has a black parent, nothing to fix
+        // case 3: insert node has a red parent, which can not be the root
+        //         so there is always a grandparent to work with
+        while (insertNode != this.root && !insertNode.getParent().isBlack())
+        {
+            RedBlackNode<T> parent = insertNode.getParent();
+            RedBlackNode<T> grandParent = parent.getParent();
+            RedBlackNode<T> auntNode = parent.isRight() 
+                ? grandParent.getLeft() : grandParent.getRight();
+
+            // case 3.1: aunt is red, we can just recolor
+            //           and look again from the grandparent
+            if (!RedBlackNode.isBlack(auntNode)) {
+                parent.flipColor();         // black
+                auntNode.flipColor();       // black
+                grandParent.flipColor();    // red
+                insertNode = grandParent;
+                continue;
+            }
+
+            // case 3.2: aunt is black and insert node is an "inside" child,
+            //           rotate it up so it becomes an "outside" parent
+            if (insertNode.isRight() != parent.isRight()) {
+                rotate(parent, insertNode);
+                RedBlackNode<T> liminalNode = parent;   // we are shifting scope here
+                parent = insertNode;                    // "parent" is now the insert node
+                insertNode = liminalNode;               // which we rotated up
+            }
+
+            // case 3.3: aunt is black and insert node is an "outside" child,
+            //           rotate the parent over the grandparent and recolor
+            parent.flipColor();             // black
+            grandParent.flipColor();        // red
+            rotate(grandParent, parent);
+            break;
+        }
+
+        // case 1: ensure root is black
+        if (!this.root.isBlack())
+            this.root.flipColor();
+    }
+
+    /**
+     * Switches delete() to lazy deletion while ratio is above 0. A lazy delete only
+     * counts its node down, to a tombstone once the count reaches 0, and refreshes
+     * the sizes above it, so it costs one descent and a walk up with no recoloring
+     * or rotations. Lookups, iteration and the order statistics skip tombstones.
+     * Once they make up more than ratio of the nodes, a multiset's repeats sharing
+     * one node, every lazy delete also takes a compaction step over a bounded number
+     * of nodes. Switching back to 0 compacts right away.
+     * @param ratio within [0, 1)
+     * @throws IllegalArgumentException when ratio is outside [0, 1)
+     */
+    public void setLazyDelete(double ratio) throws IllegalArgumentException {
+        if (!(ratio >= 0 && ratio < 1))
+            throw new IllegalArgumentException("Tombstone ratio must be within [0, 1).");
+
+        this.tombstoneRatio = ratio;
+        if (ratio == 0)
+            compact();
+    }
+
+    /**
+     * Lazy delete, counts down the first node holding data on the way down. Should
+     * that be a tombstone, the first live occurrence is found by rank instead.
+     * @param data
+     * @return true if the data was found and marked
+     */
+    private boolean markDeleted(T data) {
+        RedBlackNode<T> node = this.root;
+        while (node != null) {
+            int comparison = this.order.compare(data, node.getData());
+            if (TreeStatistics.ENABLED) {
+                this.comparisons++;
+                this.visited++;
+            }
+
+            if (comparison == 0)
+                break;
+
+            node = (comparison < 0) ? node.getLeft() : node.getRight();
+        }
+
+        if (node == null)
+            return false;
+
+        if (node.getCount() == 0) {
+            int rank = countBelow(data, false);
+            if (rank == size())
+                return false;
+
+            node = selectNode(rank);
+            if (TreeStatistics.ENABLED)
+                this.comparisons++;
+            if (this.order.compare(node.getData(), data) != 0)
+                return false;
+        }
+
+        node.setCount(node.getCount() - 1);
+        if (node.getCount() == 0)
+            this.tombstones++;
+        for (; node != null; node = node.getParent())
+            node.updateSize();
+
+        if (this.tombstones > this.tombstoneRatio * RedBlackNode.nodesOf(this.root))
+            compact(SWEEP_STEP);
+        return true;
+    }
+
+    /**
+     * Compaction step, walks on in order from where the last step stopped, wrapping
+     * around at the end, over about maxNodes nodes. The biggest subtree of at most
+     * maxNodes nodes around the walk is rebuilt without its tombstones in linear
+     * time, in the same black height so nothing above it is recolored or rotated.
+     * Only a tombstone with more than maxNodes nodes below it is unlinked with
+     * deleteHelper(), and those are few.
+     * @param maxNodes
+     * @return the number of tombstones left
+     * @throws IllegalArgumentException when maxNodes is below 1
+     */
+    public int compact(int maxNodes) throws IllegalArgumentException {
+        if (maxNodes < 1)
+            throw new IllegalArgumentException("A compaction step needs at least one node.");
+
+        RedBlackNode<T> node = this.sweep;
+        int budget = maxNodes;
+        while (budget > 0 && this.tombstones > 0) {
+            if (node == null)
+                node = first(this.root);
+
+            if (node.getNodes() <= maxNodes) {
+                RedBlackNode<T> subtree = node;
+                while (subtree.getParent() != null && subtree.getParent().getNodes() <= maxNodes)
+                    subtree = subtree.getParent();
+
+                budget -= subtree.getNodes();
+                node = rebuild(subtree);
+                continue;
+            }
+
+            budget--;
+            if (node.getCount() > 0) {
+                node = successor(node);
+                continue;
+            }
+
+            // with two children the successor moves into node and is unlinked
+            // instead, so node is where the walk goes on
+            RedBlackNode<T> next = (node.getLeft() != null && node.getRight() != null)
+                ? node : successor(node);
+            deleteHelper(node);
+            this.tombstones--;
+            node = next;
+        }
+
+        this.sweep = (this.tombstones > 0) ? node : null;
+        return this.tombstones;
+    }
+
+    /**
+     * Rebuilds the tree perfectly balanced out of the nodes that are not tombstones,
+     * linking them up again in place and colored like fromSorted() colors. Linear
+     * time, and nothing is compared or rotated. Called when lazy deletion is
+     * switched off, and before writing a snapshot or handing the tree to split(),
+     * join() or the set operations.
+     */
+    public void compact() {
+        this.sweep = null;
+        if (this.tombstones > 0)
+            rebuild(this.root);
+    }
+
+    /**
+     * Links the nodes of subtree that are not tombstones up again in place. Below a
+     * parent they keep the black height of subtree, under a black root unless
+     * subtree was red and they need a red one. If there are too few of them they
+     * come out one black short, which is fixed up like a delete would, and should
+     * there be too few even for that, just enough tombstones stay in to fill the
+     * lower black height. The root's subtree is simply rebuilt the way fromSorted()
+     * builds.
+     * @param subtree
+     * @return the node following the rebuilt subtree, null if there is none
+     */
+    private RedBlackNode<T> rebuild(RedBlackNode<T> subtree) {
+        List<RedBlackNode<T>> nodes = new ArrayList<RedBlackNode<T>>(subtree.getNodes());
+        RedBlackNode<T> next = successor(last(subtree));
+        int live = 0;
+        for (RedBlackNode<T> node = first(subtree); node != next; node = successor(node)) {
+            nodes.add(node);
+            if (node.getCount() > 0)
+                live++;
+        }
+
+        RedBlackNode<T> parent = subtree.getParent();
+        boolean right = subtree.isRight();
+        int blackHeight = blackHeight(subtree);
+        boolean shorter = live < minNodes(blackHeight);
+        if (shorter)
+            blackHeight--;
+
+        int linked = nodes.size();
+        List<RedBlackNode<T>> kept = keep(nodes, (parent == null) ? 0 : (int) (minNodes(blackHeight) - live));
+        this.tombstones -= linked - kept.size();
+
+        if (parent == null) {
+            this.root = linkSorted(kept, 0, kept.size(), 1, redDepth(kept.size()));
+            if (this.root != null)
+                this.root.setParent(null);
+            return next;
+        }
+
+        RedBlackNode<T> rebuilt = (shorter || subtree.isBlack())
+            ? linkBlack(kept, 0, kept.size(), blackHeight)
+            : linkBelowBlack(kept, 0, kept.size(), blackHeight);
+        if (rebuilt != null)
+            rebuilt.setParent(parent);
+        if (right)
+            parent.setRight(rebuilt);
+        else
+            parent.setLeft(rebuilt);
+
+        // sizes are fixed before any rotation, rotate() relies on them
+        for (RedBlackNode<T> node = parent; node != null; node = node.getParent())
+            node.updateSize();
+
+        // one black short on every path through it
+        if (shorter)
+            ensureDeleteProperties(rebuilt, parent);
+        return next;
+    }
+
+    /**
+     * Internal helper for rebuild(), drops the tombstones from nodes but for the
+     * first few.
+     * @param nodes in order, filtered in place
+     * @param tombstones how many tombstones to keep, none if 0 or less
+     * @return nodes
+     */
+    private static <T extends Comparable<T>> List<RedBlackNode<T>> keep(List<RedBlackNode<T>> nodes, int tombstones) {
+        int kept = 0;
+        for (RedBlackNode<T> node : nodes)
+            if (node.getCount() > 0 || tombstones-- > 0)
+                nodes.set(kept++, node);
+
+        nodes.subList(kept, nodes.size()).clear();
+        return nodes;
+    }
+
+    /**
+     * Fewest nodes a subtree of the given black height can hold.
+     * @param blackHeight
+     * @return 0 for a black height of 0 or less
+     */
+    private static long minNodes(int blackHeight) {
+        return (blackHeight <= 0) ? 0 : (1L << blackHeight) - 1;
+    }
+
+    /**
+     * Black nodes on every path from node down to an empty leaf, node included.
+     * @param node
+     * @return 0 if node is null
+     */
+    private static int blackHeight(RedBlackNode<?> node) {
+        int blackHeight = 0;
+        for (; node != null; node = node.getLeft())
+            if (node.isBlack())
+                blackHeight++;
+
+        return blackHeight;
+    }
+
+    /**
+     * Internal helper for compact(), links nodes[from, to) the way buildSorted()
+     * would have built them.
+     * @param nodes in order
+     * @param from
+     * @param to
+     * @param depth depth of the subtree root, the tree root is at 1
+     * @param redDepth the one depth whose nodes are red, -1 for none
+     * @return the root of the subtree, or null if the range is empty
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> linkSorted(List<RedBlackNode<T>> nodes, int from, 
+        int to, int depth, int redDepth)
+    {
+        if (from == to)
+            return null;
+
+        int middle = from + (to - from - 1) / 2;
+        RedBlackNode<T> node = nodes.get(middle);
+        node.setBlack(depth != redDepth);
+        return link(node, linkSorted(nodes, from, middle, depth + 1, redDepth),
+            linkSorted(nodes, middle + 1, to, depth + 1, redDepth));
+    }
+
+    /**
+     * Internal helper for rebuild(), links nodes[from, to) below a black root with
+     * blackHeight black nodes on every path, the root included.
+     * @param nodes in order, between 2^blackHeight - 1 and 4^blackHeight - 1 of them
+     * @param from
+     * @param to
+     * @param blackHeight
+     * @return the root of the subtree, or null if the range is empty
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> linkBlack(List<RedBlackNode<T>> nodes, int from,
+        int to, int blackHeight)
+    {
+        if (from == to)
+            return null;
+
+        int middle = from + (to - from - 1) / 2;
+        RedBlackNode<T> node = nodes.get(middle);
+        node.setBlack(true);
+        return link(node, linkBelowBlack(nodes, from, middle, blackHeight - 1),
+            linkBelowBlack(nodes, middle + 1, to, blackHeight - 1));
+    }
+
+    /**
+     * Internal helper for rebuild(), links nodes[from, to) to hang below a black
+     * node, with blackHeight black nodes on every path. The root is only red when
+     * there are too many nodes for a black one.
+     * @param nodes in order, between 2^blackHeight - 1 and 2 * 4^blackHeight - 1 of
+     *        them
+     * @param from
+     * @param to
+     * @param blackHeight
+     * @return the root of the subtree, or null if the range is empty
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> linkBelowBlack(List<RedBlackNode<T>> nodes,
+        int from, int to, int blackHeight)
+    {
+        if (to - from <= (1L << (2 * blackHeight)) - 1)
+            return linkBlack(nodes, from, to, blackHeight);
+
+        int middle = from + (to - from - 1) / 2;
+        RedBlackNode<T> node = nodes.get(middle);
+        node.setBlack(false);
+        return link(node, linkBlack(nodes, from, middle, blackHeight),
+            linkBlack(nodes, middle + 1, to, blackHeight));
+    }
+
+    /**
+     * Hangs left and right below node and refreshes its size.
+     * @param node
+     * @param left may be null
+     * @param right may be null
+     * @return node
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> link(RedBlackNode<T> node, RedBlackNode<T> left,
+        RedBlackNode<T> right)
+    {
+        node.setLeft(left);
+        node.setRight(right);
+        if (left != null)
+            left.setParent(node);
+        if (right != null)
+            right.setParent(node);
+
+        node.updateSize();
+        return node;
+    }
+
+    /**
+     * Clears this tree of all nodes
+     */
+    public void clear() {
+        this.root = null;
+        this.tombstones = 0;
+        this.sweep = null;
+    }
+
+    public boolean isEmpty() {
+        if (size() == 0)
+            return true;
+
+        return false;
+    }
+
+    /**
+     * Searches the tree for the specified data and returns true if it is found.
+     * Follows the ordering down a single path, so it is O(log n) on a balanced tree.
+     * 
+     * @param data
+     * @return true if tree contains the data
+     *         false if the tree does not contain the data
+     * @throws IllegalArgumentException when data is null
+     */
+    public boolean contains(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("Can not search a tree for null.");
+
+        long start = TreeStatistics.ENABLED ? begin() : 0L;
+        boolean found = false;
+
+        RedBlackNode<T> search = this.root;
+        while (search != null) {
+            int comparison = this.order.compare(data, search.getData());
+            if (TreeStatistics.ENABLED) {
+                this.comparisons++;
+                this.visited++;
+            }
+
+            if (comparison == 0) {
+                // a tombstone may still have live duplicates around it
+                found = search.getCount() > 0 || countBelow(data, true) > countBelow(data, false);
+                break;
+            }
+
+            search = (comparison < 0) ? search.getLeft() : search.getRight();
+        }
+
+        if (TreeStatistics.ENABLED)
+            record(TreeStatistics.Operation.CONTAINS, start);
+        return found;
+    }
+
+    /**
+     * Clears the tallies left by calls that are not recorded, such as rank queries
+     * walking countBelow(), before an insert, delete or contains starts counting.
+     * @return System.nanoTime()
+     */
+    private long begin() {
+        this.comparisons = 0;
+        this.visited = 0;
+        return System.nanoTime();
+    }
+
+    /**
+     * Hands the tallies of the insert, delete or contains that started at start to
+     * STATISTICS.
+     * @param operation
+     * @param start System.nanoTime() when it started
+     */
+    private void record(TreeStatistics.Operation operation, long start) {
+        STATISTICS.record(operation, System.nanoTime() - start, this.comparisons, this.visited);
+        this.comparisons = 0;
+        this.visited = 0;
+    }
+
+    /**
+     * Returns the greatest element less than or equal to data.
+     * @param data
+     * @return the floor of data, or null if every element is greater
+     * @throws IllegalArgumentException when data is null
+     */
+    public T floor(T data) throws IllegalArgumentException {
+        return navigate(data, true, true);
+    }
+
+    /**
+     * Returns the least element greater than or equal to data.
+     * @param data
+     * @return the ceiling of data, or null if every element is less
+     * @throws IllegalArgumentException when data is null
+     */
+    public T ceiling(T data) throws IllegalArgumentException {
+        return navigate(data, false, true);
     }
 
     /**
-     * Method to insert new data into the tree. New nodes are
-     * always red.
-     * @param data the data that is to be inserted into this tree
+     * Returns the greatest element strictly less than data.
+     * @param data
+     * @return the element just below data, or null if there is none
      * @throws IllegalArgumentException when data is null
      */
-    public void insert(T data) throws IllegalArgumentException {
+    public T lower(T data) throws IllegalArgumentException {
+        return navigate(data, true, false);
+    }
+
+    /**
+     * Returns the least element strictly greater than data.
+     * @param data
+     * @return the element just above data, or null if there is none
+     * @throws IllegalArgumentException when data is null
+     */
+    public T higher(T data) throws IllegalArgumentException {
+        return navigate(data, false, false);
+    }
+
+    /**
+     * Shared descent for floor(), ceiling(), lower() and higher(). Remembers the
+     * last node that was on the wanted side of data and keeps looking for a closer
+     * one below it. With tombstones around the answer is picked by rank instead,
+     * which only ever counts live elements.
+     * @param data
+     * @param below true to look for elements under data, false for above
+     * @param inclusive whether an element equal to data is an answer
+     * @return the closest element on the wanted side, or null
+     */
+    private T navigate(T data, boolean below, boolean inclusive) {
         if (data == null)
-            throw new IllegalArgumentException("Can not insert null into a tree.");
-        
-        if (this.root == null) { // set insert node to root if null and flip color
-            this.root = new RedBlackNode<T>(data);
-            ensureColorProperties(this.root);
-            return;
+            throw new IllegalArgumentException("Can not navigate from null.");
+
+        if (this.tombstones > 0) {
+            int rank = countBelow(data, below == inclusive) - (below ? 1 : 0);
+            return (rank < 0 || rank >= size()) ? null : selectNode(rank).getData();
         }
 
-        RedBlackNode<T> insertNode = new RedBlackNode<T>(data);
+        RedBlackNode<T> search = this.root, candidate = null;
+        while (search != null) {
+            int comparison = this.order.compare(search.getData(), data);
 
-        // otherwise look for the spot and insert
-        insertHelper(insertNode, this.root);
+            if (comparison == 0 && inclusive)
+                return search.getData();
+
+            if (below && comparison < 0) {
+                candidate = search;
+                search = search.getRight();
+            } else if (below) {
+                search = search.getLeft();
+            } else if (comparison > 0) {
+                candidate = search;
+                search = search.getLeft();
+            } else {
+                search = search.getRight();
+            }
+        }
+
+        return (candidate == null) ? null : candidate.getData();
     }
 
     /**
-     * The insert algorithm assumes that this tree is non-balanced. It will find the
-     * empty spot where it belongs (if it is not a duplicate) and insert. If it is a
-     * duplicate, it will insert just below the node its duplicating
+     * Returns how many nodes the tree contains. O(1), every node keeps the size of
+     * its own subtree.
      * 
-     * @param insertNode
-     * @param search
+     * @return the size of the tree
      */
-    private void insertHelper(RedBlackNode<T> insertNode, RedBlackNode<T> search) {
-        int comparison = insertNode.getData().compareTo(search.getData());
+    public int size() {
+        return RedBlackNode.sizeOf(this.root);
+    }
 
-        // case 2: insert nodes data is less than current nodes data
-        //         and left child is empty, insert
-        if (comparison < 0 
-            && search.getLeft() == null) 
-        {
-            search.setLeft(insertNode);
-            insertNode.setParent(search);
-            ensureColorProperties(insertNode);
-            return;
-        } 
+    /**
+     * Returns the k-th smallest element, counting from 0.
+     * @param k
+     * @return the element that has exactly k elements before it in order
+     * @throws IllegalArgumentException when k is outside [0, size())
+     */
+    public T select(int k) throws IllegalArgumentException {
+        if (k < 0 || k >= size())
+            throw new IllegalArgumentException("select() index must be within [0, size()).");
 
-        // case 2.1: insert nodes data is less than current nodes data
-        //           and left child is not empty, search left
-        if (comparison < 0
-            && search.getLeft() != null) 
-        {
-            insertHelper(insertNode, search.getLeft());
-        }
+        return selectNode(k).getData();
+    }
 
-        // case 3: insert nodes data is greater than current nodes data
-        //         and new spot is empty, insert
-        if (comparison > 0
-            && search.getRight() == null)
-        {
-            search.setRight(insertNode);
-            insertNode.setParent(search);
-            ensureColorProperties(insertNode);
-            return;
+    /**
+     * Finds the node holding the kth smallest element using the cached subtree sizes.
+     * A node holding several occurrences covers that many ranks.
+     * @param k must be within [0, size())
+     * @return
+     */
+    private RedBlackNode<T> selectNode(int k) {
+        RedBlackNode<T> search = this.root;
+        while (true) {
+            int leftSize = RedBlackNode.sizeOf(search.getLeft());
+
+            if (k < leftSize) {
+                search = search.getLeft();
+            } else if (k < leftSize + search.getCount()) {
+                return search;
+            } else {
+                k -= leftSize + search.getCount();
+                search = search.getRight();
+            }
         }
+    }
 
-        // case 3.1: insert nodes data is less than current ndoes data
-        //           and right child is not empty, search right
-        if (comparison > 0
-            && search.getRight() != null)
-        {
-            insertHelper(insertNode, search.getRight());   
+    /**
+     * Rank of the first occurrence held by node, found by walking up the parent links.
+     * @param node
+     * @return how many elements come before node
+     */
+    private static <T extends Comparable<T>> int rankOf(RedBlackNode<T> node) {
+        int rank = RedBlackNode.sizeOf(node.getLeft());
+        for (; node.getParent() != null; node = node.getParent())
+            if (node.getParent().getRight() == node)
+                rank += RedBlackNode.sizeOf(node.getParent().getLeft()) + node.getParent().getCount();
+
+        return rank;
+    }
+
+    /**
+     * In-order successor using the parent links.
+     * @param node
+     * @return the next node, or null if node was the last
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> successor(RedBlackNode<T> node) {
+        if (node.getRight() != null) {
+            node = node.getRight();
+            while (node.getLeft() != null)
+                node = node.getLeft();
+            return node;
         }
 
-        // case 4: insert nodes data is equal to the current nodes data
-        //         determine we can insert in an empty spot or 
-        //         if we need to do the surgery
-        if (comparison == 0)
-        {
-            // if left is null, insert
-            if (search.getLeft() == null)
-            {
-                search.setLeft(insertNode);
-                insertNode.setParent(search);
-                ensureColorProperties(insertNode);
-                return;
-            } 
+        while (node.getParent() != null && node.getParent().getRight() == node)
+            node = node.getParent();
 
-            // IMPLEMENTATION NOTE: just insert, do not look for recurrences
-            // left is not null, do the surgery
-            RedBlackNode<T> liminalNode = search.getLeft();
-            search.setLeft(insertNode);
-            insertNode.setParent(search);
-            insertNode.setLeft(liminalNode);
-            liminalNode.setParent(liminalNode);
-            ensureColorProperties(insertNode);
-            return;
+        return node.getParent();
+    }
+
+    /**
+     * Closest node in the given direction, node itself included, that is not a
+     * tombstone.
+     * @param node
+     * @param descending
+     * @return null if there is none
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> live(RedBlackNode<T> node, boolean descending) {
+        while (node != null && node.getCount() == 0)
+            node = descending ? predecessor(node) : successor(node);
+
+        return node;
+    }
+
+    /**
+     * In-order predecessor using the parent links.
+     * @param node
+     * @return the previous node, or null if node was the first
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> predecessor(RedBlackNode<T> node) {
+        if (node.getLeft() != null) {
+            node = node.getLeft();
+            while (node.getRight() != null)
+                node = node.getRight();
+            return node;
         }
 
-        // recursive cases
-        if (comparison < 0) {insertHelper(insertNode, search.getLeft());}
-        if (comparison > 0) {insertHelper(insertNode, search.getRight());}
+        while (node.getParent() != null && node.getParent().getLeft() == node)
+            node = node.getParent();
+
+        return node.getParent();
     }
 
-    public void delete(T data) {
-        // TODO: Implement
+    /**
+     * Returns an iterator over the elements in ascending order. It holds a single
+     * node and steps to the successor with the parent links, so it needs no stack
+     * and reads nothing ahead. The tree must not be changed while it is in use.
+     * @return
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new TreeIterator(first(this.root), null, false);
     }
 
-    public void deleteHelper(RedBlackNode<T> deletionNode) {
-        
+    /**
+     * Same as iterator() but walks the elements in descending order.
+     * @return
+     */
+    public Iterator<T> descendingIterator() {
+        return new TreeIterator(last(this.root), null, true);
     }
-    
+
     /**
-     * Helper method that ensures the RBTree does not violate color properties. 
-     * Only called during insertion of a new node.
-     * @param insertNode
+     * Returns an iterator over the elements in [lo, hi] in ascending order. Finding
+     * lo is one O(log n) descent, each further element is one successor step, so
+     * reading the first k elements costs O(log n + k) whatever the size of the range.
+     * @param lo
+     * @param hi
+     * @return
+     * @throws IllegalArgumentException when lo or hi is null
      */
-    private void ensureColorProperties(RedBlackNode<T> insertNode) {
-        
-        // case 1: insert node is the root node, ensure root is black
-        if (this.root == insertNode
-            && insertNode.getParent() == null) 
-        {
-            if (!this.root.isBlack()) this.root.flipColor();
-            return;
+    public Iterator<T> range(T lo, T hi) throws IllegalArgumentException {
+        if (lo == null || hi == null)
+            throw new IllegalArgumentException("range() bounds can not be null.");
+
+        return new TreeIterator(firstAtLeast(lo), hi, false);
+    }
+
+    /**
+     * Finds the leftmost node whose data is not less than data. Unlike ceiling()
+     * it does not stop at the first equal node, so no duplicate is skipped.
+     * @param data
+     * @return the node, or null if every element is less
+     */
+    private RedBlackNode<T> firstAtLeast(T data) {
+        RedBlackNode<T> search = this.root, candidate = null;
+        while (search != null) {
+            if (this.order.compare(search.getData(), data) >= 0) {
+                candidate = search;
+                search = search.getLeft();
+            } else {
+                search = search.getRight();
+            }
         }
 
-        // case 2: insert node has a parent, recursively check upwards
-        //         only if parent is black (we have nothing to do here)
-        RedBlackNode<T> parent = insertNode.getParent();
-        if (parent.isBlack()) {
-            ensureColorProperties(parent);
-            return;
+        return candidate;
+    }
+
+    /**
+     * Rightmost node of a subtree.
+     * @param node
+     * @return null if node is null
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> last(RedBlackNode<T> node) {
+        if (node != null)
+            while (node.getRight() != null)
+                node = node.getRight();
+
+        return node;
+    }
+
+    /**
+     * Iterator that steps from node to node with the parent links, stopping at the
+     * end of the tree or after the last element not greater than hi.
+     */
+    private final class TreeIterator implements Iterator<T> {
+        private RedBlackNode<T> next;
+        // occurrences of next still to be returned
+        private int remaining;
+        // inclusive upper bound, null for none
+        private final T hi;
+        private final boolean descending;
+
+        TreeIterator(RedBlackNode<T> next, T hi, boolean descending) {
+            next = live(next, descending);
+            this.next = next;
+            this.remaining = (next == null) ? 0 : next.getCount();
+            this.hi = hi;
+            this.descending = descending;
         }
 
-        // case 3: insert node has a parent, but the parent is red...
-        //         we need to make some adjustments
-        //         so we set relations where we can
-        RedBlackNode<T> grandParent = insertNode.getParent().getParent();
-        RedBlackNode<T> auntNode, liminalNode;
+        @Override
+        public boolean hasNext() {
+            return this.next != null && (this.hi == null || order.compare(this.next.getData(), this.hi) <= 0);
+        }
 
-        // determine which way we will need to rotate
-        if (grandParent != null) 
-        {
-            // but is there a inside rotate thats needed?
-            // parent is less than insert, gp is more than insert
-            if (insertNode.getData().compareTo(parent.getData()) >= 0
-                && insertNode.getData().compareTo(grandParent.getData()) <= 0)
-            {
-                rotate(parent, insertNode);
-                liminalNode = parent;       // we are shifting scope here
-                parent = insertNode;        // "parent" is now the insert node
-                insertNode = liminalNode;   // which we rotated up
-            }
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
 
-            // parent is more than insert, gp is less than insert
-            else if (insertNode.getData().compareTo(parent.getData()) <= 0
-                && insertNode.getData().compareTo(grandParent.getData()) >= 0)
-            {
-                rotate(parent, insertNode);
-                liminalNode = parent;       // we are shifting scope here
-                parent = insertNode;        // "parent" is now the insert node
-                insertNode = liminalNode;   // which we rotated up
+            T data = this.next.getData();
+            if (--this.remaining == 0) {
+                this.next = live(this.descending ? predecessor(this.next) : successor(this.next), this.descending);
+                this.remaining = (this.next == null) ? 0 : this.next.getCount();
             }
+            return data;
+        }
+    }
+
+    /**
+     * Returns a spliterator over the elements in ascending order. It reports its
+     * exact size, and splits by rank: the cached subtree sizes find the middle
+     * element in O(log n), so both halves are always even. Duplicates are kept, so
+     * it is not DISTINCT. The tree must not be changed while it is in use.
+     * @return
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new TreeSpliterator(first(this.root), 0, 0, size());
+    }
 
+    /**
+     * Returns a sequential stream over the elements in ascending order.
+     * @return
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
 
-            // if the parent of insert is the right child
-            // case 3.1: aunt is on the left    <---
-            if (parent.isRight()) 
-            {
-                auntNode = grandParent.getLeft();
+    /**
+     * Returns a parallel stream over the elements. Work is split by subtree ranks,
+     * so it fans out evenly across the common ForkJoinPool.
+     * @return
+     */
+    public Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
 
-                // and determine the aunts color
-                // case 3.1.1: aunt is red, we can just recolor
-                if (!auntNode.isBlack()) {
-                    parent.flipColor();         // black
-                    auntNode.flipColor();       // black
-                    grandParent.flipColor();    // red
+    /**
+     * Leftmost node of a subtree.
+     * @param node
+     * @return null if node is null
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> first(RedBlackNode<T> node) {
+        if (node != null)
+            while (node.getLeft() != null)
+                node = node.getLeft();
 
-                    // if we created another violation, we need to fix it
-                    ensureColorProperties(grandParent);
-                }
+        return node;
+    }
 
-                // case 3.1.2: aunt is black, we need to rotate and recolor
-                else {
-                    grandParent.flipColor();
-                    parent.flipColor();
-                    rotate(grandParent, parent);
-                    return;
-                }
-            }
+    /**
+     * Spliterator over the elements whose ranks are in [index, fence). Steps from
+     * node to node with the parent links and splits at the middle rank.
+     */
+    private final class TreeSpliterator implements Spliterator<T> {
+        // node holding rank index, only meaningful while index < fence
+        private RedBlackNode<T> next;
+        // occurrences of next that come before rank index
+        private int offset;
+        private int index;
+        private final int fence;
 
-            // if the parent of insert is the left child
-            // case 3.2: aunt is on the right    --->
-            else
-            {
-                auntNode = grandParent.getRight();
+        TreeSpliterator(RedBlackNode<T> next, int offset, int index, int fence) {
+            this.next = live(next, false);
+            this.offset = offset;
+            this.index = index;
+            this.fence = fence;
+        }
 
-                // and determine the aunts color
-                // case 3.2.1: aunt is red, so we can just recolor
-                if (!auntNode.isBlack()) {
-                    parent.flipColor();         // black
-                    auntNode.flipColor();       // black
-                    grandParent.flipColor();    // red
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (this.index >= this.fence)
+                return false;
 
-                    // if we created another violation, we need to fix it
-                    ensureColorProperties(grandParent);
-                }
+            T data = this.next.getData();
+            if (++this.offset == this.next.getCount()) {
+                this.next = live(successor(this.next), false);
+                this.offset = 0;
+            }
+            this.index++;
+            action.accept(data);
+            return true;
+        }
 
-                // case 3.2.2: aunt is black, we need to rotate and recolor
-                else {
-                    grandParent.flipColor();
-                    parent.flipColor();
-                    rotate(grandParent, parent);
-                    return;
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            RedBlackNode<T> node = this.next;
+            int offset = this.offset;
+            for (int i = this.index; i < this.fence; i++) {
+                action.accept(node.getData());
+                if (++offset == node.getCount()) {
+                    node = live(successor(node), false);
+                    offset = 0;
                 }
             }
+
+            this.next = node;
+            this.offset = offset;
+            this.index = this.fence;
         }
 
-        // case 2: parent node is red and insertNode is an "inside" child
+        @Override
+        public Spliterator<T> trySplit() {
+            if (this.fence - this.index < 2)
+                return null;
 
-        // case 3: we are looking at any other child-parent relationship
-    }
+            int middle = (this.index + this.fence) >>> 1;
+            TreeSpliterator prefix = new TreeSpliterator(this.next, this.offset, this.index, middle);
+            this.next = selectNode(middle);
+            this.offset = middle - rankOf(this.next);
+            this.index = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return this.fence - this.index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | SIZED | SUBSIZED | NONNULL;
+        }
 
+        // null means natural ordering
+        @Override
+        public Comparator<? super T> getComparator() {
+            return comparator();
+        }
+    }
 
     /**
-     * Clears this tree of all nodes
+     * Returns how many elements in the tree are strictly less than data.
+     * @param data
+     * @return the index data has, or would have, in sorted order
+     * @throws IllegalArgumentException when data is null
      */
-    public void clear() {
-        this.root = null;
+    public int rank(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("rank() method argument can not be null.");
+
+        return countBelow(data, false);
     }
 
-    public boolean isEmpty() {
-        if (this.root == null)
-            return true;
+    /**
+     * Returns how many elements fall within [lo, hi], both ends inclusive.
+     * @param lo
+     * @param hi
+     * @return 0 if lo is greater than hi
+     * @throws IllegalArgumentException when either bound is null
+     */
+    public int countInRange(T lo, T hi) throws IllegalArgumentException {
+        if (lo == null || hi == null)
+            throw new IllegalArgumentException("countInRange() bounds can not be null.");
 
-        return false;
+        if (this.order.compare(lo, hi) > 0)
+            return 0;
+
+        return countBelow(hi, true) - countBelow(lo, false);
     }
 
     /**
-     * Searches the tree for the specified data and returns true if it is found.
-     * 
+     * Returns how many times data occurs in the tree. Two root to leaf walks, so
+     * O(log n) however many occurrences there are.
      * @param data
-     * @return true if tree contains the data
-     *         false if the tree does not contain the data
+     * @return 0 if the tree does not contain data
+     * @throws IllegalArgumentException when data is null
      */
-    public boolean contains(T data) {
-        if (this.root == null)
-            return false;
+    public int count(T data) throws IllegalArgumentException {
+        if (data == null)
+            throw new IllegalArgumentException("count() method argument can not be null.");
 
-        // ORing false with the result of a recursive call to return result
-        return false || containsHelper(data, this.root);
+        return countBelow(data, true) - countBelow(data, false);
     }
 
     /**
-     * Recursive helper method for contains()
-     * @param data
-     * @param search
-     * @return
+     * Moves every element not less than key out of this tree and into a new one, so
+     * this tree keeps the elements less than key. O(log n).
+     * @param key
+     * @return a tree holding the elements greater than or equal to key
+     * @throws IllegalArgumentException when key is null
      */
-    private boolean containsHelper(T data, RedBlackNode<T> search) {
-        if (data.compareTo(search.getData()) == 0)
-            return true;
+    public RedBlackTree<T> split(T key) throws IllegalArgumentException {
+        if (key == null)
+            throw new IllegalArgumentException("Can not split a tree at null.");
 
-        return containsHelper(data, search.getLeft()) 
-            || containsHelper(data, search.getRight());
+        // also drops the sweep, whose node may end up in the right tree
+        compact();
+        SetAlgebra.Split<T> parts = SetAlgebra.split(this.root, key, this.order);
+        RedBlackTree<T> right = new RedBlackTree<T>(this.multiset, this.order);
+        right.tombstoneRatio = this.tombstoneRatio;
+        this.root = parts.getLeft();
+        right.root = parts.getRight();
+        return right;
     }
 
     /**
-     * Iterates over the tree and returns how many nodes it contains.
-     * 
-     * @return the size of the tree
+     * Builds a tree out of every element of left, then key, then every element of
+     * right. Time is proportional to the difference of their black heights, not
+     * their sizes. In a multiset key is counted in an equal element at the end of
+     * left or the start of right, if there is one, and an equal element at the start
+     * of right joins one at the end of left. Both trees are emptied.
+     * @param left every element must be no greater than key
+     * @param key
+     * @param right every element must be no less than key, a multiset if left is
+     *        one and in the same order
+     * @return the joined tree
+     * @throws IllegalArgumentException when key is null, the trees are the same
+     *         tree, do not match, or are not in order around key
      */
-    public int size() {
-        if (this.root == null)
-            return 0;
-        
-        return sizeHelper(this.root);
+    public static <T extends Comparable<T>> RedBlackTree<T> join(RedBlackTree<T> left, T key, 
+        RedBlackTree<T> right) throws IllegalArgumentException
+    {
+        if (key == null)
+            throw new IllegalArgumentException("Can not join around null.");
+
+        if (left == right && !left.isEmpty())
+            throw new IllegalArgumentException("Can not join a tree with itself.");
+
+        if (left.multiset != right.multiset || !left.order.equals(right.order))
+            throw new IllegalArgumentException("join() needs two sets or two multisets in the same order.");
+
+        // also drops both sweeps, the nodes end up in the joined tree
+        left.compact();
+        right.compact();
+        RedBlackNode<T> leftLast = last(left.root);
+        RedBlackNode<T> rightFirst = first(right.root);
+        if ((leftLast != null && left.order.compare(leftLast.getData(), key) > 0)
+            || (rightFirst != null && left.order.compare(rightFirst.getData(), key) < 0))
+            throw new IllegalArgumentException("join() needs left <= key <= right.");
+
+        // a multiset keeps equal elements in one node, so key and any equal
+        // element at the seam all go into the last node of left or, without
+        // one there, the first node of right
+        RedBlackNode<T> equal = null;
+        if (left.multiset) {
+            if (rightFirst != null && left.order.compare(rightFirst.getData(), key) == 0)
+                equal = rightFirst;
+
+            if (leftLast != null && left.order.compare(leftLast.getData(), key) == 0) {
+                if (equal != null) {
+                    leftLast.setCount(leftLast.getCount() + rightFirst.getCount());
+                    right.deleteHelper(rightFirst);
+                }
+                equal = leftLast;
+            }
+        }
+
+        RedBlackTree<T> tree = new RedBlackTree<T>(left.multiset, left.order);
+        if (equal == null) {
+            tree.root = SetAlgebra.join(left.root, new RedBlackNode<T>(key), right.root);
+        } else {
+            equal.setCount(equal.getCount() + 1);
+            for (RedBlackNode<T> node = equal; node != null; node = node.getParent())
+                node.updateSize();
+
+            tree.root = SetAlgebra.join(left.root, right.root);
+        }
+        left.root = null;
+        right.root = null;
+        return tree;
     }
 
     /**
-     * Recursive helper method for size.
-     * @param search
-     * @return
+     * Moves every element of other into this tree, the same as inserting them one
+     * by one (in a multiset the counts of equal elements add up), but in
+     * O(m log(n/m + 1)) for sizes m <= n and in parallel for big trees. other is
+     * left empty.
+     * @param other ordered like this tree
+     * @throws IllegalArgumentException when other is null or this tree
      */
-    private int sizeHelper(RedBlackNode<T> search) {
-        if (search == null)
-            return 0;
-        
-        return 1 + sizeHelper(search.getLeft()) 
-            + sizeHelper(search.getRight());
+    public void union(RedBlackTree<T> other) throws IllegalArgumentException {
+        checkOther(other);
+        this.root = SetAlgebra.union(this.root, other.root, this.multiset, this.order);
+        other.root = null;
+    }
+
+    /**
+     * Keeps only the elements of this tree that also occur in other, with all their
+     * occurrences. Same bounds as union(), and other is left empty.
+     * @param other ordered like this tree
+     * @throws IllegalArgumentException when other is null or this tree
+     */
+    public void intersection(RedBlackTree<T> other) throws IllegalArgumentException {
+        checkOther(other);
+        this.root = SetAlgebra.intersection(this.root, other.root, this.order);
+        other.root = null;
+    }
+
+    /**
+     * Removes every element of this tree that occurs in other. Same bounds as
+     * union(), and other is left empty.
+     * @param other ordered like this tree
+     * @throws IllegalArgumentException when other is null or this tree
+     */
+    public void difference(RedBlackTree<T> other) throws IllegalArgumentException {
+        checkOther(other);
+        this.root = SetAlgebra.difference(this.root, other.root, this.order);
+        other.root = null;
+    }
+
+    // the bulk operations take other apart, so it can not be this tree,
+    // and they only know about live nodes, compact() also drops a sweep
+    // that could follow a node into the other tree
+    private void checkOther(RedBlackTree<T> other) throws IllegalArgumentException {
+        if (other == null)
+            throw new IllegalArgumentException("Can not combine a tree with null.");
+
+        if (other == this)
+            throw new IllegalArgumentException("Can not combine a tree with itself.");
+
+        compact();
+        other.compact();
+    }
+
+    /**
+     * Walks one root to leaf path adding up the subtrees that fall below data.
+     * @param data
+     * @param inclusive whether elements equal to data are counted
+     * @return the number of elements less than (or equal to) data
+     */
+    private int countBelow(T data, boolean inclusive) {
+        int count = 0;
+        RedBlackNode<T> search = this.root;
+
+        while (search != null) {
+            int comparison = this.order.compare(search.getData(), data);
+            if (TreeStatistics.ENABLED) {
+                this.comparisons++;
+                this.visited++;
+            }
+
+            if (comparison < 0 || (inclusive && comparison == 0)) {
+                count += RedBlackNode.sizeOf(search.getLeft()) + search.getCount();
+                search = search.getRight();
+            } else {
+                search = search.getLeft();
+            }
+        }
+
+        return count;
     }
     /**
      * Returns the height of the tree.
@@ -308,17 +1731,43 @@ public class RedBlackTree<T extends Comparable<T>> {
     }
 
     /**
-     * Internal helper method for self balancing.
+     * Returns the height of the subtree rooted at search. Visits every node, but
+     * walks with the parent links instead of recursing so it needs no stack.
      * @param search
      */
     public int height(RedBlackNode<T> search) {
         if (search == null)
             return 0;
 
-        int leftHeight = 1 + height(search.getLeft());
-        int rightHeight = 1 + height(search.getRight());
+        int height = 0, depth = 1;
+        RedBlackNode<T> node = search, previous = search.getParent();
+
+        while (node != search.getParent()) {
+            RedBlackNode<T> next;
+
+            // coming down from the parent, go left first, then right
+            if (previous == node.getParent()) {
+                height = Math.max(height, depth);
+                next = (node.getLeft() != null) ? node.getLeft() 
+                    : (node.getRight() != null) ? node.getRight() : node.getParent();
+            } 
+            
+            // coming back up from the left child, try the right
+            else if (previous == node.getLeft() && node.getRight() != null) {
+                next = node.getRight();
+            }
+
+            // done with both sides, go back up
+            else {
+                next = node.getParent();
+            }
+
+            depth += (next == node.getParent()) ? -1 : 1;
+            previous = node;
+            node = next;
+        }
 
-        return Math.max(leftHeight, rightHeight);
+        return height;
     }
 
 /**
@@ -346,6 +1795,9 @@ public class RedBlackTree<T extends Comparable<T>> {
             throw new IllegalArgumentException("These nodes are not related");
         }
 
+        if (TreeStatistics.ENABLED)
+            STATISTICS.rotated();
+
         // determine which way we intend to rotate
         // and create some placeholders on the way
         RedBlackNode<T> liminialNode, grandparentNode;
@@ -380,7 +1832,8 @@ public class RedBlackTree<T extends Comparable<T>> {
 
             // move liminal node to where child was on parent
             parent.setRight(liminialNode);
-            liminialNode.setParent(parent);
+            if (liminialNode != null)
+                liminialNode.setParent(parent);
         } 
         
         // since child is left child we intend to rotate left
@@ -408,12 +1861,18 @@ public class RedBlackTree<T extends Comparable<T>> {
                 this.root = child;
 
             // proceed to set parent and childs right child
-            child.setLeft(parent);
+            child.setRight(parent);
             parent.setParent(child);
 
             // move liminal node to where child was on the parent
             parent.setLeft(liminialNode);
-            liminialNode.setParent(parent);
+            if (liminialNode != null)
+                liminialNode.setParent(parent);
         }
+
+        // child took over parents whole subtree, parent lost the childs 
+        // other side, so recount parent first
+        parent.updateSize();
+        child.updateSize();
     }
 }
\ No newline at end of file
@@ -0,0 +1,362 @@
+package RedBlackTree;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+
+import SortedMaps.AbstractTreeMap;
+
+/**
+ * NavigableMap kept in a red black tree. Every node carries its key and value, so
+ * nothing has to be wrapped into a Comparable holder first, and put(),
+ * computeIfAbsent(), merge() and friends find and attach in a single descent. The
+ * color fix ups are the ones RedBlackTree uses, a constant number of rotations per
+ * insert or delete.
+ * @author Matthew Smith
+ */
+public class RedBlackTreeMap<K extends Comparable<K>, V> extends AbstractTreeMap<K, V, RedBlackTreeMap.MapNode<K, V>> {
+
+    // the root node
+    MapNode<K, V> root;
+
+    /**
+     * Node holding one mapping. New nodes are red.
+     */
+    static final class MapNode<K, V> implements Map.Entry<K, V> {
+
+        K key;
+        V value;
+        MapNode<K, V> parent;
+        MapNode<K, V> left;
+        MapNode<K, V> right;
+        boolean isBlack;
+
+        MapNode(K key, V value, MapNode<K, V> parent) {
+            this.key = key;
+            this.value = value;
+            this.parent = parent;
+        }
+
+        @Override
+        public K getKey() {
+            return this.key;
+        }
+
+        @Override
+        public V getValue() {
+            return this.value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V old = this.value;
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return Objects.equals(this.key, entry.getKey()) && Objects.equals(this.value, entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(this.key) ^ Objects.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return this.key + "=" + this.value;
+        }
+    }
+
+    /**
+     * Creates an empty map.
+     */
+    public RedBlackTreeMap() {
+        super(null);
+    }
+
+    /**
+     * Creates an empty map ordered by comparator.
+     * @param comparator null for natural ordering
+     */
+    public RedBlackTreeMap(Comparator<? super K> comparator) {
+        super(comparator);
+    }
+
+    /**
+     * Creates a map holding the mappings of map.
+     * @param map
+     * @throws NullPointerException when map is null or holds a null key
+     */
+    public RedBlackTreeMap(Map<? extends K, ? extends V> map) throws NullPointerException {
+        super(null);
+        if (map == null)
+            throw new NullPointerException("Map can not be null.");
+
+        putAll(map);
+    }
+
+    @Override
+    protected MapNode<K, V> root() {
+        return this.root;
+    }
+
+    @Override
+    protected MapNode<K, V> left(MapNode<K, V> node) {
+        return node.left;
+    }
+
+    @Override
+    protected MapNode<K, V> right(MapNode<K, V> node) {
+        return node.right;
+    }
+
+    @Override
+    protected MapNode<K, V> parent(MapNode<K, V> node) {
+        return node.parent;
+    }
+
+    @Override
+    protected void clearTree() {
+        this.root = null;
+    }
+
+    @Override
+    protected MapNode<K, V> attach(MapNode<K, V> parent, int comparison, K key, V value) {
+        MapNode<K, V> node = new MapNode<K, V>(key, value, parent);
+        if (parent == null)
+            this.root = node;
+        else if (comparison < 0)
+            parent.left = node;
+        else
+            parent.right = node;
+
+        ensureColorProperties(node);
+        return node;
+    }
+
+    @Override
+    protected MapNode<K, V> unlink(MapNode<K, V> node) {
+        // a node with two children takes the entry of its successor,
+        // which has no left child and is unlinked instead
+        MapNode<K, V> holder;
+        if (node.left != null && node.right != null) {
+            MapNode<K, V> successor = node.right;
+            while (successor.left != null)
+                successor = successor.left;
+
+            node.key = successor.key;
+            node.value = successor.value;
+            holder = node;
+            node = successor;
+        } else {
+            holder = successor(node);
+        }
+
+        MapNode<K, V> child = (node.left != null) ? node.left : node.right;
+        MapNode<K, V> parent = node.parent;
+
+        if (child != null)
+            child.parent = parent;
+
+        if (parent == null)
+            this.root = child;
+        else if (parent.left == node)
+            parent.left = child;
+        else
+            parent.right = child;
+
+        node.left = node.right = node.parent = null;
+
+        // removing a red node never changes a black height, a red child
+        // can take over the missing black
+        if (node.isBlack) {
+            if (!isBlack(child))
+                child.isBlack = true;
+            else
+                ensureDeleteProperties(child, parent);
+        }
+
+        return holder;
+    }
+
+    /**
+     * Restores the color properties after the red node was attached as a leaf,
+     * recoloring up the tree while the uncle is red and rotating at most twice.
+     * @param node
+     */
+    private void ensureColorProperties(MapNode<K, V> node) {
+        while (node != this.root && !node.parent.isBlack) {
+            MapNode<K, V> parent = node.parent;
+            MapNode<K, V> grandparent = parent.parent;
+
+            if (parent == grandparent.left) {
+                MapNode<K, V> uncle = grandparent.right;
+                if (!isBlack(uncle)) {
+                    parent.isBlack = true;
+                    uncle.isBlack = true;
+                    grandparent.isBlack = false;
+                    node = grandparent;
+                    continue;
+                }
+
+                if (node == parent.right) {
+                    rotateLeft(parent);
+                    parent = node;
+                }
+
+                parent.isBlack = true;
+                grandparent.isBlack = false;
+                rotateRight(grandparent);
+            } else {
+                MapNode<K, V> uncle = grandparent.left;
+                if (!isBlack(uncle)) {
+                    parent.isBlack = true;
+                    uncle.isBlack = true;
+                    grandparent.isBlack = false;
+                    node = grandparent;
+                    continue;
+                }
+
+                if (node == parent.left) {
+                    rotateRight(parent);
+                    parent = node;
+                }
+
+                parent.isBlack = true;
+                grandparent.isBlack = false;
+                rotateLeft(grandparent);
+            }
+            break;
+        }
+
+        this.root.isBlack = true;
+    }
+
+    /**
+     * Restores the color properties after a black node has been removed. The path
+     * through node (which may be an empty leaf, hence the separate parent) is one
+     * black short, so the missing black is pushed up or rotated in until it can be
+     * absorbed.
+     * @param node
+     * @param parent
+     */
+    private void ensureDeleteProperties(MapNode<K, V> node, MapNode<K, V> parent) {
+        while (node != this.root && isBlack(node)) {
+            if (node == parent.left) {
+                MapNode<K, V> sibling = parent.right;
+                if (!sibling.isBlack) {
+                    sibling.isBlack = true;
+                    parent.isBlack = false;
+                    rotateLeft(parent);
+                    sibling = parent.right;
+                }
+
+                if (isBlack(sibling.left) && isBlack(sibling.right)) {
+                    sibling.isBlack = false;
+                    node = parent;
+                    parent = node.parent;
+                    continue;
+                }
+
+                if (isBlack(sibling.right)) {
+                    sibling.left.isBlack = true;
+                    sibling.isBlack = false;
+                    rotateRight(sibling);
+                    sibling = parent.right;
+                }
+
+                sibling.isBlack = parent.isBlack;
+                parent.isBlack = true;
+                sibling.right.isBlack = true;
+                rotateLeft(parent);
+            } else {
+                MapNode<K, V> sibling = parent.left;
+                if (!sibling.isBlack) {
+                    sibling.isBlack = true;
+                    parent.isBlack = false;
+                    rotateRight(parent);
+                    sibling = parent.left;
+                }
+
+                if (isBlack(sibling.left) && isBlack(sibling.right)) {
+                    sibling.isBlack = false;
+                    node = parent;
+                    parent = node.parent;
+                    continue;
+                }
+
+                if (isBlack(sibling.left)) {
+                    sibling.right.isBlack = true;
+                    sibling.isBlack = false;
+                    rotateLeft(sibling);
+                    sibling = parent.left;
+                }
+
+                sibling.isBlack = parent.isBlack;
+                parent.isBlack = true;
+                sibling.left.isBlack = true;
+                rotateRight(parent);
+            }
+
+            node = this.root;
+        }
+
+        if (node != null)
+            node.isBlack = true;
+    }
+
+    /**
+     * Rotates the right child of node up into its place.
+     * @param node
+     */
+    private void rotateLeft(MapNode<K, V> node) {
+        MapNode<K, V> child = node.right;
+        node.right = child.left;
+        if (child.left != null)
+            child.left.parent = node;
+
+        replaceChild(node, child);
+        child.left = node;
+        node.parent = child;
+    }
+
+    /**
+     * Rotates the left child of node up into its place.
+     * @param node
+     */
+    private void rotateRight(MapNode<K, V> node) {
+        MapNode<K, V> child = node.left;
+        node.left = child.right;
+        if (child.right != null)
+            child.right.parent = node;
+
+        replaceChild(node, child);
+        child.right = node;
+        node.parent = child;
+    }
+
+    // puts replacement where node hangs from its parent
+    private void replaceChild(MapNode<K, V> node, MapNode<K, V> replacement) {
+        MapNode<K, V> parent = node.parent;
+        replacement.parent = parent;
+
+        if (parent == null)
+            this.root = replacement;
+        else if (parent.left == node)
+            parent.left = replacement;
+        else
+            parent.right = replacement;
+    }
+
+    // empty leaves count as black
+    private static boolean isBlack(MapNode<?, ?> node) {
+        return node == null || node.isBlack;
+    }
+}
@@ -1,7 +1,26 @@
 package RedBlackTree;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
+
 import org.junit.jupiter.api.*;
 
+import Snapshot.KeyCodec;
+import Snapshot.SyncPolicy;
+import Snapshot.WriteAheadLog;
+
 /**
  * Class for testing RedBlackTree package. Utilizes JUnit Jupiter otherwise known as
  * JUnit 5.
@@ -84,4 +103,938 @@ class RedBlackTreeTests {
         }
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests size(), select(), rank() and countInRange(), and that delete() keeps
+     * the sizes correct.
+     */
+    @Test
+    protected void testOrderStatistics() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        Assertions.assertEquals(0, tree.size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.select(0);});
+
+        tree.insert(10);
+        tree.insert(5);
+        tree.insert(15);
+        tree.insert(8);
+        tree.insert(18);
+        Assertions.assertAll(
+            "statistics",
+            () -> {Assertions.assertEquals(5, tree.size());},
+            () -> {Assertions.assertEquals(5, tree.select(0));},
+            () -> {Assertions.assertEquals(10, tree.select(2));},
+            () -> {Assertions.assertEquals(18, tree.select(4));},
+            () -> {Assertions.assertEquals(3, tree.rank(15));},
+            () -> {Assertions.assertEquals(3, tree.countInRange(6, 16));}
+        );
+
+        // delete the root, then a leaf, then something missing
+        Assertions.assertTrue(tree.delete(10));
+        Assertions.assertTrue(tree.delete(5));
+        Assertions.assertFalse(tree.delete(7));
+        Assertions.assertEquals(3, tree.size());
+        Assertions.assertTrue(tree.root.isBlack());
+        Assertions.assertEquals(15, tree.select(1));
+        Assertions.assertEquals(1, tree.rank(15));
+    }
+
+    /**
+     * Tests contains(), floor(), ceiling(), lower() and higher()
+     * 1. Empty tree finds nothing.
+     * 2. Hits and misses on both sides of every element.
+     */
+    @Test
+    protected void testNavigation() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+
+        // 1. empty tree
+        Assertions.assertFalse(tree.contains(10));
+        Assertions.assertNull(tree.floor(10));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.contains(null);});
+
+        // 2. tree holds 5 8 10 15 18
+        tree.insert(10);
+        tree.insert(5);
+        tree.insert(15);
+        tree.insert(8);
+        tree.insert(18);
+        Assertions.assertAll(
+            "navigation",
+            () -> {Assertions.assertTrue(tree.contains(8));},
+            () -> {Assertions.assertFalse(tree.contains(9));},
+            () -> {Assertions.assertFalse(tree.contains(100));},
+            () -> {Assertions.assertEquals(8, tree.floor(9));},
+            () -> {Assertions.assertEquals(10, tree.floor(10));},
+            () -> {Assertions.assertNull(tree.floor(4));},
+            () -> {Assertions.assertEquals(10, tree.ceiling(9));},
+            () -> {Assertions.assertNull(tree.ceiling(19));},
+            () -> {Assertions.assertEquals(8, tree.lower(10));},
+            () -> {Assertions.assertNull(tree.lower(5));},
+            () -> {Assertions.assertEquals(15, tree.higher(10));},
+            () -> {Assertions.assertNull(tree.higher(18));}
+        );
+    }
+
+    /**
+     * Tests the color properties hold through sorted inserts, duplicates and deletes.
+     */
+    @Test
+    protected void testColorProperties() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+
+        for (int i = 0; i < 1000; i++)
+            tree.insert(i);
+        for (int i = 0; i < 1000; i += 3)
+            tree.insert(i);
+        verifyColors(tree.root);
+        Assertions.assertEquals(1334, tree.size());
+        Assertions.assertTrue(tree.height() <= 2 * 11, 
+            "[ 1 ]  ##  Tree is taller than the red-black bound.");
+
+        for (int i = 0; i < 1000; i += 2)
+            Assertions.assertTrue(tree.delete(i));
+        verifyColors(tree.root);
+        Assertions.assertEquals(834, tree.size());
+    }
+
+    /**
+     * Checks parent links, the no red-red rule, equal black heights and sizes.
+     * @return the black height of node
+     */
+    private int verifyColors(RedBlackNode<Integer> node) {
+        if (node == null)
+            return 1;
+
+        if (!node.isBlack()) {
+            Assertions.assertTrue(RedBlackNode.isBlack(node.getLeft()), "Red node has a red child.");
+            Assertions.assertTrue(RedBlackNode.isBlack(node.getRight()), "Red node has a red child.");
+        }
+
+        if (node.getLeft() != null)
+            Assertions.assertSame(node, node.getLeft().getParent());
+        if (node.getRight() != null)
+            Assertions.assertSame(node, node.getRight().getParent());
+
+        int leftBlackHeight = verifyColors(node.getLeft());
+        int rightBlackHeight = verifyColors(node.getRight());
+        Assertions.assertEquals(leftBlackHeight, rightBlackHeight);
+        Assertions.assertEquals(node.getCount() + RedBlackNode.sizeOf(node.getLeft()) 
+            + RedBlackNode.sizeOf(node.getRight()), node.getSize());
+        Assertions.assertEquals(1 + RedBlackNode.nodesOf(node.getLeft())
+            + RedBlackNode.nodesOf(node.getRight()), node.getNodes());
+        return leftBlackHeight + (node.isBlack() ? 1 : 0);
+    }
+
+    /**
+     * Tests fromSorted() colors a balanced tree correctly for every size up to 100,
+     * and that the result takes further inserts and deletes.
+     */
+    @Test
+    protected void testFromSorted() {
+        Assertions.assertTrue(RedBlackTree.fromSorted(Collections.<Integer>emptyIterator(), 0).isEmpty());
+
+        for (int n = 1; n <= 100; n++) {
+            RedBlackTree<Integer> tree = RedBlackTree.fromSorted(IntStream.range(0, n).boxed(), n);
+            Assertions.assertEquals(n, tree.size());
+            Assertions.assertTrue(tree.root.isBlack());
+            verifyColors(tree.root);
+
+            tree.insert(n / 2);
+            tree.delete(0);
+            verifyColors(tree.root);
+        }
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            RedBlackTree.fromSorted(List.of(1, 2).iterator(), 3);
+        });
+    }
+
+    /**
+     * Tests the primitive key trees
+     * 1. Sorted inserts stay within the height bound and iterate in order.
+     * 2. Duplicates, contains() and delete() behave like the generic tree.
+     * 3. Negative and extreme keys are ordered with plain comparisons.
+     */
+    @Test
+    protected void testPrimitiveTrees() {
+        LongRedBlackTree longTree = new LongRedBlackTree();
+        IntRedBlackTree intTree = new IntRedBlackTree();
+
+        // 1. sorted inserts, then walk both trees
+        for (int i = 0; i < 10000; i++) {
+            longTree.insert(i);
+            intTree.insert(i);
+        }
+        Assertions.assertEquals(10000, longTree.size());
+
+        PrimitiveIterator.OfLong longKeys = longTree.iterator();
+        PrimitiveIterator.OfInt intKeys = intTree.iterator();
+        for (int i = 0; i < 10000; i++) {
+            Assertions.assertEquals(i, longKeys.nextLong());
+            Assertions.assertEquals(i, intKeys.nextInt());
+        }
+        Assertions.assertFalse(longKeys.hasNext());
+
+        // 2. duplicates are kept and removed one at a time
+        longTree.insert(5);
+        Assertions.assertEquals(10001, longTree.size());
+        Assertions.assertTrue(longTree.delete(5));
+        Assertions.assertTrue(longTree.delete(5));
+        Assertions.assertFalse(longTree.contains(5));
+        Assertions.assertFalse(longTree.delete(5));
+        Assertions.assertTrue(intTree.contains(9999));
+        Assertions.assertFalse(intTree.contains(10000));
+
+        // 3. extremes
+        longTree.clear();
+        longTree.insert(Long.MAX_VALUE);
+        longTree.insert(Long.MIN_VALUE);
+        longTree.insert(-1);
+        longKeys = longTree.iterator();
+        Assertions.assertEquals(Long.MIN_VALUE, longKeys.nextLong());
+        Assertions.assertEquals(-1, longKeys.nextLong());
+        Assertions.assertEquals(Long.MAX_VALUE, longKeys.nextLong());
+    }
+
+    /**
+     * Tests the array backed tree
+     * 1. Inserts grow the arrays and iterate in order.
+     * 2. Deleted slots are recycled, so reinserting does not grow the arrays.
+     * 3. clear() keeps the arrays.
+     */
+    @Test
+    protected void testPooledRedBlackTree() {
+        PooledRedBlackTree<Integer> tree = new PooledRedBlackTree<Integer>(4);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.insert(null);});
+
+        // 1. grow past the initial capacity
+        for (int i = 0; i < 1000; i++)
+            tree.insert(i);
+        Assertions.assertEquals(1000, tree.size());
+        int capacity = tree.capacity();
+        Assertions.assertTrue(capacity >= 1000);
+
+        List<Integer> inOrder = new ArrayList<Integer>();
+        tree.forEach(inOrder::add);
+        Assertions.assertEquals(IntStream.range(0, 1000).boxed().toList(), inOrder);
+
+        // 2. free half the slots and fill them again
+        for (int i = 0; i < 1000; i += 2)
+            Assertions.assertTrue(tree.delete(i));
+        Assertions.assertFalse(tree.contains(0));
+        Assertions.assertEquals(500, tree.size());
+        for (int i = 0; i < 1000; i += 2)
+            tree.insert(-i);
+        Assertions.assertEquals(1000, tree.size());
+        Assertions.assertEquals(capacity, tree.capacity());
+        Assertions.assertTrue(tree.contains(-998));
+
+        // 3. clear
+        tree.clear();
+        Assertions.assertTrue(tree.isEmpty());
+        Assertions.assertEquals(capacity, tree.capacity());
+    }
+
+    @Test
+    protected void testPersistentRedBlackTree() {
+        PersistentRedBlackTree<Integer> empty = new PersistentRedBlackTree<Integer>();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {empty.insert(null);});
+
+        // 1. every insert returns a new version and leaves the old one alone
+        List<PersistentRedBlackTree<Integer>> versions = new ArrayList<PersistentRedBlackTree<Integer>>();
+        PersistentRedBlackTree<Integer> tree = empty;
+        for (int i = 0; i < 1000; i++) {
+            versions.add(tree);
+            tree = tree.insert(i);
+        }
+        Assertions.assertTrue(empty.isEmpty());
+        for (int i = 0; i < 1000; i += 97) {
+            Assertions.assertEquals(i, versions.get(i).size());
+            Assertions.assertFalse(versions.get(i).contains(i));
+        }
+        Assertions.assertTrue(tree.height() <= 2 * 10);
+
+        // 2. deletes do the same, and deleting something absent returns the same tree
+        PersistentRedBlackTree<Integer> full = tree;
+        for (int i = 0; i < 1000; i += 2)
+            tree = tree.delete(i);
+        Assertions.assertSame(tree, tree.delete(0));
+        Assertions.assertEquals(500, tree.size());
+        Assertions.assertEquals(1000, full.size());
+        Assertions.assertTrue(full.contains(0));
+        Assertions.assertEquals(1, tree.select(0));
+
+        List<Integer> inOrder = new ArrayList<Integer>();
+        for (int data : tree)
+            inOrder.add(data);
+        Assertions.assertEquals(IntStream.range(0, 500).map(i -> 2 * i + 1).boxed().toList(), inOrder);
+
+        // 3. duplicates and fromSorted
+        tree = PersistentRedBlackTree.fromSorted(List.of(1, 2, 2, 3).iterator(), 4);
+        Assertions.assertEquals(5, tree.insert(2).size());
+        Assertions.assertTrue(tree.delete(2).contains(2));
+        Assertions.assertFalse(tree.delete(2).delete(2).contains(2));
+    }
+
+    @Test
+    protected void testStreams() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        Assertions.assertEquals(0, tree.parallelStream().count());
+
+        List<Integer> data = new ArrayList<Integer>(IntStream.range(0, 10000).boxed().toList());
+        Collections.shuffle(data, new Random(7));
+        for (int i : data)
+            tree.insert(i);
+
+        // 1. sequential and parallel streams see every element once, in order
+        Assertions.assertEquals(IntStream.range(0, 10000).boxed().toList(), tree.stream().toList());
+        Assertions.assertEquals(IntStream.range(0, 10000).boxed().toList(), tree.parallelStream().toList());
+        Assertions.assertEquals(5000, tree.parallelStream().filter(i -> i % 2 == 0).count());
+
+        // 2. splits are exact halves that together cover the tree
+        Spliterator<Integer> suffix = tree.spliterator();
+        Assertions.assertTrue(suffix.hasCharacteristics(Spliterator.SORTED | Spliterator.SIZED));
+        Spliterator<Integer> prefix = suffix.trySplit();
+        Assertions.assertEquals(5000, prefix.estimateSize());
+        Assertions.assertEquals(5000, suffix.estimateSize());
+        Assertions.assertTrue(suffix.tryAdvance(i -> Assertions.assertEquals(5000, i)));
+        Assertions.assertEquals(4999, suffix.estimateSize());
+    }
+
+    @Test
+    protected void testIterators() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        Assertions.assertFalse(tree.iterator().hasNext());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.range(null, 1);});
+
+        List<Integer> data = new ArrayList<Integer>(IntStream.range(0, 1000).boxed().toList());
+        Collections.shuffle(data, new Random(11));
+        for (int i : data)
+            tree.insert(i);
+        tree.insert(500);
+
+        // 1. both directions visit everything, duplicates included
+        List<Integer> ascending = new ArrayList<Integer>();
+        for (int i : tree)
+            ascending.add(i);
+        Assertions.assertEquals(1001, ascending.size());
+        Assertions.assertEquals(500, ascending.get(501));
+
+        List<Integer> descending = new ArrayList<Integer>();
+        tree.descendingIterator().forEachRemaining(descending::add);
+        Collections.reverse(descending);
+        Assertions.assertEquals(ascending, descending);
+
+        // 2. ranges are inclusive and start at the first duplicate
+        Iterator<Integer> range = tree.range(498, 501);
+        Assertions.assertEquals(List.of(498, 499, 500, 500, 501), List.of(range.next(), range.next(), 
+            range.next(), range.next(), range.next()));
+        Assertions.assertFalse(range.hasNext());
+        Assertions.assertThrows(NoSuchElementException.class, () -> {range.next();});
+
+        // 3. bounds outside the tree and empty ranges
+        Assertions.assertEquals(0, tree.range(-10, 0).next());
+        Assertions.assertFalse(tree.range(1000, 2000).hasNext());
+        Assertions.assertFalse(tree.range(7, 6).hasNext());
+    }
+
+    @Test
+    protected void testMultiset() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>(true);
+
+        // 1. a million repeats of three keys still make a three node tree
+        for (int i = 0; i < 1000000; i++)
+            tree.insert(i % 3);
+        Assertions.assertEquals(1000000, tree.size());
+        Assertions.assertEquals(333334, tree.count(0));
+        Assertions.assertEquals(333333, tree.count(2));
+        Assertions.assertEquals(0, tree.count(3));
+        Assertions.assertTrue(tree.height() <= 2);
+
+        // 2. order statistics count every occurrence
+        Assertions.assertEquals(0, tree.select(333333));
+        Assertions.assertEquals(1, tree.select(333334));
+        Assertions.assertEquals(666667, tree.rank(2));
+        Assertions.assertEquals(333333, tree.countInRange(1, 1));
+
+        // 3. occurrences are removed one at a time
+        tree.clear();
+        for (int i : List.of(5, 7, 7, 7, 9))
+            tree.insert(i);
+        Assertions.assertTrue(tree.delete(7));
+        Assertions.assertEquals(2, tree.count(7));
+        Assertions.assertEquals(4, tree.size());
+
+        // 4. iteration repeats each element as often as it occurs
+        Assertions.assertEquals(List.of(5, 7, 7, 9), tree.stream().toList());
+        List<Integer> descending = new ArrayList<Integer>();
+        tree.descendingIterator().forEachRemaining(descending::add);
+        Assertions.assertEquals(List.of(9, 7, 7, 5), descending);
+        Spliterator<Integer> prefix = tree.spliterator();
+        Spliterator<Integer> suffix = prefix.trySplit();
+        Assertions.assertEquals(2, suffix.estimateSize());
+
+        // 5. without the flag duplicates are still counted
+        RedBlackTree<Integer> plain = new RedBlackTree<Integer>();
+        plain.insert(4);
+        plain.insert(4);
+        Assertions.assertEquals(2, plain.count(4));
+    }
+
+    @Test
+    protected void testSetAlgebra() {
+        RedBlackTree<Integer> evens = new RedBlackTree<Integer>();
+        RedBlackTree<Integer> threes = new RedBlackTree<Integer>();
+        for (int i = 0; i < 3000; i++) {
+            evens.insert(2 * i);
+            if (i < 2000)
+                threes.insert(3 * i);
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {evens.union(evens);});
+
+        // 1. split and join are inverses
+        RedBlackTree<Integer> upper = evens.split(3000);
+        Assertions.assertEquals(1500, evens.size());
+        Assertions.assertEquals(3000, upper.select(0));
+        RedBlackTree<Integer> joined = RedBlackTree.join(evens, 2999, upper);
+        Assertions.assertEquals(3001, joined.size());
+        Assertions.assertTrue(evens.isEmpty() && upper.isEmpty());
+        Assertions.assertTrue(joined.delete(2999));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {RedBlackTree.join(joined, 0, threes);});
+
+        // 2. intersection and difference keep the multiples of six, or drop them
+        RedBlackTree<Integer> sixes = RedBlackTree.fromSorted(joined.stream().iterator(), joined.size());
+        sixes.intersection(RedBlackTree.fromSorted(threes.stream().iterator(), threes.size()));
+        Assertions.assertEquals(1000, sixes.size());
+        Assertions.assertEquals(5994, sixes.select(999));
+
+        RedBlackTree<Integer> others = RedBlackTree.fromSorted(joined.stream().iterator(), joined.size());
+        others.difference(sixes);
+        Assertions.assertEquals(2000, others.size());
+        Assertions.assertEquals(0, others.count(6));
+        Assertions.assertTrue(sixes.isEmpty());
+
+        // 3. union keeps both copies of shared elements, like inserting would
+        joined.union(threes);
+        Assertions.assertEquals(5000, joined.size());
+        Assertions.assertEquals(2, joined.count(6));
+        Assertions.assertTrue(threes.isEmpty());
+        verifyColors(joined.root);
+
+        // 4. in a multiset the counts add up
+        RedBlackTree<Integer> counts = new RedBlackTree<Integer>(true);
+        RedBlackTree<Integer> delta = new RedBlackTree<Integer>(true);
+        for (int i = 0; i < 100; i++) {
+            counts.insert(i % 10);
+            delta.insert(i % 20);
+        }
+        counts.union(delta);
+        Assertions.assertEquals(200, counts.size());
+        Assertions.assertEquals(15, counts.count(3));
+        Assertions.assertEquals(5, counts.count(13));
+
+        // 5. join() counts key in an equal element at the seam of a multiset
+        RedBlackTree<Integer> low = new RedBlackTree<Integer>(true);
+        RedBlackTree<Integer> high = new RedBlackTree<Integer>(true);
+        for (int i = 0; i < 50; i++) {
+            low.insert(i % 25);
+            high.insert(24 + i % 25);
+        }
+        RedBlackTree<Integer> seam = RedBlackTree.join(low, 24, high);
+        Assertions.assertEquals(101, seam.size());
+        Assertions.assertEquals(5, seam.count(24));
+        Assertions.assertEquals(49, seam.root.getNodes());
+        verifyColors(seam.root);
+
+        RedBlackTree<Integer> above = seam.split(30);
+        seam = RedBlackTree.join(seam, 30, above);
+        Assertions.assertEquals(102, seam.size());
+        Assertions.assertEquals(3, seam.count(30));
+        Assertions.assertEquals(49, seam.root.getNodes());
+        verifyColors(seam.root);
+
+        // 6. join() only takes trees that match
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            RedBlackTree.join(new RedBlackTree<Integer>(true), 0, new RedBlackTree<Integer>());});
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            RedBlackTree.join(new RedBlackTree<Integer>(), 0, new RedBlackTree<Integer>(Collections.reverseOrder()));});
+        ToLongFunction<Long> key = Long::longValue;
+        RedBlackTree<Long> byKey = RedBlackTree.join(RedBlackTree.byLongKey(false, key), 0L,
+            RedBlackTree.byLongKey(false, key));
+        Assertions.assertEquals(1, byKey.size());
+    }
+
+    /**
+     * writeSnapshot() and readSnapshot() Tester
+     */
+    @Test
+    protected void testSnapshot() throws IOException {
+        Path file = Files.createTempFile("RedBlackTree", ".snapshot");
+
+        try {
+            // 1. Numeric keys round trip, negative ones and duplicates included
+            RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+            Random random = new Random(16);
+            for (int i = 0; i < 5000; i++)
+                tree.insert(random.nextInt(20000) - 10000);
+            tree.insert(Integer.MIN_VALUE);
+            tree.insert(Integer.MAX_VALUE);
+
+            tree.writeSnapshot(file, KeyCodec.integers());
+            RedBlackTree<Integer> loaded = RedBlackTree.readSnapshot(file, KeyCodec.integers());
+            Assertions.assertEquals(tree.size(), loaded.size());
+            Assertions.assertEquals(tree.stream().toList(), loaded.stream().toList());
+            loaded.insert(0);
+            Assertions.assertTrue(loaded.delete(Integer.MIN_VALUE));
+
+            // 2. A multiset keeps its counts, front coded strings survive
+            RedBlackTree<String> words = new RedBlackTree<String>(true);
+            for (String word : new String[] { "tree", "treap", "tree", "trie", "", "\uD83C\uDF32", "\uD83C\uDF33" })
+                words.insert(word);
+
+            words.writeSnapshot(file, KeyCodec.strings());
+            RedBlackTree<String> loadedWords = RedBlackTree.readSnapshot(file, KeyCodec.strings());
+            Assertions.assertEquals(List.of("", "treap", "tree", "tree", "trie", "\uD83C\uDF32", "\uD83C\uDF33"),
+                loadedWords.stream().toList());
+            Assertions.assertEquals(2, loadedWords.count("tree"));
+            loadedWords.insert("tree");
+            Assertions.assertEquals(3, loadedWords.count("tree"));
+
+            // 3. An empty tree
+            new RedBlackTree<String>().writeSnapshot(file, KeyCodec.strings());
+            Assertions.assertTrue(RedBlackTree.readSnapshot(file, KeyCodec.strings()).isEmpty());
+
+            // 4. Truncated snapshots and other files are refused
+            Files.write(file, new byte[] { 1, 2, 3, 4, 5 });
+            Assertions.assertThrows(IOException.class, () -> RedBlackTree.readSnapshot(file, KeyCodec.strings()));
+            tree.writeSnapshot(file, KeyCodec.integers());
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+            Assertions.assertThrows(IOException.class, () -> RedBlackTree.readSnapshot(file, KeyCodec.integers()));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> tree.writeSnapshot(file, null));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * attachLog() and WriteAheadLog Tester
+     */
+    @Test
+    protected void testWriteAheadLog() throws IOException, InterruptedException {
+        Path snapshot = Files.createTempFile("RedBlackTree", ".snapshot");
+        Path logFile = Files.createTempFile("RedBlackTree", ".log");
+        Files.delete(logFile);
+
+        try {
+            // 1. Writes after a snapshot are replayed on top of it
+            RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+            WriteAheadLog<Integer> log = new WriteAheadLog<Integer>(logFile, KeyCodec.integers(), SyncPolicy.GROUP);
+            tree.attachLog(log);
+            for (int i = 0; i < 100; i++)
+                tree.insert(i);
+            tree.writeSnapshot(snapshot, KeyCodec.integers());
+            Assertions.assertEquals(100, log.sequence());
+
+            tree.delete(5);
+            tree.insert(1000);
+            log.close();
+
+            RedBlackTree<Integer> recovered = RedBlackTree.readSnapshot(snapshot, KeyCodec.integers());
+            log = new WriteAheadLog<Integer>(logFile, KeyCodec.integers(), SyncPolicy.GROUP);
+            recovered.attachLog(log);
+            Assertions.assertEquals(tree.stream().toList(), recovered.stream().toList());
+
+            // 2. Many writers share the fsyncs and every write survives
+            List<Thread> writers = new ArrayList<Thread>();
+            for (int t = 0; t < 8; t++) {
+                int offset = 2000 + t * 100;
+                WriteAheadLog<Integer> shared = log;
+                writers.add(new Thread(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        synchronized (recovered) {
+                            recovered.insert(offset + i);
+                        }
+                        try {
+                            shared.sync();
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }));
+            }
+            for (Thread writer : writers)
+                writer.start();
+            for (Thread writer : writers)
+                writer.join();
+            recovered.insert(5000);
+            log.close();
+            Assertions.assertThrows(IllegalStateException.class, () -> recovered.insert(1));
+
+            // 3. A torn last record is dropped, the ones before it are kept
+            byte[] bytes = Files.readAllBytes(logFile);
+            Files.write(logFile, Arrays.copyOf(bytes, bytes.length - 2));
+            RedBlackTree<Integer> torn = RedBlackTree.readSnapshot(snapshot, KeyCodec.integers());
+            log = new WriteAheadLog<Integer>(logFile, KeyCodec.integers(), SyncPolicy.ALWAYS);
+            torn.attachLog(log);
+            Assertions.assertEquals(recovered.size() - 1, torn.size());
+            Assertions.assertTrue(torn.contains(2799));
+            Assertions.assertFalse(torn.contains(5000));
+            torn.insert(5000);
+            log.close();
+
+            // 4. A log has to be replayed before it is written to
+            WriteAheadLog<Integer> unreplayed = new WriteAheadLog<Integer>(logFile, KeyCodec.integers(), SyncPolicy.NEVER);
+            Assertions.assertThrows(IllegalStateException.class, () -> unreplayed.logInsert(1));
+            unreplayed.close();
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.deleteIfExists(logFile);
+        }
+    }
+
+    /**
+     * Tests RedBlackTreeMap against java.util.TreeMap
+     * 1. Basic map operations and the single descent compute family.
+     * 2. Random operations on the map and its views agree with TreeMap.
+     * 3. The color properties hold after every round.
+     */
+    @Test
+    protected void testRedBlackTreeMap() {
+        RedBlackTreeMap<Integer, String> map = new RedBlackTreeMap<Integer, String>();
+        Assertions.assertTrue(map.isEmpty());
+        Assertions.assertNull(map.firstEntry());
+        Assertions.assertThrows(NoSuchElementException.class, () -> map.firstKey());
+        Assertions.assertThrows(NullPointerException.class, () -> map.put(null, "a"));
+        Assertions.assertThrows(NullPointerException.class, () -> map.get(null));
+        Assertions.assertThrows(NullPointerException.class, () -> map.containsKey(null));
+        Assertions.assertThrows(NullPointerException.class, () -> map.remove(null));
+        Assertions.assertThrows(NullPointerException.class, () -> map.floorKey(null));
+        Assertions.assertThrows(NullPointerException.class, () -> map.compute(1, null));
+
+        // 1. basic operations
+        Assertions.assertNull(map.put(5, "five"));
+        Assertions.assertEquals("five", map.put(5, "FIVE"));
+        Assertions.assertEquals("three", map.computeIfAbsent(3, k -> "three"));
+        Assertions.assertEquals("three", map.computeIfAbsent(3, k -> "other"));
+        Assertions.assertNull(map.computeIfAbsent(4, k -> null));
+        Assertions.assertFalse(map.containsKey(4));
+        Assertions.assertEquals("seven", map.merge(7, "seven", String::concat));
+        Assertions.assertEquals("sevenseven", map.merge(7, "seven", String::concat));
+        Assertions.assertNull(map.merge(7, "x", (a, b) -> null));
+        Assertions.assertNull(map.put(1, null));
+        Assertions.assertTrue(map.containsKey(1));
+        Assertions.assertNull(map.putIfAbsent(1, "one"));
+        Assertions.assertEquals("one", map.get(1));
+        Assertions.assertThrows(NullPointerException.class, () -> map.merge(2, null, String::concat));
+        Assertions.assertEquals("[1, 3, 5]", map.keySet().toString());
+        Assertions.assertEquals("{5=FIVE, 3=three, 1=one}", map.descendingMap().toString());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> map.headMap(3).put(4, "four"));
+        Assertions.assertThrows(java.util.ConcurrentModificationException.class,
+            () -> map.computeIfAbsent(9, k -> map.put(10, "ten")));
+
+        // 2. random operations against TreeMap, on the map and on views
+        Random random = new Random(21);
+        for (int round = 0; round < 20; round++) {
+            RedBlackTreeMap<Integer, Integer> tree = new RedBlackTreeMap<Integer, Integer>();
+            java.util.TreeMap<Integer, Integer> expected = new java.util.TreeMap<Integer, Integer>();
+            int bound = 10 + random.nextInt(500);
+            for (int i = 0; i < 2000; i++) {
+                int key = random.nextInt(bound);
+                switch (random.nextInt(8)) {
+                    case 0:
+                        Assertions.assertEquals(expected.put(key, i), tree.put(key, i));
+                        break;
+                    case 1:
+                        Assertions.assertEquals(expected.remove(key), tree.remove(key));
+                        break;
+                    case 2:
+                        Assertions.assertEquals(expected.merge(key, 1, Integer::sum), tree.merge(key, 1, Integer::sum));
+                        break;
+                    case 3:
+                        Assertions.assertEquals(expected.computeIfAbsent(key, k -> k * 2), tree.computeIfAbsent(key, k -> k * 2));
+                        break;
+                    case 4:
+                        Assertions.assertEquals(expected.compute(key, (k, v) -> (v == null || v % 2 == 0) ? null : v + 1),
+                                                tree.compute(key, (k, v) -> (v == null || v % 2 == 0) ? null : v + 1));
+                        break;
+                    case 5:
+                        Assertions.assertEquals(expected.floorEntry(key), tree.floorEntry(key));
+                        Assertions.assertEquals(expected.higherKey(key), tree.higherKey(key));
+                        Assertions.assertEquals(expected.pollFirstEntry(), tree.pollFirstEntry());
+                        break;
+                    case 6: {
+                        int to = key + random.nextInt(50);
+                        boolean fromInclusive = random.nextBoolean(), toInclusive = random.nextBoolean();
+                        java.util.NavigableMap<Integer, Integer> view = tree.subMap(key, fromInclusive, to, toInclusive).descendingMap();
+                        java.util.NavigableMap<Integer, Integer> expectedView = expected.subMap(key, fromInclusive, to, toInclusive).descendingMap();
+                        Assertions.assertEquals(expectedView, view);
+                        Assertions.assertEquals(new ArrayList<Integer>(expectedView.keySet()), new ArrayList<Integer>(view.keySet()));
+                        Assertions.assertEquals(expectedView.size(), view.size());
+                        Assertions.assertEquals(expectedView.lastEntry(), view.lastEntry());
+                        Assertions.assertEquals(expectedView.ceilingKey(key + 10), view.ceilingKey(key + 10));
+                        Assertions.assertEquals(expectedView.headMap((key + to) / 2, false), view.headMap((key + to) / 2, false));
+                        Assertions.assertEquals(expectedView.pollLastEntry(), view.pollLastEntry());
+                        break;
+                    }
+                    default: {
+                        // remove through iterators, forwards and backwards
+                        Iterator<Integer> iterator = tree.tailMap(key, true).keySet().iterator();
+                        Iterator<Integer> expectedIterator = expected.tailMap(key, true).keySet().iterator();
+                        if (random.nextBoolean()) {
+                            iterator = tree.headMap(key, false).descendingKeySet().iterator();
+                            expectedIterator = expected.headMap(key, false).descendingKeySet().iterator();
+                        }
+                        while (expectedIterator.hasNext()) {
+                            Assertions.assertEquals(expectedIterator.next(), iterator.next());
+                            if (random.nextInt(3) == 0) {
+                                expectedIterator.remove();
+                                iterator.remove();
+                            }
+                        }
+                        Assertions.assertFalse(iterator.hasNext());
+                    }
+                }
+                Assertions.assertEquals(expected.size(), tree.size());
+            }
+
+            // 3. the whole map and the tree shape
+            Assertions.assertEquals(expected, tree);
+            Assertions.assertEquals(new ArrayList<Integer>(expected.descendingKeySet()), new ArrayList<Integer>(tree.descendingKeySet()));
+            verifyColors(tree.root);
+        }
+    }
+
+    /**
+     * Checks parent links, the no red-red rule and equal black heights of a map subtree.
+     * @return the black height of node
+     */
+    private int verifyColors(RedBlackTreeMap.MapNode<Integer, ?> node) {
+        if (node == null)
+            return 1;
+
+        if (!node.isBlack) {
+            Assertions.assertTrue(node.left == null || node.left.isBlack, "Red node has a red child.");
+            Assertions.assertTrue(node.right == null || node.right.isBlack, "Red node has a red child.");
+        }
+
+        if (node.left != null)
+            Assertions.assertSame(node, node.left.parent);
+        if (node.right != null)
+            Assertions.assertSame(node, node.right.parent);
+
+        int leftBlackHeight = verifyColors(node.left);
+        int rightBlackHeight = verifyColors(node.right);
+        Assertions.assertEquals(leftBlackHeight, rightBlackHeight);
+        return leftBlackHeight + (node.isBlack ? 1 : 0);
+    }
+
+    /**
+     * Tests trees ordered by a comparator or a long key
+     * 1. A reversed tree inserts, navigates, deletes and keeps its colors.
+     * 2. split(), join() and union() follow the comparator.
+     * 3. A tree ordered by a long key counts equal keys as duplicates.
+     */
+    @Test
+    protected void testComparator() {
+        Assertions.assertNull(new RedBlackTree<Integer>().comparator());
+
+        // 1. reversed order
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>(Collections.reverseOrder());
+        for (int i = 0; i < 100; i++)
+            tree.insert(i);
+        Assertions.assertEquals(Integer.valueOf(99), tree.iterator().next());
+        Assertions.assertEquals(Integer.valueOf(10), tree.ceiling(10));
+        Assertions.assertEquals(Integer.valueOf(11), tree.lower(10));
+        Assertions.assertTrue(tree.delete(42));
+        Assertions.assertFalse(tree.contains(42));
+        verifyColors(tree.root);
+
+        // 2. the set operations go by the comparator
+        RedBlackTree<Integer> low = tree.split(49);
+        Assertions.assertEquals(Integer.valueOf(49), low.iterator().next());
+        Assertions.assertEquals(Integer.valueOf(99), tree.iterator().next());
+        Assertions.assertEquals(50, tree.size());
+        Assertions.assertNotNull(low.comparator());
+
+        RedBlackTree<Integer> joined = RedBlackTree.join(tree, 49, low);
+        Assertions.assertEquals(100, joined.size());
+        verifyColors(joined.root);
+
+        RedBlackTree<Integer> other = new RedBlackTree<Integer>(Collections.reverseOrder());
+        for (int i = 90; i < 110; i++)
+            other.insert(i);
+        joined.union(other);
+        Assertions.assertEquals(120, joined.size());
+        Assertions.assertEquals(Integer.valueOf(109), joined.iterator().next());
+        verifyColors(joined.root);
+
+        // 3. ordered by length, equal lengths are duplicates
+        RedBlackTree<String> byLength = RedBlackTree.byLongKey(true, String::length);
+        for (String s : new String[] { "ccc", "a", "bb", "dd", "e" })
+            byLength.insert(s);
+        Assertions.assertEquals(5, byLength.size());
+        Assertions.assertTrue(byLength.contains("zz"));
+        Assertions.assertEquals("ccc", byLength.higher("zz"));
+        Assertions.assertTrue(byLength.delete("xx"));
+        Assertions.assertEquals(4, byLength.size());
+
+        // maps take a comparator too
+        RedBlackTreeMap<String, Integer> map = new RedBlackTreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+        map.put("b", 1);
+        map.merge("B", 1, Integer::sum);
+        map.put("A", 3);
+        Assertions.assertEquals(2, map.size());
+        Assertions.assertEquals(Integer.valueOf(2), map.get("b"));
+        Assertions.assertEquals("A", map.firstKey());
+        Assertions.assertSame(String.CASE_INSENSITIVE_ORDER, map.comparator());
+    }
+
+    /**
+     * Tests lazy deletes
+     * 1. Deletes only mark tombstones, which every read skips.
+     * 2. Inserting a deleted element brings its tombstone back.
+     * 3. Past the ratio of nodes deletes sweep tombstones out a step at a time,
+     *    switching lazy deletes off compacts the tree.
+     * 4. Random inserts and deletes agree with a sorted list.
+     * 5. A sweep does not follow its node into the tree split off.
+     */
+    @Test
+    protected void testLazyDelete() {
+        RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.setLazyDelete(1);});
+        tree.setLazyDelete(0.5);
+
+        // 1. deleting every even key leaves the shape alone
+        for (int i = 0; i < 1000; i++)
+            tree.insert(i);
+        int height = tree.height();
+        for (int i = 0; i < 1000; i += 2)
+            Assertions.assertTrue(tree.delete(i));
+        Assertions.assertFalse(tree.delete(0));
+        Assertions.assertEquals(height, tree.height());
+        Assertions.assertEquals(500, tree.size());
+        Assertions.assertFalse(tree.contains(0));
+        Assertions.assertTrue(tree.contains(1));
+        Assertions.assertEquals(Integer.valueOf(1), tree.floor(2));
+        Assertions.assertEquals(Integer.valueOf(3), tree.ceiling(2));
+        Assertions.assertNull(tree.lower(1));
+        Assertions.assertNull(tree.higher(999));
+        Assertions.assertEquals(Integer.valueOf(1), tree.select(0));
+        Assertions.assertEquals(1, tree.rank(3));
+        Assertions.assertEquals(0, tree.count(2));
+        Assertions.assertEquals(IntStream.range(0, 500).map(i -> i * 2 + 1).boxed().toList(), tree.stream().toList());
+        Assertions.assertEquals(250000, tree.parallelStream().mapToInt(i -> i).sum());
+        Assertions.assertEquals(Integer.valueOf(999), tree.descendingIterator().next());
+        Iterator<Integer> range = tree.range(10, 14);
+        Assertions.assertEquals(List.of(11, 13), List.of(range.next(), range.next()));
+        Assertions.assertFalse(range.hasNext());
+
+        // 2. a tombstone comes back to life, in a multiset too
+        tree.insert(0);
+        Assertions.assertTrue(tree.contains(0));
+        Assertions.assertEquals(501, tree.size());
+
+        RedBlackTree<Integer> multiset = new RedBlackTree<Integer>(true);
+        multiset.setLazyDelete(0.9);
+        for (int i : List.of(5, 5, 7, 7))
+            multiset.insert(i);
+        Assertions.assertTrue(multiset.delete(5));
+        Assertions.assertTrue(multiset.delete(5));
+        Assertions.assertFalse(multiset.contains(5));
+        Assertions.assertEquals(2, multiset.size());
+        Assertions.assertTrue(multiset.delete(7) && multiset.delete(7));
+        Assertions.assertTrue(multiset.isEmpty());
+        multiset.insert(5);
+        Assertions.assertEquals(List.of(5), multiset.stream().toList());
+
+        // 3. the next deletes cross half the nodes being tombstones, each
+        //    delete then only sweeps a few nodes
+        Assertions.assertTrue(tree.delete(1));
+        Assertions.assertTrue(tree.delete(3));
+        Assertions.assertEquals(499, tree.size());
+        Assertions.assertTrue(tree.root.getNodes() < 1000 && tree.root.getNodes() > 900);
+        verifyColors(tree.root);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {tree.compact(0);});
+        int tombstones = tree.compact(1);
+        Assertions.assertEquals(tree.root.getNodes() - tree.size(), tombstones);
+        while (tree.compact(10) > 0)
+            verifyColors(tree.root);
+        Assertions.assertEquals(499, tree.root.getNodes());
+        Assertions.assertEquals(IntStream.range(0, 1000).filter(i -> i == 0 || i % 2 == 1 && i > 3).boxed().toList(),
+            tree.stream().toList());
+
+        // in a multiset the ratio is one of nodes, not occurrences
+        RedBlackTree<Integer> repeats = new RedBlackTree<Integer>(true);
+        repeats.setLazyDelete(0.5);
+        for (int i = 0; i < 100; i++)
+            repeats.insert(i % 10);
+        for (int i = 0; i < 50; i++)
+            repeats.delete(i / 10);
+        Assertions.assertEquals(10, repeats.root.getNodes());
+        for (int i = 0; i < 10; i++)
+            repeats.delete(5);
+        Assertions.assertEquals(4, repeats.root.getNodes());
+        Assertions.assertEquals(40, repeats.size());
+
+        for (int i = 5; i < 100; i += 2)
+            tree.delete(i);
+        tree.setLazyDelete(0);
+        Assertions.assertTrue(tree.height() <= 9);
+        verifyColors(tree.root);
+        Assertions.assertTrue(tree.delete(101));
+        Assertions.assertFalse(tree.contains(101));
+
+        // 4. against a sorted list, duplicates included
+        RedBlackTree<Integer> random = new RedBlackTree<Integer>();
+        random.setLazyDelete(0.3);
+        List<Integer> expected = new ArrayList<Integer>();
+        Random rand = new Random(23);
+        for (int i = 0; i < 20000; i++) {
+            int data = rand.nextInt(2000);
+            int index = Collections.binarySearch(expected, data);
+
+            if (rand.nextInt(5) < 2) {
+                expected.add((index >= 0) ? index : -index - 1, data);
+                random.insert(data);
+            } else {
+                Assertions.assertEquals(index >= 0, random.delete(data));
+                if (index >= 0)
+                    expected.remove(index);
+            }
+
+            if (i % 1000 == 0) {
+                Assertions.assertEquals(expected, random.stream().toList());
+                Assertions.assertEquals(expected.contains(data), random.contains(data));
+                Assertions.assertEquals(expected.stream().filter(x -> x <= 1000).reduce((x, y) -> y).orElse(null), 
+                    random.floor(1000));
+            }
+        }
+        Assertions.assertEquals(expected, random.stream().toList());
+
+        // 5. reviving every tombstone leaves no sweep behind for split() to hand over
+        RedBlackTree<Integer> low = new RedBlackTree<Integer>();
+        for (int i = 0; i < 1000; i++)
+            low.insert(i);
+        low.setLazyDelete(0.1);
+        for (int i = 0; i <= 100; i++)
+            low.delete(i);
+        for (int i = 0; i <= 100; i++)
+            low.insert(i);
+        RedBlackTree<Integer> high = low.split(20);
+        high.setLazyDelete(0.5);
+        for (int i = 20; i < 300; i += 2)
+            high.delete(i);
+        for (int i = 0; i < 10; i++)
+            low.delete(i);
+        Assertions.assertNull(low.floor(9));
+        Assertions.assertNull(low.lower(10));
+        tombstones = low.compact(1);
+        Assertions.assertEquals(low.root.getNodes() - low.size(), tombstones);
+        tombstones = high.compact(1);
+        Assertions.assertEquals(high.root.getNodes() - high.size(), tombstones);
+        Assertions.assertEquals(IntStream.range(10, 20).boxed().toList(), low.stream().toList());
+        Assertions.assertEquals(840, high.size());
+    }
+}
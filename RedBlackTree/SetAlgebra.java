@@ -0,0 +1,405 @@
+package RedBlackTree;
+
+import java.util.concurrent.RecursiveTask;
+
+import KeyOrder.KeyOrder;
+
+/**
+ * Join based bulk operations on red-black subtrees, after Blelloch, Ferizovic and
+ * Sun, "Just Join for Parallel Ordered Sets". Everything is built on join(), which
+ * glues two trees and a middle node together in time proportional to the difference
+ * of their black heights, and split(), which cuts a tree in two with O(log n) joins.
+ * union, intersection and difference of trees of sizes m <= n then take
+ * O(m log(n/m + 1)) work, and the two recursive calls of every step touch disjoint
+ * subtrees, so big inputs are split up over the common ForkJoinPool.
+ *
+ * The operations work on detached subtrees and reuse their nodes, so the trees they
+ * come from are taken apart. Used by RedBlackTree, which hands in its roots.
+ * @author Matthew Smith
+ */
+final class SetAlgebra {
+
+    // combined size below which a step does not bother forking
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    private static final int UNION = 0;
+    private static final int INTERSECTION = 1;
+    private static final int DIFFERENCE = 2;
+
+    private SetAlgebra() {
+    }
+
+    /**
+     * Root of a detached subtree and its black height, the number of black nodes on
+     * any path from the root down to an empty leaf. The root may be red.
+     */
+    private static final class Piece<T extends Comparable<T>> {
+        final RedBlackNode<T> root;
+        final int blackHeight;
+
+        Piece(RedBlackNode<T> root, int blackHeight) {
+            this.root = root;
+            this.blackHeight = blackHeight;
+        }
+
+        int size() {
+            return RedBlackNode.sizeOf(this.root);
+        }
+    }
+
+    /**
+     * What split() returns: everything before the split point, everything after it,
+     * and for splitLast() the node taken out in between.
+     */
+    static final class Split<T extends Comparable<T>> {
+        private final Piece<T> left;
+        private final RedBlackNode<T> middle;
+        private final Piece<T> right;
+
+        private Split(Piece<T> left, RedBlackNode<T> middle, Piece<T> right) {
+            this.left = left;
+            this.middle = middle;
+            this.right = right;
+        }
+
+        RedBlackNode<T> getLeft() {
+            return finish(this.left);
+        }
+
+        RedBlackNode<T> getRight() {
+            return finish(this.right);
+        }
+    }
+
+    /**
+     * Cuts the tree under root in two.
+     * @param root
+     * @param key
+     * @param order the order of the tree
+     * @return the elements less than key on the left, the rest on the right
+     */
+    static <T extends Comparable<T>> Split<T> split(RedBlackNode<T> root, T key, KeyOrder<T> order) {
+        return split(detach(root), key, false, order);
+    }
+
+    /**
+     * Builds one tree out of left, node and right. Every element of left must be
+     * no greater, and every element of right no less, than the data of node.
+     * @return the root of the new tree
+     */
+    static <T extends Comparable<T>> RedBlackNode<T> join(RedBlackNode<T> left, RedBlackNode<T> node,
+        RedBlackNode<T> right)
+    {
+        return finish(join(detach(left), node, detach(right)));
+    }
+
+    /**
+     * Builds one tree out of left and right. Every element of left must be no
+     * greater than any element of right.
+     * @return the root of the new tree
+     */
+    static <T extends Comparable<T>> RedBlackNode<T> join(RedBlackNode<T> left, RedBlackNode<T> right) {
+        return finish(join2(detach(left), detach(right)));
+    }
+
+    /**
+     * Merges two trees. Same result as inserting every element of b into a: in a
+     * multiset equal elements end up in one node whose count is the sum.
+     * @return the root of the merged tree
+     */
+    static <T extends Comparable<T>> RedBlackNode<T> union(RedBlackNode<T> a, RedBlackNode<T> b, boolean multiset,
+        KeyOrder<T> order)
+    {
+        return finish(new Combine<T>(detach(a), detach(b), UNION, multiset, order).invoke());
+    }
+
+    /**
+     * Keeps the elements of a that also occur in b, with all their occurrences.
+     * @return the root of the result
+     */
+    static <T extends Comparable<T>> RedBlackNode<T> intersection(RedBlackNode<T> a, RedBlackNode<T> b,
+        KeyOrder<T> order)
+    {
+        return finish(new Combine<T>(detach(a), detach(b), INTERSECTION, false, order).invoke());
+    }
+
+    /**
+     * Keeps the elements of a that do not occur in b.
+     * @return the root of the result
+     */
+    static <T extends Comparable<T>> RedBlackNode<T> difference(RedBlackNode<T> a, RedBlackNode<T> b,
+        KeyOrder<T> order)
+    {
+        return finish(new Combine<T>(detach(a), detach(b), DIFFERENCE, false, order).invoke());
+    }
+
+    /**
+     * One step of union, intersection or difference. The root of a becomes the
+     * middle node, b is split around it, and the two halves are combined with the
+     * children of a, in parallel when there is enough work, before being joined back
+     * together.
+     */
+    private static final class Combine<T extends Comparable<T>> extends RecursiveTask<Piece<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Piece<T> a;
+        private final Piece<T> b;
+        private final int operation;
+        private final boolean multiset;
+        private final KeyOrder<T> order;
+
+        Combine(Piece<T> a, Piece<T> b, int operation, boolean multiset, KeyOrder<T> order) {
+            this.a = a;
+            this.b = b;
+            this.operation = operation;
+            this.multiset = multiset;
+            this.order = order;
+        }
+
+        @Override
+        protected Piece<T> compute() {
+            if (this.a.root == null)
+                return (this.operation == UNION) ? this.b : this.a;
+
+            if (this.b.root == null)
+                return (this.operation == INTERSECTION) ? this.b : this.a;
+
+            // read before split() starts reusing the nodes of b
+            boolean parallel = this.a.size() + this.b.size() >= PARALLEL_THRESHOLD;
+
+            RedBlackNode<T> node = this.a.root;
+            T key = node.getData();
+            int childHeight = this.a.blackHeight - (node.isBlack() ? 1 : 0);
+            Piece<T> aLeft = child(node.getLeft(), childHeight);
+            Piece<T> aRight = child(node.getRight(), childHeight);
+
+            Split<T> parts = SetAlgebra.split(this.b, key, false, this.order);
+            Piece<T> bLeft = parts.left;
+            Piece<T> bRight = parts.right;
+            boolean found = false;
+
+            if (this.operation == UNION && this.multiset) {
+                // fold the occurrences of key in b into node
+                Split<T> equal = SetAlgebra.split(bRight, key, true, this.order);
+                node.setCount(node.getCount() + equal.left.size());
+                bRight = equal.right;
+            } else if (this.operation != UNION) {
+                // elements equal to key can sit on both sides of node in a, so the
+                // left half of b gets a copy of key if b has it
+                RedBlackNode<T> first = first(bRight.root);
+                found = first != null && this.order.compare(first.getData(), key) == 0;
+                if (found)
+                    bLeft = SetAlgebra.join(bLeft, new RedBlackNode<T>(key), new Piece<T>(null, 0));
+            }
+
+            Piece<T> left, right;
+            if (parallel) {
+                Combine<T> leftTask = new Combine<T>(aLeft, bLeft, this.operation, this.multiset, this.order);
+                leftTask.fork();
+                right = new Combine<T>(aRight, bRight, this.operation, this.multiset, this.order).compute();
+                left = leftTask.join();
+            } else {
+                left = new Combine<T>(aLeft, bLeft, this.operation, this.multiset, this.order).compute();
+                right = new Combine<T>(aRight, bRight, this.operation, this.multiset, this.order).compute();
+            }
+
+            if (this.operation == UNION || found == (this.operation == INTERSECTION))
+                return SetAlgebra.join(left, node, right);
+
+            return join2(left, right);
+        }
+    }
+
+    /**
+     * Splits t into the elements less than key (less than or equal if inclusive)
+     * and the rest. Walks one path down and joins the pieces hanging off it back
+     * together on the way up.
+     */
+    private static <T extends Comparable<T>> Split<T> split(Piece<T> t, T key, boolean inclusive, KeyOrder<T> order) {
+        if (t.root == null)
+            return new Split<T>(t, null, t);
+
+        RedBlackNode<T> node = t.root;
+        int childHeight = t.blackHeight - (node.isBlack() ? 1 : 0);
+        Piece<T> left = child(node.getLeft(), childHeight);
+        Piece<T> right = child(node.getRight(), childHeight);
+        int comparison = order.compare(node.getData(), key);
+
+        if (comparison < 0 || (inclusive && comparison == 0)) {
+            Split<T> parts = split(right, key, inclusive, order);
+            return new Split<T>(join(left, node, parts.left), null, parts.right);
+        }
+
+        Split<T> parts = split(left, key, inclusive, order);
+        return new Split<T>(parts.left, null, join(parts.right, node, right));
+    }
+
+    /**
+     * Takes the last node out of t.
+     * @param t must not be empty
+     * @return the rest of t on the left and the last node in the middle
+     */
+    private static <T extends Comparable<T>> Split<T> splitLast(Piece<T> t) {
+        RedBlackNode<T> node = t.root;
+        int childHeight = t.blackHeight - (node.isBlack() ? 1 : 0);
+        Piece<T> left = child(node.getLeft(), childHeight);
+
+        if (node.getRight() == null)
+            return new Split<T>(left, node, null);
+
+        Split<T> parts = splitLast(child(node.getRight(), childHeight));
+        return new Split<T>(join(left, node, parts.left), parts.middle, null);
+    }
+
+    /**
+     * Join without a middle node, used when the middle node is dropped.
+     */
+    private static <T extends Comparable<T>> Piece<T> join2(Piece<T> left, Piece<T> right) {
+        if (left.root == null)
+            return right;
+
+        if (right.root == null)
+            return left;
+
+        Split<T> parts = splitLast(left);
+        return join(parts.left, parts.middle, right);
+    }
+
+    /**
+     * Joins left, node and right. Both roots are made black first. If the black
+     * heights differ, node goes in red on the inner spine of the taller tree, at the
+     * black node as high as the other tree, and any red node with a red child that
+     * leaves is rotated away on the way back up.
+     */
+    private static <T extends Comparable<T>> Piece<T> join(Piece<T> left, RedBlackNode<T> node, Piece<T> right) {
+        left = blacken(left);
+        right = blacken(right);
+
+        RedBlackNode<T> root;
+        if (left.blackHeight > right.blackHeight)
+            root = joinRight(left.root, left.blackHeight, node, right.root, right.blackHeight);
+        else if (left.blackHeight < right.blackHeight)
+            root = joinLeft(left.root, left.blackHeight, node, right.root, right.blackHeight);
+        else
+            root = link(node, left.root, right.root, false);
+
+        root.setParent(null);
+        return new Piece<T>(root, Math.max(left.blackHeight, right.blackHeight));
+    }
+
+    private static <T extends Comparable<T>> RedBlackNode<T> joinRight(RedBlackNode<T> left, int leftHeight,
+        RedBlackNode<T> node, RedBlackNode<T> right, int rightHeight)
+    {
+        if (RedBlackNode.isBlack(left) && leftHeight == rightHeight)
+            return link(node, left, right, false);
+
+        int childHeight = leftHeight - (left.isBlack() ? 1 : 0);
+        RedBlackNode<T> joined = joinRight(left.getRight(), childHeight, node, right, rightHeight);
+        link(left, left.getLeft(), joined, left.isBlack());
+
+        if (left.isBlack() && !RedBlackNode.isBlack(joined) && !RedBlackNode.isBlack(joined.getRight())) {
+            joined.getRight().setBlack(true);
+            return rotateLeft(left);
+        }
+
+        return left;
+    }
+
+    private static <T extends Comparable<T>> RedBlackNode<T> joinLeft(RedBlackNode<T> left, int leftHeight,
+        RedBlackNode<T> node, RedBlackNode<T> right, int rightHeight)
+    {
+        if (RedBlackNode.isBlack(right) && leftHeight == rightHeight)
+            return link(node, left, right, false);
+
+        int childHeight = rightHeight - (right.isBlack() ? 1 : 0);
+        RedBlackNode<T> joined = joinLeft(left, leftHeight, node, right.getLeft(), childHeight);
+        link(right, joined, right.getRight(), right.isBlack());
+
+        if (right.isBlack() && !RedBlackNode.isBlack(joined) && !RedBlackNode.isBlack(joined.getLeft())) {
+            joined.getLeft().setBlack(true);
+            return rotateRight(right);
+        }
+
+        return right;
+    }
+
+    /**
+     * Hangs left and right under node and refreshes its size.
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> link(RedBlackNode<T> node, RedBlackNode<T> left,
+        RedBlackNode<T> right, boolean isBlack)
+    {
+        node.setLeft(left);
+        node.setRight(right);
+        node.setBlack(isBlack);
+        if (left != null)
+            left.setParent(node);
+        if (right != null)
+            right.setParent(node);
+
+        node.updateSize();
+        return node;
+    }
+
+    private static <T extends Comparable<T>> RedBlackNode<T> rotateLeft(RedBlackNode<T> node) {
+        RedBlackNode<T> child = node.getRight();
+        link(node, node.getLeft(), child.getLeft(), node.isBlack());
+        return link(child, node, child.getRight(), child.isBlack());
+    }
+
+    private static <T extends Comparable<T>> RedBlackNode<T> rotateRight(RedBlackNode<T> node) {
+        RedBlackNode<T> child = node.getLeft();
+        link(node, child.getRight(), node.getRight(), node.isBlack());
+        return link(child, child.getLeft(), node, child.isBlack());
+    }
+
+    /**
+     * Cuts a child loose from its parent so it can be handed around on its own.
+     */
+    private static <T extends Comparable<T>> Piece<T> child(RedBlackNode<T> node, int blackHeight) {
+        if (node != null)
+            node.setParent(null);
+
+        return new Piece<T>(node, blackHeight);
+    }
+
+    /**
+     * Wraps the root of a whole tree, measuring its black height down the left spine.
+     */
+    private static <T extends Comparable<T>> Piece<T> detach(RedBlackNode<T> root) {
+        int blackHeight = 0;
+        for (RedBlackNode<T> node = root; node != null; node = node.getLeft())
+            if (node.isBlack())
+                blackHeight++;
+
+        return child(root, blackHeight);
+    }
+
+    private static <T extends Comparable<T>> Piece<T> blacken(Piece<T> t) {
+        if (RedBlackNode.isBlack(t.root))
+            return t;
+
+        t.root.setBlack(true);
+        return new Piece<T>(t.root, t.blackHeight + 1);
+    }
+
+    /**
+     * Turns a piece back into a tree, which needs a black root.
+     */
+    private static <T extends Comparable<T>> RedBlackNode<T> finish(Piece<T> t) {
+        if (t.root != null) {
+            t.root.setParent(null);
+            t.root.setBlack(true);
+        }
+
+        return t.root;
+    }
+
+    private static <T extends Comparable<T>> RedBlackNode<T> first(RedBlackNode<T> node) {
+        if (node != null)
+            while (node.getLeft() != null)
+                node = node.getLeft();
+
+        return node;
+    }
+}
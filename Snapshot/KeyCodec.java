@@ -0,0 +1,101 @@
+package Snapshot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns the keys of a tree into bytes and back for a snapshot or a log record. In
+ * a snapshot keys are written in ascending order, so every call also gets the key
+ * written just before, which lets a codec store only the difference. previous is
+ * null for the first key, and for every key in a log record.
+ * @author Matthew Smith
+ */
+public interface KeyCodec<T> {
+
+    void encode(T previous, T key, KeyOutput out) throws IOException;
+
+    T decode(T previous, KeyInput in) throws IOException;
+
+    /**
+     * Long keys as the gap to the previous key in a varint, so keys that are close
+     * together take a byte or two each.
+     * @return
+     */
+    static KeyCodec<Long> longs() {
+        return new KeyCodec<Long>() {
+            @Override
+            public void encode(Long previous, Long key, KeyOutput out) throws IOException {
+                if (previous == null)
+                    out.writeSignedVarLong(key);
+                else
+                    out.writeVarLong(key - previous);
+            }
+
+            @Override
+            public Long decode(Long previous, KeyInput in) throws IOException {
+                return (previous == null) ? in.readSignedVarLong() : previous + in.readVarLong();
+            }
+        };
+    }
+
+    /**
+     * Integer keys as the gap to the previous key in a varint.
+     * @return
+     */
+    static KeyCodec<Integer> integers() {
+        return new KeyCodec<Integer>() {
+            @Override
+            public void encode(Integer previous, Integer key, KeyOutput out) throws IOException {
+                if (previous == null)
+                    out.writeSignedVarLong(key);
+                else
+                    out.writeVarLong((long) key - previous);
+            }
+
+            @Override
+            public Integer decode(Integer previous, KeyInput in) throws IOException {
+                return (previous == null) ? (int) in.readSignedVarLong() : (int) (previous + in.readVarLong());
+            }
+        };
+    }
+
+    /**
+     * String keys front coded: how many leading chars are shared with the previous
+     * key, then the rest in UTF-8.
+     * @return
+     */
+    static KeyCodec<String> strings() {
+        return new KeyCodec<String>() {
+            @Override
+            public void encode(String previous, String key, KeyOutput out) throws IOException {
+                int shared = 0;
+                if (previous != null) {
+                    int limit = Math.min(previous.length(), key.length());
+                    while (shared < limit && previous.charAt(shared) == key.charAt(shared))
+                        shared++;
+
+                    // never split a surrogate pair, half of one can not be encoded
+                    if (shared > 0 && Character.isHighSurrogate(key.charAt(shared - 1)))
+                        shared--;
+                }
+
+                byte[] suffix = key.substring(shared).getBytes(StandardCharsets.UTF_8);
+                out.writeVarLong(shared);
+                out.writeVarLong(suffix.length);
+                out.writeBytes(suffix);
+            }
+
+            @Override
+            public String decode(String previous, KeyInput in) throws IOException {
+                int shared = in.readLength();
+                String suffix = new String(in.readBytes(in.readLength()), StandardCharsets.UTF_8);
+                if (shared == 0)
+                    return suffix;
+                if (previous == null || shared > previous.length())
+                    throw new IOException("Snapshot key shares more than the previous key holds.");
+
+                return previous.substring(0, shared).concat(suffix);
+            }
+        };
+    }
+}
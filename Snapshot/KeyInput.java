@@ -0,0 +1,52 @@
+package Snapshot;
+
+import java.io.IOException;
+
+/**
+ * Where a KeyCodec reads its bytes back from.
+ * @author Matthew Smith
+ */
+public interface KeyInput {
+
+    /**
+     * @return the next byte as a value from 0 to 255
+     * @throws IOException when there are no more bytes
+     */
+    int readByte() throws IOException;
+
+    byte[] readBytes(int length) throws IOException;
+
+    /**
+     * Reads an unsigned varint written by KeyOutput.writeVarLong().
+     * @return
+     * @throws IOException when the input ends or the varint is too long
+     */
+    default long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("Malformed varint.");
+    }
+
+    default long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads a varint that has to be a count or length that fits an int.
+     * @return
+     * @throws IOException when it does not
+     */
+    default int readLength() throws IOException {
+        long length = readVarLong();
+        if (length < 0 || length > Integer.MAX_VALUE)
+            throw new IOException("Length out of range: " + length);
+        return (int) length;
+    }
+}
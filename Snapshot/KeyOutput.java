@@ -0,0 +1,37 @@
+package Snapshot;
+
+import java.io.IOException;
+
+/**
+ * Where a KeyCodec writes its bytes, a snapshot or a log record.
+ * @author Matthew Smith
+ */
+public interface KeyOutput {
+
+    void writeByte(int value) throws IOException;
+
+    void writeBytes(byte[] bytes) throws IOException;
+
+    /**
+     * Writes value as an unsigned varint, 7 bits a byte with the high bit set on
+     * every byte but the last. Small values take one byte, none take more than 10.
+     * @param value
+     * @throws IOException
+     */
+    default void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    /**
+     * Writes value zigzag encoded, so small negative values stay short too.
+     * @param value
+     * @throws IOException
+     */
+    default void writeSignedVarLong(long value) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+}
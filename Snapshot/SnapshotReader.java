@@ -0,0 +1,164 @@
+package Snapshot;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Buffered reader for snapshots written by SnapshotWriter. The file is read
+ * through one direct buffer as it is consumed, so a snapshot of any size needs the
+ * same small amount of memory to read.
+ * @author Matthew Smith
+ */
+public final class SnapshotReader implements KeyInput, Closeable {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    /**
+     * Opens a snapshot and checks its header.
+     * @param file
+     * @throws IOException when the file can not be read or is not a snapshot
+     */
+    public SnapshotReader(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.READ));
+
+        try {
+            if (readInt() != SnapshotWriter.MAGIC || readByte() != SnapshotWriter.VERSION)
+                throw new IOException(file + " is not a tree snapshot.");
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads channel from its current position on, without looking for a header.
+     * @param channel
+     */
+    SnapshotReader(FileChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(SnapshotWriter.BUFFER_SIZE);
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Returns the file position of the next byte to be read.
+     * @return
+     * @throws IOException
+     */
+    long position() throws IOException {
+        return this.channel.position() - this.buffer.remaining();
+    }
+
+    @Override
+    public int readByte() throws IOException {
+        if (!this.buffer.hasRemaining())
+            fill();
+        return this.buffer.get() & 0xFF;
+    }
+
+    public int readInt() throws IOException {
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++)
+            value = (value << 8) | readByte();
+        return value;
+    }
+
+    @Override
+    public byte[] readBytes(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        for (int offset = 0; offset < length; ) {
+            if (!this.buffer.hasRemaining())
+                fill();
+
+            int chunk = Math.min(this.buffer.remaining(), length - offset);
+            this.buffer.get(bytes, offset, chunk);
+            offset += chunk;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns an iterator decoding the next n keys with codec. When withCounts is
+     * set every key is followed by its count, which count() returns after next().
+     * An IOException while decoding comes out as an UncheckedIOException.
+     * @param codec
+     * @param n
+     * @param withCounts
+     * @return
+     */
+    public <T> KeyIterator<T> keys(KeyCodec<T> codec, int n, boolean withCounts) {
+        return new KeyIterator<T>(codec, n, withCounts);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private void fill() throws IOException {
+        this.buffer.clear();
+        int read = this.channel.read(this.buffer);
+        this.buffer.flip();
+
+        if (read < 0)
+            throw new EOFException("Snapshot ends early.");
+    }
+
+    /**
+     * Iterator over the keys of a snapshot, decoded one at a time.
+     */
+    public final class KeyIterator<T> implements Iterator<T> {
+        private final KeyCodec<T> codec;
+        private final boolean withCounts;
+        private int remaining;
+        private T previous;
+        private int count;
+
+        KeyIterator(KeyCodec<T> codec, int n, boolean withCounts) {
+            this.codec = codec;
+            this.withCounts = withCounts;
+            this.remaining = n;
+            this.previous = null;
+            this.count = 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.remaining > 0;
+        }
+
+        @Override
+        public T next() {
+            if (this.remaining == 0)
+                throw new NoSuchElementException();
+
+            try {
+                this.previous = this.codec.decode(this.previous, SnapshotReader.this);
+                if (this.withCounts && (this.count = readLength()) == 0)
+                    throw new IOException("Snapshot holds a key with a count of 0.");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            this.remaining--;
+            return this.previous;
+        }
+
+        /**
+         * Returns how often the key last returned by next() occurs, 1 without counts.
+         * @return
+         */
+        public int count() {
+            return this.count;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package Snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Buffered writer for tree snapshots. Everything goes to a temporary file next to
+ * the target through one direct buffer, and commit() moves it over the target in
+ * one step, so a snapshot that fails half way never replaces a good one.
+ * @author Matthew Smith
+ */
+public final class SnapshotWriter implements KeyOutput, Closeable {
+
+    static final int MAGIC = 0x534E_4150; // "SNAP"
+    static final int VERSION = 1;
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private final Path temporary;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private boolean committed;
+
+    /**
+     * Starts a snapshot that will replace file once committed.
+     * @param file
+     * @throws IOException
+     */
+    public SnapshotWriter(Path file) throws IOException {
+        this.file = file;
+        this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        this.channel = FileChannel.open(this.temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.committed = false;
+
+        this.buffer.putInt(MAGIC);
+        this.buffer.put((byte) VERSION);
+    }
+
+    @Override
+    public void writeByte(int value) throws IOException {
+        if (!this.buffer.hasRemaining())
+            drain();
+        this.buffer.put((byte) value);
+    }
+
+    /**
+     * Same encoding as KeyOutput.writeVarLong(), written straight into the buffer.
+     * @param value
+     * @throws IOException
+     */
+    @Override
+    public void writeVarLong(long value) throws IOException {
+        if (this.buffer.remaining() < 10)
+            drain();
+
+        while ((value & ~0x7FL) != 0) {
+            this.buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        this.buffer.put((byte) value);
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes) throws IOException {
+        for (int offset = 0; offset < bytes.length; ) {
+            if (!this.buffer.hasRemaining())
+                drain();
+
+            int length = Math.min(this.buffer.remaining(), bytes.length - offset);
+            this.buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Writes out what is buffered, forces it to disk and moves the snapshot over
+     * the target file.
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        drain();
+        this.channel.force(true);
+        this.channel.close();
+        Files.move(this.temporary, this.file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        this.committed = true;
+    }
+
+    /**
+     * Closes the writer. Without a commit() first the snapshot is thrown away.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.committed)
+            return;
+
+        this.channel.close();
+        Files.deleteIfExists(this.temporary);
+    }
+
+    private void drain() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining())
+            this.channel.write(this.buffer);
+        this.buffer.clear();
+    }
+}
@@ -0,0 +1,32 @@
+package Snapshot;
+
+/**
+ * When a WriteAheadLog forces its records to disk.
+ * @author Matthew Smith
+ */
+public enum SyncPolicy {
+
+    /**
+     * Every append waits until its record is on disk. Appends that arrive while a
+     * sync is running are forced together by the next one.
+     */
+    ALWAYS,
+
+    /**
+     * Appends only buffer their record. A writer that needs it on disk calls
+     * sync(), and all writers waiting at the same time share one fsync.
+     */
+    GROUP,
+
+    /**
+     * A background thread forces the log at a fixed interval, a crash loses at
+     * most that interval of writes.
+     */
+    PERIODIC,
+
+    /**
+     * The log is only forced by sync() and close(). Full buffers are written out
+     * and left to the operating system.
+     */
+    NEVER
+}
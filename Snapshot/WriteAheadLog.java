@@ -0,0 +1,570 @@
+package Snapshot;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append only log of the inserts and deletes made to a tree since its last
+ * snapshot. Every record gets a sequence number, and a snapshot remembers the
+ * number of the last record it contains, so after a crash the tree is rebuilt by
+ * loading the snapshot and replaying the records after it.
+ *
+ * A record is its length as a varint, an op byte and the key encoded by the codec,
+ * then a CRC32C of the op and key. A record torn by a crash fails its check and is
+ * cut off when the log is replayed.
+ *
+ * Appends only copy the record into a buffer. Forcing it to disk is left to the
+ * SyncPolicy, and whichever thread syncs first writes and forces everything
+ * buffered so far while the others wait for it, so many writers share one fsync.
+ * @author Matthew Smith
+ */
+public final class WriteAheadLog<T> implements Closeable {
+
+    static final int MAGIC = 0x574C_4F47; // "WLOG"
+    static final int VERSION = 1;
+
+    // magic, version and the sequence number before the first record
+    private static final int HEADER_SIZE = Integer.BYTES + 1 + Long.BYTES;
+
+    private static final int INSERT = 1;
+    private static final int DELETE = 2;
+
+    // under NEVER the buffer is written out once it holds this much
+    private static final int WRITE_OUT_SIZE = 1 << 16;
+
+    private static final long DEFAULT_PERIOD_MILLIS = 100;
+
+    private final Path file;
+    private final KeyCodec<T> codec;
+    private final SyncPolicy policy;
+    private final long periodMillis;
+
+    // guards everything below, the file is written without holding it
+    private final ReentrantLock lock;
+    private final Condition synced;
+
+    private FileChannel channel;
+
+    // records appended since the last sync, and the buffer the last sync emptied
+    private RecordBuffer pending;
+    private RecordBuffer spare;
+
+    // scratch space for encoding one record
+    private final RecordBuffer record;
+    private final CRC32C checksum;
+
+    // sequence number before the first record in the file, of the last record
+    // appended, and of the last record known to be on disk
+    private long base;
+    private long appended;
+    private long durable;
+
+    private boolean syncing;
+    private boolean writable;
+    private boolean replayed;
+    private boolean closed;
+    private IOException failure;
+
+    private final Thread syncer;
+
+    /**
+     * Opens or creates the log in file, syncing the default 100 ms apart under
+     * PERIODIC.
+     * @param file
+     * @param codec
+     * @param policy
+     * @throws IOException when the file can not be opened or is not a log
+     * @throws IllegalArgumentException when an argument is null
+     */
+    public WriteAheadLog(Path file, KeyCodec<T> codec, SyncPolicy policy)
+        throws IOException, IllegalArgumentException
+    {
+        this(file, codec, policy, DEFAULT_PERIOD_MILLIS);
+    }
+
+    /**
+     * Opens or creates the log in file. A log that already holds records has to be
+     * replayed before anything new is appended.
+     * @param file
+     * @param codec
+     * @param policy
+     * @param periodMillis how far apart PERIODIC syncs are
+     * @throws IOException when the file can not be opened or is not a log
+     * @throws IllegalArgumentException when an argument is null or the period is
+     *         not positive
+     */
+    public WriteAheadLog(Path file, KeyCodec<T> codec, SyncPolicy policy, long periodMillis)
+        throws IOException, IllegalArgumentException
+    {
+        if (file == null || codec == null || policy == null)
+            throw new IllegalArgumentException("A log needs a file, a codec and a sync policy.");
+        if (periodMillis <= 0)
+            throw new IllegalArgumentException("Sync period has to be positive.");
+
+        this.file = file;
+        this.codec = codec;
+        this.policy = policy;
+        this.periodMillis = periodMillis;
+        this.lock = new ReentrantLock();
+        this.synced = this.lock.newCondition();
+        this.pending = new RecordBuffer();
+        this.spare = new RecordBuffer();
+        this.record = new RecordBuffer();
+        this.checksum = new CRC32C();
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            if (this.channel.size() == 0) {
+                writeHeader(this.channel, 0);
+                this.channel.force(true);
+                this.base = 0;
+                this.writable = true;
+            } else {
+                SnapshotReader in = new SnapshotReader(this.channel);
+                if (this.channel.size() < HEADER_SIZE || in.readInt() != MAGIC || in.readByte() != VERSION)
+                    throw new IOException(file + " is not a write ahead log.");
+
+                this.base = ((long) in.readInt() << 32) | (in.readInt() & 0xFFFFFFFFL);
+                this.writable = false;
+            }
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+
+        this.appended = this.base;
+        this.durable = this.base;
+
+        if (policy == SyncPolicy.PERIODIC) {
+            this.syncer = new Thread(this::syncPeriodically, "WriteAheadLog sync");
+            this.syncer.setDaemon(true);
+            this.syncer.start();
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    /**
+     * Appends an insert of key.
+     * @param key
+     * @return the sequence number of the record
+     * @throws UncheckedIOException when the log can not be written
+     * @throws IllegalStateException when the log is closed or not replayed yet
+     */
+    public long logInsert(T key) throws UncheckedIOException, IllegalStateException {
+        return append(INSERT, key);
+    }
+
+    /**
+     * Appends a delete of key.
+     * @param key
+     * @return the sequence number of the record
+     * @throws UncheckedIOException when the log can not be written
+     * @throws IllegalStateException when the log is closed or not replayed yet
+     */
+    public long logDelete(T key) throws UncheckedIOException, IllegalStateException {
+        return append(DELETE, key);
+    }
+
+    /**
+     * Returns the sequence number of the last record appended.
+     * @return
+     */
+    public long sequence() {
+        this.lock.lock();
+        try {
+            return this.appended;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every record appended so far is on disk.
+     * @throws IOException when the log could not be written
+     */
+    public void sync() throws IOException {
+        sync(sequence());
+    }
+
+    /**
+     * Waits until every record up to sequence is on disk. If no sync is running
+     * this thread writes and forces everything buffered, otherwise it waits for
+     * the running one and checks again, so threads arriving together are covered
+     * by the same fsync.
+     * @param sequence
+     * @throws IOException when the log could not be written
+     */
+    public void sync(long sequence) throws IOException {
+        this.lock.lock();
+        try {
+            while (this.durable < sequence) {
+                ensureHealthy();
+
+                if (this.syncing) {
+                    this.synced.awaitUninterruptibly();
+                    continue;
+                }
+
+                // lead this round: take the buffer and let appends fill a fresh one
+                this.syncing = true;
+                RecordBuffer batch = this.pending;
+                long batchEnd = this.appended;
+                this.pending = this.spare;
+                this.spare = null;
+
+                this.lock.unlock();
+                try {
+                    writeOut(batch);
+                    this.channel.force(false);
+                } catch (IOException e) {
+                    this.failure = e;
+                } finally {
+                    this.lock.lock();
+                    batch.clear();
+                    this.spare = batch;
+                    this.syncing = false;
+                    if (this.failure == null)
+                        this.durable = batchEnd;
+                    this.synced.signalAll();
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the log from the start and hands every intact record after sequence
+     * after to inserts or deletes. A torn or corrupt tail is cut off, and if the
+     * log ends before after it is started over from there, since the snapshot
+     * already holds all of it. Appends are allowed once this returns.
+     * @param after the sequence number stored with the snapshot being replayed onto
+     * @param inserts
+     * @param deletes
+     * @throws IOException when the log can not be read or holds a record the codec
+     *         does not understand
+     * @throws IllegalStateException when the log was already replayed or written
+     */
+    public void replay(long after, Consumer<? super T> inserts, Consumer<? super T> deletes)
+        throws IOException, IllegalStateException
+    {
+        this.lock.lock();
+        try {
+            ensureOpen();
+            if (this.replayed || this.appended != this.base)
+                throw new IllegalStateException("A log can only be replayed once, before it is written.");
+
+            this.channel.position(HEADER_SIZE);
+            SnapshotReader in = new SnapshotReader(this.channel);
+            RecordInput input = new RecordInput();
+            long sequence = this.base;
+            long end = HEADER_SIZE;
+            long size = this.channel.size();
+
+            while (true) {
+                byte[] payload;
+                int expected;
+                try {
+                    int length = in.readLength();
+                    if (length > size - in.position())
+                        break;
+
+                    payload = in.readBytes(length);
+                    expected = in.readInt();
+                } catch (IOException e) {
+                    // the file ends inside the record, or its length is garbage
+                    break;
+                }
+
+                this.checksum.reset();
+                this.checksum.update(payload);
+                if ((int) this.checksum.getValue() != expected)
+                    break;
+
+                sequence++;
+                end = in.position();
+                if (sequence > after)
+                    apply(input.reset(payload), inserts, deletes);
+            }
+
+            this.channel.truncate(end);
+            this.channel.position(end);
+            this.appended = sequence;
+            this.durable = sequence;
+
+            if (sequence < after)
+                restartAt(after);
+
+            this.replayed = true;
+            this.writable = true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Empties the log once a snapshot holding every record up to sequence has been
+     * written. The emptied log replaces the old one in one step, so a crash leaves
+     * either of them.
+     * @param sequence the sequence number stored with the snapshot
+     * @throws IOException
+     * @throws IllegalStateException when records were appended after sequence
+     */
+    public void checkpoint(long sequence) throws IOException, IllegalStateException {
+        this.lock.lock();
+        try {
+            ensureOpen();
+            while (this.syncing)
+                this.synced.awaitUninterruptibly();
+
+            if (sequence != this.appended)
+                throw new IllegalStateException("Records were appended after the snapshot was taken.");
+
+            restartAt(sequence);
+            this.synced.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Syncs and closes the log.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.closed)
+                return;
+        } finally {
+            this.lock.unlock();
+        }
+
+        try {
+            if (this.failure == null)
+                sync();
+        } finally {
+            this.lock.lock();
+            try {
+                this.closed = true;
+                this.channel.close();
+            } finally {
+                this.lock.unlock();
+            }
+
+            if (this.syncer != null)
+                this.syncer.interrupt();
+        }
+    }
+
+    private long append(int op, T key) {
+        if (key == null)
+            throw new IllegalArgumentException("Can not log a null key.");
+
+        long sequence;
+        this.lock.lock();
+        try {
+            ensureOpen();
+            if (!this.writable)
+                throw new IllegalStateException("Replay the log before writing to it.");
+            ensureHealthy();
+
+            this.record.clear();
+            this.record.writeByte(op);
+            this.codec.encode(null, key, this.record);
+            this.checksum.reset();
+            this.checksum.update(this.record.bytes, 0, this.record.size);
+
+            this.pending.writeVarLong(this.record.size);
+            this.pending.write(this.record);
+            this.pending.writeInt((int) this.checksum.getValue());
+            sequence = ++this.appended;
+
+            // nobody syncs under NEVER, so keep the buffer from growing forever
+            if (this.policy == SyncPolicy.NEVER && this.pending.size >= WRITE_OUT_SIZE && !this.syncing) {
+                writeOut(this.pending);
+                this.pending.clear();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (this.policy == SyncPolicy.ALWAYS) {
+            try {
+                sync(sequence);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return sequence;
+    }
+
+    private void apply(RecordInput input, Consumer<? super T> inserts, Consumer<? super T> deletes)
+        throws IOException
+    {
+        int op = input.readByte();
+        T key = this.codec.decode(null, input);
+
+        if (op == INSERT)
+            inserts.accept(key);
+        else if (op == DELETE)
+            deletes.accept(key);
+        else
+            throw new IOException("Unknown log record type " + op + ".");
+    }
+
+    /**
+     * Replaces the log with an empty one whose records will be numbered after
+     * sequence. Called with the lock held and nothing buffered that is not
+     * already covered by the snapshot.
+     * @param sequence
+     * @throws IOException
+     */
+    private void restartAt(long sequence) throws IOException {
+        Path temporary = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try (FileChannel fresh = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeHeader(fresh, sequence);
+            fresh.force(true);
+        }
+
+        Files.move(temporary, this.file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        this.channel.close();
+        this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.channel.position(HEADER_SIZE);
+
+        this.pending.clear();
+        this.base = sequence;
+        this.appended = sequence;
+        this.durable = sequence;
+    }
+
+    private void syncPeriodically() {
+        while (true) {
+            try {
+                Thread.sleep(this.periodMillis);
+                sync();
+            } catch (InterruptedException | IOException | IllegalStateException e) {
+                // closed, or the log failed and every writer hears about it
+                return;
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (this.closed)
+            throw new IllegalStateException("Log has been closed.");
+    }
+
+    private void ensureHealthy() throws IOException {
+        ensureOpen();
+        if (this.failure != null)
+            throw new IOException("An earlier write to the log failed.", this.failure);
+    }
+
+    private void writeOut(RecordBuffer buffer) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.bytes, 0, buffer.size);
+        while (bytes.hasRemaining())
+            this.channel.write(bytes);
+    }
+
+    private static void writeHeader(FileChannel channel, long base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put((byte) VERSION).putLong(base).flip();
+        for (long position = 0; header.hasRemaining(); )
+            position += channel.write(header, position);
+        channel.position(HEADER_SIZE);
+    }
+
+    /**
+     * Growable byte array the records are encoded into.
+     */
+    private static final class RecordBuffer implements KeyOutput {
+        byte[] bytes = new byte[256];
+        int size = 0;
+
+        @Override
+        public void writeByte(int value) {
+            ensureRoom(1);
+            this.bytes[this.size++] = (byte) value;
+        }
+
+        @Override
+        public void writeBytes(byte[] source) {
+            ensureRoom(source.length);
+            System.arraycopy(source, 0, this.bytes, this.size, source.length);
+            this.size += source.length;
+        }
+
+        void write(RecordBuffer source) {
+            ensureRoom(source.size);
+            System.arraycopy(source.bytes, 0, this.bytes, this.size, source.size);
+            this.size += source.size;
+        }
+
+        void writeInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8)
+                writeByte(value >>> shift);
+        }
+
+        void clear() {
+            this.size = 0;
+        }
+
+        private void ensureRoom(int extra) {
+            if (this.size + extra > this.bytes.length)
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.size + extra));
+        }
+    }
+
+    /**
+     * Reads one record back.
+     */
+    private static final class RecordInput implements KeyInput {
+        private byte[] bytes;
+        private int position;
+
+        RecordInput reset(byte[] bytes) {
+            this.bytes = bytes;
+            this.position = 0;
+            return this;
+        }
+
+        @Override
+        public int readByte() throws IOException {
+            if (this.position == this.bytes.length)
+                throw new EOFException("Log record ends early.");
+            return this.bytes[this.position++] & 0xFF;
+        }
+
+        @Override
+        public byte[] readBytes(int length) throws IOException {
+            if (length > this.bytes.length - this.position)
+                throw new EOFException("Log record ends early.");
+
+            byte[] read = Arrays.copyOfRange(this.bytes, this.position, this.position + length);
+            this.position += length;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,1268 @@
+package SortedMaps;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import KeyOrder.KeyOrder;
+
+/**
+ * Skeleton of a NavigableMap kept in a binary search tree whose nodes link to their
+ * parents. Searching, walking in order, the single descent put/compute/merge family
+ * and every view (sub maps, descending maps, key sets) live here, so a balanced tree
+ * only has to expose its nodes and provide attach() and unlink() with its own
+ * rebalancing.
+ *
+ * Keys are ordered by their natural ordering or a comparator and can not be null,
+ * values can be.
+ * Entries returned by the navigation methods (firstEntry(), ceilingEntry() ...) are
+ * snapshots, the ones met while iterating entrySet() are the nodes themselves and
+ * write through setValue(). Like the trees this is not thread safe, iterators fail
+ * fast on a change that did not go through them.
+ * @author Matthew Smith
+ */
+public abstract class AbstractTreeMap<K extends Comparable<K>, V, N extends Map.Entry<K, V>>
+    extends AbstractMap<K, V> implements NavigableMap<K, V>
+{
+    // how keys are compared, every comparison goes through it
+    protected final KeyOrder<K> order;
+
+    // number of mappings
+    protected int size;
+
+    // bumped by every structural change, iterators compare against it
+    protected int modCount;
+
+    // the whole map as a view, navigation and the views all go through it
+    private final SubMap all = new SubMap(true, null, true, true, null, true, false);
+
+    /**
+     * @param comparator null for natural ordering
+     */
+    protected AbstractTreeMap(Comparator<? super K> comparator) {
+        this.order = KeyOrder.<K>of(comparator);
+    }
+
+    /**
+     * Returns the root node, null when the map is empty.
+     */
+    protected abstract N root();
+
+    protected abstract N left(N node);
+
+    protected abstract N right(N node);
+
+    protected abstract N parent(N node);
+
+    /**
+     * Hangs a new node for key and value below parent, on the side comparison (key
+     * compared to the key of parent) points to, or makes it the root when parent is
+     * null. Then rebalances.
+     * @param parent
+     * @param comparison
+     * @param key
+     * @param value
+     * @return the new node
+     */
+    protected abstract N attach(N parent, int comparison, K key, V value);
+
+    /**
+     * Removes node from the tree and rebalances. A node with two children may take
+     * over the entry of its successor, which is then unlinked in its place.
+     * @param node
+     * @return the node now holding the entry that followed node, node itself if it
+     *         took over that entry, null if node held the last entry
+     */
+    protected abstract N unlink(N node);
+
+    /**
+     * Drops every node.
+     */
+    protected abstract void clearTree();
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    @Override
+    public void clear() {
+        clearTree();
+        this.size = 0;
+        this.modCount++;
+    }
+
+    /**
+     * @return null for natural ordering
+     */
+    @Override
+    public Comparator<? super K> comparator() {
+        return this.order.comparator();
+    }
+
+    /**
+     * @throws NullPointerException when key is null
+     */
+    @Override
+    public V get(Object key) throws NullPointerException {
+        N node = getNode(key);
+        return (node == null) ? null : node.getValue();
+    }
+
+    /**
+     * @throws NullPointerException when key is null
+     */
+    @Override
+    public boolean containsKey(Object key) throws NullPointerException {
+        return getNode(key) != null;
+    }
+
+    /**
+     * @throws NullPointerException when key is null
+     */
+    @Override
+    public V put(K key, V value) throws NullPointerException {
+        N node = descend(checkKey(key));
+        int comparison = compare(key, node);
+        if (node != null && comparison == 0)
+            return node.setValue(value);
+
+        insert(node, comparison, key, value);
+        return null;
+    }
+
+    /**
+     * Like put() but leaves a non null value alone. One descent.
+     * @throws NullPointerException when key is null
+     */
+    @Override
+    public V putIfAbsent(K key, V value) throws NullPointerException {
+        N node = descend(checkKey(key));
+        int comparison = compare(key, node);
+        if (node != null && comparison == 0)
+            return (node.getValue() == null) ? node.setValue(value) : node.getValue();
+
+        insert(node, comparison, key, value);
+        return null;
+    }
+
+    /**
+     * @throws NullPointerException when key is null
+     */
+    @Override
+    public V remove(Object key) throws NullPointerException {
+        N node = getNode(key);
+        if (node == null)
+            return null;
+
+        V value = node.getValue();
+        delete(node);
+        return value;
+    }
+
+    /**
+     * Looks key up and, if it is missing, attaches the computed value right where the
+     * search ended instead of searching again.
+     * @throws NullPointerException when key or mappingFunction is null
+     * @throws ConcurrentModificationException when mappingFunction changed this map
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction)
+        throws NullPointerException, ConcurrentModificationException
+    {
+        checkFunction(mappingFunction);
+        N node = descend(checkKey(key));
+        int comparison = compare(key, node);
+        boolean found = node != null && comparison == 0;
+        if (found && node.getValue() != null)
+            return node.getValue();
+
+        int expectedModCount = this.modCount;
+        V value = mappingFunction.apply(key);
+        if (this.modCount != expectedModCount)
+            throw new ConcurrentModificationException();
+
+        if (value == null)
+            return null;
+
+        if (found)
+            node.setValue(value);
+        else
+            insert(node, comparison, key, value);
+        return value;
+    }
+
+    /**
+     * @throws NullPointerException when key or remappingFunction is null
+     * @throws ConcurrentModificationException when remappingFunction changed this map
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+        throws NullPointerException, ConcurrentModificationException
+    {
+        checkFunction(remappingFunction);
+        N node = getNode(key);
+        if (node == null || node.getValue() == null)
+            return null;
+
+        int expectedModCount = this.modCount;
+        return replace(node, remappingFunction.apply(key, node.getValue()), expectedModCount);
+    }
+
+    /**
+     * One descent, whether key ends up added, changed or removed.
+     * @throws NullPointerException when key or remappingFunction is null
+     * @throws ConcurrentModificationException when remappingFunction changed this map
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+        throws NullPointerException, ConcurrentModificationException
+    {
+        checkFunction(remappingFunction);
+        N node = descend(checkKey(key));
+        int comparison = compare(key, node);
+        int expectedModCount = this.modCount;
+        if (node != null && comparison == 0)
+            return replace(node, remappingFunction.apply(key, node.getValue()), expectedModCount);
+
+        V value = remappingFunction.apply(key, null);
+        if (this.modCount != expectedModCount)
+            throw new ConcurrentModificationException();
+
+        if (value != null)
+            insert(node, comparison, key, value);
+        return value;
+    }
+
+    /**
+     * One descent, whether key ends up added, changed or removed.
+     * @throws NullPointerException when key, value or remappingFunction is null
+     * @throws ConcurrentModificationException when remappingFunction changed this map
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+        throws NullPointerException, ConcurrentModificationException
+    {
+        if (value == null)
+            throw new NullPointerException("Can not merge a null value.");
+
+        checkFunction(remappingFunction);
+        N node = descend(checkKey(key));
+        int comparison = compare(key, node);
+        if (node != null && comparison == 0) {
+            V old = node.getValue();
+            if (old == null) {
+                node.setValue(value);
+                return value;
+            }
+
+            int expectedModCount = this.modCount;
+            return replace(node, remappingFunction.apply(old, value), expectedModCount);
+        }
+
+        insert(node, comparison, key, value);
+        return value;
+    }
+
+    // navigation and views, all answered by the whole map view
+
+    @Override
+    public Map.Entry<K, V> firstEntry() {
+        return this.all.firstEntry();
+    }
+
+    @Override
+    public Map.Entry<K, V> lastEntry() {
+        return this.all.lastEntry();
+    }
+
+    @Override
+    public Map.Entry<K, V> pollFirstEntry() {
+        return this.all.pollFirstEntry();
+    }
+
+    @Override
+    public Map.Entry<K, V> pollLastEntry() {
+        return this.all.pollLastEntry();
+    }
+
+    @Override
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return this.all.lowerEntry(key);
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return this.all.lowerKey(key);
+    }
+
+    @Override
+    public Map.Entry<K, V> floorEntry(K key) {
+        return this.all.floorEntry(key);
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return this.all.floorKey(key);
+    }
+
+    @Override
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return this.all.ceilingEntry(key);
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return this.all.ceilingKey(key);
+    }
+
+    @Override
+    public Map.Entry<K, V> higherEntry(K key) {
+        return this.all.higherEntry(key);
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return this.all.higherKey(key);
+    }
+
+    @Override
+    public K firstKey() {
+        return this.all.firstKey();
+    }
+
+    @Override
+    public K lastKey() {
+        return this.all.lastKey();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return this.all.entrySet();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return this.all.navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return this.all.descendingKeySet();
+    }
+
+    @Override
+    public NavigableMap<K, V> descendingMap() {
+        return this.all.descendingMap();
+    }
+
+    @Override
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return this.all.subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        return this.all.headMap(toKey, inclusive);
+    }
+
+    @Override
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        return this.all.tailMap(fromKey, inclusive);
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    // tree walking
+
+    /**
+     * Finds the node holding key.
+     * @param key
+     * @return null if key is not in the map
+     * @throws NullPointerException when key is null
+     */
+    protected N getNode(Object key) throws NullPointerException {
+        K search = checkKey(key);
+        N node = root();
+        while (node != null) {
+            int comparison = this.order.compare(search, node.getKey());
+            if (comparison == 0)
+                return node;
+
+            node = (comparison < 0) ? left(node) : right(node);
+        }
+
+        return null;
+    }
+
+    /**
+     * Walks down towards key.
+     * @param key
+     * @return the node holding key, or else the last node on the way, which is where a
+     *         node for key would be attached. null only for an empty map
+     */
+    private N descend(K key) {
+        N node = root(), last = null;
+        while (node != null) {
+            int comparison = this.order.compare(key, node.getKey());
+            if (comparison == 0)
+                return node;
+
+            last = node;
+            node = (comparison < 0) ? left(node) : right(node);
+        }
+
+        return last;
+    }
+
+    protected N first() {
+        N node = root();
+        if (node != null)
+            while (left(node) != null)
+                node = left(node);
+        return node;
+    }
+
+    protected N last() {
+        N node = root();
+        if (node != null)
+            while (right(node) != null)
+                node = right(node);
+        return node;
+    }
+
+    /**
+     * Returns the node after node in key order, null if node is the last.
+     * @param node
+     */
+    protected N successor(N node) {
+        if (right(node) != null) {
+            node = right(node);
+            while (left(node) != null)
+                node = left(node);
+            return node;
+        }
+
+        N parent = parent(node);
+        while (parent != null && node == right(parent)) {
+            node = parent;
+            parent = parent(parent);
+        }
+        return parent;
+    }
+
+    /**
+     * Returns the node before node in key order, null if node is the first.
+     * @param node
+     */
+    protected N predecessor(N node) {
+        if (left(node) != null) {
+            node = left(node);
+            while (right(node) != null)
+                node = right(node);
+            return node;
+        }
+
+        N parent = parent(node);
+        while (parent != null && node == left(parent)) {
+            node = parent;
+            parent = parent(parent);
+        }
+        return parent;
+    }
+
+    /**
+     * Returns the node with the least key greater than key, or equal to it when
+     * inclusive.
+     * @param key
+     * @param inclusive
+     * @return null if there is none
+     */
+    private N ceiling(K key, boolean inclusive) {
+        N node = root(), best = null;
+        while (node != null) {
+            int comparison = this.order.compare(key, node.getKey());
+            if (comparison == 0 && inclusive)
+                return node;
+
+            if (comparison < 0) {
+                best = node;
+                node = left(node);
+            } else {
+                node = right(node);
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Returns the node with the greatest key less than key, or equal to it when
+     * inclusive.
+     * @param key
+     * @param inclusive
+     * @return null if there is none
+     */
+    private N floor(K key, boolean inclusive) {
+        N node = root(), best = null;
+        while (node != null) {
+            int comparison = this.order.compare(key, node.getKey());
+            if (comparison == 0 && inclusive)
+                return node;
+
+            if (comparison > 0) {
+                best = node;
+                node = right(node);
+            } else {
+                node = left(node);
+            }
+        }
+
+        return best;
+    }
+
+    private N insert(N parent, int comparison, K key, V value) {
+        N node = attach(parent, comparison, key, value);
+        this.size++;
+        this.modCount++;
+        return node;
+    }
+
+    private N delete(N node) {
+        N next = unlink(node);
+        this.size--;
+        this.modCount++;
+        return next;
+    }
+
+    /**
+     * Stores a recomputed value in node, or removes node when it is null.
+     * @param expectedModCount modCount from before the value was computed
+     * @throws ConcurrentModificationException when the map changed while computing
+     */
+    private V replace(N node, V value, int expectedModCount) throws ConcurrentModificationException {
+        if (this.modCount != expectedModCount)
+            throw new ConcurrentModificationException();
+
+        if (value == null)
+            delete(node);
+        else
+            node.setValue(value);
+        return value;
+    }
+
+    private int compare(K key, N node) {
+        return (node == null) ? 0 : this.order.compare(key, node.getKey());
+    }
+
+    @SuppressWarnings("unchecked")
+    private K checkKey(Object key) throws NullPointerException {
+        if (key == null)
+            throw new NullPointerException("Keys can not be null.");
+
+        return (K) key;
+    }
+
+    private static void checkFunction(Object function) throws NullPointerException {
+        if (function == null)
+            throw new NullPointerException("Function can not be null.");
+    }
+
+    private Map.Entry<K, V> export(N node) {
+        return (node == null) ? null : new AbstractMap.SimpleImmutableEntry<K, V>(node);
+    }
+
+    private static <K> K keyOf(Map.Entry<K, ?> node) {
+        return (node == null) ? null : node.getKey();
+    }
+
+    private static <K> K existingKey(Map.Entry<K, ?> node) throws NoSuchElementException {
+        if (node == null)
+            throw new NoSuchElementException();
+
+        return node.getKey();
+    }
+
+    /**
+     * A range of the map, lo to hi, possibly seen backwards. Bounds are absolute, only
+     * the orientation of navigation and iteration flips when descending.
+     */
+    private final class SubMap extends AbstractMap<K, V> implements NavigableMap<K, V> {
+
+        // lower bound, none when fromStart
+        private final boolean fromStart;
+        private final K lo;
+        private final boolean loInclusive;
+
+        // upper bound, none when toEnd
+        private final boolean toEnd;
+        private final K hi;
+        private final boolean hiInclusive;
+
+        // navigates and iterates from hi down to lo
+        private final boolean descending;
+
+        SubMap(boolean fromStart, K lo, boolean loInclusive,
+               boolean toEnd, K hi, boolean hiInclusive, boolean descending)
+        {
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        private boolean tooLow(K key) {
+            if (this.fromStart)
+                return false;
+
+            int comparison = order.compare(key, this.lo);
+            return comparison < 0 || (comparison == 0 && !this.loInclusive);
+        }
+
+        private boolean tooHigh(K key) {
+            if (this.toEnd)
+                return false;
+
+            int comparison = order.compare(key, this.hi);
+            return comparison > 0 || (comparison == 0 && !this.hiInclusive);
+        }
+
+        private boolean inRange(K key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        // a bound of a narrower view may sit on an excluded bound of this one
+        private boolean inRange(K key, boolean inclusive) {
+            if (inclusive)
+                return inRange(key);
+
+            return (this.fromStart || order.compare(key, this.lo) >= 0)
+                && (this.toEnd || order.compare(key, this.hi) <= 0);
+        }
+
+        // lowest and highest nodes in range, in absolute key order
+
+        private N absLowest() {
+            N node = this.fromStart ? first() : ceiling(this.lo, this.loInclusive);
+            return (node == null || tooHigh(node.getKey())) ? null : node;
+        }
+
+        private N absHighest() {
+            N node = this.toEnd ? last() : floor(this.hi, this.hiInclusive);
+            return (node == null || tooLow(node.getKey())) ? null : node;
+        }
+
+        private N absCeiling(K key, boolean inclusive) {
+            if (tooLow(key))
+                return absLowest();
+
+            N node = ceiling(key, inclusive);
+            return (node == null || tooHigh(node.getKey())) ? null : node;
+        }
+
+        private N absFloor(K key, boolean inclusive) {
+            if (tooHigh(key))
+                return absHighest();
+
+            N node = floor(key, inclusive);
+            return (node == null || tooLow(node.getKey())) ? null : node;
+        }
+
+        // the same in the orientation of this view
+
+        private N lowest() {
+            return this.descending ? absHighest() : absLowest();
+        }
+
+        private N highest() {
+            return this.descending ? absLowest() : absHighest();
+        }
+
+        private N ceilingNode(K key, boolean inclusive) {
+            return this.descending ? absFloor(key, inclusive) : absCeiling(key, inclusive);
+        }
+
+        private N floorNode(K key, boolean inclusive) {
+            return this.descending ? absCeiling(key, inclusive) : absFloor(key, inclusive);
+        }
+
+        /**
+         * Returns the node after node in this view, null past its end.
+         */
+        private N next(N node) {
+            if (this.descending) {
+                node = predecessor(node);
+                return (node == null || tooLow(node.getKey())) ? null : node;
+            }
+
+            node = successor(node);
+            return (node == null || tooHigh(node.getKey())) ? null : node;
+        }
+
+        private boolean isWhole() {
+            return this.fromStart && this.toEnd;
+        }
+
+        private K checkRange(K key) throws IllegalArgumentException {
+            if (!inRange(checkKey(key)))
+                throw new IllegalArgumentException("Key out of range.");
+            return key;
+        }
+
+        @Override
+        public int size() {
+            if (isWhole())
+                return AbstractTreeMap.this.size;
+
+            int count = 0;
+            for (N node = lowest(); node != null; node = next(node))
+                count++;
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return lowest() == null;
+        }
+
+        @Override
+        public void clear() {
+            if (isWhole()) {
+                AbstractTreeMap.this.clear();
+                return;
+            }
+
+            for (Iterator<Map.Entry<K, V>> iterator = entrySet().iterator(); iterator.hasNext();) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            Comparator<? super K> comparator = AbstractTreeMap.this.comparator();
+            return this.descending ? Collections.reverseOrder(comparator) : comparator;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return inRange(checkKey(key)) && AbstractTreeMap.this.containsKey(key);
+        }
+
+        @Override
+        public V get(Object key) {
+            return inRange(checkKey(key)) ? AbstractTreeMap.this.get(key) : null;
+        }
+
+        @Override
+        public V remove(Object key) {
+            return inRange(checkKey(key)) ? AbstractTreeMap.this.remove(key) : null;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            return AbstractTreeMap.this.put(checkRange(key), value);
+        }
+
+        @Override
+        public V putIfAbsent(K key, V value) {
+            return AbstractTreeMap.this.putIfAbsent(checkRange(key), value);
+        }
+
+        @Override
+        public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+            return AbstractTreeMap.this.computeIfAbsent(checkRange(key), mappingFunction);
+        }
+
+        @Override
+        public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            return inRange(checkKey(key)) ? AbstractTreeMap.this.computeIfPresent(key, remappingFunction) : null;
+        }
+
+        @Override
+        public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            return AbstractTreeMap.this.compute(checkRange(key), remappingFunction);
+        }
+
+        @Override
+        public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+            return AbstractTreeMap.this.merge(checkRange(key), value, remappingFunction);
+        }
+
+        @Override
+        public Map.Entry<K, V> firstEntry() {
+            return export(lowest());
+        }
+
+        @Override
+        public Map.Entry<K, V> lastEntry() {
+            return export(highest());
+        }
+
+        @Override
+        public Map.Entry<K, V> pollFirstEntry() {
+            N node = lowest();
+            Map.Entry<K, V> entry = export(node);
+            if (node != null)
+                delete(node);
+            return entry;
+        }
+
+        @Override
+        public Map.Entry<K, V> pollLastEntry() {
+            N node = highest();
+            Map.Entry<K, V> entry = export(node);
+            if (node != null)
+                delete(node);
+            return entry;
+        }
+
+        @Override
+        public Map.Entry<K, V> lowerEntry(K key) {
+            return export(floorNode(checkKey(key), false));
+        }
+
+        @Override
+        public K lowerKey(K key) {
+            return keyOf(floorNode(checkKey(key), false));
+        }
+
+        @Override
+        public Map.Entry<K, V> floorEntry(K key) {
+            return export(floorNode(checkKey(key), true));
+        }
+
+        @Override
+        public K floorKey(K key) {
+            return keyOf(floorNode(checkKey(key), true));
+        }
+
+        @Override
+        public Map.Entry<K, V> ceilingEntry(K key) {
+            return export(ceilingNode(checkKey(key), true));
+        }
+
+        @Override
+        public K ceilingKey(K key) {
+            return keyOf(ceilingNode(checkKey(key), true));
+        }
+
+        @Override
+        public Map.Entry<K, V> higherEntry(K key) {
+            return export(ceilingNode(checkKey(key), false));
+        }
+
+        @Override
+        public K higherKey(K key) {
+            return keyOf(ceilingNode(checkKey(key), false));
+        }
+
+        @Override
+        public K firstKey() {
+            return existingKey(lowest());
+        }
+
+        @Override
+        public K lastKey() {
+            return existingKey(highest());
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new EntrySet(this);
+        }
+
+        @Override
+        public Set<K> keySet() {
+            return navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<K> navigableKeySet() {
+            return new KeySet<K>(this);
+        }
+
+        @Override
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        @Override
+        public NavigableMap<K, V> descendingMap() {
+            return new SubMap(this.fromStart, this.lo, this.loInclusive,
+                              this.toEnd, this.hi, this.hiInclusive, !this.descending);
+        }
+
+        @Override
+        public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+            checkKey(fromKey);
+            checkKey(toKey);
+            if (this.descending)
+                return narrow(false, toKey, toInclusive, false, fromKey, fromInclusive);
+            return narrow(false, fromKey, fromInclusive, false, toKey, toInclusive);
+        }
+
+        @Override
+        public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+            checkKey(toKey);
+            if (this.descending)
+                return narrow(false, toKey, inclusive, true, null, false);
+            return narrow(true, null, false, false, toKey, inclusive);
+        }
+
+        @Override
+        public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+            checkKey(fromKey);
+            if (this.descending)
+                return narrow(true, null, false, false, fromKey, inclusive);
+            return narrow(false, fromKey, inclusive, true, null, false);
+        }
+
+        @Override
+        public SortedMap<K, V> subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> tailMap(K fromKey) {
+            return tailMap(fromKey, true);
+        }
+
+        /**
+         * Returns the part of this view between the given absolute bounds, an open
+         * bound keeps the bound of this view.
+         * @throws IllegalArgumentException when a bound is outside of this view or
+         *         lo is above hi
+         */
+        private SubMap narrow(boolean fromStart, K lo, boolean loInclusive,
+                              boolean toEnd, K hi, boolean hiInclusive)
+            throws IllegalArgumentException
+        {
+            if (!fromStart && !toEnd && order.compare(lo, hi) > 0)
+                throw new IllegalArgumentException("fromKey is past toKey.");
+
+            if (!fromStart && !inRange(lo, loInclusive))
+                throw new IllegalArgumentException("fromKey out of range.");
+
+            if (!toEnd && !inRange(hi, hiInclusive))
+                throw new IllegalArgumentException("toKey out of range.");
+
+            if (fromStart) {
+                fromStart = this.fromStart;
+                lo = this.lo;
+                loInclusive = this.loInclusive;
+            }
+
+            if (toEnd) {
+                toEnd = this.toEnd;
+                hi = this.hi;
+                hiInclusive = this.hiInclusive;
+            }
+
+            return new SubMap(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, this.descending);
+        }
+    }
+
+    /**
+     * Entries of a view, backed by the tree.
+     */
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        private final SubMap view;
+
+        EntrySet(SubMap view) {
+            this.view = view;
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator(this.view);
+        }
+
+        @Override
+        public int size() {
+            return this.view.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return this.view.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            this.view.clear();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return find(o) != null;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            N node = find(o);
+            if (node == null)
+                return false;
+
+            delete(node);
+            return true;
+        }
+
+        // the node of the view matching entry o, key and value
+        private N find(Object o) {
+            if (!(o instanceof Map.Entry))
+                return null;
+
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (entry.getKey() == null || !this.view.inRange(checkKey(entry.getKey())))
+                return null;
+
+            N node = getNode(entry.getKey());
+            return (node != null && Objects.equals(node.getValue(), entry.getValue())) ? node : null;
+        }
+    }
+
+    /**
+     * Walks a view in its order.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+        private final SubMap view;
+        private N next;
+        private N lastReturned;
+        private int expectedModCount;
+
+        EntryIterator(SubMap view) {
+            this.view = view;
+            this.next = view.lowest();
+            this.expectedModCount = modCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (this.next == null)
+                throw new NoSuchElementException();
+
+            if (modCount != this.expectedModCount)
+                throw new ConcurrentModificationException();
+
+            this.lastReturned = this.next;
+            this.next = this.view.next(this.next);
+            return this.lastReturned;
+        }
+
+        @Override
+        public void remove() {
+            if (this.lastReturned == null)
+                throw new IllegalStateException();
+
+            if (modCount != this.expectedModCount)
+                throw new ConcurrentModificationException();
+
+            // going up, the next entry may have moved into the removed node
+            N holder = delete(this.lastReturned);
+            if (!this.view.descending && this.next != null)
+                this.next = holder;
+
+            this.lastReturned = null;
+            this.expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * Keys of a map, every call forwarded to it.
+     */
+    private static final class KeySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+
+        private final NavigableMap<E, ?> map;
+
+        KeySet(NavigableMap<E, ?> map) {
+            this.map = map;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            Iterator<? extends Map.Entry<E, ?>> entries = this.map.entrySet().iterator();
+            return new Iterator<E>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public E next() {
+                    return entries.next().getKey();
+                }
+
+                @Override
+                public void remove() {
+                    entries.remove();
+                }
+            };
+        }
+
+        @Override
+        public Iterator<E> descendingIterator() {
+            return descendingSet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return this.map.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return this.map.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return this.map.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!this.map.containsKey(o))
+                return false;
+
+            this.map.remove(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            this.map.clear();
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return this.map.comparator();
+        }
+
+        @Override
+        public E first() {
+            return this.map.firstKey();
+        }
+
+        @Override
+        public E last() {
+            return this.map.lastKey();
+        }
+
+        @Override
+        public E lower(E e) {
+            return this.map.lowerKey(e);
+        }
+
+        @Override
+        public E floor(E e) {
+            return this.map.floorKey(e);
+        }
+
+        @Override
+        public E ceiling(E e) {
+            return this.map.ceilingKey(e);
+        }
+
+        @Override
+        public E higher(E e) {
+            return this.map.higherKey(e);
+        }
+
+        @Override
+        public E pollFirst() {
+            return keyOf(this.map.pollFirstEntry());
+        }
+
+        @Override
+        public E pollLast() {
+            return keyOf(this.map.pollLastEntry());
+        }
+
+        @Override
+        public NavigableSet<E> descendingSet() {
+            return new KeySet<E>(this.map.descendingMap());
+        }
+
+        @Override
+        public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+            return new KeySet<E>(this.map.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+
+        @Override
+        public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+            return new KeySet<E>(this.map.headMap(toElement, inclusive));
+        }
+
+        @Override
+        public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+            return new KeySet<E>(this.map.tailMap(fromElement, inclusive));
+        }
+
+        @Override
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<E> headSet(E toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<E> tailSet(E fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package Benchmarks;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import AVLTree.AVLTree;
+import BinarySearchTree.BinarySearchTree;
+import RedBlackTree.RedBlackTree;
+
+/**
+ * The trees being compared, each behind the same small interface. Every benchmark
+ * fork only ever loads one of them, so the calls through the interface stay
+ * monomorphic and inline.
+ * @author Matthew Smith
+ */
+public enum Implementation {
+
+    BINARY_SEARCH_TREE {
+        @Override
+        SortedCollection create() {
+            BinarySearchTree<Long> tree = new BinarySearchTree<Long>();
+            return new SortedCollection() {
+                public void insert(Long key) { tree.insert(key); }
+                public boolean contains(Long key) { return tree.contains(key); }
+                public void delete(Long key) { tree.delete(key); }
+                public Iterable<Long> keys() { return tree; }
+            };
+        }
+    },
+
+    AVL_TREE {
+        @Override
+        SortedCollection create() {
+            AVLTree<Long> tree = new AVLTree<Long>();
+            return new SortedCollection() {
+                public void insert(Long key) { tree.insert(key); }
+                public boolean contains(Long key) { return tree.contains(key); }
+                public void delete(Long key) { tree.delete(key); }
+                public Iterable<Long> keys() { return tree; }
+            };
+        }
+    },
+
+    RED_BLACK_TREE {
+        @Override
+        SortedCollection create() {
+            RedBlackTree<Long> tree = new RedBlackTree<Long>();
+            return new SortedCollection() {
+                public void insert(Long key) { tree.insert(key); }
+                public boolean contains(Long key) { return tree.contains(key); }
+                public void delete(Long key) { tree.delete(key); }
+                public Iterable<Long> keys() { return tree; }
+            };
+        }
+    },
+
+    /**
+     * The baseline. The trees keep duplicates, so the map counts them to hold the
+     * same multiset, and its keys are repeated as often as they occur.
+     */
+    TREE_MAP {
+        @Override
+        SortedCollection create() {
+            TreeMap<Long, Integer> map = new TreeMap<Long, Integer>();
+            return new SortedCollection() {
+                public void insert(Long key) { map.merge(key, 1, Integer::sum); }
+                public boolean contains(Long key) { return map.containsKey(key); }
+                public void delete(Long key) { map.computeIfPresent(key, (k, count) -> (count == 1) ? null : count - 1); }
+                public Iterable<Long> keys() { return () -> new Occurrences(map); }
+            };
+        }
+    };
+
+    abstract SortedCollection create();
+
+    /**
+     * Walks the keys of a counting map, each one as many times as its count, so the
+     * baseline visits as many elements as the trees do.
+     */
+    private static final class Occurrences implements Iterator<Long> {
+        private final Iterator<Map.Entry<Long, Integer>> entries;
+        private Long key;
+        // occurrences of key still to be returned
+        private int remaining;
+
+        Occurrences(TreeMap<Long, Integer> map) {
+            this.entries = map.entrySet().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.remaining > 0 || this.entries.hasNext();
+        }
+
+        @Override
+        public Long next() {
+            if (this.remaining == 0) {
+                if (!this.entries.hasNext())
+                    throw new NoSuchElementException();
+
+                Map.Entry<Long, Integer> entry = this.entries.next();
+                this.key = entry.getKey();
+                this.remaining = entry.getValue();
+            }
+
+            this.remaining--;
+            return this.key;
+        }
+    }
+
+    /**
+     * What the benchmarks need from a tree.
+     */
+    interface SortedCollection {
+        void insert(Long key);
+
+        boolean contains(Long key);
+
+        void delete(Long key);
+
+        Iterable<Long> keys();
+    }
+}
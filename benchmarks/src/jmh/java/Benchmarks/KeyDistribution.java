@@ -0,0 +1,94 @@
+package Benchmarks;
+
+import java.util.SplittableRandom;
+
+/**
+ * How the keys of a benchmark are drawn.
+ * @author Matthew Smith
+ */
+public enum KeyDistribution {
+
+    /**
+     * Uniform over all longs, so practically no repeats.
+     */
+    RANDOM {
+        @Override
+        long[] keys(int count, SplittableRandom random) {
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++)
+                keys[i] = random.nextLong();
+            return keys;
+        }
+    },
+
+    /**
+     * 0, 1, 2 and so on, the worst case for an unbalanced tree.
+     */
+    SORTED {
+        @Override
+        long[] keys(int count, SplittableRandom random) {
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++)
+                keys[i] = i;
+            return keys;
+        }
+    },
+
+    /**
+     * Zipf with exponent 0.99 over count distinct keys, a few keys take most of the
+     * draws like hot rows in a table. The ranks are scrambled so the hot keys are
+     * not also the smallest.
+     */
+    ZIPFIAN {
+        @Override
+        long[] keys(int count, SplittableRandom random) {
+            double theta = 0.99;
+            double zetan = 0;
+            for (int i = 1; i <= count; i++)
+                zetan += 1 / Math.pow(i, theta);
+
+            // Gray et al., "Quickly generating billion-record synthetic databases"
+            double alpha = 1 / (1 - theta);
+            double zeta2 = 1 + Math.pow(0.5, theta);
+            double eta = (1 - Math.pow(2.0 / count, 1 - theta)) / (1 - zeta2 / zetan);
+
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                double u = random.nextDouble();
+                double uz = u * zetan;
+                long rank;
+                if (uz < 1)
+                    rank = 0;
+                else if (uz < zeta2)
+                    rank = 1;
+                else
+                    rank = Math.min(count - 1, (long) (count * Math.pow(eta * u - eta + 1, alpha)));
+
+                keys[i] = rank * 0x9E3779B97F4A7C15L;
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * Uniform over count / 100 distinct keys, every key repeats about 100 times.
+     */
+    DUPLICATES {
+        @Override
+        long[] keys(int count, SplittableRandom random) {
+            int distinct = Math.max(1, count / 100);
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++)
+                keys[i] = random.nextInt(distinct) * 0x9E3779B97F4A7C15L;
+            return keys;
+        }
+    };
+
+    /**
+     * Draws count keys.
+     * @param count
+     * @param random
+     * @return
+     */
+    abstract long[] keys(int count, SplittableRandom random);
+}
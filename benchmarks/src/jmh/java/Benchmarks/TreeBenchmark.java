@@ -0,0 +1,143 @@
+package Benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the trees with java.util.TreeMap. Every combination of implementation,
+ * key distribution and size is a separate trial in its own fork. Run it with
+ * gradle :benchmarks:jmh, the gc profiler adds the allocation rate per operation
+ * (gc.alloc.rate.norm) to the results.
+ * @author Matthew Smith
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+public class TreeBenchmark {
+
+    // how many probe keys are cycled through, a power of two
+    private static final int PROBES = 1 << 16;
+
+    // the unbalanced tree turns into a list on sorted keys, past this size just
+    // building it takes hours
+    private static final int DEGENERATE_LIMIT = 100_000;
+
+    /**
+     * A tree built from size keys of the distribution, plus keys to probe it with.
+     */
+    @State(Scope.Thread)
+    public static class TreeState {
+        @Param({ "BINARY_SEARCH_TREE", "AVL_TREE", "RED_BLACK_TREE", "TREE_MAP" })
+        public Implementation implementation;
+
+        @Param({ "RANDOM", "SORTED", "ZIPFIAN", "DUPLICATES" })
+        public KeyDistribution distribution;
+
+        @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+        public int size;
+
+        Long[] keys;
+        Long[] probes;
+        Implementation.SortedCollection tree;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            if (this.implementation == Implementation.BINARY_SEARCH_TREE
+                    && this.distribution == KeyDistribution.SORTED && this.size > DEGENERATE_LIMIT)
+                throw new IllegalStateException("Skipped, BinarySearchTree is quadratic on sorted keys.");
+
+            SplittableRandom random = new SplittableRandom(18);
+            long[] drawn = this.distribution.keys(this.size, random);
+            this.keys = new Long[this.size];
+            for (int i = 0; i < this.size; i++)
+                this.keys[i] = drawn[i];
+
+            this.tree = build(this.implementation, this.keys);
+
+            // probes are keys in the tree, drawn as often as they occur
+            this.probes = new Long[PROBES];
+            for (int i = 0; i < PROBES; i++)
+                this.probes[i] = this.keys[random.nextInt(this.size)];
+            this.next = 0;
+        }
+
+        Long nextProbe() {
+            return this.probes[this.next++ & (PROBES - 1)];
+        }
+    }
+
+    /**
+     * A fresh tree for every call of deleteAll(), built outside the measurement.
+     */
+    @State(Scope.Thread)
+    public static class FullTree {
+        Implementation.SortedCollection tree;
+
+        @Setup(Level.Invocation)
+        public void setUp(TreeState state) {
+            this.tree = build(state.implementation, state.keys);
+        }
+    }
+
+    static Implementation.SortedCollection build(Implementation implementation, Long[] keys) {
+        Implementation.SortedCollection tree = implementation.create();
+        for (Long key : keys)
+            tree.insert(key);
+        return tree;
+    }
+
+    /**
+     * Looks up one key that is in the tree.
+     */
+    @Benchmark
+    public boolean contains(TreeState state) {
+        return state.tree.contains(state.nextProbe());
+    }
+
+    /**
+     * Inserts one key and deletes it again, so the tree keeps its size.
+     */
+    @Benchmark
+    public void insertDelete(TreeState state) {
+        Long key = state.nextProbe();
+        state.tree.insert(key);
+        state.tree.delete(key);
+    }
+
+    /**
+     * Builds a whole tree by inserting every key in drawing order.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object insertAll(TreeState state) {
+        return build(state.implementation, state.keys);
+    }
+
+    /**
+     * Deletes every key from a full tree in drawing order.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object deleteAll(TreeState state, FullTree full) {
+        for (Long key : state.keys)
+            full.tree.delete(key);
+        return full.tree;
+    }
+
+    /**
+     * Walks the whole tree in order.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long iterate(TreeState state) {
+        long sum = 0;
+        for (Long key : state.tree.keys())
+            sum += key;
+        return sum;
+    }
+}